@@ -0,0 +1,89 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * SyntheticData builds deterministic users and posts for the benchmarks. Attribute values are drawn
+ * from a small pool so that a realistic fraction of users share each attribute.
+ */
+public class SyntheticData {
+    public static final int VALUES_PER_ATTRIBUTE = 4;
+    private static final long SEED = 42L;
+    
+    private final Random random = new Random(SEED);
+    
+    /**
+     * Creates a user with the given number of attributes.
+     * 
+     * @param id
+     * @param attributesPerUser
+     * @return user profile
+     */
+    public UserProfile createUser(String id, int attributesPerUser) {
+        return createUser(id, attributesPerUser, VALUES_PER_ATTRIBUTE);
+    }
+    
+    /**
+     * Creates a user with the given number of attributes, each drawn from the given number of
+     * values.
+     * 
+     * @param id
+     * @param attributesPerUser
+     * @param valuesPerAttribute
+     * @return user profile
+     */
+    public UserProfile createUser(String id, int attributesPerUser, int valuesPerAttribute) {
+        UserProfile user = new UserProfile(id);
+        for (int a = 0; a < attributesPerUser; a++) {
+            user.setAttribute("attribute" + a, "value" + random.nextInt(valuesPerAttribute));
+        }
+        return user;
+    }
+    
+    /**
+     * Creates the given number of users, with ids user0 through user{count - 1}.
+     * 
+     * @param count
+     * @param attributesPerUser
+     * @return user profiles
+     */
+    public List<UserProfile> createUsers(int count, int attributesPerUser) {
+        return createUsers(count, attributesPerUser, VALUES_PER_ATTRIBUTE);
+    }
+    
+    /**
+     * Creates the given number of users, with ids user0 through user{count - 1} and attributes
+     * drawn from the given number of values.
+     * 
+     * @param count
+     * @param attributesPerUser
+     * @param valuesPerAttribute
+     * @return user profiles
+     */
+    public List<UserProfile> createUsers(int count, int attributesPerUser, int valuesPerAttribute) {
+        List<UserProfile> users = new ArrayList<UserProfile>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(createUser("user" + i, attributesPerUser, valuesPerAttribute));
+        }
+        return users;
+    }
+    
+    /**
+     * Creates a post of roughly tweet length for the given user.
+     * 
+     * @param user
+     * @return post
+     */
+    public Post createPost(String user) {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 120) {
+            content.append("word").append(random.nextInt(1000)).append(' ');
+        }
+        return new Post(user, content.toString());
+    }
+}
@@ -0,0 +1,90 @@
+package data.proxy;
+
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.matching.WeightedMatchUserMatcher;
+import benchmark.SyntheticData;
+import data.structure.ScoredProfile;
+import data.structure.UserProfile;
+
+/**
+ * Compares the WAND top-K query on AttributeIndex with scoring every user and keeping the best K
+ * in a heap. With few values per attribute nearly everyone shares something with the primary user,
+ * which is where skipping pays off most.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeIndexBenchmark {
+    private static final int K = 10;
+    
+    @Param({ "10000", "100000" })
+    public int userCount;
+    
+    @Param({ "4", "100" })
+    public int valuesPerAttribute;
+    
+    private AttributeIndex index;
+    private WeightedMatchUserMatcher matcher;
+    private List<UserProfile> users;
+    private int next;
+    
+    /**
+     * Indexes synthetic users with 8 attributes each.
+     */
+    @Setup
+    public void setup() {
+        users = new SyntheticData().createUsers(userCount, 8, valuesPerAttribute);
+        index = new AttributeIndex();
+        index.updateAll(users);
+        matcher = new WeightedMatchUserMatcher(index, 0);
+    }
+    
+    /**
+     * Finds the top matches for the next primary user with WAND.
+     * 
+     * @return best matches
+     */
+    @Benchmark
+    public List<ScoredProfile> wand() {
+        return index.getTopMatches(users.get(next++ % userCount), K, 0);
+    }
+    
+    /**
+     * Finds the top matches for the next primary user by scoring everyone.
+     * 
+     * @return best matches, worst first
+     */
+    @Benchmark
+    public PriorityQueue<Double> exhaustive() {
+        UserProfile primary = users.get(next++ % userCount);
+        PriorityQueue<Double> best = new PriorityQueue<Double>();
+        for (UserProfile candidate : users) {
+            double score = matcher.getScore(primary, candidate);
+            if (candidate != primary && score > 0) {
+                best.add(score);
+                if (best.size() > K) {
+                    best.poll();
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,115 @@
+package data.proxy;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.SyntheticData;
+import data.structure.UserProfile;
+
+/**
+ * Measures the cost of keeping AttributeStatistics current and of asking it for an estimate, and
+ * compares finding the users with one attribute value through an IndexedUserProfileStore's index
+ * against scanning every user, for a value a given share of the users have.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeStatisticsBenchmark {
+    private static final int USERS = 100000;
+    private static final int ATTRIBUTES_PER_USER = 8;
+    
+    @Param({ "0.01", "0.25", "0.9" })
+    public double share;
+    
+    private List<UserProfile> users;
+    private AttributeStatistics statistics;
+    private IndexedUserProfileStore store;
+    private Map<String, String> required;
+    private Predicate<UserProfile> predicate;
+    private final Random random = new Random(11);
+    
+    /**
+     * Creates the users, a share of whom have language=common, and counts and indexes them.
+     */
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData();
+        users = data.createUsers(USERS, ATTRIBUTES_PER_USER);
+        for (UserProfile user : users) {
+            user.setAttribute("language", random.nextDouble() < share ? "common" : "other"
+                    + random.nextInt(1000));
+        }
+        statistics = new AttributeStatistics();
+        statistics.updateAll(users);
+        store = new IndexedUserProfileStore(new LocalTransientUserProfileStore());
+        store.writeAll(users);
+        required = Collections.singletonMap("language", "common");
+        predicate = new Predicate<UserProfile>() {
+            public boolean test(UserProfile candidate) {
+                return "common".equals(candidate.getAttribute("language"))
+                        && candidate.getAttribute("attribute0") != null;
+            }
+        };
+    }
+    
+    /**
+     * Changes one attribute of a user and recounts them.
+     */
+    @Benchmark
+    public void update() {
+        UserProfile user = users.get(random.nextInt(USERS));
+        user.setAttribute("attribute" + random.nextInt(ATTRIBUTES_PER_USER), "value"
+                + random.nextInt(100));
+        statistics.update(user);
+    }
+    
+    /**
+     * Estimates the share of users with the value.
+     * 
+     * @return selectivity
+     */
+    @Benchmark
+    public double estimateSelectivity() {
+        return statistics.estimateSelectivity(required);
+    }
+    
+    /**
+     * Finds the users with the value from the index.
+     * 
+     * @return matching users
+     */
+    @Benchmark
+    public Collection<UserProfile> indexLookup() {
+        return store.getUsersForPredicate(predicate, required);
+    }
+    
+    /**
+     * Finds the users with the value by scanning every user.
+     * 
+     * @return matching users
+     */
+    @Benchmark
+    public Collection<UserProfile> scan() {
+        return store.getUsersForPredicate(predicate);
+    }
+}
@@ -0,0 +1,116 @@
+package data.proxy;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import benchmark.SyntheticData;
+import data.structure.UserProfile;
+
+/**
+ * Measures getProfile() for users who exist and users who do not, straight from a store and
+ * through a BloomGuardedUserProfileStore. The store burns CPU on every lookup to stand in for the
+ * round trip to a remote store such as DynamoDB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BloomGuardedUserProfileStoreBenchmark {
+    private static final int USERS = 100000;
+    
+    @Param({ "0", "1000" })
+    public int lookupTokens;
+    
+    private UserProfileStore store;
+    private BloomGuardedUserProfileStore guarded;
+    private List<UserProfile> users;
+    private int next;
+    
+    /**
+     * Fills the store with synthetic users and builds the guard's filter.
+     */
+    @Setup
+    public void setup() {
+        final UserProfileStore local = new LocalTransientUserProfileStore();
+        users = new SyntheticData().createUsers(USERS, 4);
+        local.writeAll(users);
+        store = new UserProfileStore() {
+            public void write(UserProfile profile) {
+                local.write(profile);
+            }
+            
+            public void delete(String id) {
+                local.delete(id);
+            }
+            
+            public UserProfile getProfile(String id) {
+                Blackhole.consumeCPU(lookupTokens);
+                return local.getProfile(id);
+            }
+            
+            public Collection<UserProfile> getUsersForPredicate(
+                    Predicate<UserProfile> predicate) {
+                return local.getUsersForPredicate(predicate);
+            }
+        };
+        guarded = new BloomGuardedUserProfileStore(store);
+        guarded.rebuild();
+    }
+    
+    /**
+     * Looks up a user who was never stored, straight from the store.
+     * 
+     * @return null
+     */
+    @Benchmark
+    public UserProfile missDirect() {
+        return store.getProfile("new" + next++);
+    }
+    
+    /**
+     * Looks up a user who was never stored, through the guard.
+     * 
+     * @return null
+     */
+    @Benchmark
+    public UserProfile missGuarded() {
+        return guarded.getProfile("new" + next++);
+    }
+    
+    /**
+     * Looks up a stored user, straight from the store.
+     * 
+     * @return the user's profile
+     */
+    @Benchmark
+    public UserProfile hitDirect() {
+        return store.getProfile(users.get(next++ % USERS).getId());
+    }
+    
+    /**
+     * Looks up a stored user, through the guard.
+     * 
+     * @return the user's profile
+     */
+    @Benchmark
+    public UserProfile hitGuarded() {
+        return guarded.getProfile(users.get(next++ % USERS).getId());
+    }
+}
@@ -0,0 +1,122 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.matching.PercentMatchUserMatcher;
+import data.structure.UserProfile;
+
+/**
+ * Compares ways of finding a mainstream user's matches when most users share their language and
+ * country: scanning every user, reading the posting lists of their values through
+ * AttributeIndex.getCandidates(), and the same with hot values sampled. A threshold of 0.25 needs
+ * one of the four values shared, so every list must be read; 0.5 needs two, so the commonest list
+ * is skipped.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotValueBenchmark {
+    private static final int SAMPLE_SIZE = 1000;
+    
+    @Param({ "100000" })
+    public int userCount;
+    
+    @Param({ "0.25", "0.5" })
+    public double threshold;
+    
+    private LocalTransientUserProfileStore userStore;
+    private AttributeIndex index;
+    private AttributeIndex sampledIndex;
+    private PercentMatchUserMatcher matcher;
+    private List<UserProfile> mainstream;
+    private int next;
+    
+    /**
+     * Stores users of whom 90% speak english and 80% live in the us, with 100 cities and 1000
+     * hobbies spread evenly.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        List<UserProfile> users = new ArrayList<UserProfile>(userCount);
+        mainstream = new ArrayList<UserProfile>();
+        for (int i = 0; i < userCount; i++) {
+            UserProfile user = new UserProfile("user" + i);
+            user.setAttribute("language", random.nextInt(10) < 9 ? "english" : "other"
+                    + random.nextInt(20));
+            user.setAttribute("country", random.nextInt(10) < 8 ? "us" : "other" + random
+                    .nextInt(50));
+            user.setAttribute("city", "city" + random.nextInt(100));
+            user.setAttribute("hobby", "hobby" + random.nextInt(1000));
+            users.add(user);
+            if (user.getAttribute("language").equals("english") && user.getAttribute("country")
+                    .equals("us")) {
+                mainstream.add(user);
+            }
+        }
+        userStore = new LocalTransientUserProfileStore();
+        userStore.writeAll(users);
+        index = new AttributeIndex();
+        index.updateAll(users);
+        sampledIndex = new AttributeIndex().withHotValueSampling(SAMPLE_SIZE);
+        sampledIndex.updateAll(users);
+        matcher = new PercentMatchUserMatcher(threshold);
+    }
+    
+    /**
+     * Tests every stored user against the next mainstream user.
+     * 
+     * @return matches
+     */
+    @Benchmark
+    public Collection<UserProfile> scan() {
+        final UserProfile primary = mainstream.get(next++ % mainstream.size());
+        return userStore.getUsersForPredicate(new Predicate<UserProfile>() {
+            public boolean test(UserProfile candidate) {
+                return matcher.matches(primary, candidate);
+            }
+        });
+    }
+    
+    /**
+     * Finds the next mainstream user's candidates, reading hot lists whole where needed.
+     * 
+     * @return candidates
+     */
+    @Benchmark
+    public List<UserProfile> candidates() {
+        UserProfile primary = mainstream.get(next++ % mainstream.size());
+        return index.getCandidates(primary, matcher.getMinimumSharedAttributes(primary));
+    }
+    
+    /**
+     * Finds the next mainstream user's candidates, reading hot lists from their samples.
+     * 
+     * @return candidates
+     */
+    @Benchmark
+    public List<UserProfile> sampledCandidates() {
+        UserProfile primary = mainstream.get(next++ % mainstream.size());
+        return sampledIndex.getCandidates(primary, matcher.getMinimumSharedAttributes(primary));
+    }
+}
@@ -0,0 +1,78 @@
+package data.proxy;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.matching.PercentMatchUserMatcher;
+import server.matching.UserMatcher;
+import benchmark.SyntheticData;
+import data.structure.UserProfile;
+
+/**
+ * Measures getUsersForPredicate() on LocalTransientUserProfileStore with a matcher-backed
+ * predicate, as used by FeedBuilder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalTransientUserProfileStoreBenchmark {
+    
+    @Param({ "1000", "10000", "100000" })
+    public int userCount;
+    
+    @Param({ "4", "16" })
+    public int attributesPerUser;
+    
+    @Param({ "0.5", "1.0" })
+    public double threshold;
+    
+    private UserProfileStore store;
+    private UserMatcher matcher;
+    private List<UserProfile> users;
+    private int next;
+    
+    /**
+     * Fills the store with synthetic users.
+     */
+    @Setup
+    public void setup() {
+        store = new LocalTransientUserProfileStore();
+        matcher = new PercentMatchUserMatcher(threshold);
+        users = new SyntheticData().createUsers(userCount, attributesPerUser);
+        for (UserProfile user : users) {
+            store.write(user);
+        }
+    }
+    
+    /**
+     * Finds every user matching the next primary user.
+     * 
+     * @return matching users
+     */
+    @Benchmark
+    public Collection<UserProfile> getUsersForPredicate() {
+        final UserProfile primary = users.get(next++ % userCount);
+        return store.getUsersForPredicate(new Predicate<UserProfile>() {
+            public boolean test(UserProfile candidate) {
+                return matcher.matches(primary, candidate);
+            }
+        });
+    }
+}
@@ -0,0 +1,90 @@
+package data.proxy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.SyntheticData;
+import data.structure.Post;
+
+/**
+ * Measures reading a user's posts through a selective PostFilter, answered from the store's time
+ * index and keyword postings, against testing the same filter as an opaque predicate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostFilterBenchmark {
+    private static final int USER_COUNT = 100;
+    
+    @Param({ "100", "1000", "10000" })
+    public int postsPerUser;
+    
+    @Param({ "recent", "keyword" })
+    public String query;
+    
+    private PostStore store;
+    private PostFilter filter;
+    private int next;
+    
+    /**
+     * Fills the store, oldest posts first, and creates the filter. A recent query reads the
+     * newest tenth of each user's posts; a keyword query reads the posts containing one word.
+     * Every user is read once so that the keyword postings are built before measuring.
+     */
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData();
+        store = new PostStore();
+        for (int p = 0; p < postsPerUser; p++) {
+            for (int u = 0; u < USER_COUNT; u++) {
+                Post post = data.createPost("user" + u);
+                store.write(new Post(post.getUser(), post.getContent(), p));
+            }
+        }
+        if ("recent".equals(query)) {
+            filter = PostFilter.all().withTimeRange(postsPerUser - postsPerUser / 10,
+                    postsPerUser);
+        } else {
+            filter = PostFilter.all().withKeyword("word7");
+        }
+        for (int u = 0; u < USER_COUNT; u++) {
+            store.getPostsByUser("user" + u, filter);
+        }
+    }
+    
+    /**
+     * Reads the next user's posts through the filter.
+     * 
+     * @return accepted posts
+     */
+    @Benchmark
+    public List<Post> indexed() {
+        return store.getPostsByUser("user" + (next++ % USER_COUNT), filter);
+    }
+    
+    /**
+     * Reads the next user's posts by testing the filter against every one of them.
+     * 
+     * @return accepted posts
+     */
+    @Benchmark
+    public List<Post> scanned() {
+        return store.getPostsByUser("user" + (next++ % USER_COUNT), (Predicate<Post>) filter);
+    }
+}
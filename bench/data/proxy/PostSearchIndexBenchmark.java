@@ -0,0 +1,84 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.SyntheticData;
+import data.structure.Post;
+
+/**
+ * Measures indexing one more post into a PostSearchIndex, and searching it for the newest 20
+ * posts containing one or two words. Every synthetic word appears in roughly 1.5% of posts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostSearchIndexBenchmark {
+    private static final int POOL_SIZE = 1024;
+    
+    @Param({ "100000", "1000000" })
+    public int postCount;
+    
+    @Param({ "word7", "word7 word8", "word7 word8 word9" })
+    public String query;
+    
+    private PostSearchIndex index;
+    private List<Post> newPosts;
+    private int next;
+    
+    /**
+     * Fills the index.
+     */
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData();
+        index = new PostSearchIndex();
+        List<Post> batch = new ArrayList<Post>(10000);
+        for (int i = 0; i < postCount; i++) {
+            batch.add(data.createPost("user" + (i % 10000)));
+            if (batch.size() == 10000) {
+                index.indexAll(batch);
+                batch.clear();
+            }
+        }
+        index.indexAll(batch);
+        newPosts = new ArrayList<Post>(POOL_SIZE);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            newPosts.add(data.createPost("user" + i));
+        }
+    }
+    
+    /**
+     * Indexes one post.
+     */
+    @Benchmark
+    public void index() {
+        index.index(newPosts.get(next++ & (POOL_SIZE - 1)));
+    }
+    
+    /**
+     * Finds the newest 20 posts containing every word of the query.
+     * 
+     * @return posts found
+     */
+    @Benchmark
+    public List<Post> search() {
+        return index.search(query, 20);
+    }
+}
@@ -0,0 +1,83 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.SyntheticData;
+import data.structure.Post;
+
+/**
+ * Measures PostStore writes and reads, for both the heap and off-heap implementations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostStoreBenchmark {
+    private static final int POOL_SIZE = 1024;
+    
+    @Param({ "heap", "offheap" })
+    public String storeType;
+    
+    @Param({ "1000", "10000" })
+    public int userCount;
+    
+    @Param({ "10", "100" })
+    public int postsPerUser;
+    
+    private PostStore store;
+    private List<Post> newPosts;
+    private int next;
+    
+    /**
+     * Fills a fresh store for every iteration, so that writes do not grow it without bound.
+     */
+    @Setup(Level.Iteration)
+    public void setup() {
+        SyntheticData data = new SyntheticData();
+        store = "offheap".equals(storeType) ? new OffHeapPostStore() : new PostStore();
+        for (int p = 0; p < postsPerUser; p++) {
+            for (int u = 0; u < userCount; u++) {
+                store.write(data.createPost("user" + u));
+            }
+        }
+        newPosts = new ArrayList<Post>(POOL_SIZE);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            newPosts.add(data.createPost("user" + (i % userCount)));
+        }
+    }
+    
+    /**
+     * Writes one post.
+     */
+    @Benchmark
+    public void write() {
+        store.write(newPosts.get(next++ & (POOL_SIZE - 1)));
+    }
+    
+    /**
+     * Reads back every post of the next user.
+     * 
+     * @return the user's posts
+     */
+    @Benchmark
+    public List<Post> getPostsByUser() {
+        return store.getPostsByUser("user" + (next++ % userCount));
+    }
+}
@@ -0,0 +1,56 @@
+package data.structure;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.SyntheticData;
+
+/**
+ * Measures the cost of UserProfile.getAttributeIntersection().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserProfileBenchmark {
+    
+    @Param({ "4", "16", "64" })
+    public int attributesPerUser;
+    
+    private UserProfile primary;
+    private UserProfile secondary;
+    
+    /**
+     * Creates the two users to intersect.
+     */
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData();
+        primary = data.createUser("primary", attributesPerUser);
+        secondary = data.createUser("secondary", attributesPerUser);
+    }
+    
+    /**
+     * Intersects the attributes of the two users.
+     * 
+     * @return intersection
+     */
+    @Benchmark
+    public Map<String, String> getAttributeIntersection() {
+        return primary.getAttributeIntersection(secondary);
+    }
+}
@@ -0,0 +1,103 @@
+package server.bulk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.SyntheticData;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.OffHeapPostStore;
+import data.proxy.PostStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * Measures bulk imports of in-memory files into fresh stores. Scores are records per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkImporterBenchmark {
+    private static final int RECORDS = 100000;
+    
+    /**
+     * The kind of post store imported into.
+     */
+    @State(Scope.Thread)
+    public static class PostStoreType {
+        @Param({ "heap", "offheap" })
+        public String storeType;
+        
+        private PostStore create() {
+            return "offheap".equals(storeType) ? new OffHeapPostStore() : new PostStore();
+        }
+    }
+    
+    private byte[] profiles;
+    private byte[] posts;
+    
+    /**
+     * Writes the profile and post files.
+     */
+    @Setup
+    public void setup() throws IOException {
+        SyntheticData data = new SyntheticData();
+        StringBuilder profileFile = new StringBuilder();
+        for (UserProfile user : data.createUsers(RECORDS, 5, 100)) {
+            profileFile.append(user.getId());
+            for (Entry<String, String> attribute : user.getAttributes().entrySet()) {
+                profileFile.append('\t').append(attribute.getKey()).append('=').append(
+                        attribute.getValue());
+            }
+            profileFile.append('\n');
+        }
+        profiles = profileFile.toString().getBytes(StandardCharsets.UTF_8);
+        
+        ByteArrayOutputStream postFile = new ByteArrayOutputStream();
+        for (int i = 0; i < RECORDS; i++) {
+            Post post = data.createPost("user" + (i % 10000));
+            postFile.write(String.format("%s\t%d\t%s\n", post.getUser(), post.getTimestamp(),
+                    post.getContent()).getBytes(StandardCharsets.UTF_8));
+        }
+        posts = postFile.toByteArray();
+    }
+    
+    /**
+     * Imports every profile.
+     */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public ImportResult importProfiles() throws Exception {
+        return new BulkImporter(new LocalTransientUserProfileStore(), new PostStore())
+                .importProfiles(new ByteArrayInputStream(profiles));
+    }
+    
+    /**
+     * Imports every post.
+     */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public ImportResult importPosts(PostStoreType type) throws Exception {
+        return new BulkImporter(new LocalTransientUserProfileStore(), type.create())
+                .importPosts(new ByteArrayInputStream(posts));
+    }
+}
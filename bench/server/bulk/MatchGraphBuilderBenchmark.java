@@ -0,0 +1,86 @@
+package server.bulk;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.matching.PercentMatchUserMatcher;
+import benchmark.SyntheticData;
+import data.structure.UserProfile;
+
+/**
+ * Compares computing every user's matches with MatchGraphBuilder against comparing every user to
+ * every other with the matcher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MatchGraphBuilderBenchmark {
+    private static final int ATTRIBUTES_PER_USER = 8;
+    private static final int VALUES_PER_ATTRIBUTE = 16;
+    
+    @Param({ "1000", "5000" })
+    public int users;
+    
+    @Param({ "0.5", "0.75" })
+    public double threshold;
+    
+    private PercentMatchUserMatcher matcher;
+    private List<UserProfile> profiles;
+    
+    /**
+     * Creates the matcher and the users.
+     */
+    @Setup
+    public void setup() {
+        matcher = new PercentMatchUserMatcher(threshold);
+        profiles = new SyntheticData().createUsers(users, ATTRIBUTES_PER_USER,
+                VALUES_PER_ATTRIBUTE);
+    }
+    
+    /**
+     * Finds every match with the prefix-filtered join.
+     * 
+     * @return number of matches
+     */
+    @Benchmark
+    public long join() {
+        long count = 0;
+        for (int[] matches : new MatchGraphBuilder(matcher).join(profiles)) {
+            count += matches.length;
+        }
+        return count;
+    }
+    
+    /**
+     * Finds every match by running the matcher on every pair.
+     * 
+     * @return number of matches
+     */
+    @Benchmark
+    public long pairwise() {
+        long count = 0;
+        for (UserProfile primary : profiles) {
+            for (UserProfile secondary : profiles) {
+                if (matcher.matches(primary, secondary)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
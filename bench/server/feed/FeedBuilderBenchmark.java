@@ -0,0 +1,98 @@
+package server.feed;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.matching.PercentMatchUserMatcher;
+import benchmark.SyntheticData;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+import data.proxy.UserProfileStore;
+import data.structure.Post;
+import data.structure.ScoredPost;
+import data.structure.UserProfile;
+
+/**
+ * Measures end-to-end FeedBuilder.getFeedForUser() over in-memory stores, and the ranked top 20
+ * of the same feed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeedBuilderBenchmark {
+    
+    @Param({ "1000", "10000" })
+    public int userCount;
+    
+    @Param({ "4", "16" })
+    public int attributesPerUser;
+    
+    @Param({ "1", "10" })
+    public int postsPerUser;
+    
+    @Param({ "0.5", "1.0" })
+    public double threshold;
+    
+    private FeedBuilder feedBuilder;
+    private List<UserProfile> users;
+    private int next;
+    
+    /**
+     * Fills the stores and creates the feed builder.
+     */
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData();
+        UserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        users = data.createUsers(userCount, attributesPerUser);
+        for (UserProfile user : users) {
+            userStore.write(user);
+            for (int p = 0; p < postsPerUser; p++) {
+                postStore.write(data.createPost(user.getId()));
+            }
+        }
+        feedBuilder = new FeedBuilder(postStore, userStore, new PercentMatchUserMatcher(threshold),
+                new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+    }
+    
+    /**
+     * Builds the feed for the next user.
+     * 
+     * @return feed
+     */
+    @Benchmark
+    public List<Post> getFeedForUser() {
+        return feedBuilder.getFeedForUser(users.get(next++ % userCount));
+    }
+    
+    /**
+     * Builds the top 20 posts of the feed for the next user.
+     * 
+     * @return ranked feed
+     */
+    @Benchmark
+    public List<ScoredPost> getRankedFeedForUser() {
+        return feedBuilder.getRankedFeedForUser(users.get(next++ % userCount), 20);
+    }
+}
@@ -0,0 +1,92 @@
+package server.matching;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.SyntheticData;
+import data.structure.UserProfile;
+
+/**
+ * Measures changing one attribute of one user in a LiveMatchGraph, against rechecking that user
+ * against every other user in both directions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LiveMatchGraphBenchmark {
+    private static final int ATTRIBUTES_PER_USER = 8;
+    private static final int VALUES_PER_ATTRIBUTE = 256;
+    
+    @Param({ "10000", "50000" })
+    public int users;
+    
+    private PercentMatchUserMatcher matcher;
+    private List<UserProfile> profiles;
+    private LiveMatchGraph graph;
+    private final Random random = new Random(7);
+    
+    /**
+     * Creates the users and the graph of their matches.
+     */
+    @Setup
+    public void setup() {
+        matcher = new PercentMatchUserMatcher(0.5);
+        profiles = new SyntheticData().createUsers(users, ATTRIBUTES_PER_USER,
+                VALUES_PER_ATTRIBUTE);
+        graph = new LiveMatchGraph(matcher);
+        graph.updateAll(profiles);
+    }
+    
+    /**
+     * Changes an attribute and updates the graph.
+     * 
+     * @return the user's number of matches
+     */
+    @Benchmark
+    public int update() {
+        UserProfile user = change();
+        graph.update(user);
+        return graph.getMatches(user.getId()).size();
+    }
+    
+    /**
+     * Changes an attribute and rechecks the user against everyone.
+     * 
+     * @return the user's number of matches
+     */
+    @Benchmark
+    public int rescan() {
+        UserProfile user = change();
+        int matches = 0;
+        for (UserProfile other : profiles) {
+            if (matcher.matches(user, other)) {
+                matches++;
+            }
+            matcher.matches(other, user);
+        }
+        return matches;
+    }
+    
+    private UserProfile change() {
+        UserProfile user = profiles.get(random.nextInt(users));
+        user.setAttribute("attribute" + random.nextInt(ATTRIBUTES_PER_USER), "value"
+                + random.nextInt(VALUES_PER_ATTRIBUTE));
+        return user;
+    }
+}
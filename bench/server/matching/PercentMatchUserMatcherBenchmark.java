@@ -0,0 +1,62 @@
+package server.matching;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.SyntheticData;
+import data.structure.UserProfile;
+
+/**
+ * Measures a single evaluation of PercentMatchUserMatcher over a rotating pool of user pairs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PercentMatchUserMatcherBenchmark {
+    private static final int POOL_SIZE = 1024;
+    
+    @Param({ "4", "16", "64" })
+    public int attributesPerUser;
+    
+    @Param({ "0.25", "0.5", "1.0" })
+    public double threshold;
+    
+    private UserMatcher matcher;
+    private List<UserProfile> users;
+    private int next;
+    
+    /**
+     * Creates the matcher and the pool of users.
+     */
+    @Setup
+    public void setup() {
+        matcher = new PercentMatchUserMatcher(threshold);
+        users = new SyntheticData().createUsers(POOL_SIZE, attributesPerUser);
+    }
+    
+    /**
+     * Evaluates the matcher for the next pair of users.
+     * 
+     * @return whether the users matched
+     */
+    @Benchmark
+    public boolean matches() {
+        int i = next++ & (POOL_SIZE - 1);
+        return matcher.matches(users.get(i), users.get((i + 1) & (POOL_SIZE - 1)));
+    }
+}
@@ -0,0 +1,83 @@
+package server.push;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.matching.PercentMatchUserMatcher;
+import benchmark.SyntheticData;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * Measures PostStore.write() with every user holding a live subscription, so each write is routed
+ * to its matching subscribers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeedSubscriptionsBenchmark {
+    
+    @Param({ "1000", "20000" })
+    public int subscriberCount;
+    
+    @Param({ "4", "16" })
+    public int attributesPerUser;
+    
+    @Param({ "4", "100" })
+    public int valuesPerAttribute;
+    
+    @Param({ "0.5", "1.0" })
+    public double threshold;
+    
+    private PostStore postStore;
+    private Post[] posts;
+    private int next;
+    
+    /**
+     * Subscribes every user with a small coalescing queue and prepares posts to write.
+     */
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData();
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        FeedSubscriptions subscriptions = new FeedSubscriptions(userStore,
+                new PercentMatchUserMatcher(threshold));
+        List<UserProfile> users = data.createUsers(subscriberCount, attributesPerUser,
+                valuesPerAttribute);
+        for (UserProfile user : users) {
+            userStore.write(user);
+            subscriptions.subscribe(user, 16, OverflowPolicy.COALESCE);
+        }
+        postStore = new PostStore();
+        postStore.addListener(subscriptions);
+        posts = new Post[1024];
+        for (int i = 0; i < posts.length; i++) {
+            posts[i] = data.createPost(users.get(i % subscriberCount).getId());
+        }
+    }
+    
+    /**
+     * Writes the next post and routes it to its subscribers.
+     */
+    @Benchmark
+    public void writeAndRoute() {
+        postStore.write(posts[next++ % posts.length]);
+    }
+}
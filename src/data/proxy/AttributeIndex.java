@@ -0,0 +1,810 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
+import data.structure.AttributeCount;
+import data.structure.ScoredProfile;
+import data.structure.UserProfile;
+
+/**
+ * AttributeIndex keeps, for every attribute name and value, the sorted list of users who have it.
+ * From the list lengths it derives an inverse document frequency weight for each attribute, so
+ * that sharing a rare attribute counts for more than sharing one that half the users have.
+ * 
+ * A value is hot when so many users have it that reading its posting list would dominate the cost
+ * of finding anyone's candidates: at least HOT_FRACTION of the users, and at least
+ * HOT_MINIMUM_COUNT of them. getCandidates() avoids reading hot lists where it can, and can be
+ * allowed to read a bounded random sample of them where it cannot. The counters
+ * "AttributeIndex.hotValuesSkipped", "AttributeIndex.hotValuesSampled" and
+ * "AttributeIndex.hotValuesRead" record each of those decisions.
+ * 
+ * The index snapshots each profile's attributes when it is updated, so a profile that is changed
+ * in place must be passed to update() again before the index reflects the change. Queries share a
+ * read lock and updates take the write lock, so a query never sees half of an updateAll() batch.
+ */
+public class AttributeIndex {
+    /**
+     * Share of the users a value must have to be hot, unless configured otherwise.
+     */
+    public static final double HOT_FRACTION = 0.05;
+    
+    /**
+     * Fewest users a value must have to be hot, unless configured otherwise.
+     */
+    public static final int HOT_MINIMUM_COUNT = 1000;
+    
+    private static final Timer TOP_MATCHES_TIMER = Metrics
+            .timer("AttributeIndex.getTopMatches");
+    private static final Timer CANDIDATES_TIMER = Metrics.timer("AttributeIndex.getCandidates");
+    private static final Counter CANDIDATES_SCORED = Metrics
+            .counter("AttributeIndex.candidatesScored");
+    private static final Counter POSTINGS_SKIPPED = Metrics
+            .counter("AttributeIndex.postingsSkipped");
+    private static final Counter HOT_VALUES_SKIPPED = Metrics
+            .counter("AttributeIndex.hotValuesSkipped");
+    private static final Counter HOT_VALUES_SAMPLED = Metrics
+            .counter("AttributeIndex.hotValuesSampled");
+    private static final Counter HOT_VALUES_READ = Metrics
+            .counter("AttributeIndex.hotValuesRead");
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Map<String, Postings>> postings =
+            new HashMap<String, Map<String, Postings>>();
+    private final Map<String, Integer> docs = new HashMap<String, Integer>();
+    private final List<Integer> freeDocs = new ArrayList<Integer>();
+    private UserProfile[] profiles = new UserProfile[64];
+    private String[][] indexed = new String[64][];
+    private final Random random = new Random();
+    private double hotFraction = HOT_FRACTION;
+    private int hotMinimumCount = HOT_MINIMUM_COUNT;
+    private int sampleSize = 0;
+    
+    /**
+     * Sets how many users a value must have to be hot.
+     * 
+     * @param fraction share of the users, in [0,1]
+     * @param minimumCount fewest users, which must be positive
+     * @return this index
+     * @throws IllegalArgumentException if fraction is outside [0,1] or minimumCount is not
+     *         positive
+     */
+    public AttributeIndex withHotValues(double fraction, int minimumCount) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("The hot fraction must be in the range [0,1]!");
+        }
+        if (minimumCount < 1) {
+            throw new IllegalArgumentException("The minimum hot count must be positive!");
+        }
+        lock.writeLock().lock();
+        try {
+            this.hotFraction = fraction;
+            this.hotMinimumCount = minimumCount;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+    
+    /**
+     * Lets getCandidates() read a random sample of at most sampleSize users from a hot value's
+     * posting list instead of the whole list. A reservoir sample of every list longer than that
+     * is kept up to date as users gain and lose the value. Sampling is off, at 0, by default,
+     * since candidates who only share hot values with the primary user are then missed.
+     * 
+     * @param sampleSize most users read from a hot list, or 0 to read all of them
+     * @return this index
+     * @throws IllegalArgumentException if sampleSize is negative
+     */
+    public AttributeIndex withHotValueSampling(int sampleSize) {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("The sample size cannot be negative!");
+        }
+        lock.writeLock().lock();
+        try {
+            this.sampleSize = sampleSize;
+            for (Map<String, Postings> values : postings.values()) {
+                for (Postings list : values.values()) {
+                    list.sample = null;
+                    if (sampleSize > 0 && list.size > sampleSize) {
+                        list.resample(sampleSize, random);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+    
+    /**
+     * Adds a profile to the index, or replaces what was indexed for it before.
+     * 
+     * @param profile
+     * @throws IllegalArgumentException if profile is null
+     */
+    public void update(UserProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("User Profile cannot be null!");
+        }
+        lock.writeLock().lock();
+        try {
+            updateLocked(profile);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds or replaces a batch of profiles under a single lock acquisition.
+     * 
+     * @param profiles
+     * @throws IllegalArgumentException if any profile is null
+     */
+    public void updateAll(Iterable<UserProfile> profiles) {
+        for (UserProfile profile : profiles) {
+            if (profile == null) {
+                throw new IllegalArgumentException("User Profile cannot be null!");
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (UserProfile profile : profiles) {
+                updateLocked(profile);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Removes a profile from the index.
+     * 
+     * @param id
+     */
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docs.remove(id);
+            if (doc == null) {
+                return;
+            }
+            String[] attributes = indexed[doc];
+            for (int i = 0; i < attributes.length; i += 2) {
+                removePosting(attributes[i], attributes[i + 1], doc);
+            }
+            profiles[doc] = null;
+            indexed[doc] = null;
+            freeDocs.add(doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of indexed users.
+     * 
+     * @return users
+     */
+    public int getUserCount() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of indexed users who have the given attribute value.
+     * 
+     * @param name
+     * @param value
+     * @return users with the attribute
+     */
+    public int getCount(String name, String value) {
+        lock.readLock().lock();
+        try {
+            Postings list = getPostings(UserProfile.getNormalizedAttributeString(name),
+                    UserProfile.getNormalizedAttributeString(value));
+            return list == null ? 0 : list.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the indexed users who have all of the given attribute values. Only the posting list of
+     * the rarest value is read; the other values are checked on each of its users, rarest first.
+     * 
+     * @param attributes attribute values by name
+     * @return matching users, or every indexed user if no values are given
+     */
+    public List<UserProfile> getUsersWithAttributes(Map<String, String> attributes) {
+        lock.readLock().lock();
+        try {
+            List<UserProfile> users = new ArrayList<UserProfile>();
+            if (attributes.isEmpty()) {
+                for (int doc : docs.values()) {
+                    users.add(profiles[doc]);
+                }
+                return users;
+            }
+            String[] names = new String[attributes.size()];
+            String[] values = new String[attributes.size()];
+            int[] sizes = new int[attributes.size()];
+            Postings rarest = null;
+            int next = 0;
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                names[next] = UserProfile.getNormalizedAttributeString(attribute.getKey());
+                values[next] = UserProfile.getNormalizedAttributeString(attribute.getValue());
+                Postings list = getPostings(names[next], values[next]);
+                if (list == null) {
+                    return users;
+                }
+                sizes[next] = list.size;
+                if (rarest == null || list.size < rarest.size) {
+                    rarest = list;
+                }
+                next++;
+            }
+            // Check the rarest of the other values first, since they reject the most users.
+            sortBySize(names, values, sizes);
+            for (int i = 0; i < rarest.size; i++) {
+                String[] indexedAttributes = indexed[rarest.docs[i]];
+                boolean matches = true;
+                for (int j = 0; j < names.length && matches; j++) {
+                    matches = contains(indexedAttributes, names[j], values[j]);
+                }
+                if (matches) {
+                    users.add(profiles[rarest.docs[i]]);
+                }
+            }
+            return users;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the values that are currently hot, most common first.
+     * 
+     * @return hot attribute values with their number of users
+     */
+    public List<AttributeCount> getHotValues() {
+        lock.readLock().lock();
+        try {
+            List<AttributeCount> hot = new ArrayList<AttributeCount>();
+            for (Map.Entry<String, Map<String, Postings>> name : postings.entrySet()) {
+                for (Map.Entry<String, Postings> value : name.getValue().entrySet()) {
+                    if (isHot(value.getValue())) {
+                        hot.add(new AttributeCount(name.getKey(), value.getKey(), value
+                                .getValue().size));
+                    }
+                }
+            }
+            Collections.sort(hot, new Comparator<AttributeCount>() {
+                public int compare(AttributeCount a, AttributeCount b) {
+                    return Long.compare(b.getCount(), a.getCount());
+                }
+            });
+            return hot;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the indexed users who share at least minimumShared attribute values with the primary
+     * user, the primary user included if indexed.
+     * 
+     * Of the primary user's n values, anyone sharing minimumShared of them must have one of the
+     * (n - minimumShared + 1) rarest, so only those posting lists are read and the commonest
+     * (minimumShared - 1) are skipped. Hot values that still have to be read are read from their
+     * sample when sampling is on, so the users found through them are bounded by the sample size
+     * rather than by how mainstream the value is. Users who also share a value that is not hot
+     * are found through its list either way; only those sharing nothing but hot values may be
+     * missed.
+     * 
+     * @param primary
+     * @param minimumShared fewest attribute values a candidate must share
+     * @return candidates
+     * @throws IllegalArgumentException if primary is null or minimumShared is not positive
+     */
+    public List<UserProfile> getCandidates(UserProfile primary, int minimumShared) {
+        if (primary == null) {
+            throw new IllegalArgumentException("User Profile cannot be null!");
+        }
+        if (minimumShared < 1) {
+            throw new IllegalArgumentException("The minimum shared attributes must be positive!");
+        }
+        long start = Metrics.startTimer();
+        lock.readLock().lock();
+        try {
+            List<UserProfile> candidates = new ArrayList<UserProfile>();
+            Map<String, String> attributes = primary.getAttributes();
+            if (minimumShared > attributes.size()) {
+                return candidates;
+            }
+            String[] names = new String[attributes.size()];
+            String[] values = new String[attributes.size()];
+            int[] sizes = new int[attributes.size()];
+            int next = 0;
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                names[next] = attribute.getKey();
+                values[next] = attribute.getValue();
+                Postings list = getPostings(names[next], values[next]);
+                sizes[next++] = list == null ? 0 : list.size;
+            }
+            sortBySize(names, values, sizes);
+            int prefix = names.length - minimumShared + 1;
+            long skipped = 0;
+            for (int i = prefix; i < names.length; i++) {
+                if (isHot(sizes[i])) {
+                    skipped++;
+                }
+            }
+            
+            BitSet seen = new BitSet(profiles.length);
+            long sampled = 0;
+            long read = 0;
+            for (int i = 0; i < prefix; i++) {
+                Postings list = getPostings(names[i], values[i]);
+                if (list == null) {
+                    continue;
+                }
+                int[] users = list.docs;
+                int count = list.size;
+                if (isHot(list)) {
+                    if (list.sample != null) {
+                        users = list.sample;
+                        count = users.length;
+                        sampled++;
+                    } else {
+                        read++;
+                    }
+                }
+                for (int j = 0; j < count; j++) {
+                    int doc = users[j];
+                    if (seen.get(doc)) {
+                        continue;
+                    }
+                    seen.set(doc);
+                    int shared = 0;
+                    for (int k = 0; k < names.length && shared < minimumShared; k++) {
+                        if (contains(indexed[doc], names[k], values[k])) {
+                            shared++;
+                        }
+                    }
+                    if (shared >= minimumShared) {
+                        candidates.add(profiles[doc]);
+                    }
+                }
+            }
+            HOT_VALUES_SKIPPED.add(skipped);
+            HOT_VALUES_SAMPLED.add(sampled);
+            HOT_VALUES_READ.add(read);
+            return candidates;
+        } finally {
+            lock.readLock().unlock();
+            CANDIDATES_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Gets the weight of sharing the given attribute value, ln(1 + users / count). An attribute
+     * every user has weighs ln 2, and the weight grows as the attribute gets rarer. An attribute
+     * nobody has is weighed as if one user had it.
+     * 
+     * @param name
+     * @param value
+     * @return weight
+     */
+    public double getWeight(String name, String value) {
+        lock.readLock().lock();
+        try {
+            Postings list = getPostings(UserProfile.getNormalizedAttributeString(name),
+                    UserProfile.getNormalizedAttributeString(value));
+            return weight(list == null ? 0 : list.size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds the k users who share the most attribute weight with the primary user, best first.
+     * The primary user is never returned, and neither is anyone scoring below minimumScore or
+     * sharing nothing.
+     * 
+     * Rather than scoring everyone who shares an attribute, this walks the posting lists of the
+     * primary user's attributes together in user order (WAND). Once k users have been found, any
+     * user whose lists could not add up to more than the k-th best score is skipped without being
+     * looked at, so users who only share common attributes are mostly never scored.
+     * 
+     * @param primary
+     * @param k most users to return
+     * @param minimumScore lowest score worth returning
+     * @return best matches, highest score first
+     * @throws IllegalArgumentException if primary is null or k is negative
+     */
+    public List<ScoredProfile> getTopMatches(UserProfile primary, int k, double minimumScore) {
+        if (primary == null) {
+            throw new IllegalArgumentException("User Profile cannot be null!");
+        }
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative!");
+        }
+        long start = Metrics.startTimer();
+        lock.readLock().lock();
+        try {
+            if (k == 0) {
+                return new ArrayList<ScoredProfile>();
+            }
+            List<Cursor> open = new ArrayList<Cursor>();
+            for (Map.Entry<String, String> attribute : primary.getAttributes().entrySet()) {
+                Postings list = getPostings(attribute.getKey(), attribute.getValue());
+                if (list != null && list.size > 0) {
+                    open.add(new Cursor(list, weight(list.size)));
+                }
+            }
+            Integer self = docs.get(primary.getId());
+            return wand(open.toArray(new Cursor[open.size()]), self == null ? -1 : self, k,
+                    minimumScore);
+        } finally {
+            lock.readLock().unlock();
+            TOP_MATCHES_TIMER.record(start);
+        }
+    }
+    
+    private List<ScoredProfile> wand(Cursor[] cursors, int self, int k, double minimumScore) {
+        PriorityQueue<Candidate> best = new PriorityQueue<Candidate>();
+        double threshold = 0;
+        long scored = 0;
+        long skipped = 0;
+        
+        while (true) {
+            sort(cursors);
+            // Find the first cursor at which the accumulated upper bounds could beat the k-th
+            // best score. No user before its current position can, so they are all skipped.
+            int pivot = -1;
+            double bound = 0;
+            for (int i = 0; i < cursors.length && cursors[i].doc() != Integer.MAX_VALUE; i++) {
+                bound += cursors[i].weight;
+                if (best.size() < k ? bound + 1e-9 >= minimumScore : bound > threshold + 1e-9) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break;
+            }
+            int pivotDoc = cursors[pivot].doc();
+            if (cursors[0].doc() == pivotDoc) {
+                double score = 0;
+                for (int i = 0; i < cursors.length && cursors[i].doc() == pivotDoc; i++) {
+                    score += cursors[i].weight;
+                    cursors[i].position++;
+                }
+                scored++;
+                if (pivotDoc != self && score + 1e-9 >= minimumScore && (best.size() < k
+                        || score > threshold)) {
+                    best.add(new Candidate(pivotDoc, score));
+                    if (best.size() > k) {
+                        best.poll();
+                    }
+                    if (best.size() == k) {
+                        threshold = Math.max(minimumScore, best.peek().score);
+                    }
+                }
+            } else {
+                for (int i = 0; i < pivot; i++) {
+                    skipped += cursors[i].skipTo(pivotDoc);
+                }
+            }
+        }
+        CANDIDATES_SCORED.add(scored);
+        POSTINGS_SKIPPED.add(skipped);
+        
+        List<ScoredProfile> matches = new ArrayList<ScoredProfile>(best.size());
+        while (!best.isEmpty()) {
+            Candidate candidate = best.poll();
+            matches.add(new ScoredProfile(profiles[candidate.doc], candidate.score));
+        }
+        Collections.reverse(matches);
+        return matches;
+    }
+    
+    private void updateLocked(UserProfile profile) {
+        Integer doc = docs.get(profile.getId());
+        String[] before;
+        if (doc == null) {
+            doc = freeDocs.isEmpty() ? docs.size() : freeDocs.remove(freeDocs.size() - 1);
+            docs.put(profile.getId(), doc);
+            if (doc == profiles.length) {
+                profiles = Arrays.copyOf(profiles, doc * 2);
+                indexed = Arrays.copyOf(indexed, doc * 2);
+            }
+            before = new String[0];
+        } else {
+            before = indexed[doc];
+        }
+        
+        String[] after = new String[profile.getAttributes().size() * 2];
+        int next = 0;
+        for (Map.Entry<String, String> attribute : profile.getAttributes().entrySet()) {
+            after[next++] = attribute.getKey();
+            after[next++] = attribute.getValue();
+        }
+        for (int i = 0; i < before.length; i += 2) {
+            if (!contains(after, before[i], before[i + 1])) {
+                removePosting(before[i], before[i + 1], doc);
+            }
+        }
+        for (int i = 0; i < after.length; i += 2) {
+            if (!contains(before, after[i], after[i + 1])) {
+                addPosting(after[i], after[i + 1], doc);
+            }
+        }
+        profiles[doc] = profile;
+        indexed[doc] = after;
+    }
+    
+    private double weight(int count) {
+        return Math.log(1 + (double) Math.max(docs.size(), 1) / Math.max(count, 1));
+    }
+    
+    private boolean isHot(Postings list) {
+        return isHot(list.size);
+    }
+    
+    private boolean isHot(int count) {
+        return count >= hotMinimumCount && count >= hotFraction * docs.size();
+    }
+    
+    private Postings getPostings(String name, String value) {
+        Map<String, Postings> values = postings.get(name);
+        return values == null ? null : values.get(value);
+    }
+    
+    private void addPosting(String name, String value, int doc) {
+        Map<String, Postings> values = postings.get(name);
+        if (values == null) {
+            values = new HashMap<String, Postings>();
+            postings.put(name, values);
+        }
+        Postings list = values.get(value);
+        if (list == null) {
+            list = new Postings();
+            values.put(value, list);
+        }
+        list.add(doc);
+        if (sampleSize > 0) {
+            list.sampleAdded(doc, sampleSize, random);
+        }
+    }
+    
+    private void removePosting(String name, String value, int doc) {
+        Map<String, Postings> values = postings.get(name);
+        Postings list = values.get(value);
+        list.remove(doc);
+        if (list.sample != null) {
+            list.sampleRemoved(doc, sampleSize, random);
+        }
+        if (list.size == 0) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                postings.remove(name);
+            }
+        }
+    }
+    
+    /**
+     * Insertion sorts the attribute values by posting list size; there are only ever a few.
+     */
+    private static void sortBySize(String[] names, String[] values, int[] sizes) {
+        for (int i = 1; i < sizes.length; i++) {
+            String name = names[i];
+            String value = values[i];
+            int size = sizes[i];
+            int j = i - 1;
+            for (; j >= 0 && sizes[j] > size; j--) {
+                names[j + 1] = names[j];
+                values[j + 1] = values[j];
+                sizes[j + 1] = sizes[j];
+            }
+            names[j + 1] = name;
+            values[j + 1] = value;
+            sizes[j + 1] = size;
+        }
+    }
+    
+    private static boolean contains(String[] attributes, String name, String value) {
+        for (int i = 0; i < attributes.length; i += 2) {
+            if (attributes[i].equals(name) && attributes[i + 1].equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Sorts the cursors by their current user. There are only as many cursors as the primary user
+     * has attributes and they stay nearly sorted between steps, so insertion sort is cheapest.
+     */
+    private static void sort(Cursor[] cursors) {
+        for (int i = 1; i < cursors.length; i++) {
+            Cursor cursor = cursors[i];
+            int doc = cursor.doc();
+            int j = i - 1;
+            while (j >= 0 && cursors[j].doc() > doc) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cursor;
+        }
+    }
+    
+    /**
+     * A sorted list of the users who have one attribute value, and a uniform random sample of them
+     * once there are more than the sample size.
+     */
+    private static class Postings {
+        int[] docs = new int[4];
+        int size;
+        int[] sample;
+        
+        void add(int doc) {
+            int index = size == 0 || docs[size - 1] < doc ? size : -Arrays.binarySearch(docs, 0,
+                    size, doc) - 1;
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            System.arraycopy(docs, index, docs, index + 1, size - index);
+            docs[index] = doc;
+            size++;
+        }
+        
+        void remove(int doc) {
+            int index = Arrays.binarySearch(docs, 0, size, doc);
+            System.arraycopy(docs, index + 1, docs, index, size - index - 1);
+            size--;
+        }
+        
+        /**
+         * Keeps the sample uniform after a user is added (reservoir sampling): the new user
+         * replaces a random member with probability capacity / size.
+         */
+        void sampleAdded(int doc, int capacity, Random random) {
+            if (size <= capacity) {
+                return;
+            }
+            if (sample == null) {
+                resample(capacity, random);
+                return;
+            }
+            int slot = random.nextInt(size);
+            if (slot < capacity) {
+                sample[slot] = doc;
+            }
+        }
+        
+        /**
+         * Keeps the sample uniform after a user is removed, by putting a random user who is not
+         * sampled in the removed user's place.
+         */
+        void sampleRemoved(int doc, int capacity, Random random) {
+            if (size <= capacity) {
+                sample = null;
+                return;
+            }
+            int slot = indexOf(sample, doc);
+            if (slot < 0) {
+                return;
+            }
+            if (size < 2 * capacity) {
+                // Too few users are left out of the sample to find one by guessing.
+                resample(capacity, random);
+                return;
+            }
+            int replacement;
+            do {
+                replacement = docs[random.nextInt(size)];
+            } while (indexOf(sample, replacement) >= 0);
+            sample[slot] = replacement;
+        }
+        
+        /**
+         * Draws a fresh sample with a partial Fisher-Yates shuffle of the users.
+         */
+        void resample(int capacity, Random random) {
+            int[] shuffled = Arrays.copyOf(docs, size);
+            for (int i = 0; i < capacity; i++) {
+                int j = i + random.nextInt(size - i);
+                int swapped = shuffled[i];
+                shuffled[i] = shuffled[j];
+                shuffled[j] = swapped;
+            }
+            sample = Arrays.copyOf(shuffled, capacity);
+        }
+        
+        private static int indexOf(int[] users, int doc) {
+            for (int i = 0; i < users.length; i++) {
+                if (users[i] == doc) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+    
+    /**
+     * A position in one posting list, along with the weight that list contributes.
+     */
+    private static class Cursor {
+        final Postings list;
+        final double weight;
+        int position;
+        
+        Cursor(Postings list, double weight) {
+            this.list = list;
+            this.weight = weight;
+        }
+        
+        int doc() {
+            return position < list.size ? list.docs[position] : Integer.MAX_VALUE;
+        }
+        
+        /**
+         * Moves to the first user at or after target, galloping then binary searching.
+         * 
+         * @return number of users passed over
+         */
+        int skipTo(int target) {
+            int from = position;
+            int step = 1;
+            int high = position;
+            while (high < list.size && list.docs[high] < target) {
+                position = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int end = Math.min(high, list.size);
+            if (position < end) {
+                int index = Arrays.binarySearch(list.docs, position, end, target);
+                position = index >= 0 ? index : -index - 1;
+            }
+            return position - from;
+        }
+    }
+    
+    /**
+     * A scored user, ordered worst first so that the heap evicts the weakest match.
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        final int doc;
+        final double score;
+        
+        Candidate(int doc, double score) {
+            this.doc = doc;
+            this.score = score;
+        }
+        
+        public int compareTo(Candidate other) {
+            int compare = Double.compare(score, other.score);
+            return compare != 0 ? compare : Integer.compare(other.doc, doc);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package data.proxy;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import metrics.Metrics;
+import metrics.Timer;
+import data.proxy.utils.CountMinSketch;
+import data.proxy.utils.Hashing;
+import data.proxy.utils.HyperLogLog;
+import data.proxy.utils.SpaceSaving;
+import data.structure.UserProfile;
+
+/**
+ * AttributeStatistics estimates how many users have each attribute value, and each pair of
+ * attribute values, so that matchers can tell a value half the users share from one a handful do
+ * without counting. Value and pair frequencies are kept in count-min sketches, the number of
+ * distinct values of each attribute in a HyperLogLog, and the most common values by a SpaceSaving
+ * counter, the last two only to estimate how likely two users are to share a value. Each
+ * profile's attributes are snapshot when it is updated, so that its counts can be taken back out
+ * when it changes or is removed.
+ * 
+ * Frequency estimates never undercount, and overcount by at most a small fraction of the number
+ * of attributes counted. Distinct counts cover every value ever seen, including those of removed
+ * users. Estimates share a read lock and updates take the write lock, so an estimate never sees
+ * a profile's counts half moved.
+ */
+public class AttributeStatistics {
+    private static final int HEAVY_HITTERS = 64;
+    private static final double SKETCH_ERROR = 0.001;
+    private static final double SKETCH_FAILURE_RATE = 0.01;
+    private static final Timer UPDATE_TIMER = Metrics.timer("AttributeStatistics.update");
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+    private final CountMinSketch values = new CountMinSketch(SKETCH_ERROR, SKETCH_FAILURE_RATE);
+    private final CountMinSketch pairs = new CountMinSketch(SKETCH_ERROR, SKETCH_FAILURE_RATE);
+    private final Map<String, HyperLogLog> distinctValues = new HashMap<String, HyperLogLog>();
+    private final Map<String, Integer> usersByName = new HashMap<String, Integer>();
+    private final SpaceSaving<Map.Entry<String, String>> heavyHitters =
+            new SpaceSaving<Map.Entry<String, String>>(HEAVY_HITTERS);
+    
+    /**
+     * Counts a profile's attributes, replacing what was counted for it before.
+     * 
+     * @param profile
+     * @throws IllegalArgumentException if profile is null
+     */
+    public void update(UserProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("User Profile cannot be null!");
+        }
+        long start = Metrics.startTimer();
+        lock.writeLock().lock();
+        try {
+            updateLocked(profile);
+        } finally {
+            lock.writeLock().unlock();
+            UPDATE_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Counts a batch of profiles under a single lock acquisition.
+     * 
+     * @param profiles
+     * @throws IllegalArgumentException if any profile is null
+     */
+    public void updateAll(Iterable<UserProfile> profiles) {
+        for (UserProfile profile : profiles) {
+            if (profile == null) {
+                throw new IllegalArgumentException("User Profile cannot be null!");
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (UserProfile profile : profiles) {
+                updateLocked(profile);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Takes a profile's attributes back out of the counts.
+     * 
+     * @param id
+     */
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Snapshot before = snapshots.remove(id);
+            if (before != null) {
+                count(before, Snapshot.EMPTY);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of users counted.
+     * 
+     * @return users
+     */
+    public int getUserCount() {
+        lock.readLock().lock();
+        try {
+            return snapshots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of users who have any value of the given attribute.
+     * 
+     * @param name
+     * @return users with the attribute
+     */
+    public int getUserCount(String name) {
+        lock.readLock().lock();
+        try {
+            Integer count = usersByName.get(UserProfile.getNormalizedAttributeString(name));
+            return count == null ? 0 : count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Estimates the number of users who have the given attribute value.
+     * 
+     * @param name
+     * @param value
+     * @return estimated users, never fewer than the true number
+     */
+    public long estimateCount(String name, String value) {
+        lock.readLock().lock();
+        try {
+            return Math.min(snapshots.size(), values.estimate(Hashing.hash(UserProfile
+                    .getNormalizedAttributeString(name), UserProfile
+                    .getNormalizedAttributeString(value))));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Estimates the number of users who have all of the given attribute values, from the rarest
+     * of the values and of the pairs of values. More than two values can only be bounded, so this
+     * overestimates values that are each common together but rarely found all at once.
+     * 
+     * @param attributes attribute values by name
+     * @return estimated users, never fewer than the true number
+     */
+    public long estimateCount(Map<String, String> attributes) {
+        lock.readLock().lock();
+        try {
+            return estimateCountLocked(hashes(attributes));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Estimates the share of users who have all of the given attribute values.
+     * 
+     * @param attributes attribute values by name
+     * @return estimated selectivity in [0,1], 0 if no users are counted
+     */
+    public double estimateSelectivity(Map<String, String> attributes) {
+        lock.readLock().lock();
+        try {
+            if (snapshots.isEmpty()) {
+                return 0;
+            }
+            return (double) estimateCountLocked(hashes(attributes)) / snapshots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Estimates the chance that two users picked at random have the same value of the given
+     * attribute. The common values are counted individually and the remaining users are assumed
+     * to be spread evenly over the remaining distinct values.
+     * 
+     * @param name
+     * @return estimated selectivity in [0,1], 0 if no users are counted
+     */
+    public double estimateSharedSelectivity(String name) {
+        name = UserProfile.getNormalizedAttributeString(name);
+        lock.readLock().lock();
+        try {
+            Integer withName = usersByName.get(name);
+            if (withName == null || snapshots.isEmpty()) {
+                return 0;
+            }
+            double users = snapshots.size();
+            double selectivity = 0;
+            long common = 0;
+            int commonValues = 0;
+            for (Map.Entry<String, String> hitter : heavyHitters.getTop(HEAVY_HITTERS)) {
+                if (hitter.getKey().equals(name)) {
+                    long count = heavyCountLocked(hitter);
+                    selectivity += (count / users) * (count / users);
+                    common += count;
+                    commonValues++;
+                }
+            }
+            long rest = Math.max(0, withName - common);
+            long restValues = Math.max(1, distinctValues.get(name).estimate() - commonValues);
+            return Math.min(1, selectivity + (rest / users) * (rest / users) / restValues);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void updateLocked(UserProfile profile) {
+        Snapshot after = new Snapshot(profile.getAttributes());
+        Snapshot before = snapshots.put(profile.getId(), after);
+        count(before == null ? Snapshot.EMPTY : before, after);
+    }
+    
+    /**
+     * Moves one user's counts from the values and pairs of values they had to the ones they have
+     * now. Values they kept, and pairs of them, are left alone, so changing one of n attributes
+     * only touches 2 values and 2(n - 1) pairs.
+     */
+    private void count(Snapshot before, Snapshot after) {
+        boolean[] removed = before.missingFrom(after);
+        boolean[] added = after.missingFrom(before);
+        for (int i = 0; i < removed.length; i++) {
+            if (removed[i]) {
+                count(before, i, removed, -1);
+            }
+        }
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                count(after, i, added, 1);
+            }
+        }
+    }
+    
+    /**
+     * Adds or takes out the count of one of a user's values, and of its pairs with the others.
+     */
+    private void count(Snapshot snapshot, int index, boolean[] changed, int delta) {
+        String name = snapshot.attributes[2 * index];
+        String value = snapshot.attributes[2 * index + 1];
+        long hash = snapshot.hashes[index];
+        values.add(hash, delta);
+        for (int j = 0; j < snapshot.hashes.length; j++) {
+            // A pair of two changed values is only counted once.
+            if (j != index && (!changed[j] || j > index)) {
+                pairs.add(pairHash(hash, snapshot.hashes[j]), delta);
+            }
+        }
+        
+        Map.Entry<String, String> key = new SimpleImmutableEntry<String, String>(name, value);
+        Integer withName = usersByName.get(name);
+        if (delta > 0) {
+            heavyHitters.add(key);
+            usersByName.put(name, withName == null ? 1 : withName + 1);
+            HyperLogLog sketch = distinctValues.get(name);
+            if (sketch == null) {
+                sketch = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+                distinctValues.put(name, sketch);
+            }
+            sketch.add(hash);
+        } else {
+            heavyHitters.remove(key);
+            if (withName == 1) {
+                usersByName.remove(name);
+            } else {
+                usersByName.put(name, withName - 1);
+            }
+        }
+    }
+    
+    private long estimateCountLocked(long[] hashes) {
+        long estimate = snapshots.size();
+        for (int i = 0; i < hashes.length; i++) {
+            estimate = Math.min(estimate, values.estimate(hashes[i]));
+            for (int j = i + 1; j < hashes.length; j++) {
+                estimate = Math.min(estimate, pairs.estimate(pairHash(hashes[i], hashes[j])));
+            }
+        }
+        return estimate;
+    }
+    
+    /**
+     * A tracked value's count may be overestimated by SpaceSaving or by the sketch, so the
+     * smaller of the two is the better estimate.
+     */
+    private long heavyCountLocked(Map.Entry<String, String> hitter) {
+        return Math.min(heavyHitters.getCount(hitter), values.estimate(Hashing.hash(hitter
+                .getKey(), hitter.getValue())));
+    }
+    
+    private static long[] hashes(Map<String, String> attributes) {
+        long[] hashes = new long[attributes.size()];
+        int next = 0;
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            hashes[next++] = Hashing.hash(UserProfile.getNormalizedAttributeString(attribute
+                    .getKey()), UserProfile.getNormalizedAttributeString(attribute.getValue()));
+        }
+        return hashes;
+    }
+    
+    /**
+     * Hashes a pair of values the same way whichever order they come in.
+     */
+    private static long pairHash(long a, long b) {
+        return Hashing.mix(Math.min(a, b) * 31 + Math.max(a, b));
+    }
+    
+    /**
+     * The attribute values counted for one user, along with their hashes.
+     */
+    private static class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(new HashMap<String, String>());
+        
+        private final String[] attributes;
+        private final long[] hashes;
+        
+        private Snapshot(Map<String, String> attributes) {
+            this.attributes = new String[attributes.size() * 2];
+            this.hashes = new long[attributes.size()];
+            int next = 0;
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                this.attributes[2 * next] = attribute.getKey();
+                this.attributes[2 * next + 1] = attribute.getValue();
+                this.hashes[next++] = Hashing.hash(attribute.getKey(), attribute.getValue());
+            }
+        }
+        
+        /**
+         * Flags the values that the other snapshot does not have.
+         */
+        private boolean[] missingFrom(Snapshot other) {
+            boolean[] missing = new boolean[hashes.length];
+            for (int i = 0; i < hashes.length; i++) {
+                missing[i] = true;
+                for (int j = 0; j < other.hashes.length && missing[i]; j++) {
+                    missing[i] = hashes[i] != other.hashes[j] || !attributes[2 * i].equals(
+                            other.attributes[2 * j]) || !attributes[2 * i + 1].equals(
+                            other.attributes[2 * j + 1]);
+                }
+            }
+            return missing;
+        }
+    }
+}
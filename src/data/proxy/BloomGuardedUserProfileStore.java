@@ -0,0 +1,204 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import data.proxy.utils.RebuildableBloomFilter;
+import data.structure.UserProfile;
+
+/**
+ * BloomGuardedUserProfileStore wraps another UserProfileStore and keeps a Bloom filter of the ids
+ * it holds, so that getProfile() answers for users who have never been stored without a lookup
+ * in the wrapped store. This matters when each lookup is a round trip, as with DynamoDB, and a
+ * miss is expected, as at the first login of every new user.
+ * 
+ * The filter is built from a scan of the wrapped store in the background, and until it is ready
+ * every lookup goes through. Deleted ids stay in the filter until enough have been deleted that
+ * it is rebuilt. Only writes made through this store are seen, so the wrapped store must not be
+ * written to directly. See RebuildableBloomFilter for the false positive metrics, which are named
+ * "BloomGuardedUserProfileStore.negatives" and "BloomGuardedUserProfileStore.falsePositives".
+ */
+public class BloomGuardedUserProfileStore implements UserProfileStore {
+    private final UserProfileStore userStore;
+    private final RebuildableBloomFilter filter;
+    
+    /**
+     * Constructor requires the store to wrap, which is scanned in the background for the ids it
+     * already holds.
+     * 
+     * @param userStore
+     * @throws IllegalArgumentException if userStore is null
+     */
+    public BloomGuardedUserProfileStore(UserProfileStore userStore) {
+        this(userStore, RebuildableBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+    }
+    
+    /**
+     * Constructor requires the store to wrap and the target false positive rate of the filter.
+     * 
+     * @param userStore
+     * @param falsePositiveRate target share of lookups for absent ids that reach the store
+     * @throws IllegalArgumentException if userStore is null or the rate is not in (0,1)
+     */
+    public BloomGuardedUserProfileStore(final UserProfileStore userStore,
+            double falsePositiveRate) {
+        if (userStore == null) {
+            throw new IllegalArgumentException("User Store cannot be null!");
+        }
+        this.userStore = userStore;
+        this.filter = new RebuildableBloomFilter("BloomGuardedUserProfileStore",
+                new Supplier<List<String>>() {
+                    public List<String> get() {
+                        return getIds(userStore);
+                    }
+                }, falsePositiveRate);
+        filter.rebuildInBackground();
+    }
+    
+    /**
+     * Getter for the filter guarding the wrapped store.
+     * 
+     * @return filter
+     */
+    public RebuildableBloomFilter getFilter() {
+        return filter;
+    }
+    
+    /**
+     * Rebuilds the filter from the wrapped store on the calling thread, for callers that would
+     * rather wait for it than let lookups through while it is built in the background.
+     */
+    public void rebuild() {
+        filter.rebuild();
+    }
+    
+    /**
+     * Writes a user profile to storage and adds its id to the filter.
+     * 
+     * @param profile The UserProfile object to store
+     */
+    public void write(UserProfile profile) {
+        userStore.write(profile);
+        filter.add(profile.getId());
+    }
+    
+    /**
+     * Writes a batch of user profiles to storage and adds their ids to the filter.
+     * 
+     * @param profiles The UserProfile objects to store
+     */
+    public void writeAll(Collection<UserProfile> profiles) {
+        userStore.writeAll(profiles);
+        for (UserProfile profile : profiles) {
+            filter.add(profile.getId());
+        }
+    }
+    
+    /**
+     * Remove a user profile from storage. The id stays in the filter until it is next rebuilt.
+     * 
+     * @param id The String id for the UserProfile to delete
+     */
+    public void delete(String id) {
+        userStore.delete(id);
+        filter.recordRemoval();
+    }
+    
+    /**
+     * Gets the profile for the specified user, only asking the wrapped store if the filter says
+     * the user might exist.
+     * 
+     * @param id The String id for the UserProfile to retrieve
+     * @return the user's profile, or null if the user does not exist
+     */
+    public UserProfile getProfile(String id) {
+        if (id == null) {
+            return userStore.getProfile(id);
+        }
+        if (!filter.mightContain(id)) {
+            return null;
+        }
+        UserProfile profile = userStore.getProfile(id);
+        if (profile == null) {
+            filter.recordFalsePositive();
+        }
+        return profile;
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition.
+     * 
+     * @param predicate
+     * @return filtered collection of users
+     */
+    public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate) {
+        return userStore.getUsersForPredicate(predicate);
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition, given attribute
+     * values that every match is known to have.
+     * 
+     * @param predicate
+     * @param requiredAttributes attribute values by name that every matching user has
+     * @return filtered collection of users
+     */
+    @Override
+    public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate,
+            Map<String, String> requiredAttributes) {
+        return userStore.getUsersForPredicate(predicate, requiredAttributes);
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition, given that every
+     * match shares enough attribute values with the primary user.
+     * 
+     * @param predicate
+     * @param primary user whose attribute values are shared
+     * @param minimumSharedAttributes fewest attribute values every matching user shares
+     * @return filtered collection of users
+     */
+    @Override
+    public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate,
+            UserProfile primary, int minimumSharedAttributes) {
+        return userStore.getUsersForPredicate(predicate, primary, minimumSharedAttributes);
+    }
+    
+    /**
+     * Gets the statistics kept by the wrapped store.
+     * 
+     * @return statistics of the stored profiles, or null if none are kept
+     */
+    @Override
+    public AttributeStatistics getStatistics() {
+        return userStore.getStatistics();
+    }
+    
+    /**
+     * Gets the cohorts kept by the wrapped store.
+     * 
+     * @return cohorts of the stored profiles, or null if none are kept
+     */
+    @Override
+    public UserCohorts getCohorts() {
+        return userStore.getCohorts();
+    }
+    
+    private static List<String> getIds(UserProfileStore userStore) {
+        Collection<UserProfile> profiles = userStore.getUsersForPredicate(
+                new Predicate<UserProfile>() {
+                    public boolean test(UserProfile profile) {
+                        return true;
+                    }
+                });
+        List<String> ids = new ArrayList<String>(profiles.size());
+        for (UserProfile profile : profiles) {
+            ids.add(profile.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,629 @@
+package data.proxy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
+import data.proxy.adapter.DDBUserProfileAdapter;
+import data.proxy.utils.TokenBucket;
+import data.structure.UserProfile;
+
+/**
+ * DDBBulkLoader writes large numbers of user profiles to a DynamoDB table with BatchWriteItem,
+ * spreading the batches across a pool of workers. Every write first draws one token per item from
+ * a shared token bucket. Throttling, whether reported as an exception or as unprocessed items,
+ * halves the bucket's rate and backs the batch off exponentially; each successful batch then wins
+ * a little of the rate back, up to the configured maximum.
+ * 
+ * With a checkpoint file, the loader periodically records how many leading profiles of the input
+ * are known to be written. Loading the same input again with the same checkpoint skips them, so
+ * an interrupted load resumes where it left off. Profiles after the checkpoint may be written
+ * twice, which is harmless because each write replaces the whole item.
+ * 
+ * When an id appears more than once, its later profile is not sent until every batch holding an
+ * earlier one has finished, so the last profile for each id is the one left in the table.
+ */
+public class DDBBulkLoader {
+    /**
+     * Most items DynamoDB accepts in a single BatchWriteItem request.
+     */
+    public static final int MAX_BATCH_SIZE = 25;
+    
+    private static final Timer BATCH_TIMER = Metrics.timer("DDBBulkLoader.batchWriteItem");
+    private static final Counter ITEMS_WRITTEN = Metrics.counter("DDBBulkLoader.itemsWritten");
+    private static final Counter THROTTLES = Metrics.counter("DDBBulkLoader.throttles");
+    
+    private static final double DEFAULT_MAX_RATE = 1000;
+    private static final double MIN_RATE = 1;
+    // Share of the maximum rate won back by each successful batch.
+    private static final double RATE_INCREASE = 0.02;
+    private static final long RATE_DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long CHECKPOINT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    private final DynamoDB client;
+    private final String tableName;
+    private int threads = 4;
+    private int maxAttempts = 10;
+    private long initialBackoffMillis = 50;
+    private long maxBackoffMillis = 5000;
+    private double maxRate = DEFAULT_MAX_RATE;
+    private TokenBucket bucket = new TokenBucket(DEFAULT_MAX_RATE, DEFAULT_MAX_RATE);
+    private Path checkpoint;
+    private long lastRateDecrease;
+    private final LongAdder itemsWritten = new LongAdder();
+    private final LongAdder throttles = new LongAdder();
+    
+    /**
+     * Constructor requires a client and the name of the table to load.
+     * 
+     * @param client
+     * @param tableName
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public DDBBulkLoader(DynamoDB client, String tableName) {
+        if (client == null) {
+            throw new IllegalArgumentException("DynamoDB client cannot be null!");
+        }
+        if (tableName == null) {
+            throw new IllegalArgumentException("Table name cannot be null!");
+        }
+        this.client = client;
+        this.tableName = tableName;
+        this.lastRateDecrease = System.nanoTime() - RATE_DECREASE_INTERVAL_NANOS;
+    }
+    
+    /**
+     * Sets the number of batches written concurrently by load().
+     * 
+     * @param threads
+     * @return this loader
+     * @throws IllegalArgumentException if threads is not positive
+     */
+    public DDBBulkLoader withThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The thread count must be positive!");
+        }
+        this.threads = threads;
+        return this;
+    }
+    
+    /**
+     * Sets the most items written per second, which should not exceed the table's provisioned
+     * write capacity. The loader starts at this rate and never goes above it.
+     * 
+     * @param itemsPerSecond
+     * @return this loader
+     * @throws IllegalArgumentException if itemsPerSecond is less than one
+     */
+    public DDBBulkLoader withMaxRate(double itemsPerSecond) {
+        if (!(itemsPerSecond >= MIN_RATE)) {
+            throw new IllegalArgumentException("The rate must be at least one item per second!");
+        }
+        this.maxRate = itemsPerSecond;
+        this.bucket = new TokenBucket(itemsPerSecond, Math.max(itemsPerSecond, MAX_BATCH_SIZE));
+        return this;
+    }
+    
+    /**
+     * Sets how throttled batches are retried: the first retry waits up to initialMillis, each
+     * later retry up to twice as long as the one before, capped at maxMillis, and a batch that
+     * still has unprocessed items after maxAttempts requests fails the load.
+     * 
+     * @param initialMillis
+     * @param maxMillis
+     * @param maxAttempts
+     * @return this loader
+     * @throws IllegalArgumentException if a delay is negative, maxMillis is less than
+     *             initialMillis, or maxAttempts is not positive
+     */
+    public DDBBulkLoader withBackoff(long initialMillis, long maxMillis, int maxAttempts) {
+        if (initialMillis < 0 || maxMillis < initialMillis) {
+            throw new IllegalArgumentException("Invalid backoff delays!");
+        }
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("The number of attempts must be positive!");
+        }
+        this.initialBackoffMillis = initialMillis;
+        this.maxBackoffMillis = maxMillis;
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+    
+    /**
+     * Records progress in the given file so that an interrupted load can be resumed.
+     * 
+     * @param checkpoint
+     * @return this loader
+     */
+    public DDBBulkLoader withCheckpoint(Path checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+    
+    /**
+     * Writes every profile, resuming after the checkpointed position if there is one. Returns once
+     * every batch has been written, or throws once any batch has failed and the batches already
+     * started have finished.
+     * 
+     * @param profiles
+     * @return the number of profiles written by this call
+     * @throws IllegalArgumentException if profiles is null
+     * @throws IOException if the checkpoint cannot be read or written
+     * @throws InterruptedException if interrupted while loading
+     */
+    public long load(Iterator<UserProfile> profiles) throws IOException, InterruptedException {
+        if (profiles == null) {
+            throw new IllegalArgumentException("Profiles cannot be null!");
+        }
+        long skipped = readCheckpoint();
+        for (long i = 0; i < skipped && profiles.hasNext(); i++) {
+            profiles.next();
+        }
+        
+        final Progress progress = new Progress(skipped);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+        final Semaphore inFlight = new Semaphore(threads * 2);
+        // Ids in batches that have been submitted and not yet finished.
+        final Set<String> writing = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ddb-bulk-loader-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Throwable thrown = null;
+        try {
+            List<Item> batch = new ArrayList<Item>(MAX_BATCH_SIZE);
+            Set<String> ids = new HashSet<String>();
+            int sequence = 0;
+            while (failure.get() == null && profiles.hasNext()) {
+                UserProfile profile = profiles.next();
+                // A request may not repeat a key, so a repeated id starts a new batch.
+                if (batch.size() == MAX_BATCH_SIZE || ids.contains(profile.getId())) {
+                    submit(workers, inFlight, failure, progress, writing, sequence++, batch, ids);
+                    batch = new ArrayList<Item>(MAX_BATCH_SIZE);
+                    ids = new HashSet<String>();
+                }
+                // Batches finish in any order, so an id still being written must land first.
+                if (writing.contains(profile.getId())) {
+                    inFlight.acquire(threads * 2);
+                    inFlight.release(threads * 2);
+                }
+                ids.add(profile.getId());
+                batch.add(new DDBUserProfileAdapter().withObject(profile).toDBModel());
+            }
+            if (failure.get() == null && !batch.isEmpty()) {
+                submit(workers, inFlight, failure, progress, writing, sequence++, batch, ids);
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (Throwable e) {
+            thrown = e;
+            throw e;
+        } finally {
+            workers.shutdownNow();
+            // A checkpoint that cannot be written must not hide why the load stopped.
+            Throwable primary = thrown != null ? thrown : failure.get();
+            try {
+                progress.save(true);
+            } catch (IllegalStateException e) {
+                if (primary == null) {
+                    throw e;
+                }
+                primary.addSuppressed(e);
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return progress.getWritten() - skipped;
+    }
+    
+    /**
+     * Writes profiles on the calling thread, in batches, with the same throttling and retries as
+     * load() but without a checkpoint.
+     * 
+     * @param profiles
+     * @throws IllegalArgumentException if profiles is null
+     * @throws IllegalStateException if a batch could not be written, or the thread was interrupted
+     */
+    public void writeAll(Iterable<UserProfile> profiles) {
+        if (profiles == null) {
+            throw new IllegalArgumentException("Profiles cannot be null!");
+        }
+        Map<String, Item> batch = new HashMap<String, Item>();
+        try {
+            for (UserProfile profile : profiles) {
+                if (batch.containsKey(profile.getId()) || batch.size() == MAX_BATCH_SIZE) {
+                    writeBatch(new ArrayList<Item>(batch.values()));
+                    batch.clear();
+                }
+                batch.put(profile.getId(), new DDBUserProfileAdapter().withObject(profile)
+                        .toDBModel());
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(new ArrayList<Item>(batch.values()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing profiles.", e);
+        }
+    }
+    
+    /**
+     * Getter for the number of items this loader has written.
+     * 
+     * @return items written
+     */
+    public long getItemsWritten() {
+        return itemsWritten.sum();
+    }
+    
+    /**
+     * Getter for the number of throttled requests this loader has seen.
+     * 
+     * @return throttled requests
+     */
+    public long getThrottleCount() {
+        return throttles.sum();
+    }
+    
+    /**
+     * Getter for the current write rate, which falls when DynamoDB throttles the loader.
+     * 
+     * @return items per second
+     */
+    public double getRate() {
+        return bucket.getRate();
+    }
+    
+    /**
+     * Loads a file of profiles into a DynamoDB table, by default on a DynamoDB Local instance.
+     * Each line holds an id followed by tab-separated name=value attributes. Progress is
+     * checkpointed next to the file, so running the same command again after an interruption
+     * resumes the load. Options are given as --name=value:
+     * 
+     * <pre>
+     * --file=PATH         profiles to load (required)
+     * --endpoint=URL      DynamoDB endpoint (default http://localhost:8000)
+     * --table=NAME        table, created if missing (default UserProfiles)
+     * --threads=N         concurrent batches (default 4)
+     * --rate=N            most items written per second (default 1000)
+     * --checkpoint=PATH   progress file (default the file name plus .checkpoint)
+     * </pre>
+     * 
+     * @param args
+     * @throws IOException if the file or checkpoint cannot be read
+     * @throws InterruptedException if interrupted while loading
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (!option[0].startsWith("--") || option.length != 2) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid option \"%s\". Options must look like --name=value.", arg));
+            }
+            options.put(option[0].substring(2), option[1]);
+        }
+        if (!options.containsKey("file")) {
+            throw new IllegalArgumentException("The --file option is required.");
+        }
+        Path file = Paths.get(options.get("file"));
+        String tableName = option(options, "table", "UserProfiles");
+        double rate = Double.parseDouble(option(options, "rate", "1000"));
+        
+        AmazonDynamoDBClient awsClient = new AmazonDynamoDBClient(new BasicAWSCredentials(
+                "local", "local"));
+        awsClient.setEndpoint(option(options, "endpoint", "http://localhost:8000"));
+        DynamoDB dynamoDB = new DynamoDB(awsClient);
+        DDBUserProfileStore.createTableIfMissing(dynamoDB, tableName, 1000L, (long) rate);
+        
+        final DDBBulkLoader loader = new DDBBulkLoader(dynamoDB, tableName).withThreads(Integer
+                .parseInt(option(options, "threads", "4"))).withMaxRate(rate).withCheckpoint(
+                Paths.get(option(options, "checkpoint", file + ".checkpoint")));
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                System.out.println(String.format(
+                        "%,d items written, %,d throttled requests, rate %.0f items/s", loader
+                                .getItemsWritten(), loader.getThrottleCount(), loader.getRate()));
+            }
+        }, 5, 5, TimeUnit.SECONDS);
+        
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            long written = loader.load(new ProfileLineIterator(reader));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("Loaded %,d profiles in %.1f s (%,.0f/s), %,d "
+                    + "throttled requests.", written, seconds, written / seconds, loader
+                    .getThrottleCount()));
+        } finally {
+            reporter.shutdownNow();
+        }
+    }
+    
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        return options.containsKey(name) ? options.get(name) : defaultValue;
+    }
+    
+    /**
+     * Reads one profile per line: an id followed by tab-separated name=value attributes.
+     */
+    private static class ProfileLineIterator implements Iterator<UserProfile> {
+        private final BufferedReader reader;
+        private String line;
+        private long lineNumber;
+        
+        private ProfileLineIterator(BufferedReader reader) {
+            this.reader = reader;
+        }
+        
+        public boolean hasNext() {
+            try {
+                while (line == null) {
+                    line = reader.readLine();
+                    if (line == null) {
+                        return false;
+                    }
+                    lineNumber++;
+                    if (line.trim().isEmpty() || line.startsWith("#")) {
+                        line = null;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        public UserProfile next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String[] fields = line.split("\t");
+            line = null;
+            UserProfile profile = new UserProfile(fields[0]);
+            for (int i = 1; i < fields.length; i++) {
+                int equals = fields[i].indexOf('=');
+                if (equals <= 0) {
+                    throw new IllegalArgumentException(String.format(
+                            "Line %d: attribute \"%s\" is not of the form name=value.",
+                            lineNumber, fields[i]));
+                }
+                profile.setAttribute(fields[i].substring(0, equals), fields[i]
+                        .substring(equals + 1));
+            }
+            return profile;
+        }
+    }
+    
+    private void submit(ExecutorService workers, final Semaphore inFlight,
+            final AtomicReference<RuntimeException> failure, final Progress progress,
+            final Set<String> writing, final int sequence, final List<Item> batch,
+            final Set<String> ids) throws InterruptedException {
+        // Bounds the number of batches held in memory while the workers catch up.
+        inFlight.acquire();
+        writing.addAll(ids);
+        workers.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (failure.get() == null) {
+                        writeBatch(batch);
+                        progress.complete(sequence, batch.size());
+                    }
+                } catch (InterruptedException e) {
+                    failure.compareAndSet(null, new IllegalStateException(
+                            "Interrupted while writing profiles.", e));
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    writing.removeAll(ids);
+                    inFlight.release();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Writes a single batch, retrying throttled requests and unprocessed items with backoff.
+     */
+    private void writeBatch(List<Item> items) throws InterruptedException {
+        long start = Metrics.startTimer();
+        try {
+            bucket.acquire(items.size());
+            Map<String, List<WriteRequest>> unprocessed = null;
+            int pending = items.size();
+            for (int attempt = 1;; attempt++) {
+                try {
+                    BatchWriteItemOutcome outcome;
+                    if (unprocessed == null) {
+                        outcome = client.batchWriteItem(new TableWriteItems(tableName)
+                                .withItemsToPut(items));
+                    } else {
+                        outcome = client.batchWriteItemUnprocessed(unprocessed);
+                    }
+                    Map<String, List<WriteRequest>> remaining = outcome.getUnprocessedItems();
+                    int left = count(remaining);
+                    recordWritten(pending - left);
+                    if (left == 0) {
+                        increaseRate();
+                        return;
+                    }
+                    unprocessed = remaining;
+                    pending = left;
+                } catch (ProvisionedThroughputExceededException e) {
+                    // Nothing in the request was written, so it is retried unchanged.
+                    if (attempt >= maxAttempts) {
+                        throw e;
+                    }
+                }
+                if (attempt >= maxAttempts) {
+                    throw new IllegalStateException(String.format(
+                            "%d items were still unprocessed after %d attempts.", pending,
+                            attempt));
+                }
+                throttled();
+                backoff(attempt);
+                bucket.acquire(pending);
+            }
+        } finally {
+            BATCH_TIMER.record(start);
+        }
+    }
+    
+    private void recordWritten(int items) {
+        itemsWritten.add(items);
+        ITEMS_WRITTEN.add(items);
+    }
+    
+    /**
+     * Halves the rate, at most once per interval so that a burst of throttled workers does not
+     * collapse it all at once.
+     */
+    private synchronized void throttled() {
+        throttles.increment();
+        THROTTLES.increment();
+        long now = System.nanoTime();
+        if (now - lastRateDecrease >= RATE_DECREASE_INTERVAL_NANOS) {
+            lastRateDecrease = now;
+            bucket.setRate(Math.max(MIN_RATE, bucket.getRate() / 2));
+        }
+    }
+    
+    private synchronized void increaseRate() {
+        double rate = bucket.getRate();
+        if (rate < maxRate) {
+            bucket.setRate(Math.min(maxRate, rate + maxRate * RATE_INCREASE));
+        }
+    }
+    
+    /**
+     * Sleeps for a random time up to the exponentially growing limit for the attempt.
+     */
+    private void backoff(int attempt) throws InterruptedException {
+        long limit = initialBackoffMillis << Math.min(attempt - 1, 30);
+        limit = Math.min(maxBackoffMillis, limit < 0 ? maxBackoffMillis : limit);
+        if (limit > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(limit + 1));
+        }
+    }
+    
+    private static int count(Map<String, List<WriteRequest>> requests) {
+        int count = 0;
+        if (requests != null) {
+            for (List<WriteRequest> tableRequests : requests.values()) {
+                count += tableRequests.size();
+            }
+        }
+        return count;
+    }
+    
+    private long readCheckpoint() throws IOException {
+        if (checkpoint == null || !Files.exists(checkpoint)) {
+            return 0;
+        }
+        String content = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim();
+        try {
+            return Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("The checkpoint \'%s\' is corrupt.", checkpoint),
+                    e);
+        }
+    }
+    
+    /**
+     * Tracks which batches have finished, and the number of leading profiles that are all known
+     * to be written, which is what the checkpoint records.
+     */
+    private class Progress {
+        private final Map<Integer, Integer> finishedOutOfOrder = new HashMap<Integer, Integer>();
+        private int nextSequence;
+        private long written;
+        private long saved;
+        private long lastSave = System.nanoTime();
+        
+        private Progress(long written) {
+            this.written = written;
+            this.saved = written;
+        }
+        
+        private synchronized long getWritten() {
+            return written;
+        }
+        
+        private synchronized void complete(int sequence, int size) {
+            finishedOutOfOrder.put(sequence, size);
+            Integer next;
+            while ((next = finishedOutOfOrder.remove(nextSequence)) != null) {
+                written += next;
+                nextSequence++;
+            }
+            if (System.nanoTime() - lastSave >= CHECKPOINT_INTERVAL_NANOS) {
+                save(false);
+            }
+        }
+        
+        /**
+         * Writes the checkpoint to a temporary file and renames it over the old one, so a crash
+         * never leaves a partly written checkpoint behind.
+         */
+        private synchronized void save(boolean force) {
+            if (checkpoint == null || (!force && written == saved)) {
+                return;
+            }
+            lastSave = System.nanoTime();
+            try {
+                Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+                Files.write(temporary, Long.toString(written).getBytes(StandardCharsets.UTF_8));
+                Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                saved = written;
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format(
+                        "Could not write the checkpoint \'%s\'.", checkpoint), e);
+            }
+        }
+    }
+}
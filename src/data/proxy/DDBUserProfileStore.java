@@ -3,6 +3,7 @@ package data.proxy;
 import static data.proxy.adapter.DDBUserProfileAdapter.USER_ID_ATTRIBUTE;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -13,10 +14,16 @@ import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.ItemCollection;
 import com.amazonaws.services.dynamodbv2.document.ScanOutcome;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 import com.amazonaws.services.dynamodbv2.model.TableDescription;
 
+import metrics.Metrics;
+import metrics.Timer;
 import data.proxy.adapter.DDBUserProfileAdapter;
 import data.structure.UserProfile;
 
@@ -24,8 +31,14 @@ import data.structure.UserProfile;
  * DDBUserProfileStore manages access to the stored user profiles using a DynamoDB client.
  */
 public class DDBUserProfileStore implements UserProfileStore {
+    private static final Timer WRITE_TIMER = Metrics.timer("DDBUserProfileStore.write");
+    private static final Timer DELETE_TIMER = Metrics.timer("DDBUserProfileStore.delete");
+    private static final Timer GET_PROFILE_TIMER = Metrics.timer("DDBUserProfileStore.getProfile");
+    private static final Timer SCAN_TIMER = Metrics
+            .timer("DDBUserProfileStore.getUsersForPredicate");
     
     private final Table userTable;
+    private final DDBBulkLoader bulkLoader;
     
     /**
      * Constructor requires a client and a table name, both of which are validated.
@@ -38,12 +51,40 @@ public class DDBUserProfileStore implements UserProfileStore {
             Table table = client.getTable(userTable);
             validateTableDescription(table.describe());
             this.userTable = table;
+            this.bulkLoader = new DDBBulkLoader(client, userTable);
         } catch (ResourceNotFoundException e) {
             throw new IllegalArgumentException(
                     String.format("The DynamoDB table \'%s\' was not found."));
         }
     }
     
+    /**
+     * Gets a user profile table, creating it with the given throughput and waiting for it to
+     * become active if it does not exist yet. Mainly useful with DynamoDB Local.
+     * 
+     * @param client
+     * @param tableName
+     * @param readCapacity
+     * @param writeCapacity
+     * @return the table
+     * @throws InterruptedException if interrupted while waiting for the table
+     */
+    public static Table createTableIfMissing(DynamoDB client, String tableName,
+            long readCapacity, long writeCapacity) throws InterruptedException {
+        try {
+            Table table = client.getTable(tableName);
+            table.describe();
+            return table;
+        } catch (ResourceNotFoundException e) {
+            Table table = client.createTable(tableName, Arrays.asList(new KeySchemaElement(
+                    USER_ID_ATTRIBUTE, KeyType.HASH)), Arrays.asList(new AttributeDefinition(
+                    USER_ID_ATTRIBUTE, ScalarAttributeType.S)), new ProvisionedThroughput(
+                    readCapacity, writeCapacity));
+            table.waitForActive();
+            return table;
+        }
+    }
+    
     /**
      * Validates the format of the table to ensure usability.
      * 
@@ -64,27 +105,48 @@ public class DDBUserProfileStore implements UserProfileStore {
      * {@inheritDoc}
      */
     public void write(UserProfile profile) {
-        Item item = new DDBUserProfileAdapter().withObject(profile).toDBModel();
-        this.userTable.putItem(item);
+        long start = Metrics.startTimer();
+        try {
+            Item item = new DDBUserProfileAdapter().withObject(profile).toDBModel();
+            this.userTable.putItem(item);
+        } finally {
+            WRITE_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * {@inheritDoc} Profiles are written with BatchWriteItem, backing off when throttled.
+     */
+    public void writeAll(Collection<UserProfile> profiles) {
+        bulkLoader.writeAll(profiles);
     }
     
     /**
      * {@inheritDoc}
      */
     public void delete(String id) {
-        this.userTable.deleteItem(USER_ID_ATTRIBUTE, id);
-        
+        long start = Metrics.startTimer();
+        try {
+            this.userTable.deleteItem(USER_ID_ATTRIBUTE, id);
+        } finally {
+            DELETE_TIMER.record(start);
+        }
     }
     
     /**
      * {@inheritDoc}
      */
     public UserProfile getProfile(String id) {
-        Item item = this.userTable.getItem(USER_ID_ATTRIBUTE, id);
-        if (item == null) {
-            return null;
-        } else {
-            return new DDBUserProfileAdapter().withDBModel(item).toObject();
+        long start = Metrics.startTimer();
+        try {
+            Item item = this.userTable.getItem(USER_ID_ATTRIBUTE, id);
+            if (item == null) {
+                return null;
+            } else {
+                return new DDBUserProfileAdapter().withDBModel(item).toObject();
+            }
+        } finally {
+            GET_PROFILE_TIMER.record(start);
         }
     }
     
@@ -94,16 +156,21 @@ public class DDBUserProfileStore implements UserProfileStore {
     public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate) {
         // TODO Pending design and implementation of Attribute-Linked User Graph, because scanning
         // the entire table is horribly unscalable.
-        Collection<UserProfile> resultSet = new ArrayList<UserProfile>();
-        ItemCollection<ScanOutcome> outcomes = this.userTable.scan();
-        Iterator<Item> items = outcomes.iterator();
-        while (items.hasNext()) {
-            Item item = items.next();
-            UserProfile user = new DDBUserProfileAdapter().withDBModel(item).toObject();
-            if (predicate.test(user)) {
-                resultSet.add(user);
+        long start = Metrics.startTimer();
+        try {
+            Collection<UserProfile> resultSet = new ArrayList<UserProfile>();
+            ItemCollection<ScanOutcome> outcomes = this.userTable.scan();
+            Iterator<Item> items = outcomes.iterator();
+            while (items.hasNext()) {
+                Item item = items.next();
+                UserProfile user = new DDBUserProfileAdapter().withDBModel(item).toObject();
+                if (predicate.test(user)) {
+                    resultSet.add(user);
+                }
             }
+            return resultSet;
+        } finally {
+            SCAN_TIMER.record(start);
         }
-        return resultSet;
     }
 }
@@ -0,0 +1,166 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import data.proxy.utils.FunctionalUtils;
+import data.structure.ScoredProfile;
+import data.structure.UserProfile;
+
+/**
+ * IndexedUserProfileStore wraps another UserProfileStore and keeps an AttributeIndex of the
+ * profiles written through it, which supplies attribute frequencies, top-K matches and the
+ * candidates for predicates with required or shared attribute values. The wrapped store remains
+ * the source of truth for lookups and scans.
+ */
+public class IndexedUserProfileStore implements UserProfileStore {
+    private final UserProfileStore userStore;
+    private final AttributeIndex index;
+    
+    /**
+     * Constructor requires the store to wrap, which should start out empty since profiles it
+     * already holds are not indexed.
+     * 
+     * @param userStore
+     * @throws IllegalArgumentException if userStore is null
+     */
+    public IndexedUserProfileStore(UserProfileStore userStore) {
+        if (userStore == null) {
+            throw new IllegalArgumentException("User Store cannot be null!");
+        }
+        this.userStore = userStore;
+        this.index = new AttributeIndex();
+    }
+    
+    /**
+     * Getter for the index of the stored profiles.
+     * 
+     * @return index
+     */
+    public AttributeIndex getIndex() {
+        return index;
+    }
+    
+    /**
+     * Finds the k users who share the most attribute weight with the primary user. See
+     * AttributeIndex.getTopMatches().
+     * 
+     * @param primary
+     * @param k most users to return
+     * @return best matches, highest score first
+     */
+    public List<ScoredProfile> getTopMatches(UserProfile primary, int k) {
+        return index.getTopMatches(primary, k, 0);
+    }
+    
+    /**
+     * Writes a user profile to storage and indexes it.
+     * 
+     * @param profile The UserProfile object to store
+     */
+    public void write(UserProfile profile) {
+        userStore.write(profile);
+        index.update(profile);
+    }
+    
+    /**
+     * Writes a batch of user profiles to storage and indexes them.
+     * 
+     * @param profiles The UserProfile objects to store
+     */
+    public void writeAll(Collection<UserProfile> profiles) {
+        userStore.writeAll(profiles);
+        index.updateAll(profiles);
+    }
+    
+    /**
+     * Remove a user profile from storage and from the index.
+     * 
+     * @param id The String id for the UserProfile to delete
+     */
+    public void delete(String id) {
+        userStore.delete(id);
+        index.remove(id);
+    }
+    
+    /**
+     * Gets the profile for the specified user from storage.
+     * 
+     * @param id The String id for the UserProfile to retrieve
+     * @return the user's profile, or null if the user does not exist
+     */
+    public UserProfile getProfile(String id) {
+        return userStore.getProfile(id);
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition.
+     * 
+     * @param predicate
+     * @return filtered collection of users
+     */
+    public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate) {
+        return userStore.getUsersForPredicate(predicate);
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition, only testing the
+     * indexed users who have the required attribute values.
+     * 
+     * @param predicate
+     * @param requiredAttributes attribute values by name that every matching user has
+     * @return filtered collection of users
+     */
+    @Override
+    public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate,
+            Map<String, String> requiredAttributes) {
+        if (requiredAttributes.isEmpty()) {
+            return userStore.getUsersForPredicate(predicate);
+        }
+        return FunctionalUtils.filteredAddAll(index.getUsersWithAttributes(requiredAttributes),
+                predicate, new ArrayList<UserProfile>());
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition, only testing the
+     * indexed users who share enough attribute values with the primary user. See
+     * AttributeIndex.getCandidates().
+     * 
+     * @param predicate
+     * @param primary user whose attribute values are shared
+     * @param minimumSharedAttributes fewest attribute values every matching user shares
+     * @return filtered collection of users
+     */
+    @Override
+    public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate,
+            UserProfile primary, int minimumSharedAttributes) {
+        if (minimumSharedAttributes < 1) {
+            return userStore.getUsersForPredicate(predicate);
+        }
+        return FunctionalUtils.filteredAddAll(index.getCandidates(primary,
+                minimumSharedAttributes), predicate, new ArrayList<UserProfile>());
+    }
+    
+    /**
+     * Gets the statistics kept by the wrapped store.
+     * 
+     * @return statistics of the stored profiles, or null if none are kept
+     */
+    @Override
+    public AttributeStatistics getStatistics() {
+        return userStore.getStatistics();
+    }
+    
+    /**
+     * Gets the cohorts kept by the wrapped store.
+     * 
+     * @return cohorts of the stored profiles, or null if none are kept
+     */
+    @Override
+    public UserCohorts getCohorts() {
+        return userStore.getCohorts();
+    }
+}
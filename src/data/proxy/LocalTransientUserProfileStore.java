@@ -2,24 +2,84 @@ package data.proxy;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
+import metrics.Metrics;
+import metrics.Timer;
 import data.proxy.utils.FunctionalUtils;
 import data.structure.UserProfile;
 
 /**
  * LocalTransientUserProfileStore manages access to the stored user profiles locally in memory.
+ * Profiles are held in a ConcurrentHashMap, so sessions can read and write at the same time; a
+ * batch written with writeAll() becomes visible one profile at a time, and a scan may or may not
+ * see writes made while it runs.
  */
 public class LocalTransientUserProfileStore implements UserProfileStore {
+    private static final Timer WRITE_TIMER = Metrics.timer("LocalTransientUserProfileStore.write");
+    private static final Timer WRITE_ALL_TIMER = Metrics
+            .timer("LocalTransientUserProfileStore.writeAll");
+    private static final Timer DELETE_TIMER = Metrics
+            .timer("LocalTransientUserProfileStore.delete");
+    private static final Timer GET_PROFILE_TIMER = Metrics
+            .timer("LocalTransientUserProfileStore.getProfile");
+    private static final Timer SCAN_TIMER = Metrics
+            .timer("LocalTransientUserProfileStore.getUsersForPredicate");
+    
     private Map<String, UserProfile> userProfiles;
+    private volatile AttributeStatistics statistics;
+    private volatile UserCohorts cohorts;
     
     /**
      * Basic default constructor for UserProfileStore.
      */
     public LocalTransientUserProfileStore() {
-        userProfiles = new HashMap<String, UserProfile>();
+        userProfiles = new ConcurrentHashMap<String, UserProfile>();
+    }
+    
+    /**
+     * Keeps AttributeStatistics of the stored profiles, counting the profiles already stored and
+     * then every write and delete. Profiles changed in place are only recounted when written again.
+     * 
+     * @return this store
+     */
+    public LocalTransientUserProfileStore withStatistics() {
+        AttributeStatistics counted = new AttributeStatistics();
+        counted.updateAll(userProfiles.values());
+        statistics = counted;
+        return this;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AttributeStatistics getStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * Groups the stored profiles into UserCohorts, starting with the profiles already stored and
+     * then following every write and delete. Profiles changed in place only move to their new
+     * cohort when written again.
+     * 
+     * @return this store
+     */
+    public LocalTransientUserProfileStore withCohorts() {
+        UserCohorts grouped = new UserCohorts();
+        grouped.updateAll(userProfiles.values());
+        cohorts = grouped;
+        return this;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UserCohorts getCohorts() {
+        return cohorts;
     }
     
     /**
@@ -28,16 +88,57 @@ public class LocalTransientUserProfileStore implements UserProfileStore {
      * @param profile The UserProfile object to store
      */
     public void write(UserProfile profile) {
+        long start = Metrics.startTimer();
         userProfiles.put(profile.getId(), profile);
+        AttributeStatistics counted = statistics;
+        if (counted != null) {
+            counted.update(profile);
+        }
+        UserCohorts grouped = cohorts;
+        if (grouped != null) {
+            grouped.update(profile);
+        }
+        WRITE_TIMER.record(start);
+    }
+    
+    /**
+     * Writes a batch of user profiles to storage.
+     * 
+     * @param profiles The UserProfile objects to store
+     */
+    public void writeAll(Collection<UserProfile> profiles) {
+        long start = Metrics.startTimer();
+        for (UserProfile profile : profiles) {
+            userProfiles.put(profile.getId(), profile);
+        }
+        AttributeStatistics counted = statistics;
+        if (counted != null) {
+            counted.updateAll(profiles);
+        }
+        UserCohorts grouped = cohorts;
+        if (grouped != null) {
+            grouped.updateAll(profiles);
+        }
+        WRITE_ALL_TIMER.record(start);
     }
     
     /**
      * Remove a user profile from storage.
-     *
+     * 
      * @param id The String id for the UserProfile to delete
      */
     public void delete(String id) {
+        long start = Metrics.startTimer();
         userProfiles.remove(id);
+        AttributeStatistics counted = statistics;
+        if (counted != null) {
+            counted.remove(id);
+        }
+        UserCohorts grouped = cohorts;
+        if (grouped != null) {
+            grouped.remove(id);
+        }
+        DELETE_TIMER.record(start);
     }
     
     /**
@@ -47,10 +148,15 @@ public class LocalTransientUserProfileStore implements UserProfileStore {
      * @return the user's profile, or null if the user does not exist
      */
     public UserProfile getProfile(String id) {
-        if (!userProfiles.containsKey(id)) {
-            return null;
-        } else {
-            return userProfiles.get(id);
+        long start = Metrics.startTimer();
+        try {
+            if (!userProfiles.containsKey(id)) {
+                return null;
+            } else {
+                return userProfiles.get(id);
+            }
+        } finally {
+            GET_PROFILE_TIMER.record(start);
         }
     }
     
@@ -61,7 +167,12 @@ public class LocalTransientUserProfileStore implements UserProfileStore {
      * @return filtered collection of users
      */
     public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate) {
-        return FunctionalUtils.filteredAddAll(this.userProfiles.values(), predicate,
-                new ArrayList<UserProfile>());
+        long start = Metrics.startTimer();
+        try {
+            return FunctionalUtils.filteredAddAll(this.userProfiles.values(), predicate,
+                    new ArrayList<UserProfile>());
+        } finally {
+            SCAN_TIMER.record(start);
+        }
     }
 }
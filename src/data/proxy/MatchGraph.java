@@ -0,0 +1,271 @@
+package data.proxy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MatchGraph is a read-only snapshot of which users match which, as computed offline for one
+ * matcher. The snapshot file holds the user ids followed by every user's matches as a compressed
+ * sparse row: one offset per user into a single array of user numbers. Loading a snapshot maps the
+ * file into memory and only reads the ids onto the heap, so the matches themselves are paged in
+ * by the operating system as they are used and are shared by every process that maps the file.
+ * 
+ * <pre>
+ * header:   magic, version, user count, 0, match count (long), id bytes (long)
+ * ids:      (user count + 1) int offsets into the UTF-8 id bytes, then the id bytes
+ * matches:  (user count + 1) long offsets into the match array, then the int match array
+ * </pre>
+ * 
+ * Every section starts on an 8 byte boundary. A loaded graph is never modified, and the mapped
+ * buffers are only read by absolute index, so any number of threads can read it without locking.
+ */
+public class MatchGraph implements MatchSource {
+    private static final int MAGIC = 0x43484d47;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int SEGMENT_SHIFT = 28;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    
+    private final String[] ids;
+    private final Map<String, Integer> numbers;
+    private final LongBuffer offsets;
+    private final IntBuffer[] segments;
+    private final long matchCount;
+    
+    private MatchGraph(String[] ids, LongBuffer offsets, IntBuffer[] segments, long matchCount) {
+        this.ids = ids;
+        this.numbers = new HashMap<String, Integer>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            numbers.put(ids[i], i);
+        }
+        this.offsets = offsets;
+        this.segments = segments;
+        this.matchCount = matchCount;
+    }
+    
+    /**
+     * Writes a snapshot, replacing any file at the path only once it is complete.
+     * 
+     * @param file
+     * @param ids user ids, numbered by their position in the list
+     * @param matches for each user number, the numbers of the users they match in increasing order
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if any argument is null, an id is null or repeated, the
+     *         sizes differ, or a user number is out of range or out of order
+     */
+    public static void write(Path file, List<String> ids, int[][] matches) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null!");
+        }
+        if (ids == null) {
+            throw new IllegalArgumentException("IDs cannot be null!");
+        }
+        if (matches == null || matches.length != ids.size()) {
+            throw new IllegalArgumentException("There must be one list of matches per user!");
+        }
+        Map<String, Integer> seen = new HashMap<String, Integer>(ids.size() * 2);
+        List<byte[]> encoded = new ArrayList<byte[]>(ids.size());
+        long idBytes = 0;
+        long matchCount = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            if (id == null) {
+                throw new IllegalArgumentException("ID cannot be null!");
+            }
+            if (seen.put(id, i) != null) {
+                throw new IllegalArgumentException(String.format("Duplicate ID \"%s\"!", id));
+            }
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            idBytes += bytes.length;
+            int previous = -1;
+            for (int match : matches[i]) {
+                if (match <= previous || match >= ids.size()) {
+                    throw new IllegalArgumentException(String.format(
+                            "Matches for \"%s\" must be increasing user numbers!", id));
+                }
+                previous = match;
+            }
+            matchCount += matches[i].length;
+        }
+        if (idBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The ids cannot take more than 2 GB!");
+        }
+        
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files
+                .newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            out.writeInt(0);
+            out.writeLong(matchCount);
+            out.writeLong(idBytes);
+            int idOffset = 0;
+            out.writeInt(idOffset);
+            for (byte[] bytes : encoded) {
+                idOffset += bytes.length;
+                out.writeInt(idOffset);
+            }
+            pad(out, 4L * (ids.size() + 1));
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+            pad(out, idBytes);
+            long matchOffset = 0;
+            out.writeLong(matchOffset);
+            for (int[] row : matches) {
+                matchOffset += row.length;
+                out.writeLong(matchOffset);
+            }
+            for (int[] row : matches) {
+                for (int match : row) {
+                    out.writeInt(match);
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Maps a snapshot written by write() into memory.
+     * 
+     * @param file
+     * @return graph
+     * @throws IOException if the file cannot be read or is not a complete snapshot
+     * @throws IllegalArgumentException if file is null
+     */
+    public static MatchGraph load(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null!");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException(String.format("%s is not a match graph snapshot.", file));
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException(String.format("%s is not a match graph snapshot.", file));
+            }
+            int userCount = header.getInt(8);
+            long matchCount = header.getLong(16);
+            long idBytes = header.getLong(24);
+            long idsStart = HEADER_BYTES + align(4L * (userCount + 1));
+            long offsetsStart = idsStart + align(idBytes);
+            long matchesStart = offsetsStart + 8L * (userCount + 1);
+            if (userCount < 0 || matchCount < 0 || idBytes < 0
+                    || size != matchesStart + 4L * matchCount) {
+                throw new IOException(String.format("%s is truncated or corrupt.", file));
+            }
+            
+            ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                    offsetsStart - HEADER_BYTES);
+            int base = (int) (idsStart - HEADER_BYTES);
+            String[] ids = new String[userCount];
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < userCount; i++) {
+                int start = names.getInt(4 * i);
+                int length = names.getInt(4 * (i + 1)) - start;
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                names.position(base + start);
+                names.get(bytes, 0, length);
+                ids[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+            
+            LongBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, offsetsStart,
+                    8L * (userCount + 1)).asLongBuffer();
+            // A mapping is limited to 2 GB, so the match array is mapped in 1 GB segments.
+            IntBuffer[] segments = new IntBuffer[(int) ((matchCount + SEGMENT_MASK)
+                    >>> SEGMENT_SHIFT)];
+            for (int s = 0; s < segments.length; s++) {
+                long first = (long) s << SEGMENT_SHIFT;
+                long count = Math.min(matchCount - first, 1L << SEGMENT_SHIFT);
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                        matchesStart + 4 * first, 4 * count);
+                segments[s] = segment.asIntBuffer();
+            }
+            return new MatchGraph(ids, offsets, segments, matchCount);
+        }
+    }
+    
+    /**
+     * Checks whether the snapshot includes a user.
+     * 
+     * @param id
+     * @return true if the user's matches are known
+     */
+    public boolean contains(String id) {
+        return numbers.containsKey(id);
+    }
+    
+    /**
+     * Gets the ids of the users that a user matches, in the order they were numbered.
+     * 
+     * @param id
+     * @return matching user ids, or null if the snapshot does not include the user
+     */
+    public List<String> getMatches(String id) {
+        Integer number = numbers.get(id);
+        if (number == null) {
+            return null;
+        }
+        long start = offsets.get(number);
+        long end = offsets.get(number + 1);
+        if (start == end) {
+            return Collections.emptyList();
+        }
+        List<String> matches = new ArrayList<String>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            matches.add(ids[segments[(int) (i >>> SEGMENT_SHIFT)].get((int) (i & SEGMENT_MASK))]);
+        }
+        return matches;
+    }
+    
+    /**
+     * Gets the number of users in the snapshot.
+     * 
+     * @return number of users
+     */
+    public int getUserCount() {
+        return ids.length;
+    }
+    
+    /**
+     * Gets the number of matches in the snapshot, counting each direction separately.
+     * 
+     * @return number of matches
+     */
+    public long getMatchCount() {
+        return matchCount;
+    }
+    
+    private static void pad(DataOutputStream out, long written) throws IOException {
+        for (long i = written; i < align(written); i++) {
+            out.writeByte(0);
+        }
+    }
+    
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
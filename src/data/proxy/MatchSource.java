@@ -0,0 +1,18 @@
+package data.proxy;
+
+import java.util.List;
+
+/**
+ * MatchSource answers which users a user matches without running a matcher, for example from a
+ * precomputed match graph.
+ */
+public interface MatchSource {
+    
+    /**
+     * Gets the ids of the users that a user matches.
+     * 
+     * @param id
+     * @return matching user ids, or null if the source does not know the user
+     */
+    public List<String> getMatches(String id);
+}
@@ -0,0 +1,462 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+import metrics.Metrics;
+import metrics.Timer;
+import data.proxy.arena.PostContentArena;
+import data.structure.Post;
+
+/**
+ * OffHeapPostStore is a PostStore that keeps post content in direct memory. The heap only holds a
+ * growable array of long handles and timestamps per user. Content is decoded onto the heap when
+ * posts are read back, while the user's lock is held, so a returned post stays readable however
+ * soon a delete, trim or retention pass releases it from the arena.
+ */
+public class OffHeapPostStore extends PostStore {
+    private static final Timer WRITE_TIMER = Metrics.timer("OffHeapPostStore.write");
+    private static final Timer READ_TIMER = Metrics.timer("OffHeapPostStore.getPostsByUser");
+    
+    private final PostContentArena arena;
+    private final ConcurrentMap<String, HandleList> handlesByUser;
+    
+    /**
+     * Growable arrays of arena handles and timestamps for a single user, oldest first.
+     */
+    private static class HandleList {
+        private long[] handles = new long[4];
+        private long[] timestamps = new long[4];
+        private int size = 0;
+        
+        /**
+         * Inserts a handle after every entry that is not newer, so in-order writes append.
+         */
+        private void add(long handle, long timestamp) {
+            if (size == handles.length) {
+                handles = Arrays.copyOf(handles, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+            }
+            int at = size;
+            while (at > 0 && timestamps[at - 1] > timestamp) {
+                at--;
+            }
+            System.arraycopy(handles, at, handles, at + 1, size - at);
+            System.arraycopy(timestamps, at, timestamps, at + 1, size - at);
+            handles[at] = handle;
+            timestamps[at] = timestamp;
+            size++;
+        }
+        
+        /**
+         * Finds the position of the first entry that is not older than the timestamp.
+         */
+        private int indexOfTimestamp(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        
+        /**
+         * Merges handles sorted by timestamp into this list, moving only the entries that are
+         * newer than the first of them.
+         */
+        private void merge(long[] newHandles, long[] newTimestamps) {
+            int count = newHandles.length;
+            if (size + count > handles.length) {
+                int capacity = Math.max(size + count, handles.length * 2);
+                handles = Arrays.copyOf(handles, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+            }
+            int from = size;
+            while (from > 0 && timestamps[from - 1] > newTimestamps[0]) {
+                from--;
+            }
+            // Merge from the back so nothing is overwritten before it has been moved.
+            int i = size - 1;
+            int j = count - 1;
+            int to = size + count - 1;
+            while (j >= 0) {
+                if (i >= from && timestamps[i] > newTimestamps[j]) {
+                    handles[to] = handles[i];
+                    timestamps[to] = timestamps[i];
+                    i--;
+                } else {
+                    handles[to] = newHandles[j];
+                    timestamps[to] = newTimestamps[j];
+                    j--;
+                }
+                to--;
+            }
+            size += count;
+        }
+        
+        /**
+         * Decodes the posts in [from, to). Must be called with the list's lock held, so that none
+         * of the handles can be released while they are read.
+         */
+        private List<Post> decode(String user, PostContentArena arena, int from, int to) {
+            List<Post> posts = new ArrayList<Post>(to - from);
+            for (int i = from; i < to; i++) {
+                posts.add(new Post(user, arena.read(handles[i]), timestamps[i]));
+            }
+            return posts;
+        }
+    }
+    
+    /**
+     * Basic default constructor for OffHeapPostStore.
+     */
+    public OffHeapPostStore() {
+        this(new PostContentArena());
+    }
+    
+    /**
+     * Constructor takes the arena that will hold all post content.
+     * 
+     * @param arena
+     * @throws IllegalArgumentException if arena is null
+     */
+    public OffHeapPostStore(PostContentArena arena) {
+        if (arena == null) {
+            throw new IllegalArgumentException("Arena cannot be null!");
+        }
+        this.arena = arena;
+        this.handlesByUser = new ConcurrentHashMap<String, HandleList>();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(Post post) {
+        if (post == null) {
+            throw new IllegalArgumentException("Post canot be null.");
+        }
+        long start = Metrics.startTimer();
+        String user = post.getUser();
+        long handle = arena.allocate(post.getContent());
+        while (true) {
+            HandleList handles = handlesByUser.get(user);
+            if (handles == null) {
+                handles = new HandleList();
+                HandleList existing = handlesByUser.putIfAbsent(user, handles);
+                if (existing != null) {
+                    handles = existing;
+                }
+            }
+            synchronized (handles) {
+                // A concurrent trim or delete may have dropped this list while we waited for it.
+                if (handlesByUser.get(user) == handles) {
+                    handles.add(handle, post.getTimestamp());
+                    WRITE_TIMER.record(start);
+                    break;
+                }
+            }
+        }
+        firePostWritten(post);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeAll(String user, List<Post> batch) {
+        // Copy the content into the arena before taking the user's lock.
+        long[] batchHandles = new long[batch.size()];
+        long[] batchTimestamps = new long[batch.size()];
+        for (int i = 0; i < batchHandles.length; i++) {
+            Post post = batch.get(i);
+            batchHandles[i] = arena.allocate(post.getContent());
+            batchTimestamps[i] = post.getTimestamp();
+        }
+        while (true) {
+            HandleList handles = handlesByUser.get(user);
+            if (handles == null) {
+                handles = new HandleList();
+                HandleList existing = handlesByUser.putIfAbsent(user, handles);
+                if (existing != null) {
+                    handles = existing;
+                }
+            }
+            synchronized (handles) {
+                // A concurrent trim or delete may have dropped this list while we waited for it.
+                if (handlesByUser.get(user) == handles) {
+                    handles.merge(batchHandles, batchTimestamps);
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Post> getPostsByUser(String user) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null.");
+        }
+        if (!mightHavePosts(user)) {
+            return new ArrayList<Post>();
+        }
+        HandleList handles = handlesByUser.get(user);
+        if (handles == null) {
+            recordMissingAuthor();
+            return new ArrayList<Post>();
+        }
+        synchronized (handles) {
+            return handles.decode(user, arena, 0, handles.size);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Post> getPostsByUser(String user, Predicate<Post> predicate) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null.");
+        }
+        if (predicate == null) {
+            throw new IllegalArgumentException(
+                    "Predicate cannot be null. Use getPostByUser(user) instead.");
+        }
+        if (!mightHavePosts(user)) {
+            return new ArrayList<Post>();
+        }
+        long start = Metrics.startTimer();
+        HandleList handles = handlesByUser.get(user);
+        if (handles == null) {
+            recordMissingAuthor();
+            READ_TIMER.record(start);
+            return new ArrayList<Post>();
+        }
+        
+        List<Post> snapshot;
+        synchronized (handles) {
+            snapshot = handles.decode(user, arena, 0, handles.size);
+        }
+        // The predicate runs outside the lock, on content that has already been decoded.
+        List<Post> matched = new ArrayList<Post>();
+        for (Post post : snapshot) {
+            if (predicate.test(post)) {
+                matched.add(post);
+            }
+        }
+        READ_TIMER.record(start);
+        return matched;
+    }
+    
+    /**
+     * {@inheritDoc} Only the posts in the time range are decoded. Content stays off the heap, so
+     * there are no keyword postings and keywords are matched against each decoded candidate.
+     */
+    @Override
+    public List<Post> getPostsByUser(String user, PostFilter filter) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null.");
+        }
+        if (filter == null) {
+            throw new IllegalArgumentException("Post Filter cannot be null!");
+        }
+        if (!filter.acceptsAuthor(user) || !mightHavePosts(user)) {
+            return new ArrayList<Post>();
+        }
+        long start = Metrics.startTimer();
+        HandleList handles = handlesByUser.get(user);
+        if (handles == null) {
+            recordMissingAuthor();
+            READ_TIMER.record(start);
+            return new ArrayList<Post>();
+        }
+        
+        List<Post> snapshot;
+        synchronized (handles) {
+            int from = filter.getSince() == PostFilter.UNBOUNDED_SINCE ? 0 : handles
+                    .indexOfTimestamp(filter.getSince());
+            int to = filter.getUntil() == PostFilter.UNBOUNDED_UNTIL ? handles.size : handles
+                    .indexOfTimestamp(filter.getUntil());
+            snapshot = handles.decode(user, arena, from, to);
+        }
+        List<Post> matched = new ArrayList<Post>();
+        for (Post post : snapshot) {
+            if (filter.testRemaining(post, false)) {
+                matched.add(post);
+            }
+        }
+        READ_TIMER.record(start);
+        return matched;
+    }
+    
+    /**
+     * {@inheritDoc} The user's content is released from the arena immediately.
+     */
+    @Override
+    public void deletePostsByUser(String user) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null.");
+        }
+        HandleList handles = handlesByUser.remove(user);
+        if (handles != null) {
+            List<Post> removed = null;
+            synchronized (handles) {
+                if (hasListeners()) {
+                    removed = handles.decode(user, arena, 0, handles.size);
+                }
+                for (int i = 0; i < handles.size; i++) {
+                    arena.release(handles.handles[i]);
+                }
+                handles.size = 0;
+            }
+            recordAuthorRemoved();
+            firePostsRemoved(removed);
+        }
+    }
+    
+    /**
+     * Compacts the underlying arena, returning fragmented segments to the operating system.
+     * 
+     * @return number of dead bytes reclaimed
+     */
+    @Override
+    public long compact() {
+        return arena.compact();
+    }
+    
+    /**
+     * {@inheritDoc} Only the content held in the arena is counted.
+     */
+    @Override
+    public long getEstimatedBytes() {
+        return arena.getLiveBytes();
+    }
+    
+    /**
+     * Getter for the arena holding this store's content.
+     * 
+     * @return arena
+     */
+    public PostContentArena getArena() {
+        return arena;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<String> getUsers() {
+        return handlesByUser.keySet();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected RetentionResult trimUser(String user, long cutoff, int maxPosts,
+            List<Post> removed) {
+        HandleList handles = handlesByUser.get(user);
+        if (handles == null) {
+            return RetentionResult.EMPTY;
+        }
+        synchronized (handles) {
+            int size = handles.size;
+            long bytes = 0;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (handles.timestamps[i] >= cutoff) {
+                    handles.handles[kept] = handles.handles[i];
+                    handles.timestamps[kept] = handles.timestamps[i];
+                    kept++;
+                } else {
+                    if (removed != null) {
+                        removed.addAll(handles.decode(user, arena, i, i + 1));
+                    }
+                    bytes += arena.release(handles.handles[i]);
+                }
+            }
+            int excess = Math.max(0, kept - maxPosts);
+            if (removed != null) {
+                removed.addAll(handles.decode(user, arena, 0, excess));
+            }
+            for (int i = 0; i < excess; i++) {
+                bytes += arena.release(handles.handles[i]);
+            }
+            System.arraycopy(handles.handles, excess, handles.handles, 0, kept - excess);
+            System.arraycopy(handles.timestamps, excess, handles.timestamps, 0, kept - excess);
+            handles.size = kept - excess;
+            
+            dropIfEmpty(user, handles);
+            return new RetentionResult(size - handles.size, bytes);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected long getOldestTimestamp(String user) {
+        HandleList handles = handlesByUser.get(user);
+        if (handles == null) {
+            return NO_POSTS;
+        }
+        synchronized (handles) {
+            return handles.size == 0 ? NO_POSTS : handles.timestamps[0];
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected RetentionResult evictOldest(String user, long until, long bytes,
+            List<Post> removed) {
+        HandleList handles = handlesByUser.get(user);
+        if (handles == null) {
+            return RetentionResult.EMPTY;
+        }
+        synchronized (handles) {
+            if (handles.size == 0) {
+                return RetentionResult.EMPTY;
+            }
+            // Shift the survivors down once for the whole run.
+            int count = 0;
+            long freed = 0;
+            while (count < handles.size && (count == 0 || (freed < bytes
+                    && handles.timestamps[count] <= until))) {
+                if (removed != null) {
+                    removed.addAll(handles.decode(user, arena, count, count + 1));
+                }
+                freed += arena.release(handles.handles[count++]);
+            }
+            handles.size -= count;
+            System.arraycopy(handles.handles, count, handles.handles, 0, handles.size);
+            System.arraycopy(handles.timestamps, count, handles.timestamps, 0, handles.size);
+            
+            dropIfEmpty(user, handles);
+            return new RetentionResult(count, freed);
+        }
+    }
+    
+    /**
+     * Unmaps an emptied list. Must be called with the list's lock held.
+     */
+    private void dropIfEmpty(String user, HandleList handles) {
+        if (handles.size == 0 && handlesByUser.remove(user, handles)) {
+            recordAuthorRemoved();
+        }
+    }
+}
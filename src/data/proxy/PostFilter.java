@@ -0,0 +1,288 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import data.structure.Post;
+
+/**
+ * PostFilter describes which posts to read from a PostStore. Unlike an opaque Predicate, its time
+ * range, author set and keywords can be answered from the store's indexes, so only the posts that
+ * already satisfy them are handed to the length bounds and to any extra predicate. A filter is
+ * immutable, so the same instance may be shared by concurrent feeds. Every condition starts out
+ * unrestricted.
+ */
+public class PostFilter implements Predicate<Post> {
+    public static final long UNBOUNDED_SINCE = Long.MIN_VALUE;
+    public static final long UNBOUNDED_UNTIL = Long.MAX_VALUE;
+    
+    private static final PostFilter ALL = new PostFilter();
+    
+    private final long since;
+    private final long until;
+    private final Set<String> authors;
+    private final String[] keywords;
+    private final int minLength;
+    private final int maxLength;
+    private final Predicate<Post> predicate;
+    
+    /**
+     * Basic default constructor for a filter that accepts every post.
+     */
+    public PostFilter() {
+        this(UNBOUNDED_SINCE, UNBOUNDED_UNTIL, null, new String[0], 0, Integer.MAX_VALUE, null);
+    }
+    
+    private PostFilter(long since, long until, Set<String> authors, String[] keywords,
+            int minLength, int maxLength, Predicate<Post> predicate) {
+        this.since = since;
+        this.until = until;
+        this.authors = authors;
+        this.keywords = keywords;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.predicate = predicate;
+    }
+    
+    /**
+     * Gets a filter that accepts every post.
+     * 
+     * @return filter
+     */
+    public static PostFilter all() {
+        return ALL;
+    }
+    
+    /**
+     * Returns a copy of this filter that only accepts posts created at or after since and before
+     * until.
+     * 
+     * @param since earliest timestamp accepted, in milliseconds since the epoch
+     * @param until timestamp after the latest accepted, in milliseconds since the epoch
+     * @return updated filter
+     * @throws IllegalArgumentException if since is after until
+     */
+    public PostFilter withTimeRange(long since, long until) {
+        if (since > until) {
+            throw new IllegalArgumentException("The time range cannot end before it starts!");
+        }
+        return new PostFilter(since, until, authors, keywords, minLength, maxLength, predicate);
+    }
+    
+    /**
+     * Returns a copy of this filter that only accepts posts by the given users.
+     * 
+     * @param authors
+     * @return updated filter
+     * @throws IllegalArgumentException if authors is null or contains null
+     */
+    public PostFilter withAuthors(Collection<String> authors) {
+        if (authors == null) {
+            throw new IllegalArgumentException("Authors cannot be null!");
+        }
+        Set<String> copy = new HashSet<String>(authors);
+        if (copy.contains(null)) {
+            throw new IllegalArgumentException("Author cannot be null!");
+        }
+        return new PostFilter(since, until, Collections.unmodifiableSet(copy), keywords,
+                minLength, maxLength, predicate);
+    }
+    
+    /**
+     * Returns a copy of this filter that only accepts posts containing the given word, ignoring
+     * case. Words are runs of letters and digits, so "feed" matches "Feed!" but not "feeds".
+     * 
+     * @param keyword
+     * @return updated filter
+     * @throws IllegalArgumentException if keyword is null or is not exactly one word
+     */
+    public PostFilter withKeyword(String keyword) {
+        if (keyword == null) {
+            throw new IllegalArgumentException("Keyword cannot be null!");
+        }
+        List<String> words = getKeywords(keyword);
+        if (words.size() != 1) {
+            throw new IllegalArgumentException("Keyword must be a single word!");
+        }
+        if (Arrays.asList(keywords).contains(words.get(0))) {
+            return this;
+        }
+        String[] updated = Arrays.copyOf(keywords, keywords.length + 1);
+        updated[keywords.length] = words.get(0);
+        return new PostFilter(since, until, authors, updated, minLength, maxLength, predicate);
+    }
+    
+    /**
+     * Returns a copy of this filter that only accepts posts whose content is between minLength
+     * and maxLength characters long, inclusive.
+     * 
+     * @param minLength
+     * @param maxLength
+     * @return updated filter
+     * @throws IllegalArgumentException if minLength is negative or greater than maxLength
+     */
+    public PostFilter withLengthBetween(int minLength, int maxLength) {
+        if (minLength < 0 || minLength > maxLength) {
+            throw new IllegalArgumentException(
+                    "The length bounds must satisfy 0 <= minLength <= maxLength!");
+        }
+        return new PostFilter(since, until, authors, keywords, minLength, maxLength, predicate);
+    }
+    
+    /**
+     * Returns a copy of this filter that also requires the given predicate. The predicate is only
+     * tested against posts that meet every other condition, and replaces any earlier one.
+     * 
+     * @param predicate
+     * @return updated filter
+     * @throws IllegalArgumentException if predicate is null
+     */
+    public PostFilter withPredicate(Predicate<Post> predicate) {
+        if (predicate == null) {
+            throw new IllegalArgumentException("Predicate cannot be null!");
+        }
+        return new PostFilter(since, until, authors, keywords, minLength, maxLength, predicate);
+    }
+    
+    /**
+     * Getter for since.
+     * 
+     * @return earliest timestamp accepted
+     */
+    public long getSince() {
+        return since;
+    }
+    
+    /**
+     * Getter for until.
+     * 
+     * @return timestamp after the latest accepted
+     */
+    public long getUntil() {
+        return until;
+    }
+    
+    /**
+     * Getter for the keywords, lower case.
+     * 
+     * @return words every accepted post contains
+     */
+    public List<String> getKeywords() {
+        return Collections.unmodifiableList(Arrays.asList(keywords));
+    }
+    
+    /**
+     * Getter for the extra predicate.
+     * 
+     * @return predicate, or null if there is none
+     */
+    public Predicate<Post> getPredicate() {
+        return predicate;
+    }
+    
+    /**
+     * Checks whether the filter restricts posts by anything besides its predicate.
+     * 
+     * @return true if any time range, author set, keyword or length bound is set
+     */
+    public boolean hasConditions() {
+        return since != UNBOUNDED_SINCE || until != UNBOUNDED_UNTIL || authors != null
+                || keywords.length > 0 || minLength > 0 || maxLength < Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Checks whether posts by the given user can be accepted.
+     * 
+     * @param user
+     * @return false if the filter names its authors and user is not one of them
+     */
+    public boolean acceptsAuthor(String user) {
+        return authors == null || authors.contains(user);
+    }
+    
+    /**
+     * Checks whether the filter accepts a post, testing every condition directly.
+     * 
+     * @param post
+     * @return true if the post is accepted
+     */
+    public boolean test(Post post) {
+        return acceptsAuthor(post.getUser()) && acceptsTimestamp(post.getTimestamp())
+                && testRemaining(post, false);
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("PostFilter(");
+        if (since != UNBOUNDED_SINCE || until != UNBOUNDED_UNTIL) {
+            out.append("time=[").append(since).append(", ").append(until).append(") ");
+        }
+        if (authors != null) {
+            out.append("authors=").append(authors.size()).append(' ');
+        }
+        if (keywords.length > 0) {
+            out.append("keywords=").append(Arrays.toString(keywords)).append(' ');
+        }
+        if (minLength > 0 || maxLength < Integer.MAX_VALUE) {
+            out.append("length=[").append(minLength).append(", ").append(maxLength).append("] ");
+        }
+        if (predicate != null) {
+            out.append("predicate ");
+        }
+        return out.toString().trim() + ")";
+    }
+    
+    /**
+     * Splits content into the distinct lower case words that keyword filters match against.
+     * 
+     * @param content
+     * @return words in order of first appearance
+     */
+    public static List<String> getKeywords(String content) {
+        Set<String> words = new LinkedHashSet<String>();
+        int start = -1;
+        for (int i = 0; i <= content.length(); i++) {
+            boolean inWord = i < content.length() && Character.isLetterOrDigit(content.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(content.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return new ArrayList<String>(words);
+    }
+    
+    boolean acceptsTimestamp(long timestamp) {
+        return timestamp >= since && (timestamp < until || until == UNBOUNDED_UNTIL);
+    }
+    
+    /**
+     * Tests the conditions a store cannot answer from its time index: the length bounds, the
+     * keywords unless the store has already matched them, and finally the predicate.
+     */
+    boolean testRemaining(Post post, boolean keywordsMatched) {
+        if (minLength > 0 || maxLength < Integer.MAX_VALUE) {
+            int length = post.getContent().length();
+            if (length < minLength || length > maxLength) {
+                return false;
+            }
+        }
+        if (!keywordsMatched && keywords.length > 0) {
+            List<String> words = getKeywords(post.getContent());
+            for (String keyword : keywords) {
+                if (!words.contains(keyword)) {
+                    return false;
+                }
+            }
+        }
+        return predicate == null || predicate.test(post);
+    }
+}
@@ -0,0 +1,30 @@
+package data.proxy;
+
+import java.util.List;
+
+import data.structure.Post;
+
+/**
+ * PostListener is notified of every post written to a PostStore, and of the posts that deletes
+ * and retention trims remove from it.
+ */
+public interface PostListener {
+    
+    /**
+     * Called on the writing thread after the post has been stored, so implementations should
+     * return quickly.
+     * 
+     * @param post
+     */
+    public void onPost(Post post);
+    
+    /**
+     * Called once per deletePostsByUser() or trim() that removed anything, on the removing thread
+     * after the posts are gone, with every post the call removed. Posts from an off-heap store
+     * are copies, equal to the written post and with the same timestamp. Does nothing by default.
+     * 
+     * @param posts
+     */
+    public default void onPostsRemoved(List<Post> posts) {
+    }
+}
@@ -0,0 +1,505 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
+import data.structure.Post;
+
+/**
+ * PostSearchIndex is a full-text index over post content. Posts are numbered in the order they
+ * are indexed, and every word (as split by PostFilter.getKeywords()) keeps the numbers of the
+ * posts containing it as delta and variable-byte encoded postings, which take one or two bytes
+ * per entry. The postings are cut into blocks of BLOCK_SIZE entries, and the first number and
+ * byte offset of each block serve as skip pointers.
+ * 
+ * A search returns the most recently indexed posts that contain every word of the query. It walks
+ * the rarest word's postings newest first, one block at a time, and probes the other words by
+ * jumping straight to the one block that could hold each candidate, so it stops as soon as it has
+ * found enough posts without decoding the rest of any list.
+ * 
+ * Register the index with PostStore.addListener() to index posts as they are written and drop them
+ * as the store deletes or trims them. Otherwise the index holds on to the posts it is given until
+ * they are removed with removeIf(). Searches share a read lock, and indexing, removal and the
+ * rebuilds that reclaim removed posts take the write lock, so a search waits for a batch being
+ * indexed rather than seeing part of it.
+ */
+public class PostSearchIndex implements PostListener {
+    /**
+     * Number of postings between skip pointers.
+     */
+    public static final int BLOCK_SIZE = 128;
+    
+    private static final Timer INDEX_TIMER = Metrics.timer("PostSearchIndex.index");
+    private static final Timer SEARCH_TIMER = Metrics.timer("PostSearchIndex.search");
+    private static final Counter BLOCKS_DECODED = Metrics.counter("PostSearchIndex.blocksDecoded");
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String, Postings> postings = new HashMap<String, Postings>();
+    private Post[] posts = new Post[1024];
+    private int size = 0;
+    private int removed = 0;
+    // The numbers of each user's posts, which may include removed ones until they are next seen.
+    private Map<String, UserDocs> docsByUser = new HashMap<String, UserDocs>();
+    
+    /**
+     * Indexes a post that has just been written. See index().
+     * 
+     * @param post
+     */
+    public void onPost(Post post) {
+        index(post);
+    }
+    
+    /**
+     * Removes posts that the store has deleted or trimmed. An indexed post is removed if it has
+     * the same user, content and timestamp as one of them, since an off-heap store hands over
+     * copies rather than the posts that were indexed. Only the posts of the removed posts' users
+     * are looked at, through the post numbers kept for each user.
+     * 
+     * @param removed
+     */
+    public void onPostsRemoved(List<Post> removed) {
+        Map<String, Map<Post, Set<Long>>> removedByUser =
+                new HashMap<String, Map<Post, Set<Long>>>();
+        for (Post post : removed) {
+            Map<Post, Set<Long>> timestamps = removedByUser.get(post.getUser());
+            if (timestamps == null) {
+                timestamps = new HashMap<Post, Set<Long>>();
+                removedByUser.put(post.getUser(), timestamps);
+            }
+            Set<Long> at = timestamps.get(post);
+            if (at == null) {
+                at = new HashSet<Long>();
+                timestamps.put(post, at);
+            }
+            at.add(post.getTimestamp());
+        }
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Map<Post, Set<Long>>> user : removedByUser.entrySet()) {
+                UserDocs docs = docsByUser.get(user.getKey());
+                if (docs == null) {
+                    continue;
+                }
+                Map<Post, Set<Long>> timestamps = user.getValue();
+                int kept = 0;
+                for (int i = 0; i < docs.size; i++) {
+                    int doc = docs.docs[i];
+                    Post post = posts[doc];
+                    if (post == null) {
+                        continue;
+                    }
+                    Set<Long> at = timestamps.get(post);
+                    if (at != null && at.contains(post.getTimestamp())) {
+                        posts[doc] = null;
+                        this.removed++;
+                    } else {
+                        docs.docs[kept++] = doc;
+                    }
+                }
+                docs.size = kept;
+                if (kept == 0) {
+                    docsByUser.remove(user.getKey());
+                }
+            }
+            if (this.removed > size / 2) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Indexes a post, after every post indexed before it.
+     * 
+     * @param post
+     * @throws IllegalArgumentException if post is null
+     */
+    public void index(Post post) {
+        if (post == null) {
+            throw new IllegalArgumentException("Post cannot be null!");
+        }
+        // Split the content before taking the lock.
+        List<String> words = PostFilter.getKeywords(post.getContent());
+        long start = Metrics.startTimer();
+        lock.writeLock().lock();
+        try {
+            indexLocked(post, words);
+        } finally {
+            lock.writeLock().unlock();
+            INDEX_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Indexes a batch of posts in order, taking the lock once.
+     * 
+     * @param batch
+     * @throws IllegalArgumentException if batch is null or contains null
+     */
+    public void indexAll(Collection<? extends Post> batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("Posts cannot be null!");
+        }
+        List<List<String>> words = new ArrayList<List<String>>(batch.size());
+        for (Post post : batch) {
+            if (post == null) {
+                throw new IllegalArgumentException("Post cannot be null!");
+            }
+            words.add(PostFilter.getKeywords(post.getContent()));
+        }
+        long start = Metrics.startTimer();
+        lock.writeLock().lock();
+        try {
+            int next = 0;
+            for (Post post : batch) {
+                indexLocked(post, words.get(next++));
+            }
+        } finally {
+            lock.writeLock().unlock();
+            INDEX_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Removes every indexed post the predicate accepts, for example the posts a retention trim
+     * has dropped from the store. The postings are rebuilt once more than half of the indexed
+     * posts have been removed.
+     * 
+     * @param predicate
+     * @return number of posts removed
+     * @throws IllegalArgumentException if predicate is null
+     */
+    public int removeIf(Predicate<Post> predicate) {
+        if (predicate == null) {
+            throw new IllegalArgumentException("Predicate cannot be null!");
+        }
+        lock.writeLock().lock();
+        try {
+            int count = 0;
+            for (int doc = 0; doc < size; doc++) {
+                if (posts[doc] != null && predicate.test(posts[doc])) {
+                    posts[doc] = null;
+                    count++;
+                }
+            }
+            removed += count;
+            if (removed > size / 2) {
+                rebuild();
+            }
+            return count;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds the most recently indexed posts that contain every word of the query.
+     * 
+     * @param query words to search for, split like post content
+     * @param limit most posts to return
+     * @return at most limit posts, most recently indexed first
+     * @throws IllegalArgumentException if query is null or limit is negative
+     */
+    public List<Post> search(String query, int limit) {
+        return search(query, null, limit);
+    }
+    
+    /**
+     * Finds the most recently indexed posts by the given authors that contain every word of the
+     * query.
+     * 
+     * @param query words to search for, split like post content
+     * @param authors users whose posts may be returned, or null for anyone
+     * @param limit most posts to return
+     * @return at most limit posts, most recently indexed first
+     * @throws IllegalArgumentException if query is null or limit is negative
+     */
+    public List<Post> search(String query, Set<String> authors, int limit) {
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null!");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("The limit cannot be negative!");
+        }
+        List<String> words = PostFilter.getKeywords(query);
+        List<Post> results = new ArrayList<Post>(Math.min(limit, 64));
+        if (words.isEmpty() || limit == 0) {
+            return results;
+        }
+        long start = Metrics.startTimer();
+        lock.readLock().lock();
+        try {
+            Cursor[] cursors = new Cursor[words.size()];
+            for (int i = 0; i < cursors.length; i++) {
+                Postings list = postings.get(words.get(i));
+                if (list == null) {
+                    return results;
+                }
+                cursors[i] = new Cursor(list);
+            }
+            Arrays.sort(cursors, new Comparator<Cursor>() {
+                public int compare(Cursor a, Cursor b) {
+                    return Integer.compare(a.postings.count, b.postings.count);
+                }
+            });
+            
+            Cursor rarest = cursors[0];
+            for (int block = rarest.postings.getBlockCount() - 1; block >= 0; block--) {
+                int count = rarest.decode(block);
+                for (int i = count - 1; i >= 0; i--) {
+                    boolean containsAll = true;
+                    for (int c = 1; c < cursors.length && containsAll; c++) {
+                        containsAll = cursors[c].contains(rarest.buffer[i]);
+                    }
+                    // Only look the post up once every word has matched.
+                    Post post = containsAll ? posts[rarest.buffer[i]] : null;
+                    if (post == null || (authors != null && !authors.contains(post.getUser()))) {
+                        continue;
+                    }
+                    results.add(post);
+                    if (results.size() == limit) {
+                        return results;
+                    }
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+            SEARCH_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Gets the number of posts currently indexed.
+     * 
+     * @return number of posts
+     */
+    public int getPostCount() {
+        lock.readLock().lock();
+        try {
+            return size - removed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of distinct words indexed.
+     * 
+     * @return number of words
+     */
+    public int getWordCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of bytes of encoded postings, not counting unused capacity.
+     * 
+     * @return encoded bytes
+     */
+    public long getPostingsBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Postings list : postings.values()) {
+                bytes += list.length;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void indexLocked(Post post, List<String> words) {
+        if (size == posts.length) {
+            posts = Arrays.copyOf(posts, size * 2);
+        }
+        int doc = size++;
+        posts[doc] = post;
+        UserDocs docs = docsByUser.get(post.getUser());
+        if (docs == null) {
+            docs = new UserDocs();
+            docsByUser.put(post.getUser(), docs);
+        }
+        docs.add(doc);
+        for (String word : words) {
+            Postings list = postings.get(word);
+            if (list == null) {
+                list = new Postings();
+                postings.put(word, list);
+            }
+            list.add(doc);
+        }
+    }
+    
+    /**
+     * Renumbers the remaining posts and rebuilds the postings without the removed ones.
+     */
+    private void rebuild() {
+        Post[] remaining = posts;
+        int count = size;
+        postings = new HashMap<String, Postings>();
+        docsByUser = new HashMap<String, UserDocs>();
+        posts = new Post[Math.max(1024, Integer.highestOneBit(Math.max(1, size - removed)) * 2)];
+        size = 0;
+        removed = 0;
+        for (int doc = 0; doc < count; doc++) {
+            if (remaining[doc] != null) {
+                indexLocked(remaining[doc], PostFilter.getKeywords(remaining[doc].getContent()));
+            }
+        }
+    }
+    
+    /**
+     * A growable array of one user's post numbers, in increasing order.
+     */
+    private static class UserDocs {
+        private int[] docs = new int[4];
+        private int size = 0;
+        
+        private void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+    
+    /**
+     * Post numbers in increasing order, stored as variable-byte encoded gaps. Block k starts at
+     * byte offsets[k], and bases[k] is the number before it, or -1 for the first block.
+     */
+    private static class Postings {
+        private byte[] bytes = new byte[8];
+        private int length = 0;
+        private int count = 0;
+        private int last = -1;
+        private int[] offsets = new int[1];
+        private int[] bases = { -1 };
+        
+        private void add(int doc) {
+            if (count > 0 && count % BLOCK_SIZE == 0) {
+                int block = count / BLOCK_SIZE;
+                if (block == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, block * 2);
+                    bases = Arrays.copyOf(bases, block * 2);
+                }
+                offsets[block] = length;
+                bases[block] = last;
+            }
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+            }
+            int gap = doc - last;
+            while (gap >= 0x80) {
+                bytes[length++] = (byte) (gap | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+            last = doc;
+            count++;
+        }
+        
+        private int getBlockCount() {
+            return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        }
+        
+        /**
+         * Finds the only block that could hold the post number, by its skip pointer.
+         */
+        private int findBlock(int doc) {
+            int low = 0;
+            int high = getBlockCount() - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (bases[mid] < doc) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+        
+        private int decode(int block, int[] into) {
+            int offset = offsets[block];
+            int doc = bases[block];
+            int n = Math.min(BLOCK_SIZE, count - block * BLOCK_SIZE);
+            for (int i = 0; i < n; i++) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[offset++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += gap;
+                into[i] = doc;
+            }
+            return n;
+        }
+    }
+    
+    /**
+     * Reads one word's postings a block at a time, keeping the last block it decoded.
+     */
+    private static class Cursor {
+        private final Postings postings;
+        private final int[] buffer = new int[BLOCK_SIZE];
+        private int block = -1;
+        private int count = 0;
+        
+        private Cursor(Postings postings) {
+            this.postings = postings;
+        }
+        
+        private int decode(int block) {
+            if (block != this.block) {
+                count = postings.decode(block, buffer);
+                this.block = block;
+                BLOCKS_DECODED.increment();
+            }
+            return count;
+        }
+        
+        /**
+         * Checks whether the postings hold the post number. Candidates arrive close together, so
+         * the block decoded last is tried before following the skip pointers.
+         */
+        private boolean contains(int doc) {
+            if (doc > postings.last) {
+                return false;
+            }
+            if (block < 0 || doc < buffer[0] || doc > buffer[count - 1]) {
+                int found = postings.findBlock(doc);
+                if (found == block) {
+                    // The number falls in the gap between two blocks.
+                    return false;
+                }
+                decode(found);
+            }
+            return Arrays.binarySearch(buffer, 0, count, doc) >= 0;
+        }
+    }
+}
@@ -1,29 +1,117 @@
 package data.proxy;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
 import data.proxy.utils.FunctionalUtils;
+import data.proxy.utils.RebuildableBloomFilter;
 import data.structure.Post;
 
 /**
- * PostStore controls access to the posts that have been collected from users.
+ * PostStore controls access to the posts that have been collected from users. Each user's posts
+ * are kept in timestamp order and guarded by their own lock, so retention can trim one user at a
+ * time without blocking writers or readers of any other user.
+ * 
+ * A PostFilter's time range is answered by binary search over a user's posts, and its keywords
+ * from postings of the positions of each word among that user's posts. The postings are built the
+ * first time a user's posts are read by keyword, extended as posts are appended, and dropped
+ * whenever retention or an out-of-order write moves posts.
+ * 
+ * A store that is expensive to miss can keep a Bloom filter of the users who have posted, see
+ * withAuthorFilter(), so that reads for users who never have are answered without a lookup.
  */
 public class PostStore {
-    private Map<String, List<Post>> postsByUser;
+    /**
+     * Returned by getOldestTimestamp() when a user has no posts.
+     */
+    protected static final long NO_POSTS = Long.MAX_VALUE;
+    
+    private static final Timer WRITE_TIMER = Metrics.timer("PostStore.write");
+    private static final Timer READ_TIMER = Metrics.timer("PostStore.getPostsByUser");
+    private static final Timer WRITE_ALL_TIMER = Metrics.timer("PostStore.writeAll");
+    private static final Counter POSTS_SKIPPED = Metrics.counter("PostStore.postsSkipped");
+    private static final Comparator<Post> BY_TIMESTAMP = new Comparator<Post>() {
+        public int compare(Post a, Post b) {
+            return Long.compare(a.getTimestamp(), b.getTimestamp());
+        }
+    };
+    
+    // Rough per-post heap cost of the Post object, its Strings and the list slot.
+    private static final long POST_OVERHEAD_BYTES = 96;
+    
+    private ConcurrentMap<String, UserPosts> postsByUser;
+    private AtomicLong estimatedBytes;
+    private final List<PostListener> listeners = new CopyOnWriteArrayList<PostListener>();
+    private volatile RebuildableBloomFilter authorFilter;
     
     /**
      * Basic default constructor for PostStore.
      */
     public PostStore() {
-        postsByUser = new HashMap<String, List<Post>>();
+        postsByUser = new ConcurrentHashMap<String, UserPosts>();
+        estimatedBytes = new AtomicLong();
     }
     
     /**
-     * Writes a post to storage.
+     * Keeps a Bloom filter of the users who have posts, built from the current users and then
+     * rebuilt in the background once enough users have been emptied by deletes or retention. Reads
+     * for users the filter has never seen return no posts without touching storage. Its metrics
+     * are named "PostStore.authorFilter.negatives" and "PostStore.authorFilter.falsePositives".
+     * 
+     * @return this store
+     */
+    public PostStore withAuthorFilter() {
+        return withAuthorFilter(RebuildableBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+    }
+    
+    /**
+     * Keeps a Bloom filter of the users who have posts with the given target false positive rate.
+     * See withAuthorFilter().
+     * 
+     * @param falsePositiveRate target share of reads for users without posts that reach storage
+     * @return this store
+     * @throws IllegalArgumentException if the rate is not in (0,1)
+     */
+    public PostStore withAuthorFilter(double falsePositiveRate) {
+        RebuildableBloomFilter filter = new RebuildableBloomFilter("PostStore.authorFilter",
+                new Supplier<Collection<String>>() {
+                    public Collection<String> get() {
+                        return getUsers();
+                    }
+                }, falsePositiveRate);
+        filter.rebuild();
+        authorFilter = filter;
+        return this;
+    }
+    
+    /**
+     * Getter for the filter of the users who have posts.
+     * 
+     * @return filter, or null if the store keeps none
+     */
+    public RebuildableBloomFilter getAuthorFilter() {
+        return authorFilter;
+    }
+    
+    /**
+     * Writes a post to storage, after any of the user's posts that are not newer.
      * 
      * @param post
      * @throws IllegalArgumentException if post is null
@@ -32,11 +120,158 @@ public class PostStore {
         if (post == null) {
             throw new IllegalArgumentException("Post canot be null.");
         }
+        long start = Metrics.startTimer();
         String user = post.getUser();
-        if (!postsByUser.containsKey(user)) {
-            postsByUser.put(user, new ArrayList<Post>());
+        while (true) {
+            UserPosts posts = postsByUser.get(user);
+            if (posts == null) {
+                posts = new UserPosts();
+                UserPosts existing = postsByUser.putIfAbsent(user, posts);
+                if (existing != null) {
+                    posts = existing;
+                }
+            }
+            synchronized (posts) {
+                // A concurrent trim or delete may have dropped this list while we waited for it.
+                if (postsByUser.get(user) == posts) {
+                    posts.insert(post);
+                    estimatedBytes.addAndGet(estimateSize(post));
+                    WRITE_TIMER.record(start);
+                    break;
+                }
+            }
+        }
+        firePostWritten(post);
+    }
+    
+    /**
+     * Writes a batch of posts to storage, taking each user's lock once for all of their posts.
+     * Each user's posts are merged in by timestamp, so batches that are written concurrently or
+     * out of order still leave every user's posts oldest first. Listeners are notified once the
+     * whole batch has been stored.
+     * 
+     * @param posts
+     * @throws IllegalArgumentException if posts is null or contains null
+     */
+    public void writeAll(Collection<? extends Post> posts) {
+        if (posts == null) {
+            throw new IllegalArgumentException("Posts cannot be null.");
+        }
+        // Validate the whole batch before writing any of it.
+        Map<String, List<Post>> postsByAuthor = new HashMap<String, List<Post>>();
+        for (Post post : posts) {
+            if (post == null) {
+                throw new IllegalArgumentException("Post canot be null.");
+            }
+            List<Post> authored = postsByAuthor.get(post.getUser());
+            if (authored == null) {
+                authored = new ArrayList<Post>();
+                postsByAuthor.put(post.getUser(), authored);
+            }
+            authored.add(post);
+        }
+        long start = Metrics.startTimer();
+        for (Entry<String, List<Post>> authored : postsByAuthor.entrySet()) {
+            List<Post> batch = authored.getValue();
+            Collections.sort(batch, BY_TIMESTAMP);
+            writeAll(authored.getKey(), batch);
+        }
+        WRITE_ALL_TIMER.record(start);
+        for (Post post : posts) {
+            firePostWritten(post);
+        }
+    }
+    
+    /**
+     * Stores a batch of posts by a single user, merging them into the user's posts by timestamp.
+     * Subclasses that keep posts elsewhere must override this along with write().
+     * 
+     * @param user
+     * @param batch the user's posts, oldest first
+     */
+    protected void writeAll(String user, List<Post> batch) {
+        long bytes = estimateSize(batch);
+        while (true) {
+            UserPosts posts = postsByUser.get(user);
+            if (posts == null) {
+                posts = new UserPosts();
+                UserPosts existing = postsByUser.putIfAbsent(user, posts);
+                if (existing != null) {
+                    posts = existing;
+                }
+            }
+            synchronized (posts) {
+                // A concurrent trim or delete may have dropped this list while we waited for it.
+                if (postsByUser.get(user) == posts) {
+                    posts.merge(batch);
+                    estimatedBytes.addAndGet(bytes);
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Registers a listener to be notified of every subsequent write.
+     * 
+     * @param listener
+     * @throws IllegalArgumentException if listener is null
+     */
+    public void addListener(PostListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null!");
+        }
+        listeners.add(listener);
+    }
+    
+    /**
+     * Stops notifying a listener.
+     * 
+     * @param listener
+     */
+    public void removeListener(PostListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Notifies every listener of a stored post. Subclasses that override write() must call this
+     * once the post has been stored.
+     * 
+     * @param post
+     */
+    protected void firePostWritten(Post post) {
+        RebuildableBloomFilter filter = authorFilter;
+        if (filter != null) {
+            filter.add(post.getUser());
+        }
+        for (PostListener listener : listeners) {
+            listener.onPost(post);
+        }
+    }
+    
+    /**
+     * Checks whether any listener is registered, so that removals only collect the posts they
+     * remove when someone will be told about them.
+     * 
+     * @return true if there are listeners
+     */
+    protected boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+    
+    /**
+     * Notifies every listener of the posts removed by a delete or trim. Subclasses that override
+     * deletePostsByUser() must call this once the posts are gone.
+     * 
+     * @param posts
+     */
+    protected void firePostsRemoved(List<Post> posts) {
+        if (posts == null || posts.isEmpty()) {
+            return;
+        }
+        for (PostListener listener : listeners) {
+            listener.onPostsRemoved(posts);
         }
-        postsByUser.get(post.getUser()).add(post);
     }
     
     /**
@@ -70,11 +305,540 @@ public class PostStore {
             throw new IllegalArgumentException(
                     "Predicate cannot be null. Use getPostByUser(user) instead.");
         }
-        if (postsByUser.containsKey(user)) {
-            return (List<Post>) FunctionalUtils.filteredAddAll(postsByUser.get(user), predicate,
-                    new ArrayList<Post>());
-        } else {
+        if (!mightHavePosts(user)) {
+            return new ArrayList<Post>();
+        }
+        long start = Metrics.startTimer();
+        List<Post> posts = postsByUser.get(user);
+        if (posts == null) {
+            recordMissingAuthor();
+            READ_TIMER.record(start);
+            return new ArrayList<Post>();
+        }
+        
+        // Copy under the lock, but evaluate the predicate outside of it.
+        Post[] snapshot;
+        synchronized (posts) {
+            snapshot = posts.toArray(new Post[posts.size()]);
+        }
+        List<Post> result = (List<Post>) FunctionalUtils.filteredAddAll(Arrays.asList(snapshot),
+                predicate, new ArrayList<Post>());
+        READ_TIMER.record(start);
+        return result;
+    }
+    
+    /**
+     * Gets the posts for the specified user that the filter accepts, oldest first. Only the posts
+     * in the filter's time range that contain all of its keywords are copied out of storage, and
+     * only those are tested against its remaining conditions.
+     * 
+     * @param user
+     * @param filter
+     * @return the user's accepted posts
+     * @throws IllegalArgumentException if either argument is null
+     */
+    public List<Post> getPostsByUser(String user, PostFilter filter) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null.");
+        }
+        if (filter == null) {
+            throw new IllegalArgumentException("Post Filter cannot be null!");
+        }
+        if (!filter.acceptsAuthor(user) || !mightHavePosts(user)) {
+            return new ArrayList<Post>();
+        }
+        long start = Metrics.startTimer();
+        UserPosts posts = postsByUser.get(user);
+        if (posts == null) {
+            recordMissingAuthor();
+            READ_TIMER.record(start);
             return new ArrayList<Post>();
         }
+        
+        // Narrow under the lock, but evaluate the rest of the filter outside of it.
+        Post[] candidates;
+        int size;
+        synchronized (posts) {
+            size = posts.size();
+            int from = filter.getSince() == PostFilter.UNBOUNDED_SINCE ? 0 : posts
+                    .indexOfTimestamp(filter.getSince());
+            int to = filter.getUntil() == PostFilter.UNBOUNDED_UNTIL ? posts.size() : posts
+                    .indexOfTimestamp(filter.getUntil());
+            if (filter.getKeywords().isEmpty()) {
+                candidates = posts.subList(from, to).toArray(new Post[to - from]);
+            } else {
+                candidates = posts.getPostsWithKeywords(filter.getKeywords(), from, to);
+            }
+        }
+        POSTS_SKIPPED.add(size - candidates.length);
+        
+        boolean keywordsMatched = !filter.getKeywords().isEmpty();
+        List<Post> result = new ArrayList<Post>();
+        for (Post post : candidates) {
+            if (filter.testRemaining(post, keywordsMatched)) {
+                result.add(post);
+            }
+        }
+        READ_TIMER.record(start);
+        return result;
+    }
+    
+    /**
+     * Removes all posts for the specified user from storage.
+     * 
+     * @param user
+     * @throws IllegalArgumentException if user is null
+     */
+    public void deletePostsByUser(String user) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null.");
+        }
+        UserPosts posts = postsByUser.remove(user);
+        if (posts != null) {
+            List<Post> removed = null;
+            synchronized (posts) {
+                estimatedBytes.addAndGet(-estimateSize(posts));
+                if (hasListeners()) {
+                    removed = new ArrayList<Post>(posts);
+                }
+                posts.clear();
+            }
+            recordAuthorRemoved();
+            firePostsRemoved(removed);
+        }
+    }
+    
+    /**
+     * Removes every post that falls outside of the retention policy. Age and per-user limits are
+     * applied one user at a time; the memory budget is then enforced by repeatedly evicting the
+     * oldest remaining post across all users. Listeners are told of every removed post at the
+     * end.
+     * 
+     * @param policy
+     * @param now current time in milliseconds since the epoch
+     * @return the number of posts and bytes removed
+     * @throws IllegalArgumentException if policy is null
+     */
+    public RetentionResult trim(RetentionPolicy policy, long now) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Retention policy cannot be null!");
+        }
+        RetentionResult result = RetentionResult.EMPTY;
+        List<Post> removed = hasListeners() ? new ArrayList<Post>() : null;
+        
+        long cutoff = policy.getCutoffTimestamp(now);
+        int maxPosts = policy.getMaxPostsPerUser();
+        if (cutoff != Long.MIN_VALUE || maxPosts != RetentionPolicy.UNLIMITED_POSTS) {
+            for (String user : getUsers()) {
+                result = result.plus(trimUser(user, cutoff, maxPosts, removed));
+            }
+        }
+        
+        long budget = policy.getMaxTotalBytes();
+        if (getEstimatedBytes() > budget) {
+            result = result.plus(evictUntilWithinBudget(budget, removed));
+        }
+        firePostsRemoved(removed);
+        return result;
+    }
+    
+    /**
+     * Releases any space freed by earlier deletes or trims. Heap-backed posts are reclaimed by the
+     * garbage collector, so there is nothing to do here.
+     * 
+     * @return number of bytes reclaimed
+     */
+    public long compact() {
+        return 0;
+    }
+    
+    /**
+     * Gets an estimate of the memory held by the stored posts.
+     * 
+     * @return estimated bytes
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+    
+    /**
+     * Checks the author filter, if the store keeps one, for whether a user might have posts.
+     * Subclasses that override the reads must call this before looking the user up.
+     * 
+     * @param user
+     * @return false if the user definitely has no posts
+     */
+    protected boolean mightHavePosts(String user) {
+        RebuildableBloomFilter filter = authorFilter;
+        return filter == null || filter.mightContain(user);
+    }
+    
+    /**
+     * Records a read that the author filter let through for a user with no posts.
+     */
+    protected void recordMissingAuthor() {
+        RebuildableBloomFilter filter = authorFilter;
+        if (filter != null) {
+            filter.recordFalsePositive();
+        }
+    }
+    
+    /**
+     * Records a user whose posts have all been removed, which stays in the author filter until
+     * it is next rebuilt.
+     */
+    protected void recordAuthorRemoved() {
+        RebuildableBloomFilter filter = authorFilter;
+        if (filter != null) {
+            filter.recordRemoval();
+        }
+    }
+    
+    /**
+     * Gets the users who currently have posts in storage.
+     * 
+     * @return user ids
+     */
+    protected Collection<String> getUsers() {
+        return postsByUser.keySet();
+    }
+    
+    /**
+     * Removes the posts of a single user that are older than the cutoff, then the oldest of the
+     * remainder until at most maxPosts are left.
+     * 
+     * @param user
+     * @param cutoff oldest timestamp that is retained
+     * @param maxPosts
+     * @param removed collects the removed posts, or null if nobody is listening
+     * @return the number of posts and bytes removed
+     */
+    protected RetentionResult trimUser(String user, long cutoff, int maxPosts,
+            List<Post> removed) {
+        UserPosts posts = postsByUser.get(user);
+        if (posts == null) {
+            return RetentionResult.EMPTY;
+        }
+        synchronized (posts) {
+            int size = posts.size();
+            int kept = 0;
+            long bytes = 0;
+            for (int i = 0; i < size; i++) {
+                Post post = posts.get(i);
+                if (post.getTimestamp() >= cutoff) {
+                    posts.set(kept++, post);
+                } else {
+                    bytes += estimateSize(post);
+                    if (removed != null) {
+                        removed.add(post);
+                    }
+                }
+            }
+            int excess = Math.max(0, kept - maxPosts);
+            if (kept == size && excess == 0) {
+                return RetentionResult.EMPTY;
+            }
+            for (int i = 0; i < excess; i++) {
+                bytes += estimateSize(posts.get(i));
+                if (removed != null) {
+                    removed.add(posts.get(i));
+                }
+            }
+            List<Post> retained = new ArrayList<Post>(posts.subList(excess, kept));
+            posts.clear();
+            posts.addAll(retained);
+            posts.dropKeywords();
+            
+            dropIfEmpty(user, posts);
+            estimatedBytes.addAndGet(-bytes);
+            return new RetentionResult(size - posts.size(), bytes);
+        }
+    }
+    
+    /**
+     * Gets the timestamp of the oldest post for the specified user.
+     * 
+     * @param user
+     * @return oldest timestamp, or NO_POSTS if the user has none
+     */
+    protected long getOldestTimestamp(String user) {
+        List<Post> posts = postsByUser.get(user);
+        if (posts == null) {
+            return NO_POSTS;
+        }
+        synchronized (posts) {
+            return posts.isEmpty() ? NO_POSTS : posts.get(0).getTimestamp();
+        }
+    }
+    
+    /**
+     * Removes the oldest posts for the specified user in one step: the oldest, then each next one
+     * that is no newer than until, as long as fewer than bytes have been freed.
+     * 
+     * @param user
+     * @param until newest timestamp that may be removed after the first post
+     * @param bytes number of bytes to free
+     * @param removed collects the removed posts, or null if nobody is listening
+     * @return the number of posts and bytes removed
+     */
+    protected RetentionResult evictOldest(String user, long until, long bytes,
+            List<Post> removed) {
+        UserPosts posts = postsByUser.get(user);
+        if (posts == null) {
+            return RetentionResult.EMPTY;
+        }
+        synchronized (posts) {
+            int count = 0;
+            long freed = 0;
+            while (count < posts.size() && (count == 0 || (freed < bytes && posts.get(count)
+                    .getTimestamp() <= until))) {
+                freed += estimateSize(posts.get(count++));
+            }
+            if (count == 0) {
+                return RetentionResult.EMPTY;
+            }
+            List<Post> evicted = posts.subList(0, count);
+            if (removed != null) {
+                removed.addAll(evicted);
+            }
+            evicted.clear();
+            posts.dropKeywords();
+            dropIfEmpty(user, posts);
+            estimatedBytes.addAndGet(-freed);
+            return new RetentionResult(count, freed);
+        }
+    }
+    
+    /**
+     * Evicts the globally oldest posts, keeping a heap of each user's oldest remaining post. Each
+     * user's run of posts older than every other user's is evicted in one step.
+     * 
+     * @param budget
+     * @param removed collects the removed posts, or null if nobody is listening
+     * @return the number of posts and bytes removed
+     */
+    private RetentionResult evictUntilWithinBudget(long budget, List<Post> removed) {
+        PriorityQueue<UserHead> heads = new PriorityQueue<UserHead>(11, new Comparator<UserHead>() {
+            public int compare(UserHead a, UserHead b) {
+                return Long.compare(a.timestamp, b.timestamp);
+            }
+        });
+        for (String user : getUsers()) {
+            long oldest = getOldestTimestamp(user);
+            if (oldest != NO_POSTS) {
+                heads.add(new UserHead(user, oldest));
+            }
+        }
+        
+        RetentionResult result = RetentionResult.EMPTY;
+        while (getEstimatedBytes() > budget && !heads.isEmpty()) {
+            UserHead head = heads.poll();
+            UserHead next = heads.peek();
+            result = result.plus(evictOldest(head.user, next == null ? Long.MAX_VALUE
+                    : next.timestamp, getEstimatedBytes() - budget, removed));
+            long oldest = getOldestTimestamp(head.user);
+            if (oldest != NO_POSTS) {
+                heads.add(new UserHead(head.user, oldest));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Unmaps an emptied list so idle users do not accumulate. Must be called with the list's lock
+     * held, which is what lets write() detect the removal.
+     */
+    private void dropIfEmpty(String user, List<Post> posts) {
+        if (posts.isEmpty() && postsByUser.remove(user, posts)) {
+            recordAuthorRemoved();
+        }
+    }
+    
+    private static long estimateSize(Post post) {
+        return POST_OVERHEAD_BYTES + 2L * (post.getUser().length() + post.getContent().length());
+    }
+    
+    private static long estimateSize(List<Post> posts) {
+        long bytes = 0;
+        for (Post post : posts) {
+            bytes += estimateSize(post);
+        }
+        return bytes;
+    }
+    
+    /**
+     * A single user's posts, oldest first, along with the postings of the words in them. Must
+     * only be used with its lock held.
+     */
+    private static class UserPosts extends ArrayList<Post> {
+        private static final long serialVersionUID = 1L;
+        
+        // Positions of the posts containing each word, or null until a keyword read needs them.
+        private Map<String, Positions> keywords;
+        
+        /**
+         * Inserts a post after every post that is not newer, so in-order writes append.
+         */
+        private void insert(Post post) {
+            int at = size();
+            while (at > 0 && get(at - 1).getTimestamp() > post.getTimestamp()) {
+                at--;
+            }
+            add(at, post);
+            if (at == size() - 1) {
+                indexKeywords(at);
+            } else {
+                keywords = null;
+            }
+        }
+        
+        /**
+         * Merges sorted posts in. Only the tail that is newer than the first new post is moved,
+         * so appending in order costs no more than addAll().
+         */
+        private void merge(List<Post> batch) {
+            int from = size();
+            long oldestNew = batch.get(0).getTimestamp();
+            while (from > 0 && get(from - 1).getTimestamp() > oldestNew) {
+                from--;
+            }
+            if (from == size()) {
+                addAll(batch);
+                indexKeywords(from);
+                return;
+            }
+            keywords = null;
+            List<Post> tail = subList(from, size());
+            List<Post> newer = new ArrayList<Post>(tail);
+            tail.clear();
+            int i = 0;
+            int j = 0;
+            while (i < newer.size() && j < batch.size()) {
+                // Ties keep the existing post first, as if the batch had been written afterwards.
+                if (batch.get(j).getTimestamp() < newer.get(i).getTimestamp()) {
+                    add(batch.get(j++));
+                } else {
+                    add(newer.get(i++));
+                }
+            }
+            addAll(newer.subList(i, newer.size()));
+            addAll(batch.subList(j, batch.size()));
+        }
+        
+        /**
+         * Forgets the keyword postings after posts have moved.
+         */
+        private void dropKeywords() {
+            keywords = null;
+        }
+        
+        /**
+         * Finds the position of the first post that is not older than the timestamp.
+         */
+        private int indexOfTimestamp(long timestamp) {
+            int low = 0;
+            int high = size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (get(mid).getTimestamp() < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        
+        /**
+         * Gets the posts between from and to that contain every keyword, walking the rarest
+         * keyword's postings and probing the others.
+         */
+        private Post[] getPostsWithKeywords(List<String> words, int from, int to) {
+            if (keywords == null) {
+                keywords = new HashMap<String, Positions>();
+                indexKeywords(0);
+            }
+            Positions[] postings = new Positions[words.size()];
+            for (int i = 0; i < postings.length; i++) {
+                postings[i] = keywords.get(words.get(i));
+                if (postings[i] == null) {
+                    return new Post[0];
+                }
+            }
+            Arrays.sort(postings, new Comparator<Positions>() {
+                public int compare(Positions a, Positions b) {
+                    return Integer.compare(a.size, b.size);
+                }
+            });
+            List<Post> matched = new ArrayList<Post>();
+            Positions rarest = postings[0];
+            for (int i = rarest.indexOf(from); i < rarest.size && rarest.positions[i] < to; i++) {
+                int position = rarest.positions[i];
+                boolean containsAll = true;
+                for (int k = 1; k < postings.length && containsAll; k++) {
+                    containsAll = postings[k].contains(position);
+                }
+                if (containsAll) {
+                    matched.add(get(position));
+                }
+            }
+            return matched.toArray(new Post[matched.size()]);
+        }
+        
+        /**
+         * Adds the posts from the given position on to the keyword postings, if they are built.
+         */
+        private void indexKeywords(int from) {
+            if (keywords == null) {
+                return;
+            }
+            for (int i = from; i < size(); i++) {
+                for (String word : PostFilter.getKeywords(get(i).getContent())) {
+                    Positions positions = keywords.get(word);
+                    if (positions == null) {
+                        positions = new Positions();
+                        keywords.put(word, positions);
+                    }
+                    positions.add(i);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Growable sorted array of post positions.
+     */
+    private static class Positions {
+        private int[] positions = new int[4];
+        private int size = 0;
+        
+        private void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+        
+        private int indexOf(int position) {
+            int index = Arrays.binarySearch(positions, 0, size, position);
+            return index < 0 ? -index - 1 : index;
+        }
+        
+        private boolean contains(int position) {
+            return Arrays.binarySearch(positions, 0, size, position) >= 0;
+        }
+    }
+    
+    /**
+     * A user along with the timestamp of their oldest remaining post.
+     */
+    private static class UserHead {
+        private final String user;
+        private final long timestamp;
+        
+        private UserHead(String user, long timestamp) {
+            this.user = user;
+            this.timestamp = timestamp;
+        }
     }
 }
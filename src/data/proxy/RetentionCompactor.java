@@ -0,0 +1,166 @@
+package data.proxy;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * RetentionCompactor periodically applies a RetentionPolicy to a PostStore on a background thread
+ * and then compacts the store. Trimming locks one user at a time, so concurrent writers and readers
+ * are never blocked for a whole pass. A background pass that fails is logged and counted, and the
+ * next pass runs on schedule.
+ */
+public class RetentionCompactor {
+    /**
+     * Name of the java.util.logging Logger that failed background passes are logged to.
+     */
+    public static final String LOGGER_NAME = "chatter.retention";
+    
+    private static final Logger LOGGER = Logger.getLogger(LOGGER_NAME);
+    
+    private final PostStore postStore;
+    private final RetentionPolicy policy;
+    private final AtomicLong postsReclaimed = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RetentionResult lastResult = RetentionResult.EMPTY;
+    private ScheduledExecutorService executor;
+    
+    /**
+     * Constructor requires the store to trim and the policy to enforce.
+     * 
+     * @param postStore
+     * @param policy
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public RetentionCompactor(PostStore postStore, RetentionPolicy policy) {
+        if (postStore == null) {
+            throw new IllegalArgumentException("Post Store cannot be null!");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Retention policy cannot be null!");
+        }
+        this.postStore = postStore;
+        this.policy = policy;
+    }
+    
+    /**
+     * Starts running retention passes on a daemon thread, with the given delay between passes.
+     * 
+     * @param period
+     * @param unit
+     * @throws IllegalArgumentException if period is not positive or unit is null
+     * @throws IllegalStateException if the compactor is already running
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("The compaction period must be positive!");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("Time unit cannot be null!");
+        }
+        if (executor != null) {
+            throw new IllegalStateException("The compactor has already been started!");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "post-retention-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                // An exception escaping here would silently cancel every later pass.
+                try {
+                    runOnce();
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                    LOGGER.log(Level.SEVERE, "Retention pass failed", e);
+                }
+            }
+        }, period, period, unit);
+    }
+    
+    /**
+     * Stops the background thread, waiting briefly for any pass in progress to finish.
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+    
+    /**
+     * Runs a single retention pass on the calling thread, followed by a compaction.
+     * 
+     * @return what the pass removed
+     */
+    public RetentionResult runOnce() {
+        RetentionResult result = postStore.trim(policy, System.currentTimeMillis());
+        postStore.compact();
+        
+        postsReclaimed.addAndGet(result.getPostsRemoved());
+        bytesReclaimed.addAndGet(result.getBytesRemoved());
+        runs.incrementAndGet();
+        lastResult = result;
+        return result;
+    }
+    
+    /**
+     * Getter for the total number of posts removed since the compactor was created.
+     * 
+     * @return posts reclaimed
+     */
+    public long getPostsReclaimed() {
+        return postsReclaimed.get();
+    }
+    
+    /**
+     * Getter for the total number of bytes removed since the compactor was created.
+     * 
+     * @return bytes reclaimed
+     */
+    public long getBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+    
+    /**
+     * Getter for the number of completed passes.
+     * 
+     * @return number of passes
+     */
+    public long getRuns() {
+        return runs.get();
+    }
+    
+    /**
+     * Getter for the number of background passes that failed with an exception.
+     * 
+     * @return number of failed passes
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+    
+    /**
+     * Getter for the result of the most recent pass.
+     * 
+     * @return last result
+     */
+    public RetentionResult getLastResult() {
+        return lastResult;
+    }
+}
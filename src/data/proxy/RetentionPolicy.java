@@ -0,0 +1,118 @@
+package data.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RetentionPolicy describes how long posts are kept in a PostStore. A policy is immutable, so the
+ * same instance may be shared with a background RetentionCompactor. Every limit starts out
+ * unlimited.
+ */
+public class RetentionPolicy {
+    public static final long UNLIMITED_AGE = Long.MAX_VALUE;
+    public static final int UNLIMITED_POSTS = Integer.MAX_VALUE;
+    public static final long UNLIMITED_BYTES = Long.MAX_VALUE;
+    
+    private final long maxAgeMillis;
+    private final int maxPostsPerUser;
+    private final long maxTotalBytes;
+    
+    /**
+     * Basic default constructor for a policy that retains everything.
+     */
+    public RetentionPolicy() {
+        this(UNLIMITED_AGE, UNLIMITED_POSTS, UNLIMITED_BYTES);
+    }
+    
+    private RetentionPolicy(long maxAgeMillis, int maxPostsPerUser, long maxTotalBytes) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxPostsPerUser = maxPostsPerUser;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+    
+    /**
+     * Returns a copy of this policy that removes posts older than the given age.
+     * 
+     * @param maxAge
+     * @param unit
+     * @return updated policy
+     * @throws IllegalArgumentException if maxAge is negative or unit is null
+     */
+    public RetentionPolicy withMaxAge(long maxAge, TimeUnit unit) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("The maximum age cannot be negative!");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("Time unit cannot be null!");
+        }
+        return new RetentionPolicy(unit.toMillis(maxAge), maxPostsPerUser, maxTotalBytes);
+    }
+    
+    /**
+     * Returns a copy of this policy that keeps at most the given number of posts per user.
+     * 
+     * @param maxPostsPerUser
+     * @return updated policy
+     * @throws IllegalArgumentException if maxPostsPerUser is negative
+     */
+    public RetentionPolicy withMaxPostsPerUser(int maxPostsPerUser) {
+        if (maxPostsPerUser < 0) {
+            throw new IllegalArgumentException("The maximum posts per user cannot be negative!");
+        }
+        return new RetentionPolicy(maxAgeMillis, maxPostsPerUser, maxTotalBytes);
+    }
+    
+    /**
+     * Returns a copy of this policy that evicts the oldest posts across all users once the store
+     * holds more than the given number of bytes.
+     * 
+     * @param maxTotalBytes
+     * @return updated policy
+     * @throws IllegalArgumentException if maxTotalBytes is negative
+     */
+    public RetentionPolicy withMaxTotalBytes(long maxTotalBytes) {
+        if (maxTotalBytes < 0) {
+            throw new IllegalArgumentException("The memory budget cannot be negative!");
+        }
+        return new RetentionPolicy(maxAgeMillis, maxPostsPerUser, maxTotalBytes);
+    }
+    
+    /**
+     * Getter for maxAgeMillis.
+     * 
+     * @return maximum age in milliseconds, or UNLIMITED_AGE
+     */
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+    
+    /**
+     * Getter for maxPostsPerUser.
+     * 
+     * @return maximum posts per user, or UNLIMITED_POSTS
+     */
+    public int getMaxPostsPerUser() {
+        return maxPostsPerUser;
+    }
+    
+    /**
+     * Getter for maxTotalBytes.
+     * 
+     * @return memory budget in bytes, or UNLIMITED_BYTES
+     */
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+    
+    /**
+     * Computes the oldest timestamp that is still retained at the given time.
+     * 
+     * @param now current time in milliseconds since the epoch
+     * @return cutoff timestamp; posts strictly older than this are removed
+     */
+    public long getCutoffTimestamp(long now) {
+        if (maxAgeMillis == UNLIMITED_AGE || now - maxAgeMillis > now) {
+            return Long.MIN_VALUE;
+        }
+        return now - maxAgeMillis;
+    }
+}
@@ -0,0 +1,61 @@
+package data.proxy;
+
+/**
+ * RetentionResult records how much was removed from a PostStore by a retention pass.
+ */
+public class RetentionResult {
+    public static final RetentionResult EMPTY = new RetentionResult(0, 0);
+    
+    private final long postsRemoved;
+    private final long bytesRemoved;
+    
+    /**
+     * Constructor requires all fields.
+     * 
+     * @param postsRemoved
+     * @param bytesRemoved
+     */
+    public RetentionResult(long postsRemoved, long bytesRemoved) {
+        this.postsRemoved = postsRemoved;
+        this.bytesRemoved = bytesRemoved;
+    }
+    
+    /**
+     * Getter for postsRemoved.
+     * 
+     * @return number of posts removed
+     */
+    public long getPostsRemoved() {
+        return postsRemoved;
+    }
+    
+    /**
+     * Getter for bytesRemoved.
+     * 
+     * @return estimated number of bytes removed
+     */
+    public long getBytesRemoved() {
+        return bytesRemoved;
+    }
+    
+    /**
+     * Combines this result with another.
+     * 
+     * @param other
+     * @return sum of both results
+     */
+    public RetentionResult plus(RetentionResult other) {
+        return new RetentionResult(postsRemoved + other.getPostsRemoved(), bytesRemoved
+                + other.getBytesRemoved());
+    }
+    
+    /**
+     * Override of Object.toString()
+     * 
+     * @return human-readable summary
+     */
+    @Override
+    public String toString() {
+        return String.format("%d posts, %d bytes", postsRemoved, bytesRemoved);
+    }
+}
@@ -0,0 +1,406 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import metrics.Metrics;
+import metrics.Timer;
+import data.proxy.utils.ConsistentHashRing;
+import data.structure.UserProfile;
+
+/**
+ * ShardedUserProfileStore spreads user profiles across several underlying stores, which may be of
+ * different types. Each profile lives on the shard that owns its id on a consistent hash ring, so
+ * writes, deletes and lookups touch exactly one shard, and adding a shard to N moves only about
+ * 1/(N+1) of the profiles. Scans are sent to every shard in parallel and the results are merged
+ * as each shard finishes.
+ * 
+ * Reads, writes and scans share a read lock on the shard membership, so they run concurrently
+ * with each other, each relying on its shard's own guarantees. Adding or removing a shard takes
+ * the write lock while it migrates the affected profiles, so no operation ever sees a profile
+ * half moved.
+ */
+public class ShardedUserProfileStore implements UserProfileStore {
+    private static final Timer WRITE_TIMER = Metrics.timer("ShardedUserProfileStore.write");
+    private static final Timer WRITE_ALL_TIMER = Metrics.timer("ShardedUserProfileStore.writeAll");
+    private static final Timer DELETE_TIMER = Metrics.timer("ShardedUserProfileStore.delete");
+    private static final Timer GET_PROFILE_TIMER = Metrics
+            .timer("ShardedUserProfileStore.getProfile");
+    private static final Timer SCAN_TIMER = Metrics
+            .timer("ShardedUserProfileStore.getUsersForPredicate");
+    private static final Timer REBALANCE_TIMER = Metrics
+            .timer("ShardedUserProfileStore.rebalance");
+    
+    private final ConsistentHashRing<UserProfileStore> ring;
+    private final ReadWriteLock membership = new ReentrantReadWriteLock();
+    private ExecutorService executor;
+    
+    /**
+     * Basic default constructor for ShardedUserProfileStore. Shards are added with addShard().
+     */
+    public ShardedUserProfileStore() {
+        this(new ConsistentHashRing<UserProfileStore>());
+    }
+    
+    /**
+     * Constructor requires the ring that assigns ids to shards.
+     * 
+     * @param ring
+     * @throws IllegalArgumentException if ring is null
+     */
+    public ShardedUserProfileStore(ConsistentHashRing<UserProfileStore> ring) {
+        if (ring == null) {
+            throw new IllegalArgumentException("Ring cannot be null!");
+        }
+        this.ring = ring;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "shard-scan-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Creates a store over empty in-memory shards named "shard-0" to "shard-(count - 1)".
+     * 
+     * @param count number of shards
+     * @return sharded store
+     * @throws IllegalArgumentException if count is not positive
+     */
+    public static ShardedUserProfileStore createLocal(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("There must be at least one shard!");
+        }
+        ShardedUserProfileStore store = new ShardedUserProfileStore();
+        for (int i = 0; i < count; i++) {
+            store.addShard("shard-" + i, new LocalTransientUserProfileStore());
+        }
+        return store;
+    }
+    
+    /**
+     * Sets the executor that scans the shards. By default a daemon thread pool is used.
+     * 
+     * @param executor
+     * @return this store
+     * @throws IllegalArgumentException if executor is null
+     */
+    public ShardedUserProfileStore withExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null!");
+        }
+        this.executor = executor;
+        return this;
+    }
+    
+    /**
+     * Adds a shard, then moves to it every profile it now owns. The shard may already hold
+     * profiles, for example when it is being added back; any of them owned by other shards are
+     * moved there unless those shards already hold a newer copy.
+     * 
+     * @param name stable name that decides which ids the shard owns
+     * @param shard
+     * @throws IllegalArgumentException if either argument is null or the name is already used
+     */
+    public void addShard(String name, final UserProfileStore shard) {
+        membership.writeLock().lock();
+        long start = Metrics.startTimer();
+        try {
+            List<UserProfileStore> existing = ring.getNodes();
+            ring.add(name, shard);
+            for (UserProfileStore other : existing) {
+                migrate(other, new Predicate<UserProfile>() {
+                    public boolean test(UserProfile profile) {
+                        return ring.get(profile.getId()) == shard;
+                    }
+                }, true);
+            }
+            migrate(shard, everyone(), false);
+        } finally {
+            REBALANCE_TIMER.record(start);
+            membership.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Removes a shard after moving all of its profiles to the shards that now own them.
+     * 
+     * @param name
+     * @return the removed shard, or null if there was no shard with that name
+     * @throws IllegalStateException if it is the last shard and still holds profiles
+     */
+    public UserProfileStore removeShard(String name) {
+        membership.writeLock().lock();
+        long start = Metrics.startTimer();
+        try {
+            UserProfileStore shard = ring.getNode(name);
+            if (shard == null) {
+                return null;
+            }
+            if (ring.size() == 1 && !shard.getUsersForPredicate(everyone()).isEmpty()) {
+                throw new IllegalStateException("Cannot remove the last shard while it holds "
+                        + "profiles!");
+            }
+            ring.remove(name);
+            migrate(shard, everyone(), true);
+            return shard;
+        } finally {
+            REBALANCE_TIMER.record(start);
+            membership.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Getter for the shards, in the order they were added.
+     * 
+     * @return shards
+     */
+    public List<UserProfileStore> getShards() {
+        return ring.getNodes();
+    }
+    
+    /**
+     * Writes a user profile to the shard that owns it.
+     * 
+     * @param profile The UserProfile object to store
+     */
+    public void write(UserProfile profile) {
+        long start = Metrics.startTimer();
+        membership.readLock().lock();
+        try {
+            shardFor(profile.getId()).write(profile);
+        } finally {
+            membership.readLock().unlock();
+            WRITE_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Writes a batch of user profiles, sending each shard one batch of the profiles it owns.
+     * 
+     * @param profiles The UserProfile objects to store
+     */
+    public void writeAll(Collection<UserProfile> profiles) {
+        long start = Metrics.startTimer();
+        membership.readLock().lock();
+        try {
+            for (Map.Entry<UserProfileStore, List<UserProfile>> entry : groupByShard(profiles)
+                    .entrySet()) {
+                entry.getKey().writeAll(entry.getValue());
+            }
+        } finally {
+            membership.readLock().unlock();
+            WRITE_ALL_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Remove a user profile from the shard that owns it.
+     * 
+     * @param id The String id for the UserProfile to delete
+     */
+    public void delete(String id) {
+        long start = Metrics.startTimer();
+        membership.readLock().lock();
+        try {
+            shardFor(id).delete(id);
+        } finally {
+            membership.readLock().unlock();
+            DELETE_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Gets a user profile from the shard that owns it.
+     * 
+     * @param id The String id for the UserProfile to retrieve
+     * @return the user's profile, or null if the user does not exist
+     */
+    public UserProfile getProfile(String id) {
+        long start = Metrics.startTimer();
+        membership.readLock().lock();
+        try {
+            return shardFor(id).getProfile(id);
+        } finally {
+            membership.readLock().unlock();
+            GET_PROFILE_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition. Every shard but one
+     * is scanned on the executor while the calling thread scans the remaining one, and each
+     * shard's results are added as soon as it finishes.
+     * 
+     * @param predicate
+     * @return filtered collection of users
+     */
+    public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate) {
+        return getUsersForPredicate(predicate, Collections.<String, String> emptyMap());
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition, passing the required
+     * attribute values on to every shard.
+     * 
+     * @param predicate
+     * @param requiredAttributes attribute values by name that every matching user has
+     * @return filtered collection of users
+     */
+    @Override
+    public Collection<UserProfile> getUsersForPredicate(final Predicate<UserProfile> predicate,
+            final Map<String, String> requiredAttributes) {
+        return scanShards(new Function<UserProfileStore, Collection<UserProfile>>() {
+            public Collection<UserProfile> apply(UserProfileStore shard) {
+                return shard.getUsersForPredicate(predicate, requiredAttributes);
+            }
+        });
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition, passing the primary
+     * user and the shared attribute bound on to every shard.
+     * 
+     * @param predicate
+     * @param primary user whose attribute values are shared
+     * @param minimumSharedAttributes fewest attribute values every matching user shares
+     * @return filtered collection of users
+     */
+    @Override
+    public Collection<UserProfile> getUsersForPredicate(final Predicate<UserProfile> predicate,
+            final UserProfile primary, final int minimumSharedAttributes) {
+        return scanShards(new Function<UserProfileStore, Collection<UserProfile>>() {
+            public Collection<UserProfile> apply(UserProfileStore shard) {
+                return shard.getUsersForPredicate(predicate, primary, minimumSharedAttributes);
+            }
+        });
+    }
+    
+    /**
+     * Runs a scan on every shard but one on the executor and on the remaining one on the calling
+     * thread, adding each shard's results as soon as it finishes.
+     */
+    private Collection<UserProfile> scanShards(
+            final Function<UserProfileStore, Collection<UserProfile>> scan) {
+        long start = Metrics.startTimer();
+        membership.readLock().lock();
+        try {
+            List<UserProfileStore> shards = ring.getNodes();
+            if (shards.isEmpty()) {
+                throw new IllegalStateException("There are no shards!");
+            }
+            CompletionService<Collection<UserProfile>> scans =
+                    new ExecutorCompletionService<Collection<UserProfile>>(executor);
+            List<Future<Collection<UserProfile>>> pending =
+                    new ArrayList<Future<Collection<UserProfile>>>();
+            for (int i = 1; i < shards.size(); i++) {
+                final UserProfileStore shard = shards.get(i);
+                pending.add(scans.submit(new Callable<Collection<UserProfile>>() {
+                    public Collection<UserProfile> call() {
+                        return scan.apply(shard);
+                    }
+                }));
+            }
+            
+            try {
+                List<UserProfile> results = new ArrayList<UserProfile>(scan.apply(shards.get(0)));
+                for (int i = 1; i < shards.size(); i++) {
+                    results.addAll(scans.take().get());
+                }
+                return results;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scanning the shards!", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("A shard failed to scan!", e.getCause());
+            } finally {
+                for (Future<Collection<UserProfile>> future : pending) {
+                    future.cancel(true);
+                }
+            }
+        } finally {
+            membership.readLock().unlock();
+            SCAN_TIMER.record(start);
+        }
+    }
+    
+    private UserProfileStore shardFor(String id) {
+        UserProfileStore shard = ring.get(id);
+        if (shard == null) {
+            throw new IllegalStateException("There are no shards!");
+        }
+        return shard;
+    }
+    
+    private Map<UserProfileStore, List<UserProfile>> groupByShard(
+            Collection<UserProfile> profiles) {
+        Map<UserProfileStore, List<UserProfile>> batches =
+                new HashMap<UserProfileStore, List<UserProfile>>();
+        for (UserProfile profile : profiles) {
+            UserProfileStore shard = shardFor(profile.getId());
+            List<UserProfile> batch = batches.get(shard);
+            if (batch == null) {
+                batch = new ArrayList<UserProfile>();
+                batches.put(shard, batch);
+            }
+            batch.add(profile);
+        }
+        return batches;
+    }
+    
+    /**
+     * Moves the matching profiles out of a shard to the shards that now own them. Unless
+     * overwrite is set, a profile the owner already holds is dropped rather than copied, since the
+     * owner's copy is the one that has been receiving writes.
+     */
+    private void migrate(UserProfileStore from, Predicate<UserProfile> moving, boolean overwrite) {
+        Map<UserProfileStore, List<UserProfile>> batches = groupByShard(from
+                .getUsersForPredicate(moving));
+        batches.remove(from);
+        for (Map.Entry<UserProfileStore, List<UserProfile>> entry : batches.entrySet()) {
+            UserProfileStore to = entry.getKey();
+            List<UserProfile> batch = new ArrayList<UserProfile>();
+            for (UserProfile profile : entry.getValue()) {
+                if (overwrite || to.getProfile(profile.getId()) == null) {
+                    batch.add(profile);
+                }
+            }
+            to.writeAll(batch);
+            for (UserProfile profile : entry.getValue()) {
+                from.delete(profile.getId());
+            }
+        }
+    }
+    
+    private static Predicate<UserProfile> everyone() {
+        return new Predicate<UserProfile>() {
+            public boolean test(UserProfile profile) {
+                return true;
+            }
+        };
+    }
+}
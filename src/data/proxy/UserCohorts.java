@@ -0,0 +1,261 @@
+package data.proxy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import metrics.Metrics;
+import metrics.Timer;
+import data.structure.UserProfile;
+
+/**
+ * UserCohorts groups users into cohorts of users with exactly the same attributes, keyed by
+ * their attribute signature. Because attributes are normalized, large groups of users often share
+ * a signature, and anything that depends only on attributes, such as an attribute based match, is
+ * the same for every member of a cohort and can be worked out once for all of them.
+ * 
+ * Each profile's signature is taken when it is updated, so a profile changed in place by
+ * setAttribute() moves to its new cohort when it is next updated. A cohort is created when its
+ * first member arrives and dropped when its last member leaves; the version counts these changes,
+ * so that work done per cohort can be kept until the set of cohorts changes, while users merely
+ * moving between existing cohorts are seen through getMembers(). Lookups share a read lock and
+ * updates take the write lock, so the version and the cohorts always change together.
+ */
+public class UserCohorts {
+    private static final Timer UPDATE_TIMER = Metrics.timer("UserCohorts.update");
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Cohort> cohorts = new HashMap<String, Cohort>();
+    private final Map<String, Cohort> cohortsByUser = new HashMap<String, Cohort>();
+    private long version;
+    
+    /**
+     * A group of users with the same attributes.
+     */
+    public class Cohort {
+        private final String signature;
+        private final UserProfile representative;
+        private final Map<String, UserProfile> members = new LinkedHashMap<String, UserProfile>();
+        
+        private Cohort(String signature, Map<String, String> attributes) {
+            this.signature = signature;
+            this.representative = new UserProfile(signature, attributes);
+        }
+        
+        /**
+         * Getter for the attribute signature every member has.
+         * 
+         * @return signature
+         */
+        public String getSignature() {
+            return signature;
+        }
+        
+        /**
+         * Gets a profile with the cohort's attributes, to stand in for every member wherever only
+         * attributes matter. Its id is the signature.
+         * 
+         * @return representative profile
+         */
+        public UserProfile getRepresentative() {
+            return representative;
+        }
+        
+        /**
+         * Gets the current members, as they were last updated. A cohort that has been dropped has
+         * none.
+         * 
+         * @return members
+         */
+        public List<UserProfile> getMembers() {
+            lock.readLock().lock();
+            try {
+                return new ArrayList<UserProfile>(members.values());
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        /**
+         * Gets the number of current members.
+         * 
+         * @return members
+         */
+        public int size() {
+            lock.readLock().lock();
+            try {
+                return members.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Puts a profile into the cohort of its current attributes, taking it out of its old one.
+     * 
+     * @param profile
+     * @throws IllegalArgumentException if profile is null
+     */
+    public void update(UserProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("User Profile cannot be null!");
+        }
+        long start = Metrics.startTimer();
+        String signature = profile.getAttributeSignature();
+        lock.writeLock().lock();
+        try {
+            updateLocked(profile, signature);
+        } finally {
+            lock.writeLock().unlock();
+            UPDATE_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Updates a batch of profiles under a single lock acquisition.
+     * 
+     * @param profiles
+     * @throws IllegalArgumentException if any profile is null
+     */
+    public void updateAll(Collection<UserProfile> profiles) {
+        List<String> signatures = new ArrayList<String>(profiles.size());
+        for (UserProfile profile : profiles) {
+            if (profile == null) {
+                throw new IllegalArgumentException("User Profile cannot be null!");
+            }
+            signatures.add(profile.getAttributeSignature());
+        }
+        lock.writeLock().lock();
+        try {
+            int i = 0;
+            for (UserProfile profile : profiles) {
+                updateLocked(profile, signatures.get(i++));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Takes a user out of their cohort.
+     * 
+     * @param id
+     */
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Cohort before = cohortsByUser.remove(id);
+            if (before != null) {
+                leave(before, id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the cohort a user was last put in.
+     * 
+     * @param id
+     * @return cohort, or null if the user is in none
+     */
+    public Cohort getCohort(String id) {
+        lock.readLock().lock();
+        try {
+            return cohortsByUser.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets every cohort.
+     * 
+     * @return cohorts
+     */
+    public List<Cohort> getCohorts() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<Cohort>(cohorts.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of cohorts.
+     * 
+     * @return cohorts
+     */
+    public int getCohortCount() {
+        lock.readLock().lock();
+        try {
+            return cohorts.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of users in any cohort.
+     * 
+     * @return users
+     */
+    public int getUserCount() {
+        lock.readLock().lock();
+        try {
+            return cohortsByUser.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of times a cohort has been created or dropped. While it is unchanged, the
+     * cohorts are the same, though their members may not be.
+     * 
+     * @return version
+     */
+    public long getVersion() {
+        lock.readLock().lock();
+        try {
+            return version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void updateLocked(UserProfile profile, String signature) {
+        String id = profile.getId();
+        Cohort before = cohortsByUser.get(id);
+        if (before != null && before.signature.equals(signature)) {
+            before.members.put(id, profile);
+            return;
+        }
+        if (before != null) {
+            leave(before, id);
+        }
+        Cohort after = cohorts.get(signature);
+        if (after == null) {
+            after = new Cohort(signature, profile.getAttributes());
+            cohorts.put(signature, after);
+            version++;
+        }
+        after.members.put(id, profile);
+        cohortsByUser.put(id, after);
+    }
+    
+    private void leave(Cohort cohort, String id) {
+        cohort.members.remove(id);
+        if (cohort.members.isEmpty()) {
+            cohorts.remove(cohort.signature);
+            version++;
+        }
+    }
+}
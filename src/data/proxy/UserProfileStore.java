@@ -1,6 +1,7 @@
 package data.proxy;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.function.Predicate;
 
 import data.structure.UserProfile;
@@ -17,9 +18,21 @@ public abstract interface UserProfileStore {
      */
     public void write(UserProfile profile);
     
+    /**
+     * Writes a batch of user profiles to storage. Stores that can write several profiles in one
+     * request should override this; by default each profile is written in turn.
+     * 
+     * @param profiles The UserProfile objects to store
+     */
+    public default void writeAll(Collection<UserProfile> profiles) {
+        for (UserProfile profile : profiles) {
+            write(profile);
+        }
+    }
+    
     /**
      * Remove a user profile from storage.
-     *
+     * 
      * @param id The String id for the UserProfile to delete
      */
     public void delete(String id);
@@ -39,4 +52,55 @@ public abstract interface UserProfileStore {
      * @return filtered collection of users
      */
     public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate);
+    
+    /**
+     * Returns a filtered collection of users who match the given condition, given attribute
+     * values that every match is known to have. Stores that index attributes should override this
+     * to only test users with those values; by default every user is tested.
+     * 
+     * @param predicate
+     * @param requiredAttributes attribute values by name that every matching user has
+     * @return filtered collection of users
+     */
+    public default Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate,
+            Map<String, String> requiredAttributes) {
+        return getUsersForPredicate(predicate);
+    }
+    
+    /**
+     * Returns a filtered collection of users who match the given condition, given that every
+     * match shares at least minimumSharedAttributes attribute values with the primary user. Stores
+     * that index attributes should override this to only test users who share enough; by default
+     * every user is tested.
+     * 
+     * @param predicate
+     * @param primary user whose attribute values are shared
+     * @param minimumSharedAttributes fewest attribute values every matching user shares
+     * @return filtered collection of users
+     */
+    public default Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate,
+            UserProfile primary, int minimumSharedAttributes) {
+        return getUsersForPredicate(predicate);
+    }
+    
+    /**
+     * Gets estimates of how common the stored attribute values are, for choosing how to find the
+     * users with some of them. Stores that keep no statistics return null, which is the default.
+     * 
+     * @return statistics of the stored profiles, or null if none are kept
+     */
+    public default AttributeStatistics getStatistics() {
+        return null;
+    }
+    
+    /**
+     * Gets the stored users grouped into cohorts with the same attributes, so that work which
+     * depends only on attributes can be done once per cohort. Stores that keep no cohorts return
+     * null, which is the default.
+     * 
+     * @return cohorts of the stored profiles, or null if none are kept
+     */
+    public default UserCohorts getCohorts() {
+        return null;
+    }
 }
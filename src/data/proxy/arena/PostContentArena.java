@@ -0,0 +1,449 @@
+package data.proxy.arena;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PostContentArena stores post content outside of the Java heap, in direct ByteBuffer segments.
+ * Callers receive a fixed-size long handle for every record. Handles are resolved through a slot
+ * table, so compaction can move records between segments without invalidating them.
+ */
+public class PostContentArena {
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+    
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+    
+    // Every record is laid out as [slot][sequence][content length][content bytes].
+    private static final int HEADER_SIZE = 12;
+    private static final int SEQUENCE_OFFSET = 4;
+    private static final int LENGTH_OFFSET = 8;
+    
+    private static final long FREE_ADDRESS = -1L;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int MAX_POOLED_SEGMENTS = 4;
+    
+    private final int segmentSize;
+    private final double compactionThreshold;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final Deque<ByteBuffer> segmentPool = new ArrayDeque<ByteBuffer>();
+    private int activeSegment = -1;
+    
+    private long[] slotAddresses = new long[INITIAL_SLOTS];
+    private int[] slotSequences = new int[INITIAL_SLOTS];
+    private int[] freeSlots = new int[INITIAL_SLOTS];
+    private int freeSlotCount = 0;
+    private int slotCount = 0;
+    
+    private long liveBytes = 0;
+    private long reclaimedBytes = 0;
+    
+    /**
+     * A single direct buffer along with its bookkeeping. Records are only ever appended to a
+     * segment, so used is also the offset of the next record.
+     */
+    private static class Segment {
+        private final ByteBuffer buffer;
+        private int used;
+        private int live;
+        
+        private Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+    
+    /**
+     * Basic default constructor for PostContentArena.
+     */
+    public PostContentArena() {
+        this(DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD);
+    }
+    
+    /**
+     * Constructor takes the size of each direct segment and the live ratio below which a segment
+     * is rewritten during compaction.
+     * 
+     * @param segmentSize size in bytes of each direct segment
+     * @param compactionThreshold live ratio in the range [0,1]
+     * @throws IllegalArgumentException if either argument is out of range
+     */
+    public PostContentArena(int segmentSize, double compactionThreshold) {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "The segment size must be greater than %d bytes!", HEADER_SIZE));
+        }
+        if (compactionThreshold < 0 || compactionThreshold > 1) {
+            throw new IllegalArgumentException(
+                    "The compaction threshold must be in the range [0,1]!");
+        }
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        Arrays.fill(this.slotAddresses, FREE_ADDRESS);
+    }
+    
+    /**
+     * Copies the content into the arena.
+     * 
+     * @param content
+     * @return handle that can later be passed to read() and release()
+     * @throws IllegalArgumentException if content is null
+     */
+    public long allocate(String content) {
+        if (content == null) {
+            throw new IllegalArgumentException("Content cannot be null!");
+        }
+        byte[] bytes = content.getBytes(CHARSET);
+        int recordSize = HEADER_SIZE + bytes.length;
+        
+        lock.writeLock().lock();
+        try {
+            int slot = takeSlot();
+            int sequence = ++slotSequences[slot];
+            slotAddresses[slot] = append(slot, sequence, bytes, recordSize);
+            liveBytes += recordSize;
+            return toHandle(slot, sequence);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Decodes the content stored for the given handle.
+     * 
+     * @param handle
+     * @return the stored content
+     * @throws IllegalStateException if the handle has already been released
+     */
+    public String read(long handle) {
+        lock.readLock().lock();
+        try {
+            long address = resolve(handle);
+            ByteBuffer buffer = segments.get(segmentOf(address)).buffer.duplicate();
+            int offset = offsetOf(address);
+            byte[] bytes = new byte[buffer.getInt(offset + LENGTH_OFFSET)];
+            buffer.position(offset + HEADER_SIZE);
+            buffer.get(bytes);
+            return new String(bytes, CHARSET);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Determines whether the handle still refers to stored content.
+     * 
+     * @param handle
+     * @return true if the handle has not been released
+     */
+    public boolean isLive(long handle) {
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(handle);
+            return slot >= 0 && slot < slotCount && slotAddresses[slot] != FREE_ADDRESS
+                    && slotSequences[slot] == sequenceOf(handle);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Releases the content stored for the given handle. The space is returned to the operating
+     * system once its segment is emptied, either directly or through compaction.
+     * 
+     * @param handle
+     * @return number of arena bytes the record occupied
+     * @throws IllegalStateException if the handle has already been released
+     */
+    public int release(long handle) {
+        lock.writeLock().lock();
+        try {
+            long address = resolve(handle);
+            int slot = slotOf(handle);
+            int segmentIndex = segmentOf(address);
+            Segment segment = segments.get(segmentIndex);
+            int recordSize = HEADER_SIZE + segment.buffer.getInt(offsetOf(address) + LENGTH_OFFSET);
+            
+            segment.live -= recordSize;
+            liveBytes -= recordSize;
+            slotAddresses[slot] = FREE_ADDRESS;
+            slotSequences[slot]++;
+            freeSlot(slot);
+            
+            if (segment.live == 0 && segmentIndex != activeSegment) {
+                reclaimedBytes += segment.used;
+                releaseSegment(segmentIndex);
+            }
+            return recordSize;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Rewrites every sealed segment whose live ratio has fallen below the compaction threshold,
+     * moving its live records to the active segment and releasing the old buffer. The write lock
+     * is only held for one segment at a time, so readers are never blocked for a full pass.
+     * 
+     * @return number of dead bytes reclaimed
+     */
+    public long compact() {
+        long reclaimed = 0;
+        int segmentCount;
+        lock.readLock().lock();
+        try {
+            segmentCount = segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+        
+        for (int i = 0; i < segmentCount; i++) {
+            lock.writeLock().lock();
+            try {
+                Segment segment = segments.get(i);
+                if (segment == null || i == activeSegment
+                        || segment.live >= segment.used * compactionThreshold) {
+                    continue;
+                }
+                moveLiveRecords(i, segment);
+                reclaimed += segment.used - segment.live;
+                releaseSegment(i);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        lock.writeLock().lock();
+        try {
+            reclaimedBytes += reclaimed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return reclaimed;
+    }
+    
+    /**
+     * Getter for the number of bytes occupied by live records.
+     * 
+     * @return live bytes
+     */
+    public long getLiveBytes() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Getter for the number of direct bytes currently held by segments, including free space.
+     * 
+     * @return reserved bytes
+     */
+    public long getReservedBytes() {
+        lock.readLock().lock();
+        try {
+            long reserved = 0;
+            for (Segment segment : segments) {
+                if (segment != null) {
+                    reserved += segment.buffer.capacity();
+                }
+            }
+            return reserved;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Getter for the total number of dead bytes reclaimed since the arena was created.
+     * 
+     * @return reclaimed bytes
+     */
+    public long getReclaimedBytes() {
+        lock.readLock().lock();
+        try {
+            return reclaimedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Getter for the number of segments currently in use.
+     * 
+     * @return segment count
+     */
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (Segment segment : segments) {
+                if (segment != null) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Copies every live record out of the given segment. Must be called with the write lock held.
+     * 
+     * @param segmentIndex
+     * @param segment
+     */
+    private void moveLiveRecords(int segmentIndex, Segment segment) {
+        ByteBuffer source = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset < segment.used) {
+            int slot = source.getInt(offset);
+            int sequence = source.getInt(offset + SEQUENCE_OFFSET);
+            int length = source.getInt(offset + LENGTH_OFFSET);
+            int recordSize = HEADER_SIZE + length;
+            
+            if (slotSequences[slot] == sequence
+                    && slotAddresses[slot] == toAddress(segmentIndex, offset)) {
+                byte[] bytes = new byte[length];
+                source.position(offset + HEADER_SIZE);
+                source.get(bytes);
+                slotAddresses[slot] = append(slot, sequence, bytes, recordSize);
+            }
+            offset += recordSize;
+        }
+    }
+    
+    /**
+     * Appends a record to the active segment, opening a new one if necessary. Must be called with
+     * the write lock held.
+     * 
+     * @return address of the new record
+     */
+    private long append(int slot, int sequence, byte[] bytes, int recordSize) {
+        Segment segment = activeSegment < 0 ? null : segments.get(activeSegment);
+        if (segment == null || segment.buffer.capacity() - segment.used < recordSize) {
+            activeSegment = openSegment(recordSize);
+            segment = segments.get(activeSegment);
+        }
+        
+        int offset = segment.used;
+        ByteBuffer target = segment.buffer.duplicate();
+        target.putInt(offset, slot);
+        target.putInt(offset + SEQUENCE_OFFSET, sequence);
+        target.putInt(offset + LENGTH_OFFSET, bytes.length);
+        target.position(offset + HEADER_SIZE);
+        target.put(bytes);
+        
+        segment.used += recordSize;
+        segment.live += recordSize;
+        return toAddress(activeSegment, offset);
+    }
+    
+    /**
+     * Opens a segment large enough for the record, reusing a pooled buffer where possible.
+     * 
+     * @param recordSize
+     * @return index of the new segment
+     */
+    private int openSegment(int recordSize) {
+        ByteBuffer buffer;
+        if (recordSize <= segmentSize && !segmentPool.isEmpty()) {
+            buffer = segmentPool.pop();
+        } else {
+            buffer = ByteBuffer.allocateDirect(Math.max(segmentSize, recordSize));
+        }
+        
+        Segment segment = new Segment(buffer);
+        int index = segments.indexOf(null);
+        if (index < 0) {
+            segments.add(segment);
+            return segments.size() - 1;
+        }
+        segments.set(index, segment);
+        return index;
+    }
+    
+    /**
+     * Drops a segment, keeping a few standard-sized buffers around for reuse.
+     * 
+     * @param segmentIndex
+     */
+    private void releaseSegment(int segmentIndex) {
+        ByteBuffer buffer = segments.get(segmentIndex).buffer;
+        segments.set(segmentIndex, null);
+        if (buffer.capacity() == segmentSize && segmentPool.size() < MAX_POOLED_SEGMENTS) {
+            segmentPool.push(buffer);
+        }
+    }
+    
+    /**
+     * Looks up the current address of a handle. Must be called with a lock held.
+     * 
+     * @param handle
+     * @return address of the record
+     * @throws IllegalStateException if the handle has been released
+     */
+    private long resolve(long handle) {
+        int slot = slotOf(handle);
+        if (slot < 0 || slot >= slotCount || slotAddresses[slot] == FREE_ADDRESS
+                || slotSequences[slot] != sequenceOf(handle)) {
+            throw new IllegalStateException("The content for this handle has been released!");
+        }
+        return slotAddresses[slot];
+    }
+    
+    private int takeSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (slotCount == slotAddresses.length) {
+            int oldLength = slotAddresses.length;
+            slotAddresses = Arrays.copyOf(slotAddresses, oldLength * 2);
+            Arrays.fill(slotAddresses, oldLength, slotAddresses.length, FREE_ADDRESS);
+            slotSequences = Arrays.copyOf(slotSequences, oldLength * 2);
+        }
+        return slotCount++;
+    }
+    
+    private void freeSlot(int slot) {
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeSlotCount++] = slot;
+    }
+    
+    private static long toHandle(int slot, int sequence) {
+        return ((long) slot << 32) | (sequence & 0xFFFFFFFFL);
+    }
+    
+    private static int slotOf(long handle) {
+        return (int) (handle >>> 32);
+    }
+    
+    private static int sequenceOf(long handle) {
+        return (int) handle;
+    }
+    
+    private static long toAddress(int segmentIndex, int offset) {
+        return ((long) segmentIndex << 32) | (offset & 0xFFFFFFFFL);
+    }
+    
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+    
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+}
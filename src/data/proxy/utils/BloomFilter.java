@@ -0,0 +1,217 @@
+package data.proxy.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * BloomFilter is a scalable Bloom filter of strings: it never forgets a key it was given, and
+ * answers "definitely absent" for most keys it was not. It starts with room for the expected
+ * number of keys at the target false positive rate, and each time the newest stage is full it
+ * adds a stage twice as large with half the false positive rate, so the overall rate stays below
+ * the target however many keys are added.
+ * 
+ * Keys are hashed once into two 64 bit values, and the k bit positions of a stage are derived
+ * from them by double hashing. Bits are set with compare-and-set in an AtomicLongArray, so adds
+ * and lookups need no lock, and a key is visible to lookups on any thread once add() returns. The
+ * array of stages is volatile and only replaced, under the filter's monitor, when a stage fills.
+ */
+public class BloomFilter {
+    private static final double TIGHTENING_RATIO = 0.5;
+    private static final int GROWTH_FACTOR = 2;
+    
+    private final double falsePositiveRate;
+    private volatile Stage[] stages;
+    
+    /**
+     * Constructor requires the expected number of keys and the target false positive rate.
+     * 
+     * @param expectedKeys keys the first stage holds before another is added
+     * @param falsePositiveRate target rate of wrong "maybe" answers, in (0,1)
+     * @throws IllegalArgumentException if expectedKeys is not positive or the rate is not in
+     *         (0,1)
+     */
+    public BloomFilter(int expectedKeys, double falsePositiveRate) {
+        if (expectedKeys < 1) {
+            throw new IllegalArgumentException("The expected number of keys must be positive!");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException(
+                    "The false positive rate must be in the range (0,1)!");
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        // The stages' rates form a geometric series that sums to the target.
+        this.stages = new Stage[] { new Stage(expectedKeys, falsePositiveRate
+                * (1 - TIGHTENING_RATIO)) };
+    }
+    
+    /**
+     * Adds a key.
+     * 
+     * @param key
+     * @throws IllegalArgumentException if key is null
+     */
+    public void add(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        long hash = Hashing.hash(key);
+        long hash2 = Hashing.mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        Stage[] current = stages;
+        if (mightContain(current, hash, hash2)) {
+            return;
+        }
+        Stage last = current[current.length - 1];
+        if (last.count.get() >= last.capacity) {
+            last = grow(last);
+        }
+        last.add(hash, hash2);
+    }
+    
+    /**
+     * Checks whether a key might have been added.
+     * 
+     * @param key
+     * @return false if the key was definitely never added
+     * @throws IllegalArgumentException if key is null
+     */
+    public boolean mightContain(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        long hash = Hashing.hash(key);
+        return mightContain(stages, hash, Hashing.mix(hash ^ 0x9E3779B97F4A7C15L) | 1);
+    }
+    
+    /**
+     * Gets the number of distinct keys added, which undercounts slightly since a new key whose
+     * bits are all set already is indistinguishable from an old one.
+     * 
+     * @return number of keys
+     */
+    public long getCount() {
+        long count = 0;
+        for (Stage stage : stages) {
+            count += stage.count.get();
+        }
+        return count;
+    }
+    
+    /**
+     * Gets the number of bits in all the stages.
+     * 
+     * @return bits
+     */
+    public long getBitCount() {
+        long bits = 0;
+        for (Stage stage : stages) {
+            bits += stage.mask + 1;
+        }
+        return bits;
+    }
+    
+    /**
+     * Getter for the target false positive rate.
+     * 
+     * @return target rate
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+    
+    /**
+     * Estimates the current false positive rate from how full each stage is.
+     * 
+     * @return chance that a key never added is reported as maybe present
+     */
+    public double getExpectedFalsePositiveRate() {
+        double allNegative = 1;
+        for (Stage stage : stages) {
+            allNegative *= 1 - stage.getExpectedFalsePositiveRate();
+        }
+        return 1 - allNegative;
+    }
+    
+    private synchronized Stage grow(Stage full) {
+        Stage[] current = stages;
+        Stage last = current[current.length - 1];
+        if (last != full) {
+            // Another thread has already added a stage.
+            return last;
+        }
+        Stage next = new Stage((int) Math.min(Integer.MAX_VALUE / 2, (long) full.capacity
+                * GROWTH_FACTOR), full.falsePositiveRate * TIGHTENING_RATIO);
+        Stage[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = next;
+        stages = grown;
+        return next;
+    }
+    
+    private static boolean mightContain(Stage[] stages, long hash, long hash2) {
+        for (int i = stages.length - 1; i >= 0; i--) {
+            if (stages[i].mightContain(hash, hash2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * A fixed size filter sized for its capacity at its false positive rate, with a power of two
+     * number of bits.
+     */
+    private static class Stage {
+        private final int capacity;
+        private final double falsePositiveRate;
+        private final int hashes;
+        private final long mask;
+        private final AtomicLongArray bits;
+        private final AtomicInteger count = new AtomicInteger();
+        
+        private Stage(int capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            double ln2 = Math.log(2);
+            double optimalBits = -capacity * Math.log(falsePositiveRate) / (ln2 * ln2);
+            long size = Math.max(64, Long.highestOneBit((long) Math.ceil(optimalBits) - 1) << 1);
+            this.mask = size - 1;
+            this.hashes = Math.max(1, (int) Math.round((double) size / capacity * ln2));
+            this.bits = new AtomicLongArray((int) (size >>> 6));
+        }
+        
+        private void add(long hash, long hash2) {
+            boolean changed = false;
+            for (int i = 0; i < hashes; i++) {
+                long bit = (hash + i * hash2) & mask;
+                int word = (int) (bit >>> 6);
+                long flag = 1L << bit;
+                long old;
+                do {
+                    old = bits.get(word);
+                    if ((old & flag) != 0) {
+                        break;
+                    }
+                    changed = true;
+                } while (!bits.compareAndSet(word, old, old | flag));
+            }
+            if (changed) {
+                count.incrementAndGet();
+            }
+        }
+        
+        private boolean mightContain(long hash, long hash2) {
+            for (int i = 0; i < hashes; i++) {
+                long bit = (hash + i * hash2) & mask;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private double getExpectedFalsePositiveRate() {
+            // (1 - e^(-kn/m))^k for n keys in m bits with k hashes.
+            return Math.pow(1 - Math.exp(-(double) hashes * count.get() / (mask + 1)), hashes);
+        }
+    }
+}
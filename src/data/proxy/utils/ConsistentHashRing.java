@@ -0,0 +1,198 @@
+package data.proxy.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ConsistentHashRing assigns keys to named nodes. Each node is placed on a 64-bit ring at many
+ * virtual points, and a key belongs to the first point at or after its own hash. Adding a node to
+ * a ring of N therefore moves only about 1/(N+1) of the keys, all of them to the new node, and
+ * removing one moves only the keys it owned.
+ * 
+ * Lookups read an immutable sorted snapshot and take no lock; adding or removing a node rebuilds
+ * the snapshot.
+ * 
+ * @param <T> type of the nodes
+ */
+public class ConsistentHashRing<T> {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+    
+    private final int virtualNodes;
+    private final Map<String, T> nodes = new LinkedHashMap<String, T>();
+    private volatile Snapshot<T> snapshot = new Snapshot<T>(new long[0], new ArrayList<T>());
+    
+    /**
+     * Basic default constructor for ConsistentHashRing.
+     */
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+    
+    /**
+     * Constructor requires the number of points each node is placed at. More points spread the
+     * keys more evenly at the cost of a larger ring.
+     * 
+     * @param virtualNodes
+     * @throws IllegalArgumentException if virtualNodes is not positive
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("There must be at least one virtual node!");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+    
+    /**
+     * Adds a node to the ring. The name, not the node, decides where it is placed, so a node
+     * added under the same name always owns the same keys.
+     * 
+     * @param name
+     * @param node
+     * @throws IllegalArgumentException if either argument is null or the name is already used
+     */
+    public synchronized void add(String name, T node) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null!");
+        }
+        if (node == null) {
+            throw new IllegalArgumentException("Node cannot be null!");
+        }
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("A node named " + name + " already exists!");
+        }
+        nodes.put(name, node);
+        rebuild();
+    }
+    
+    /**
+     * Removes a node from the ring.
+     * 
+     * @param name
+     * @return the removed node, or null if there was no node with that name
+     */
+    public synchronized T remove(String name) {
+        T node = nodes.remove(name);
+        if (node != null) {
+            rebuild();
+        }
+        return node;
+    }
+    
+    /**
+     * Finds the node that owns a key.
+     * 
+     * @param key
+     * @return owning node, or null if the ring is empty
+     */
+    public T get(String key) {
+        Snapshot<T> current = snapshot;
+        if (current.points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(current.points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == current.points.length) {
+                index = 0;
+            }
+        }
+        return current.owners.get(index);
+    }
+    
+    /**
+     * Gets the node with the given name.
+     * 
+     * @param name
+     * @return node, or null if there is none
+     */
+    public synchronized T getNode(String name) {
+        return nodes.get(name);
+    }
+    
+    /**
+     * Gets every node on the ring, in the order they were added.
+     * 
+     * @return nodes
+     */
+    public synchronized List<T> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<T>(nodes.values()));
+    }
+    
+    /**
+     * Getter for the number of nodes on the ring.
+     * 
+     * @return nodes
+     */
+    public synchronized int size() {
+        return nodes.size();
+    }
+    
+    /**
+     * Hashes a key onto the ring with FNV-1a followed by the MurmurHash3 finalizer, which spreads
+     * short, similar keys such as "user1" and "user2" across the whole range.
+     * 
+     * @param key
+     * @return position on the ring
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    private void rebuild() {
+        int size = nodes.size() * virtualNodes;
+        final long[] points = new long[size];
+        Object[] owners = new Object[size];
+        int next = 0;
+        for (Map.Entry<String, T> entry : nodes.entrySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points[next] = hash(entry.getKey() + "#" + i);
+                owners[next] = entry.getValue();
+                next++;
+            }
+        }
+        
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(points[a], points[b]);
+            }
+        });
+        long[] sortedPoints = new long[size];
+        List<T> sortedOwners = new ArrayList<T>(size);
+        for (int i = 0; i < size; i++) {
+            sortedPoints[i] = points[order[i]];
+            @SuppressWarnings("unchecked")
+            T owner = (T) owners[order[i]];
+            sortedOwners.add(owner);
+        }
+        snapshot = new Snapshot<T>(sortedPoints, sortedOwners);
+    }
+    
+    private static class Snapshot<T> {
+        final long[] points;
+        final List<T> owners;
+        
+        Snapshot(long[] points, List<T> owners) {
+            this.points = points;
+            this.owners = owners;
+        }
+    }
+}
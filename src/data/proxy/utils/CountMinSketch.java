@@ -0,0 +1,96 @@
+package data.proxy.utils;
+
+/**
+ * CountMinSketch estimates how often each key has been counted in a fixed amount of memory. Each
+ * key is counted in one cell of every row, and its estimate is the smallest of those cells. Other
+ * keys sharing a cell can only add to it, so as long as no key is removed more often than it was
+ * added, an estimate is never below the true count, and with the configured confidence it is at
+ * most the configured error times the total count above it.
+ * 
+ * Keys are given as 64 bit hashes, see Hashing, so callers can hash compound keys without
+ * building strings. It is not safe for concurrent use.
+ */
+public class CountMinSketch {
+    private final int depth;
+    private final int mask;
+    private final long[] cells;
+    private long total;
+    
+    /**
+     * Constructor requires the error bound, as a fraction of the total count, and the chance of
+     * an estimate exceeding it.
+     * 
+     * @param error in (0,1)
+     * @param failureRate in (0,1)
+     * @throws IllegalArgumentException if either argument is not in (0,1)
+     */
+    public CountMinSketch(double error, double failureRate) {
+        if (!(error > 0 && error < 1)) {
+            throw new IllegalArgumentException("The error must be in the range (0,1)!");
+        }
+        if (!(failureRate > 0 && failureRate < 1)) {
+            throw new IllegalArgumentException("The failure rate must be in the range (0,1)!");
+        }
+        int width = Integer.highestOneBit((int) Math.ceil(Math.E / error) - 1) << 1;
+        this.mask = Math.max(2, width) - 1;
+        this.depth = Math.max(1, (int) Math.ceil(Math.log(1 / failureRate)));
+        this.cells = new long[depth * (mask + 1)];
+    }
+    
+    /**
+     * Adds to the count of a key. A negative delta removes earlier counts of the key.
+     * 
+     * @param hash the key's hash
+     * @param delta
+     */
+    public void add(long hash, long delta) {
+        long hash2 = Hashing.mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int row = 0; row < depth; row++) {
+            cells[row * (mask + 1) + (int) ((hash + row * hash2) & mask)] += delta;
+        }
+        total += delta;
+    }
+    
+    /**
+     * Estimates the count of a key.
+     * 
+     * @param hash the key's hash
+     * @return estimated count, never below the true count
+     */
+    public long estimate(long hash) {
+        long hash2 = Hashing.mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, cells[row * (mask + 1)
+                    + (int) ((hash + row * hash2) & mask)]);
+        }
+        return Math.max(0, estimate);
+    }
+    
+    /**
+     * Gets the sum of every count.
+     * 
+     * @return total
+     */
+    public long getTotal() {
+        return total;
+    }
+    
+    /**
+     * Gets the number of cells in each row.
+     * 
+     * @return width
+     */
+    public int getWidth() {
+        return mask + 1;
+    }
+    
+    /**
+     * Gets the number of rows.
+     * 
+     * @return depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+}
@@ -0,0 +1,53 @@
+package data.proxy.utils;
+
+/**
+ * Hashing holds the 64 bit string hash shared by the probabilistic structures in this package.
+ * Every bit of the result depends on every character, so any slice of it can be used as an
+ * independent hash.
+ */
+public final class Hashing {
+    
+    private Hashing() {
+    }
+    
+    /**
+     * 64 bit FNV-1a over the characters, finished with a mixing step.
+     * 
+     * @param key
+     * @return hash
+     */
+    public static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+    
+    /**
+     * Hashes two strings as one key, without concatenating them.
+     * 
+     * @param first
+     * @param second
+     * @return hash
+     */
+    public static long hash(String first, String second) {
+        return mix(hash(first) * 31 + hash(second));
+    }
+    
+    /**
+     * The MurmurHash3 finalizer, which spreads every input bit over the whole result.
+     * 
+     * @param hash
+     * @return mixed hash
+     */
+    public static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,96 @@
+package data.proxy.utils;
+
+/**
+ * HyperLogLog estimates the number of distinct keys it has seen in a few kilobytes. Each key's
+ * hash picks one of 2^precision registers, which keeps the longest run of leading zeros seen in
+ * the rest of the hashes it was given; the harmonic mean of the registers estimates the number of
+ * distinct keys with a standard error of about 1.04 / sqrt(2^precision). Small counts are
+ * estimated from the number of empty registers instead, which is more accurate there.
+ * 
+ * Keys cannot be removed, so the estimate covers every key ever added. Keys are given as 64 bit
+ * hashes, see Hashing. It is not safe for concurrent use.
+ */
+public class HyperLogLog {
+    /**
+     * Precision unless configured otherwise, a standard error of about 1.6%.
+     */
+    public static final int DEFAULT_PRECISION = 12;
+    
+    private final int precision;
+    private final byte[] registers;
+    
+    /**
+     * Constructor requires the precision, the base 2 logarithm of the number of registers.
+     * 
+     * @param precision in [4,18]
+     * @throws IllegalArgumentException if precision is outside [4,18]
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("The precision must be in the range [4,18]!");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+    
+    /**
+     * Adds a key.
+     * 
+     * @param hash the key's hash
+     */
+    public void add(long hash) {
+        int register = (int) (hash >>> (64 - precision));
+        // The sentinel bit caps the run at the number of bits left after the register index.
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+    
+    /**
+     * Adds every key another sketch has seen. Both must have the same precision.
+     * 
+     * @param other
+     * @throws IllegalArgumentException if other is null or has a different precision
+     */
+    public void merge(HyperLogLog other) {
+        if (other == null || other.precision != precision) {
+            throw new IllegalArgumentException("Only sketches of the same precision can merge!");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+    
+    /**
+     * Estimates the number of distinct keys added.
+     * 
+     * @return estimated distinct keys
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int empty = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                empty++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && empty > 0) {
+            estimate = m * Math.log((double) m / empty);
+        }
+        return Math.round(estimate);
+    }
+    
+    /**
+     * Getter for the precision.
+     * 
+     * @return base 2 logarithm of the number of registers
+     */
+    public int getPrecision() {
+        return precision;
+    }
+}
@@ -0,0 +1,274 @@
+package data.proxy.utils;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * RebuildableBloomFilter guards lookups in a store with a BloomFilter of the keys it holds, so
+ * that keys the store does not have can be turned away without asking it. A Bloom filter cannot
+ * forget a key, so removed keys are only counted; once they reach REBUILD_FRACTION of the keys,
+ * a fresh filter is built from the store's current keys on a background thread and swapped in.
+ * Keys added while a rebuild runs are also queued and replayed into the new filter, so none are
+ * lost.
+ * 
+ * Until the first build finishes, every key is reported as possibly present. The counters
+ * "{name}.negatives" and "{name}.falsePositives" record how many lookups the filter turned away
+ * and how many it let through for keys the store turned out not to have; their ratio is the
+ * observed false positive rate, which getObservedFalsePositiveRate() also reports.
+ * 
+ * Lookups and adds read the current filter from a volatile field and never block. Rebuilds are
+ * serialized by a private lock, and a key added while one runs goes into the replay queue as
+ * well as the filter it finds, so it is in the new filter by the time rebuild() returns.
+ */
+public class RebuildableBloomFilter {
+    /**
+     * Target false positive rate unless configured otherwise.
+     */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    
+    /**
+     * Share of the filter's keys that must be removed before it is rebuilt.
+     */
+    public static final double REBUILD_FRACTION = 0.25;
+    
+    private static final int MINIMUM_EXPECTED_KEYS = 1024;
+    private static final Executor REBUILDER = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "bloom-rebuild-" + count
+                            .incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    private final Supplier<? extends Iterable<String>> keys;
+    private final double falsePositiveRate;
+    private final Counter negativesCounter;
+    private final Counter falsePositivesCounter;
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final AtomicLong removals = new AtomicLong();
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private final Object rebuildLock = new Object();
+    private volatile BloomFilter filter;
+    private volatile Queue<String> addedDuringRebuild;
+    private volatile Executor executor = REBUILDER;
+    
+    /**
+     * Constructor requires a metrics name and a way to list the store's current keys, which is
+     * called on every rebuild.
+     * 
+     * @param name prefix of the filter's counters
+     * @param keys supplies every key the store holds
+     * @param falsePositiveRate target rate of lookups let through for absent keys, in (0,1)
+     * @throws IllegalArgumentException if name or keys is null or the rate is not in (0,1)
+     */
+    public RebuildableBloomFilter(String name, Supplier<? extends Iterable<String>> keys,
+            double falsePositiveRate) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null!");
+        }
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null!");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException(
+                    "The false positive rate must be in the range (0,1)!");
+        }
+        this.keys = keys;
+        this.falsePositiveRate = falsePositiveRate;
+        this.negativesCounter = Metrics.counter(name + ".negatives");
+        this.falsePositivesCounter = Metrics.counter(name + ".falsePositives");
+    }
+    
+    /**
+     * Sets the executor that runs background rebuilds. By default a shared daemon thread is used.
+     * 
+     * @param executor
+     * @return this filter
+     * @throws IllegalArgumentException if executor is null
+     */
+    public RebuildableBloomFilter withExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null!");
+        }
+        this.executor = executor;
+        return this;
+    }
+    
+    /**
+     * Records a key added to the store. Call it after the store has written the key.
+     * 
+     * @param key
+     */
+    public void add(String key) {
+        // Queue the key first: if the rebuild started after this, its scan sees the stored key.
+        Queue<String> added = addedDuringRebuild;
+        if (added != null) {
+            added.add(key);
+        }
+        BloomFilter current = filter;
+        if (current != null) {
+            current.add(key);
+        }
+    }
+    
+    /**
+     * Records a key removed from the store, and starts a background rebuild once enough keys have
+     * been removed.
+     */
+    public void recordRemoval() {
+        BloomFilter current = filter;
+        long threshold = (long) (REBUILD_FRACTION * Math.max(MINIMUM_EXPECTED_KEYS,
+                current == null ? 0 : current.getCount()));
+        if (removals.incrementAndGet() >= threshold) {
+            rebuildInBackground();
+        }
+    }
+    
+    /**
+     * Checks whether the store might hold a key, counting the keys turned away.
+     * 
+     * @param key
+     * @return false if the store definitely does not hold the key
+     */
+    public boolean mightContain(String key) {
+        BloomFilter current = filter;
+        if (current == null || current.mightContain(key)) {
+            return true;
+        }
+        negatives.increment();
+        negativesCounter.increment();
+        return false;
+    }
+    
+    /**
+     * Records that a key the filter let through was not in the store.
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+        falsePositivesCounter.increment();
+    }
+    
+    /**
+     * Builds a fresh filter from the store's current keys on the calling thread and swaps it in.
+     */
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            Queue<String> added = new ConcurrentLinkedQueue<String>();
+            addedDuringRebuild = added;
+            removals.set(0);
+            try {
+                Iterable<String> source = keys.get();
+                // Size the filter for the keys up front, so it is a single stage, not many.
+                long expected = Math.max(MINIMUM_EXPECTED_KEYS, source instanceof Collection
+                        ? ((Collection<?>) source).size() : getKeyCount());
+                BloomFilter next = new BloomFilter((int) Math.min(Integer.MAX_VALUE / 2,
+                        expected), falsePositiveRate);
+                for (String key : source) {
+                    next.add(key);
+                }
+                replay(added, next);
+                filter = next;
+                // Keys queued before the swap may only have reached the old filter.
+                replay(added, next);
+            } finally {
+                addedDuringRebuild = null;
+            }
+        }
+    }
+    
+    /**
+     * Starts a rebuild on the executor unless one is already waiting to run.
+     */
+    public void rebuildInBackground() {
+        if (!rebuildPending.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                rebuildPending.set(false);
+                rebuild();
+            }
+        });
+    }
+    
+    /**
+     * Checks whether the first build has finished, before which every key might be present.
+     * 
+     * @return true if lookups can be turned away
+     */
+    public boolean isReady() {
+        return filter != null;
+    }
+    
+    /**
+     * Gets the number of keys in the filter.
+     * 
+     * @return number of keys, or 0 before the first build
+     */
+    public long getKeyCount() {
+        BloomFilter current = filter;
+        return current == null ? 0 : current.getCount();
+    }
+    
+    /**
+     * Estimates the filter's current false positive rate from how full it is.
+     * 
+     * @return expected rate, or 1 before the first build
+     */
+    public double getExpectedFalsePositiveRate() {
+        BloomFilter current = filter;
+        return current == null ? 1 : current.getExpectedFalsePositiveRate();
+    }
+    
+    /**
+     * Gets the share of lookups for absent keys that the filter let through.
+     * 
+     * @return observed false positive rate, or 0 if no absent key has been looked up
+     */
+    public double getObservedFalsePositiveRate() {
+        long wrong = falsePositives.sum();
+        long absent = wrong + negatives.sum();
+        return absent == 0 ? 0 : (double) wrong / absent;
+    }
+    
+    /**
+     * Gets the number of lookups turned away.
+     * 
+     * @return negatives
+     */
+    public long getNegativeCount() {
+        return negatives.sum();
+    }
+    
+    /**
+     * Gets the number of lookups let through for keys the store did not have.
+     * 
+     * @return false positives
+     */
+    public long getFalsePositiveCount() {
+        return falsePositives.sum();
+    }
+    
+    private static void replay(Queue<String> added, BloomFilter next) {
+        for (String key = added.poll(); key != null; key = added.poll()) {
+            next.add(key);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package data.proxy.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * SingleFlight coalesces concurrent computations of the same key. The first caller for a key runs
+ * the computation, and every caller that asks for the key while it runs waits for it and is
+ * handed the same result, or the same exception, instead of repeating the work. Nothing is kept
+ * once the computation ends, so a caller that arrives afterwards computes afresh; this is not a
+ * cache. Since the result is shared between threads, it should be immutable.
+ * 
+ * The counter "{name}.coalesced" records the callers that were handed another caller's result.
+ * The caller that runs a computation is chosen by putIfAbsent() on a ConcurrentHashMap, and the
+ * result is published to the waiters through a CountDownLatch, so they see it fully built.
+ * 
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, Call<V>> calls = new ConcurrentHashMap<K, Call<V>>();
+    private final Counter coalesced;
+    
+    /**
+     * Constructor requires a metrics name.
+     * 
+     * @param name prefix of the counter
+     * @throws IllegalArgumentException if name is null
+     */
+    public SingleFlight(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null!");
+        }
+        this.coalesced = Metrics.counter(name + ".coalesced");
+    }
+    
+    /**
+     * Computes the result for a key, or waits for the computation already running for it. A
+     * waiting caller that is interrupted keeps waiting, and its interrupt status is restored once
+     * the result arrives.
+     * 
+     * @param key
+     * @param computation run if no computation of the key is running
+     * @return the computation's result
+     * @throws IllegalArgumentException if key or computation is null
+     */
+    public V execute(K key, Supplier<? extends V> computation) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (computation == null) {
+            throw new IllegalArgumentException("Computation cannot be null!");
+        }
+        Call<V> call = new Call<V>();
+        Call<V> running = calls.putIfAbsent(key, call);
+        if (running != null) {
+            coalesced.increment();
+            return running.await();
+        }
+        try {
+            V result = computation.get();
+            call.result = result;
+            return result;
+        } catch (RuntimeException e) {
+            call.failure = e;
+            throw e;
+        } catch (Error e) {
+            call.failure = e;
+            throw e;
+        } finally {
+            calls.remove(key, call);
+            call.done.countDown();
+        }
+    }
+    
+    /**
+     * Gets the number of keys being computed.
+     * 
+     * @return computations running
+     */
+    public int getInFlight() {
+        return calls.size();
+    }
+    
+    /**
+     * A running computation. The latch publishes the result to the waiting callers.
+     */
+    private static class Call<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private V result;
+        private Throwable failure;
+        
+        private V await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            return result;
+        }
+    }
+}
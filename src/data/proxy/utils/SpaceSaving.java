@@ -0,0 +1,204 @@
+package data.proxy.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SpaceSaving finds the most frequent keys of a stream while only counting a fixed number of
+ * them. When a key that is not counted arrives and every counter is taken, it takes over the
+ * counter with the smallest count, inheriting that count as its possible overestimate. Every key
+ * that occurs more than total / capacity times is guaranteed to hold a counter, and a counted
+ * key's count is at most its error above its true count.
+ * 
+ * Keys can also be removed, which lowers their count if they are counted and is otherwise
+ * ignored, so the guarantees only hold approximately once keys are removed. The counters are kept
+ * in a min-heap, so each update takes O(log capacity). It is not safe for concurrent use.
+ * 
+ * @param <K> key type
+ */
+public class SpaceSaving<K> {
+    private final Map<K, Counter<K>> counters;
+    private final Counter<K>[] heap;
+    private int size;
+    
+    /**
+     * Constructor requires the number of keys to count.
+     * 
+     * @param capacity
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive!");
+        }
+        this.counters = new HashMap<K, Counter<K>>(capacity * 2);
+        this.heap = new Counter[capacity];
+    }
+    
+    /**
+     * Counts one occurrence of a key.
+     * 
+     * @param key
+     * @throws IllegalArgumentException if key is null
+     */
+    public void add(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        Counter<K> counter = counters.get(key);
+        if (counter == null) {
+            if (size < heap.length) {
+                counter = new Counter<K>(key, 0, 0);
+                counter.position = size;
+                heap[size++] = counter;
+                siftUp(counter.position);
+            } else {
+                // Take over the smallest counter, whose count bounds how often this key was missed.
+                counter = heap[0];
+                counters.remove(counter.key);
+                counter.key = key;
+                counter.error = counter.count;
+            }
+            counters.put(key, counter);
+        }
+        counter.count++;
+        siftDown(counter.position);
+    }
+    
+    /**
+     * Removes one occurrence of a key, if it is counted.
+     * 
+     * @param key
+     */
+    public void remove(K key) {
+        Counter<K> counter = counters.get(key);
+        if (counter == null) {
+            return;
+        }
+        counter.count--;
+        counter.error = Math.min(counter.error, counter.count);
+        if (counter.count <= 0) {
+            counters.remove(key);
+            Counter<K> last = heap[--size];
+            heap[size] = null;
+            if (last != counter) {
+                heap[counter.position] = last;
+                last.position = counter.position;
+                siftUp(last.position);
+                siftDown(last.position);
+            }
+        } else {
+            siftUp(counter.position);
+        }
+    }
+    
+    /**
+     * Gets the counted keys, most frequent first.
+     * 
+     * @param limit most keys to return
+     * @return keys
+     */
+    public List<K> getTop(int limit) {
+        Counter<K>[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted, new Comparator<Counter<K>>() {
+            public int compare(Counter<K> a, Counter<K> b) {
+                return Long.compare(b.count, a.count);
+            }
+        });
+        List<K> top = new ArrayList<K>(Math.min(limit, size));
+        for (int i = 0; i < sorted.length && i < limit; i++) {
+            top.add(sorted[i].key);
+        }
+        return top;
+    }
+    
+    /**
+     * Gets the count of a key, which may overestimate by up to its error.
+     * 
+     * @param key
+     * @return count, or 0 if the key is not counted
+     */
+    public long getCount(K key) {
+        Counter<K> counter = counters.get(key);
+        return counter == null ? 0 : counter.count;
+    }
+    
+    /**
+     * Gets how much the count of a key may overestimate it.
+     * 
+     * @param key
+     * @return error, or 0 if the key is not counted
+     */
+    public long getError(K key) {
+        Counter<K> counter = counters.get(key);
+        return counter == null ? 0 : counter.error;
+    }
+    
+    /**
+     * Gets the smallest count, the most often a key that is not counted can have occurred once
+     * every counter is taken.
+     * 
+     * @return smallest count, or 0 if a counter is free
+     */
+    public long getMinimumCount() {
+        return size < heap.length ? 0 : heap[0].count;
+    }
+    
+    private void siftUp(int position) {
+        Counter<K> counter = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(counter, position);
+    }
+    
+    private void siftDown(int position) {
+        Counter<K> counter = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(counter, position);
+    }
+    
+    private void place(Counter<K> counter, int position) {
+        heap[position] = counter;
+        counter.position = position;
+    }
+    
+    /**
+     * A counted key, and its place in the heap.
+     */
+    private static class Counter<K> {
+        private K key;
+        private long count;
+        private long error;
+        private int position;
+        
+        private Counter(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
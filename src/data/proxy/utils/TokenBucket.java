@@ -0,0 +1,112 @@
+package data.proxy.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TokenBucket limits the rate at which permits are handed out. Tokens accrue at the current rate
+ * up to the capacity, which sets how large a burst is allowed after an idle period. Callers that
+ * ask for more tokens than are available reserve them anyway and wait out the deficit, so a
+ * request larger than the capacity still succeeds, and waiting callers are served in order.
+ */
+public class TokenBucket {
+    private final double capacity;
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    
+    /**
+     * Constructor requires the rate and the largest burst. The bucket starts full.
+     * 
+     * @param ratePerSecond tokens added per second
+     * @param capacity most tokens that can accrue
+     * @throws IllegalArgumentException if either argument is not positive
+     */
+    public TokenBucket(double ratePerSecond, double capacity) {
+        if (!(ratePerSecond > 0)) {
+            throw new IllegalArgumentException("The rate must be positive!");
+        }
+        if (!(capacity > 0)) {
+            throw new IllegalArgumentException("The capacity must be positive!");
+        }
+        this.rate = ratePerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+    
+    /**
+     * Takes tokens, waiting as long as needed for them to accrue.
+     * 
+     * @param permits
+     * @throws IllegalArgumentException if permits is negative
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(int permits) throws InterruptedException {
+        long waitNanos = reserve(permits);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+    
+    /**
+     * Takes tokens only if they are available right now.
+     * 
+     * @param permits
+     * @return true if the tokens were taken
+     * @throws IllegalArgumentException if permits is negative
+     */
+    public synchronized boolean tryAcquire(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("Permits cannot be negative!");
+        }
+        refill();
+        if (tokens < permits) {
+            return false;
+        }
+        tokens -= permits;
+        return true;
+    }
+    
+    /**
+     * Changes the rate at which tokens accrue. Tokens already in the bucket are kept.
+     * 
+     * @param ratePerSecond
+     * @throws IllegalArgumentException if ratePerSecond is not positive
+     */
+    public synchronized void setRate(double ratePerSecond) {
+        if (!(ratePerSecond > 0)) {
+            throw new IllegalArgumentException("The rate must be positive!");
+        }
+        refill();
+        this.rate = ratePerSecond;
+    }
+    
+    /**
+     * Getter for the rate at which tokens accrue.
+     * 
+     * @return tokens per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+    
+    /**
+     * Takes tokens now, going into debt if there are not enough.
+     * 
+     * @return how long the caller must wait before using them
+     */
+    private synchronized long reserve(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("Permits cannot be negative!");
+        }
+        refill();
+        tokens -= permits;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+    }
+    
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) / 1e9 * rate);
+        lastRefill = now;
+    }
+}
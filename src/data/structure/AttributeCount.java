@@ -0,0 +1,62 @@
+package data.structure;
+
+/**
+ * AttributeCount pairs an attribute value with the number of users who have it.
+ */
+public class AttributeCount {
+    private final String name;
+    private final String value;
+    private final long count;
+    
+    /**
+     * Constructor requires the attribute and its count.
+     * 
+     * @param name
+     * @param value
+     * @param count
+     * @throws IllegalArgumentException if name or value is null
+     */
+    public AttributeCount(String name, String value, long count) {
+        if (name == null) {
+            throw new IllegalArgumentException("Attribute name cannot be null!");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Attribute value cannot be null!");
+        }
+        this.name = name;
+        this.value = value;
+        this.count = count;
+    }
+    
+    /**
+     * Getter for the attribute name.
+     * 
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Getter for the attribute value.
+     * 
+     * @return value
+     */
+    public String getValue() {
+        return value;
+    }
+    
+    /**
+     * Getter for the number of users with the attribute value.
+     * 
+     * @return count
+     */
+    public long getCount() {
+        return count;
+    }
+    
+    @Override
+    public String toString() {
+        return name + "=" + value + " (" + count + ")";
+    }
+}
@@ -2,14 +2,15 @@ package data.structure;
 
 /**
  * Post represents a single user post, with both a user and String contents
- * associated with it.
+ * associated with it, along with the time at which it was created.
  */
 public class Post {
     private String user;
     private String content;
+    private long timestamp;
     
     /**
-     * Constructor for Post, requiring all fields.
+     * Constructor for Post, timestamped with the current time.
      * 
      * @param user
      * @param content
@@ -17,12 +18,27 @@ public class Post {
      *             if any argument is null
      */
     public Post(String user, String content) {
+        this(user, content, System.currentTimeMillis());
+    }
+    
+    /**
+     * Constructor for Post, requiring all fields.
+     * 
+     * @param user
+     * @param content
+     * @param timestamp
+     *            creation time in milliseconds since the epoch
+     * @throws IllegalArgumentException
+     *             if user or content is null
+     */
+    public Post(String user, String content, long timestamp) {
         if (user == null || content == null) {
             throw new IllegalArgumentException(
                     "Neither user nor content may be null.");
         }
         this.user = user;
         this.content = content;
+        this.timestamp = timestamp;
     }
     
     /**
@@ -43,6 +59,15 @@ public class Post {
         return content;
     }
     
+    /**
+     * Getter for timestamp.
+     * 
+     * @return creation time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
     /**
      * Override of Object.equals()
      * 
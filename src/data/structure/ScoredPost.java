@@ -0,0 +1,47 @@
+package data.structure;
+
+/**
+ * ScoredPost pairs a post with its rank score in a feed.
+ */
+public class ScoredPost {
+    private final Post post;
+    private final double score;
+    
+    /**
+     * Constructor requires the post and its score.
+     * 
+     * @param post
+     * @param score
+     * @throws IllegalArgumentException if post is null
+     */
+    public ScoredPost(Post post, double score) {
+        if (post == null) {
+            throw new IllegalArgumentException("Post cannot be null!");
+        }
+        this.post = post;
+        this.score = score;
+    }
+    
+    /**
+     * Getter for the post.
+     * 
+     * @return post
+     */
+    public Post getPost() {
+        return post;
+    }
+    
+    /**
+     * Getter for the score. Higher scores rank first.
+     * 
+     * @return score
+     */
+    public double getScore() {
+        return score;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s@%d (%.3f)", post.getUser(), post.getTimestamp(), score);
+    }
+}
@@ -0,0 +1,47 @@
+package data.structure;
+
+/**
+ * ScoredProfile pairs a user profile with how well it matched a query.
+ */
+public class ScoredProfile {
+    private final UserProfile profile;
+    private final double score;
+    
+    /**
+     * Constructor requires the profile and its score.
+     * 
+     * @param profile
+     * @param score
+     * @throws IllegalArgumentException if profile is null
+     */
+    public ScoredProfile(UserProfile profile, double score) {
+        if (profile == null) {
+            throw new IllegalArgumentException("User Profile cannot be null!");
+        }
+        this.profile = profile;
+        this.score = score;
+    }
+    
+    /**
+     * Getter for the profile.
+     * 
+     * @return profile
+     */
+    public UserProfile getProfile() {
+        return profile;
+    }
+    
+    /**
+     * Getter for the score. Higher scores are better matches.
+     * 
+     * @return score
+     */
+    public double getScore() {
+        return score;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s (%.3f)", profile.getId(), score);
+    }
+}
@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 /**
  * UserProfile represents a user, containing all user metadata.
@@ -91,6 +92,24 @@ public class UserProfile {
         return Collections.unmodifiableMap(this.attributes);
     }
     
+    /**
+     * Returns a canonical form of the user's attributes: every name and value, sorted by name and
+     * each prefixed with its length. Two users have the same signature exactly when they have the
+     * same attributes, so it can key anything that depends only on them.
+     * 
+     * @return attribute signature
+     */
+    public String getAttributeSignature() {
+        StringBuilder signature = new StringBuilder();
+        for (Entry<String, String> attribute : new TreeMap<String, String>(this.attributes)
+                .entrySet()) {
+            signature.append(attribute.getKey().length()).append(':').append(attribute.getKey());
+            signature.append(attribute.getValue().length()).append(':')
+                    .append(attribute.getValue());
+        }
+        return signature.toString();
+    }
+    
     /**
      * Returns the intersection between the attributes of the two users.
      * 
@@ -172,7 +191,29 @@ public class UserProfile {
      * @return
      */
     public static String getNormalizedAttributeString(String input) {
+        if (isNormalized(input)) {
+            return input;
+        }
         return input.trim().toLowerCase().replaceAll("\\s", " ");
     }
     
+    /**
+     * Checks whether normalizing would leave the input unchanged, which is true of most input and
+     * far cheaper than normalizing it. Only printable ASCII is accepted; anything else is left to
+     * the full normalization.
+     */
+    private static boolean isNormalized(String input) {
+        int length = input.length();
+        if (length > 0 && (input.charAt(0) == ' ' || input.charAt(length - 1) == ' ')) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (c < ' ' || c > '~' || (c >= 'A' && c <= 'Z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
 }
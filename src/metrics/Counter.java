@@ -0,0 +1,63 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter is a named, lock-free running total that only counts while metrics are enabled.
+ */
+public class Counter {
+    private final String name;
+    private final LongAdder total = new LongAdder();
+    
+    /**
+     * Constructor requires the counter name.
+     * 
+     * @param name
+     */
+    Counter(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Adds to the counter, if metrics are enabled.
+     * 
+     * @param amount
+     */
+    public void add(long amount) {
+        if (Metrics.isEnabled()) {
+            total.add(amount);
+        }
+    }
+    
+    /**
+     * Adds one to the counter, if metrics are enabled.
+     */
+    public void increment() {
+        add(1);
+    }
+    
+    /**
+     * Getter for name.
+     * 
+     * @return counter name
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Gets the current total.
+     * 
+     * @return total
+     */
+    public long get() {
+        return total.sum();
+    }
+    
+    /**
+     * Clears the counter.
+     */
+    void reset() {
+        total.reset();
+    }
+}
@@ -0,0 +1,147 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records durations in log-linear buckets, keeping roughly 3% precision from a
+ * nanosecond up to days. Recording is lock-free, so a single histogram can be shared by every
+ * thread performing an operation.
+ */
+public class LatencyHistogram {
+    // Each power of two is split into 2^SUB_BUCKET_BITS linear sub-buckets.
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKET_COUNT;
+    private static final int BUCKET_COUNT = EXACT_LIMIT + (62 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    
+    /**
+     * Records a single duration.
+     * 
+     * @param nanos duration in nanoseconds; negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        totalCount.increment();
+        totalNanos.add(value);
+        
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+    
+    /**
+     * Gets the number of recorded durations.
+     * 
+     * @return count
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+    
+    /**
+     * Gets the mean of the recorded durations.
+     * 
+     * @return mean in nanoseconds, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalNanos.sum() / count;
+    }
+    
+    /**
+     * Gets the largest recorded duration.
+     * 
+     * @return maximum in nanoseconds
+     */
+    public long getMax() {
+        return maxNanos.get();
+    }
+    
+    /**
+     * Gets the duration at or below which the given percentage of recordings fall. The result is
+     * the upper bound of the bucket that holds the percentile, capped at the recorded maximum.
+     * 
+     * @param percentile in the range [0,100]
+     * @return duration in nanoseconds, or 0 if nothing has been recorded
+     * @throws IllegalArgumentException if percentile is outside [0,100]
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be in the range [0,100]!");
+        }
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), getMax());
+            }
+        }
+        return getMax();
+    }
+    
+    /**
+     * Clears all recordings. Recordings made concurrently with a reset may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+    
+    /**
+     * Override of Object.toString()
+     * 
+     * @return summary of the distribution in microseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                getCount(), getMean() / 1000, getValueAtPercentile(50) / 1000.0,
+                getValueAtPercentile(99) / 1000.0, getValueAtPercentile(99.9) / 1000.0,
+                getMax() / 1000.0);
+    }
+    
+    private static int indexOf(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return EXACT_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+    
+    private static long highestValueAt(int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        int offset = index - EXACT_LIMIT;
+        int exponent = offset / SUB_BUCKET_COUNT + SUB_BUCKET_BITS + 1;
+        int subBucket = offset % SUB_BUCKET_COUNT;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lowest = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,227 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics is the process-wide registry of timers and counters. Recording is disabled by default;
+ * while disabled, startTimer() skips the clock read and every record or add call reduces to a
+ * single volatile read.
+ */
+public class Metrics {
+    public static final String OBJECT_NAME = "chatter:type=Metrics";
+    
+    /**
+     * Start token handed out while metrics are disabled.
+     */
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+    
+    private static final ConcurrentMap<String, Timer> timers =
+            new ConcurrentHashMap<String, Timer>();
+    private static final ConcurrentMap<String, Counter> counters =
+            new ConcurrentHashMap<String, Counter>();
+    private static volatile boolean enabled = false;
+    
+    /**
+     * Determines whether metrics are currently being recorded.
+     * 
+     * @return true if enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Turns recording on or off.
+     * 
+     * @param enabled
+     */
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+    
+    /**
+     * Gets a start token for a Timer.
+     * 
+     * @return the current System.nanoTime(), or NOT_TIMED if metrics are disabled
+     */
+    public static long startTimer() {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+    
+    /**
+     * Gets or creates the timer with the given name.
+     * 
+     * @param name
+     * @return timer
+     */
+    public static Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timer = new Timer(name);
+            Timer existing = timers.putIfAbsent(name, timer);
+            if (existing != null) {
+                timer = existing;
+            }
+        }
+        return timer;
+    }
+    
+    /**
+     * Gets or creates the counter with the given name.
+     * 
+     * @param name
+     * @return counter
+     */
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter(name);
+            Counter existing = counters.putIfAbsent(name, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+    
+    /**
+     * Gets every registered timer, sorted by name.
+     * 
+     * @return timers by name
+     */
+    public static Map<String, Timer> getTimers() {
+        return new TreeMap<String, Timer>(timers);
+    }
+    
+    /**
+     * Gets every registered counter, sorted by name.
+     * 
+     * @return counters by name
+     */
+    public static Map<String, Counter> getCounters() {
+        return new TreeMap<String, Counter>(counters);
+    }
+    
+    /**
+     * Clears every timer and counter, keeping their registrations.
+     */
+    public static void reset() {
+        for (Timer timer : timers.values()) {
+            timer.getHistogram().reset();
+        }
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+    }
+    
+    /**
+     * Formats every timer and counter that has recorded anything, one per line.
+     * 
+     * @return text dump
+     */
+    public static String dump() {
+        StringBuilder dump = new StringBuilder();
+        for (Timer timer : getTimers().values()) {
+            if (timer.getHistogram().getCount() > 0) {
+                dump.append(String.format("%s %s%n", timer.getName(), timer.getHistogram()));
+            }
+        }
+        for (Counter counter : getCounters().values()) {
+            if (counter.get() > 0) {
+                dump.append(String.format("%s count=%d%n", counter.getName(), counter.get()));
+            }
+        }
+        return dump.toString();
+    }
+    
+    /**
+     * Registers the metrics MXBean with the platform MBean server, if it is not already there.
+     * 
+     * @return the name under which the bean is registered
+     * @throws IllegalStateException if the bean cannot be registered
+     */
+    public static ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                try {
+                    server.registerMBean(new MetricsBean(), name);
+                } catch (InstanceAlreadyExistsException e) {
+                    // Registered concurrently by another thread, which is just as good.
+                }
+            }
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException("The metrics MXBean could not be registered!", e);
+        }
+    }
+    
+    /**
+     * MXBean view over the static registry.
+     */
+    private static class MetricsBean implements MetricsMXBean {
+        
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+        
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+        
+        public Map<String, Long> getCounters() {
+            Map<String, Long> totals = new TreeMap<String, Long>();
+            for (Counter counter : counters.values()) {
+                totals.put(counter.getName(), counter.get());
+            }
+            return totals;
+        }
+        
+        public Map<String, Long> getOperationCounts() {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+            for (Timer timer : timers.values()) {
+                counts.put(timer.getName(), timer.getHistogram().getCount());
+            }
+            return counts;
+        }
+        
+        public Map<String, Double> getP50Micros() {
+            return getPercentileMicros(50);
+        }
+        
+        public Map<String, Double> getP99Micros() {
+            return getPercentileMicros(99);
+        }
+        
+        public Map<String, Double> getP999Micros() {
+            return getPercentileMicros(99.9);
+        }
+        
+        public String getTextDump() {
+            return dump();
+        }
+        
+        public void reset() {
+            Metrics.reset();
+        }
+        
+        private Map<String, Double> getPercentileMicros(double percentile) {
+            Map<String, Double> latencies = new TreeMap<String, Double>();
+            for (Timer timer : timers.values()) {
+                latencies.put(timer.getName(),
+                        timer.getHistogram().getValueAtPercentile(percentile) / 1000.0);
+            }
+            return latencies;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * MetricsMXBean exposes the Chatter metrics through JMX.
+ */
+public interface MetricsMXBean {
+    
+    /**
+     * Determines whether metrics are currently being recorded.
+     * 
+     * @return true if enabled
+     */
+    public boolean isEnabled();
+    
+    /**
+     * Turns recording on or off.
+     * 
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled);
+    
+    /**
+     * Gets the total of every counter.
+     * 
+     * @return counter totals by name
+     */
+    public Map<String, Long> getCounters();
+    
+    /**
+     * Gets the number of recorded calls for every timed operation.
+     * 
+     * @return call counts by operation name
+     */
+    public Map<String, Long> getOperationCounts();
+    
+    /**
+     * Gets the median latency of every timed operation.
+     * 
+     * @return latency in microseconds by operation name
+     */
+    public Map<String, Double> getP50Micros();
+    
+    /**
+     * Gets the 99th percentile latency of every timed operation.
+     * 
+     * @return latency in microseconds by operation name
+     */
+    public Map<String, Double> getP99Micros();
+    
+    /**
+     * Gets the 99.9th percentile latency of every timed operation.
+     * 
+     * @return latency in microseconds by operation name
+     */
+    public Map<String, Double> getP999Micros();
+    
+    /**
+     * Gets the same text that the periodic reporter prints.
+     * 
+     * @return text dump of all metrics
+     */
+    public String getTextDump();
+    
+    /**
+     * Clears every timer and counter.
+     */
+    public void reset();
+}
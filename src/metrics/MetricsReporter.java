@@ -0,0 +1,79 @@
+package metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MetricsReporter periodically prints the text dump of all metrics on a daemon thread.
+ */
+public class MetricsReporter {
+    private final PrintStream out;
+    private ScheduledExecutorService executor;
+    
+    /**
+     * Constructor requires the stream to print to.
+     * 
+     * @param out
+     * @throws IllegalArgumentException if out is null
+     */
+    public MetricsReporter(PrintStream out) {
+        if (out == null) {
+            throw new IllegalArgumentException("Output stream cannot be null!");
+        }
+        this.out = out;
+    }
+    
+    /**
+     * Starts printing at a fixed rate.
+     * 
+     * @param period
+     * @param unit
+     * @throws IllegalArgumentException if period is not positive or unit is null
+     * @throws IllegalStateException if the reporter is already running
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("The reporting period must be positive!");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("Time unit cannot be null!");
+        }
+        if (executor != null) {
+            throw new IllegalStateException("The reporter has already been started!");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                report();
+            }
+        }, period, period, unit);
+    }
+    
+    /**
+     * Stops printing.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+    
+    /**
+     * Prints the current dump immediately.
+     */
+    public void report() {
+        out.print(String.format("=== Chatter metrics at %tT ===%n%s", System.currentTimeMillis(),
+                Metrics.dump()));
+        out.flush();
+    }
+}
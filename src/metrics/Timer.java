@@ -0,0 +1,49 @@
+package metrics;
+
+/**
+ * Timer records the latency of a single named operation. Callers obtain a start token from
+ * Metrics.startTimer() and hand it back to record(), which does nothing if metrics were disabled
+ * when the token was issued.
+ */
+public class Timer {
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    
+    /**
+     * Constructor requires the operation name.
+     * 
+     * @param name
+     */
+    Timer(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Records the time elapsed since the start token was issued.
+     * 
+     * @param start token returned by Metrics.startTimer()
+     */
+    public void record(long start) {
+        if (start != Metrics.NOT_TIMED) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Getter for name.
+     * 
+     * @return operation name
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Getter for the underlying histogram.
+     * 
+     * @return histogram of latencies in nanoseconds
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+}
@@ -0,0 +1,265 @@
+package server.admission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import metrics.Counter;
+import metrics.Metrics;
+import server.admission.ConcurrencyLimiter.Permit;
+import server.feed.FeedBuilder;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * AdmissionController sits in front of a FeedBuilder and the stores, and keeps a burst of
+ * expensive feed requests from taking the server down with it. Reads (feeds, rankings and
+ * searches) and writes (profile changes and posts) each have their own ConcurrencyLimiter, so a
+ * flood of one cannot use up the other's budget. Anything past a limit is refused at once with
+ * an OverloadedException instead of queueing.
+ * 
+ * The last feed built for each of the most recently served users is kept. When a feed request is
+ * refused, the user's last feed is served instead if it is young enough, and the request only
+ * fails if there is none. The counters "AdmissionController.staleFeeds" and
+ * "AdmissionController.shed" record the feeds served stale and the requests refused outright.
+ * The limiters do their own locking, and the kept feeds are an access-ordered map guarded by its
+ * own monitor, which is never held while a feed is built.
+ */
+public class AdmissionController {
+    /**
+     * Users whose last feed is kept unless configured otherwise.
+     */
+    public static final int DEFAULT_STALE_FEED_USERS = 1024;
+    
+    /**
+     * Age past which a kept feed is not served unless configured otherwise.
+     */
+    public static final long DEFAULT_STALE_FEED_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    
+    /**
+     * Longest feed that is kept to be served stale.
+     */
+    public static final int MAX_STALE_FEED_POSTS = 1000;
+    
+    private static final Counter STALE_FEEDS = Metrics.counter("AdmissionController.staleFeeds");
+    private static final Counter SHED = Metrics.counter("AdmissionController.shed");
+    
+    private final FeedBuilder feedBuilder;
+    private volatile ConcurrencyLimiter readLimiter;
+    private volatile ConcurrencyLimiter writeLimiter;
+    private final Map<String, StaleFeed> staleFeeds;
+    private volatile int staleFeedUsers = DEFAULT_STALE_FEED_USERS;
+    private volatile long staleFeedMillis = DEFAULT_STALE_FEED_MILLIS;
+    
+    /**
+     * Constructor requires the feed builder to admit requests to. Reads start at a limit of 2 per
+     * processor and writes at 4 per processor, and either may adapt between 1 and 64 per
+     * processor.
+     * 
+     * @param feedBuilder
+     * @throws IllegalArgumentException if feedBuilder is null
+     */
+    public AdmissionController(FeedBuilder feedBuilder) {
+        if (feedBuilder == null) {
+            throw new IllegalArgumentException("Feed Builder cannot be null!");
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.feedBuilder = feedBuilder;
+        this.readLimiter = new ConcurrencyLimiter("AdmissionController.reads", 2 * processors, 1,
+                64 * processors);
+        this.writeLimiter = new ConcurrencyLimiter("AdmissionController.writes", 4 * processors,
+                1, 64 * processors);
+        this.staleFeeds = new LinkedHashMap<String, StaleFeed>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StaleFeed> eldest) {
+                return size() > staleFeedUsers;
+            }
+        };
+    }
+    
+    /**
+     * Sets the limiter for reads.
+     * 
+     * @param readLimiter
+     * @return this controller
+     * @throws IllegalArgumentException if readLimiter is null
+     */
+    public AdmissionController withReadLimiter(ConcurrencyLimiter readLimiter) {
+        if (readLimiter == null) {
+            throw new IllegalArgumentException("Read Limiter cannot be null!");
+        }
+        this.readLimiter = readLimiter;
+        return this;
+    }
+    
+    /**
+     * Sets the limiter for writes.
+     * 
+     * @param writeLimiter
+     * @return this controller
+     * @throws IllegalArgumentException if writeLimiter is null
+     */
+    public AdmissionController withWriteLimiter(ConcurrencyLimiter writeLimiter) {
+        if (writeLimiter == null) {
+            throw new IllegalArgumentException("Write Limiter cannot be null!");
+        }
+        this.writeLimiter = writeLimiter;
+        return this;
+    }
+    
+    /**
+     * Sets how many users' last feeds are kept and how old a kept feed may be when it is served
+     * in place of a refused request.
+     * 
+     * @param users most users whose feeds are kept, or 0 to keep none
+     * @param maxAgeMillis oldest feed served
+     * @return this controller
+     * @throws IllegalArgumentException if either argument is negative
+     */
+    public AdmissionController withStaleFeeds(int users, long maxAgeMillis) {
+        if (users < 0 || maxAgeMillis < 0) {
+            throw new IllegalArgumentException("The stale feed limits cannot be negative!");
+        }
+        synchronized (staleFeeds) {
+            this.staleFeedUsers = users;
+            this.staleFeedMillis = maxAgeMillis;
+            staleFeeds.clear();
+        }
+        return this;
+    }
+    
+    /**
+     * Getter for the limiter for reads.
+     * 
+     * @return read limiter
+     */
+    public ConcurrencyLimiter getReadLimiter() {
+        return readLimiter;
+    }
+    
+    /**
+     * Getter for the limiter for writes.
+     * 
+     * @return write limiter
+     */
+    public ConcurrencyLimiter getWriteLimiter() {
+        return writeLimiter;
+    }
+    
+    /**
+     * Takes a read permit, which must be released when the read is done.
+     * 
+     * @return permit
+     * @throws OverloadedException if too many reads are running
+     */
+    public Permit acquireRead() {
+        return acquire(readLimiter, "reads");
+    }
+    
+    /**
+     * Takes a write permit, which must be released when the write is done.
+     * 
+     * @return permit
+     * @throws OverloadedException if too many writes are running
+     */
+    public Permit acquireWrite() {
+        return acquire(writeLimiter, "writes");
+    }
+    
+    /**
+     * Hands each post in the feed for the specified user to the consumer, as
+     * FeedBuilder.streamFeedForUser() does, if a read permit is available. Otherwise the user's
+     * last feed is handed over instead, if it is young enough. Nothing is handed to the consumer
+     * before the request is admitted, so a caller can wait for the first post before committing
+     * to a response.
+     * 
+     * @param user
+     * @param consumer receives the posts in feed order
+     * @return true if the feed was built now, false if a stale feed was served
+     * @throws OverloadedException if the request was refused and there is no stale feed to serve
+     */
+    public boolean streamFeedForUser(UserProfile user, final Consumer<? super Post> consumer) {
+        Permit permit = readLimiter.tryAcquire();
+        if (permit == null) {
+            List<Post> stale = getStaleFeed(user.getId());
+            if (stale == null) {
+                SHED.increment();
+                throw new OverloadedException("Too many reads are running.");
+            }
+            STALE_FEEDS.increment();
+            for (Post post : stale) {
+                consumer.accept(post);
+            }
+            return false;
+        }
+        try {
+            if (staleFeedUsers == 0) {
+                feedBuilder.streamFeedForUser(user, consumer);
+                return true;
+            }
+            final List<Post> posts = new ArrayList<Post>();
+            feedBuilder.streamFeedForUser(user, new Consumer<Post>() {
+                public void accept(Post post) {
+                    if (posts.size() <= MAX_STALE_FEED_POSTS) {
+                        posts.add(post);
+                    }
+                    consumer.accept(post);
+                }
+            });
+            if (posts.size() <= MAX_STALE_FEED_POSTS) {
+                synchronized (staleFeeds) {
+                    staleFeeds.put(user.getId(), new StaleFeed(Collections
+                            .unmodifiableList(posts), System
+                            .currentTimeMillis()));
+                }
+            }
+            return true;
+        } finally {
+            permit.release();
+        }
+    }
+    
+    /**
+     * Gets the last feed built for the specified user, if it is young enough to be served.
+     * 
+     * @param userId
+     * @return the feed, or null if there is none
+     */
+    public List<Post> getStaleFeed(String userId) {
+        synchronized (staleFeeds) {
+            StaleFeed feed = staleFeeds.get(userId);
+            if (feed == null || System.currentTimeMillis() - feed.builtAt > staleFeedMillis) {
+                return null;
+            }
+            return feed.posts;
+        }
+    }
+    
+    private static Permit acquire(ConcurrencyLimiter limiter, String kind) {
+        Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            SHED.increment();
+            throw new OverloadedException(String.format("Too many %s are running.", kind));
+        }
+        return permit;
+    }
+    
+    /**
+     * A feed as it was built, and when.
+     */
+    private static class StaleFeed {
+        private final List<Post> posts;
+        private final long builtAt;
+        
+        private StaleFeed(List<Post> posts, long builtAt) {
+            this.posts = posts;
+            this.builtAt = builtAt;
+        }
+    }
+}
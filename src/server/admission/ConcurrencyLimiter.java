@@ -0,0 +1,175 @@
+package server.admission;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * ConcurrencyLimiter caps how many operations of one kind run at once, and adapts the cap to the
+ * latency it observes, in the style of a gradient limiter. Operations that would exceed the cap
+ * are refused immediately rather than queued, so a burst of expensive work fails fast instead of
+ * piling up behind itself.
+ * 
+ * Latencies are averaged over windows of at least WINDOW_SAMPLES completions. A long-term average
+ * of the windows serves as the latency the operations have when they are not queueing. Each
+ * window the limit moves towards limit * gradient + sqrt(limit), where the gradient is
+ * TOLERANCE * long-term / window latency, kept in [0.5, 1]. While latency stays within TOLERANCE
+ * of the long-term average the limit grows by about its square root per window. Once operations
+ * start queueing and latency climbs, the limit shrinks in proportion. A window in which fewer
+ * than half the permits were used says nothing about the limit, so it is left alone then.
+ * 
+ * The counters "{name}.admitted" and "{name}.rejected" record the decisions. Taking and
+ * returning permits and adapting the limit all synchronize on the limiter, which holds its
+ * monitor only for a few arithmetic steps, so the count of running operations never exceeds the
+ * limit it was checked against.
+ */
+public class ConcurrencyLimiter {
+    /**
+     * Fewest completions averaged into one latency sample.
+     */
+    public static final int WINDOW_SAMPLES = 20;
+    
+    /**
+     * How far window latency may exceed the long-term latency before the limit shrinks.
+     */
+    public static final double TOLERANCE = 1.5;
+    
+    private static final double LONG_TERM_WINDOWS = 100;
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+    
+    private final int minLimit;
+    private final int maxLimit;
+    private final Counter admitted;
+    private final Counter rejected;
+    private double limit;
+    private int inFlight;
+    private int windowMaxInFlight;
+    private int windowSamples;
+    private long windowLatencyNanos;
+    private double longTermLatencyNanos;
+    
+    /**
+     * A permission to run one operation, which must be released when the operation ends.
+     */
+    public class Permit {
+        private final long start = System.nanoTime();
+        private boolean released;
+        
+        private Permit() {
+        }
+        
+        /**
+         * Releases the permit, recording how long the operation took. Releasing twice has no
+         * further effect.
+         */
+        public void release() {
+            if (!released) {
+                released = true;
+                onComplete(System.nanoTime() - start);
+            }
+        }
+    }
+    
+    /**
+     * Constructor requires a metrics name, the limit to start at and the range it may adapt
+     * within.
+     * 
+     * @param name prefix of the limiter's counters
+     * @param initialLimit operations allowed at once to begin with
+     * @param minLimit fewest operations ever allowed at once
+     * @param maxLimit most operations ever allowed at once
+     * @throws IllegalArgumentException if name is null, minLimit is not positive, or initialLimit
+     *         is outside [minLimit, maxLimit]
+     */
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null!");
+        }
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("The minimum limit must be positive!");
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException(
+                    "The initial limit must be between the minimum and maximum limits!");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.admitted = Metrics.counter(name + ".admitted");
+        this.rejected = Metrics.counter(name + ".rejected");
+    }
+    
+    /**
+     * Takes a permit if fewer operations than the limit are running.
+     * 
+     * @return permit, or null if the limit has been reached
+     */
+    public Permit tryAcquire() {
+        synchronized (this) {
+            if (inFlight >= (int) limit) {
+                rejected.increment();
+                return null;
+            }
+            inFlight++;
+            windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+        }
+        admitted.increment();
+        return new Permit();
+    }
+    
+    /**
+     * Gets the current limit.
+     * 
+     * @return operations allowed at once
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+    
+    /**
+     * Gets the number of operations holding a permit.
+     * 
+     * @return operations running
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+    
+    /**
+     * Records a completed operation, adapting the limit at the end of each window.
+     * 
+     * @param latencyNanos how long the operation took
+     */
+    synchronized void onComplete(long latencyNanos) {
+        inFlight--;
+        windowLatencyNanos += Math.max(latencyNanos, 1);
+        windowSamples++;
+        if (windowSamples < Math.max(WINDOW_SAMPLES, (int) limit)) {
+            return;
+        }
+        double windowLatency = (double) windowLatencyNanos / windowSamples;
+        boolean saturated = windowMaxInFlight * 2 >= (int) limit;
+        windowLatencyNanos = 0;
+        windowSamples = 0;
+        windowMaxInFlight = inFlight;
+        
+        if (longTermLatencyNanos == 0) {
+            longTermLatencyNanos = windowLatency;
+        } else {
+            longTermLatencyNanos += (windowLatency - longTermLatencyNanos) / LONG_TERM_WINDOWS;
+            // Once load drops, let the long-term latency come back down rather than wait out the
+            // windows that were slow.
+            if (longTermLatencyNanos > 2 * windowLatency) {
+                longTermLatencyNanos *= 0.95;
+            }
+        }
+        if (!saturated) {
+            return;
+        }
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1, TOLERANCE * longTermLatencyNanos
+                / windowLatency));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + target
+                * SMOOTHING));
+    }
+}
@@ -0,0 +1,18 @@
+package server.admission;
+
+/**
+ * OverloadedException signals that an operation was refused because too many of its kind were
+ * already running. Nothing was done, so the operation can be retried once the load drops.
+ */
+public class OverloadedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Constructor requires a description of what was refused.
+     * 
+     * @param message
+     */
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,701 @@
+package server.bulk;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import metrics.Metrics;
+import metrics.Timer;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.OffHeapPostStore;
+import data.proxy.PostStore;
+import data.proxy.UserProfileStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * BulkImporter loads large newline-delimited files of profiles or posts. The calling thread only
+ * reads: the input is cut into large blocks at line boundaries, and a pool of workers parses each
+ * block straight from its bytes and hands the records to the stores in batches. A fixed set of
+ * reusable blocks bounds memory and makes the reader wait whenever the workers fall behind.
+ * 
+ * <pre>
+ * profiles: id TAB name=value TAB name=value ...
+ * posts:    user TAB timestamp TAB content
+ * </pre>
+ * 
+ * Timestamps are in milliseconds since the epoch, and post content runs to the end of the line.
+ * Blank lines, lines starting with # and trailing carriage returns are ignored. An imported
+ * profile replaces any stored profile with the same id. When a file has several lines with the
+ * same id, the last of them wins however the blocks are scheduled: the first to be parsed is
+ * written straight away, and the rest are held back and the one furthest into the file written
+ * once every block is done. Malformed lines are counted and skipped rather than failing the
+ * import.
+ */
+public class BulkImporter {
+    /**
+     * Number of records handed to the store at a time unless configured otherwise.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    
+    /**
+     * Size of each block read from the input unless configured otherwise.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    
+    private static final int MAX_ERRORS = 10;
+    private static final int MAX_ERROR_LINE_LENGTH = 80;
+    private static final Timer BLOCK_TIMER = Metrics.timer("BulkImporter.importBlock");
+    
+    private final UserProfileStore userStore;
+    private final PostStore postStore;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private PrintStream progressOut;
+    private long progressPeriodMillis;
+    
+    /**
+     * Constructor requires the stores that records are imported into.
+     * 
+     * @param userStore
+     * @param postStore
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public BulkImporter(UserProfileStore userStore, PostStore postStore) {
+        if (userStore == null) {
+            throw new IllegalArgumentException("User Store cannot be null!");
+        }
+        if (postStore == null) {
+            throw new IllegalArgumentException("Post Store cannot be null!");
+        }
+        this.userStore = userStore;
+        this.postStore = postStore;
+    }
+    
+    /**
+     * Sets the number of threads that parse and write records. Defaults to one per processor.
+     * 
+     * @param threads
+     * @return this importer
+     * @throws IllegalArgumentException if threads is not positive
+     */
+    public BulkImporter withThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The thread count must be positive!");
+        }
+        this.threads = threads;
+        return this;
+    }
+    
+    /**
+     * Sets the number of records handed to the store at a time.
+     * 
+     * @param batchSize
+     * @return this importer
+     * @throws IllegalArgumentException if batchSize is not positive
+     */
+    public BulkImporter withBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive!");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+    
+    /**
+     * Sets the size of each block read from the input. Lines longer than a block are still
+     * imported, by growing the block that holds them.
+     * 
+     * @param blockSize
+     * @return this importer
+     * @throws IllegalArgumentException if blockSize is not positive
+     */
+    public BulkImporter withBlockSize(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be positive!");
+        }
+        this.blockSize = blockSize;
+        return this;
+    }
+    
+    /**
+     * Prints a progress line at a fixed rate while an import is running.
+     * 
+     * @param out
+     * @param period
+     * @param unit
+     * @return this importer
+     * @throws IllegalArgumentException if out or unit is null, or period is not positive
+     */
+    public BulkImporter withProgress(PrintStream out, long period, TimeUnit unit) {
+        if (out == null) {
+            throw new IllegalArgumentException("Output stream cannot be null!");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("The reporting period must be positive!");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("Time unit cannot be null!");
+        }
+        this.progressOut = out;
+        this.progressPeriodMillis = unit.toMillis(period);
+        return this;
+    }
+    
+    /**
+     * Imports profiles, one per line, until the end of the input.
+     * 
+     * @param in
+     * @return summary of the import
+     * @throws IllegalArgumentException if in is null
+     * @throws IOException if the input cannot be read
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public ImportResult importProfiles(InputStream in) throws IOException, InterruptedException {
+        return new Job<UserProfile>("profiles") {
+            UserProfile parse(byte[] data, int start, int end, StringCache strings) {
+                return parseProfile(data, start, end, strings);
+            }
+            
+            void write(List<UserProfile> batch) {
+                userStore.writeAll(batch);
+            }
+            
+            String getId(UserProfile profile) {
+                return profile.getId();
+            }
+        }.run(in);
+    }
+    
+    /**
+     * Imports posts, one per line, until the end of the input.
+     * 
+     * @param in
+     * @return summary of the import
+     * @throws IllegalArgumentException if in is null
+     * @throws IOException if the input cannot be read
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public ImportResult importPosts(InputStream in) throws IOException, InterruptedException {
+        return new Job<Post>("posts") {
+            Post parse(byte[] data, int start, int end, StringCache strings) {
+                return parsePost(data, start, end);
+            }
+            
+            void write(List<Post> batch) {
+                postStore.writeAll(batch);
+            }
+        }.run(in);
+    }
+    
+    /**
+     * Parses a profile line of the form id TAB name=value TAB name=value ...
+     * 
+     * @param data
+     * @param start index of the first byte of the line
+     * @param end index just past the last byte of the line
+     * @param strings cache for the attribute names and values
+     * @return the profile
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    static UserProfile parseProfile(byte[] data, int start, int end, StringCache strings) {
+        int field = indexOf(data, start, end, '\t');
+        if (field == start) {
+            throw new IllegalArgumentException("The profile id is empty.");
+        }
+        UserProfile profile = new UserProfile(decode(data, start, field));
+        while (field < end) {
+            int fieldStart = field + 1;
+            field = indexOf(data, fieldStart, end, '\t');
+            if (field == fieldStart) {
+                continue;
+            }
+            int equals = indexOf(data, fieldStart, field, '=');
+            if (equals == field) {
+                throw new IllegalArgumentException(String.format(
+                        "Attribute \"%s\" is not of the form name=value.", decode(data,
+                                fieldStart, field)));
+            }
+            if (equals == fieldStart) {
+                throw new IllegalArgumentException("An attribute name is empty.");
+            }
+            profile.setAttribute(strings.get(data, fieldStart, equals), strings.get(data,
+                    equals + 1, field));
+        }
+        return profile;
+    }
+    
+    /**
+     * Parses a post line of the form user TAB timestamp TAB content.
+     * 
+     * @param data
+     * @param start index of the first byte of the line
+     * @param end index just past the last byte of the line
+     * @return the post
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    static Post parsePost(byte[] data, int start, int end) {
+        int userEnd = indexOf(data, start, end, '\t');
+        int timestampEnd = indexOf(data, userEnd + 1, end, '\t');
+        if (timestampEnd >= end) {
+            throw new IllegalArgumentException(
+                    "Expected a user, timestamp and content separated by tabs.");
+        }
+        if (userEnd == start) {
+            throw new IllegalArgumentException("The post's user is empty.");
+        }
+        long timestamp = parseLong(data, userEnd + 1, timestampEnd);
+        return new Post(decode(data, start, userEnd), decode(data, timestampEnd + 1, end),
+                timestamp);
+    }
+    
+    /**
+     * Finds the first occurrence of a byte, or returns end if there is none.
+     */
+    private static int indexOf(byte[] data, int start, int end, char b) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return end;
+    }
+    
+    private static String decode(byte[] data, int start, int end) {
+        return new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Parses a non-negative decimal number without first copying it into a String.
+     */
+    private static long parseLong(byte[] data, int start, int end) {
+        if (start == end || end - start > 18) {
+            throw new IllegalArgumentException(String.format("Invalid timestamp \"%s\".", decode(
+                    data, start, end)));
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException(String.format("Invalid timestamp \"%s\".",
+                        decode(data, start, end)));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+    
+    /**
+     * The state of a single import: the worker pool, its reusable blocks and its running totals.
+     * Subclasses supply the record type.
+     */
+    private abstract class Job<T> {
+        private final String recordName;
+        private final ExecutorService workers;
+        private final BlockingQueue<byte[]> freeBlocks;
+        private final AtomicInteger allocatedBlocks = new AtomicInteger();
+        private final LongAdder records = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final AtomicLong bytes = new AtomicLong();
+        private final List<String> errors = new ArrayList<String>();
+        private final AtomicReference<RuntimeException> failure =
+                new AtomicReference<RuntimeException>();
+        private final int maxBlocks;
+        private int submittedBlocks;
+        // Where in the file each id was first parsed from, as the block number in the high half
+        // and the line's offset in the low half, and the furthest line of any id parsed again.
+        private final ConcurrentMap<String, Long> firstPositions =
+                new ConcurrentHashMap<String, Long>();
+        private final ConcurrentMap<String, Positioned<T>> duplicates =
+                new ConcurrentHashMap<String, Positioned<T>>();
+        private final BiFunction<Positioned<T>, Positioned<T>, Positioned<T>> later =
+                new BiFunction<Positioned<T>, Positioned<T>, Positioned<T>>() {
+                    public Positioned<T> apply(Positioned<T> a, Positioned<T> b) {
+                        return a.position > b.position ? a : b;
+                    }
+                };
+        
+        private Job(String recordName) {
+            this.recordName = recordName;
+            this.workers = Executors.newFixedThreadPool(threads, daemonThreads("bulk-import"));
+            // Enough blocks for every worker to have one in hand and one queued, plus the reader's.
+            this.maxBlocks = threads * 2 + 1;
+            this.freeBlocks = new ArrayBlockingQueue<byte[]>(maxBlocks);
+        }
+        
+        /**
+         * Parses a single non-blank line.
+         * 
+         * @throws IllegalArgumentException if the line is malformed
+         */
+        abstract T parse(byte[] data, int start, int end, StringCache strings);
+        
+        /**
+         * Writes a batch of parsed records to the store.
+         */
+        abstract void write(List<T> batch);
+        
+        /**
+         * Gets the id that a later record replaces an earlier one by, or null if records are
+         * never replaced.
+         */
+        String getId(T record) {
+            return null;
+        }
+        
+        ImportResult run(InputStream in) throws IOException, InterruptedException {
+            if (in == null) {
+                throw new IllegalArgumentException("Input stream cannot be null!");
+            }
+            long start = System.nanoTime();
+            ScheduledExecutorService reporter = startProgress(start);
+            try {
+                read(in);
+                workers.shutdown();
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } finally {
+                workers.shutdownNow();
+                if (reporter != null) {
+                    reporter.shutdownNow();
+                }
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            writeDuplicates();
+            synchronized (errors) {
+                return new ImportResult(records.sum(), rejected.sum(), bytes.get(), System
+                        .nanoTime() - start, new ArrayList<String>(errors));
+            }
+        }
+        
+        /**
+         * Fills blocks from the input and hands each one to the workers, cut after its last
+         * newline; the partial line that follows is carried over to the start of the next block.
+         */
+        private void read(InputStream in) throws IOException, InterruptedException {
+            byte[] block = takeBlock();
+            int filled = 0;
+            while (failure.get() == null) {
+                int read = in.read(block, filled, block.length - filled);
+                if (read < 0) {
+                    break;
+                }
+                filled += read;
+                bytes.addAndGet(read);
+                if (filled < block.length) {
+                    continue;
+                }
+                int end = filled;
+                while (end > 0 && block[end - 1] != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    // A single line fills the whole block, so make room for the rest of it.
+                    block = Arrays.copyOf(block, block.length * 2);
+                    continue;
+                }
+                byte[] next = takeBlock();
+                if (next.length < filled - end) {
+                    next = new byte[block.length];
+                }
+                System.arraycopy(block, end, next, 0, filled - end);
+                submit(block, end);
+                block = next;
+                filled -= end;
+            }
+            if (filled > 0) {
+                submit(block, filled);
+            } else {
+                freeBlocks.add(block);
+            }
+        }
+        
+        private byte[] takeBlock() throws InterruptedException {
+            byte[] block = freeBlocks.poll();
+            if (block != null) {
+                return block;
+            }
+            if (allocatedBlocks.incrementAndGet() <= maxBlocks) {
+                return new byte[blockSize];
+            }
+            allocatedBlocks.decrementAndGet();
+            return freeBlocks.take();
+        }
+        
+        private void submit(final byte[] block, final int length) {
+            final int number = submittedBlocks++;
+            workers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        importBlock(block, length, number);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        freeBlocks.add(block);
+                    }
+                }
+            });
+        }
+        
+        /**
+         * Parses every line of a block, writing the records in batches.
+         */
+        private void importBlock(byte[] data, int length, int number) {
+            long timer = Metrics.startTimer();
+            List<T> batch = new ArrayList<T>(batchSize);
+            StringCache strings = new StringCache();
+            int start = 0;
+            while (start < length && failure.get() == null) {
+                int end = indexOf(data, start, length, '\n');
+                int next = end + 1;
+                if (end > start && data[end - 1] == '\r') {
+                    end--;
+                }
+                if (end > start && data[start] != '#') {
+                    try {
+                        T record = parse(data, start, end, strings);
+                        if (claim(record, (long) number << 32 | start)) {
+                            batch.add(record);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        reject(data, start, end, e);
+                    }
+                    if (batch.size() == batchSize) {
+                        flush(batch);
+                    }
+                }
+                start = next;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+            }
+            BLOCK_TIMER.record(timer);
+        }
+        
+        /**
+         * Decides whether a record can be written now. A record whose id has already been parsed
+         * is counted but held back, keeping only the one furthest into the file.
+         */
+        private boolean claim(T record, long position) {
+            String id = getId(record);
+            if (id == null || firstPositions.putIfAbsent(id, position) == null) {
+                return true;
+            }
+            duplicates.merge(id, new Positioned<T>(record, position), later);
+            records.increment();
+            return false;
+        }
+        
+        /**
+         * Writes the furthest line of each id parsed more than once, unless the line written
+         * first was already the furthest.
+         */
+        private void writeDuplicates() {
+            List<T> batch = new ArrayList<T>(batchSize);
+            for (Map.Entry<String, Positioned<T>> duplicate : duplicates.entrySet()) {
+                if (duplicate.getValue().position > firstPositions.get(duplicate.getKey())) {
+                    batch.add(duplicate.getValue().record);
+                }
+                if (batch.size() == batchSize) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        }
+        
+        private void flush(List<T> batch) {
+            write(batch);
+            records.add(batch.size());
+            batch.clear();
+        }
+        
+        private void reject(byte[] data, int start, int end, IllegalArgumentException e) {
+            rejected.increment();
+            synchronized (errors) {
+                if (errors.size() < MAX_ERRORS) {
+                    String line = decode(data, start, Math.min(end, start
+                            + MAX_ERROR_LINE_LENGTH));
+                    errors.add(String.format("%s: %s", line, e.getMessage()));
+                }
+            }
+        }
+        
+        private ScheduledExecutorService startProgress(final long start) {
+            if (progressOut == null) {
+                return null;
+            }
+            ScheduledExecutorService reporter = Executors
+                    .newSingleThreadScheduledExecutor(daemonThreads("bulk-import-progress"));
+            reporter.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    long imported = records.sum();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    progressOut.print(String.format(
+                            "Imported %,d %s (%,.0f/s), %,d rejected, %.1f MB read%n", imported,
+                            recordName, imported / seconds, rejected.sum(), bytes.get()
+                                    / (1024.0 * 1024.0)));
+                    progressOut.flush();
+                }
+            }, progressPeriodMillis, progressPeriodMillis, TimeUnit.MILLISECONDS);
+            return reporter;
+        }
+    }
+    
+    /**
+     * A record and where in the file it was parsed from.
+     */
+    private static class Positioned<T> {
+        private final T record;
+        private final long position;
+        
+        private Positioned(T record, long position) {
+            this.record = record;
+            this.position = position;
+        }
+    }
+    
+    /**
+     * A small cache of normalized attribute strings, looked up by their raw bytes. Attribute names
+     * and values repeat across most lines, so sharing them avoids both decoding them again and
+     * keeping a separate copy alive in every imported profile.
+     */
+    static class StringCache {
+        private static final int SLOTS = 1024;
+        
+        private final byte[][] keys = new byte[SLOTS][];
+        private final String[] values = new String[SLOTS];
+        
+        /**
+         * Gets the normalized string for a range of UTF-8 bytes.
+         * 
+         * @param data
+         * @param start
+         * @param end
+         * @return the normalized string
+         */
+        String get(byte[] data, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + data[i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+            byte[] key = keys[slot];
+            if (key != null && key.length == end - start) {
+                int i = 0;
+                while (i < key.length && key[i] == data[start + i]) {
+                    i++;
+                }
+                if (i == key.length) {
+                    return values[slot];
+                }
+            }
+            // On a miss, the slot is simply taken over by the newer string.
+            String value = UserProfile.getNormalizedAttributeString(decode(data, start, end));
+            keys[slot] = Arrays.copyOfRange(data, start, end);
+            values[slot] = value;
+            return value;
+        }
+    }
+    
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+    
+    /**
+     * Imports files into in-memory stores and reports the throughput, which is useful for checking
+     * files and sizing a node before loading them into a server. Options are given as --name=value:
+     * 
+     * <pre>
+     * --profiles=PATH   profile file to import
+     * --posts=PATH      post file to import, after the profiles
+     * --threads=N       parsing threads (default one per processor)
+     * --batch=N         records per store write (default 1000)
+     * --offheap=true    keep post content off the heap (default false)
+     * </pre>
+     * 
+     * @param args
+     * @throws IOException if a file cannot be read
+     * @throws InterruptedException if interrupted while importing
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String profiles = null;
+        String posts = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int batchSize = DEFAULT_BATCH_SIZE;
+        boolean offHeap = false;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid option \"%s\". Options must look like --name=value.", arg));
+            }
+            if ("--profiles".equals(option[0])) {
+                profiles = option[1];
+            } else if ("--posts".equals(option[0])) {
+                posts = option[1];
+            } else if ("--threads".equals(option[0])) {
+                threads = Integer.parseInt(option[1]);
+            } else if ("--batch".equals(option[0])) {
+                batchSize = Integer.parseInt(option[1]);
+            } else if ("--offheap".equals(option[0])) {
+                offHeap = Boolean.parseBoolean(option[1]);
+            } else {
+                throw new IllegalArgumentException(String.format("Unknown option \"%s\".", arg));
+            }
+        }
+        
+        BulkImporter importer = new BulkImporter(new LocalTransientUserProfileStore(),
+                offHeap ? new OffHeapPostStore() : new PostStore()).withThreads(threads)
+                .withBatchSize(batchSize).withProgress(System.out, 5, TimeUnit.SECONDS);
+        if (profiles != null) {
+            try (InputStream in = new FileInputStream(profiles)) {
+                report("profiles", importer.importProfiles(in));
+            }
+        }
+        if (posts != null) {
+            try (InputStream in = new FileInputStream(posts)) {
+                report("posts", importer.importPosts(in));
+            }
+        }
+    }
+    
+    private static void report(String recordName, ImportResult result) {
+        System.out.println(String.format("Imported %s: %s", recordName, result));
+        for (String error : result.getErrors()) {
+            System.out.println("  " + error);
+        }
+    }
+}
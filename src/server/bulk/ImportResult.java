@@ -0,0 +1,94 @@
+package server.bulk;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ImportResult summarizes a finished bulk import.
+ */
+public class ImportResult {
+    private final long records;
+    private final long rejected;
+    private final long bytes;
+    private final long elapsedNanos;
+    private final List<String> errors;
+    
+    /**
+     * Constructor requires every field.
+     * 
+     * @param records number of records written
+     * @param rejected number of malformed lines that were skipped
+     * @param bytes number of bytes read
+     * @param elapsedNanos
+     * @param errors descriptions of the first few rejected lines
+     */
+    public ImportResult(long records, long rejected, long bytes, long elapsedNanos,
+            List<String> errors) {
+        this.records = records;
+        this.rejected = rejected;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+    
+    /**
+     * Getter for the number of records written.
+     * 
+     * @return records
+     */
+    public long getRecords() {
+        return records;
+    }
+    
+    /**
+     * Getter for the number of malformed lines that were skipped.
+     * 
+     * @return rejected lines
+     */
+    public long getRejected() {
+        return rejected;
+    }
+    
+    /**
+     * Getter for the number of bytes read.
+     * 
+     * @return bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * Getter for the time the import took.
+     * 
+     * @return elapsed nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+    
+    /**
+     * Gets the import rate.
+     * 
+     * @return records written per second
+     */
+    public double getRecordsPerSecond() {
+        return elapsedNanos == 0 ? 0 : records * 1e9 / elapsedNanos;
+    }
+    
+    /**
+     * Getter for descriptions of the first few rejected lines; the rest are only counted.
+     * 
+     * @return errors
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%,d records, %,d rejected, %.1f MB in %.2f s (%,.0f records/s)",
+                records, rejected, bytes / (1024.0 * 1024.0), elapsedNanos / 1e9,
+                getRecordsPerSecond());
+    }
+}
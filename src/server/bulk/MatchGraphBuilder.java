@@ -0,0 +1,448 @@
+package server.bulk;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
+import server.matching.PercentMatchUserMatcher;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.MatchGraph;
+import data.proxy.PostStore;
+import data.structure.UserProfile;
+
+/**
+ * MatchGraphBuilder is a batch job that finds every pair of matching users for a
+ * PercentMatchUserMatcher without comparing every user to every other, and writes them out as a
+ * MatchGraph snapshot.
+ * 
+ * Each attribute value is numbered by how many users have it, rarest first, and every user's
+ * attributes become a sorted array of those numbers with an inverted index over all of them. A
+ * primary user who needs k shared attributes can only match users who share one of their first
+ * (size - k + 1) attributes, since the remaining k - 1 are too few on their own, so only the
+ * postings of those rare attributes are read (prefix filtering). Postings are ordered by the size
+ * of the user, so users with fewer than k attributes are skipped outright (length filtering), and
+ * a candidate is dropped on first sight when the attributes left after the shared one cannot make
+ * up k (positional filtering). The survivors are verified by merging the two arrays.
+ * 
+ * Primary users are handed out to the worker threads in chunks. The match relation is not
+ * symmetric, since the threshold applies to the primary user's own attribute count, so every user
+ * probes the index for themselves.
+ */
+public class MatchGraphBuilder {
+    private static final int CHUNK_SIZE = 256;
+    private static final String USAGE = String.format("Usage: MatchGraphBuilder --profiles=FILE "
+            + "--threshold=T --out=FILE [--threads=N]%n"
+            + "  --profiles=FILE   profiles to join, in the BulkImporter format%n"
+            + "  --threshold=T     PercentMatchUserMatcher threshold in [0,1]%n"
+            + "  --out=FILE        where to write the snapshot%n"
+            + "  --threads=N       worker threads (default one per processor)");
+    private static final Timer JOIN_TIMER = Metrics.timer("MatchGraphBuilder.join");
+    private static final Counter CANDIDATES_PRUNED = Metrics
+            .counter("MatchGraphBuilder.candidatesPruned");
+    private static final Counter CANDIDATES_VERIFIED = Metrics
+            .counter("MatchGraphBuilder.candidatesVerified");
+    
+    private final PercentMatchUserMatcher matcher;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Constructor requires the matcher whose matches are computed.
+     * 
+     * @param matcher
+     * @throws IllegalArgumentException if matcher is null
+     */
+    public MatchGraphBuilder(PercentMatchUserMatcher matcher) {
+        if (matcher == null) {
+            throw new IllegalArgumentException("User Matcher cannot be null!");
+        }
+        this.matcher = matcher;
+    }
+    
+    /**
+     * Sets the number of worker threads. Defaults to one per processor.
+     * 
+     * @param threads
+     * @return this builder
+     * @throws IllegalArgumentException if threads is not positive
+     */
+    public MatchGraphBuilder withThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("There must be at least one thread!");
+        }
+        this.threads = threads;
+        return this;
+    }
+    
+    /**
+     * Computes the matches of every user and writes them to a snapshot, then maps it.
+     * 
+     * @param profiles
+     * @param file where the snapshot is written
+     * @return the written graph
+     * @throws IOException if the snapshot cannot be written
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public MatchGraph build(Collection<UserProfile> profiles, Path file) throws IOException {
+        if (profiles == null) {
+            throw new IllegalArgumentException("Profiles cannot be null!");
+        }
+        List<UserProfile> users = new ArrayList<UserProfile>(profiles);
+        int[][] matches = join(users);
+        List<String> ids = new ArrayList<String>(users.size());
+        for (UserProfile user : users) {
+            ids.add(user.getId());
+        }
+        MatchGraph.write(file, ids, matches);
+        return MatchGraph.load(file);
+    }
+    
+    /**
+     * Computes the matches of every user.
+     * 
+     * @param users
+     * @return for each user's position in the list, the positions of the users they match in
+     *         increasing order
+     * @throws IllegalArgumentException if users is null or contains null
+     */
+    public int[][] join(List<UserProfile> users) {
+        if (users == null) {
+            throw new IllegalArgumentException("Users cannot be null!");
+        }
+        if (users.contains(null)) {
+            throw new IllegalArgumentException("User cannot be null!");
+        }
+        long start = Metrics.startTimer();
+        try {
+            Index index = new Index(users, matcher);
+            return probeAll(index);
+        } finally {
+            JOIN_TIMER.record(start);
+        }
+    }
+    
+    private int[][] probeAll(final Index index) {
+        final int[][] matches = new int[index.sets.length][];
+        final AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "match-join-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<Void>> running = new ArrayList<Future<Void>>(threads);
+            for (int t = 0; t < threads; t++) {
+                running.add(workers.submit(new Callable<Void>() {
+                    public Void call() {
+                        Prober prober = new Prober(index);
+                        int first;
+                        while ((first = next.getAndAdd(CHUNK_SIZE)) < matches.length) {
+                            int last = Math.min(first + CHUNK_SIZE, matches.length);
+                            for (int user = first; user < last; user++) {
+                                matches[user] = prober.probe(user);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> worker : running) {
+                worker.get();
+            }
+            return matches;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while joining the users!", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("A join worker failed!", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+    
+    /**
+     * Every user's attributes as sorted attribute numbers, and for every attribute number the
+     * users who have it with its position in their array, ordered by the users' sizes.
+     */
+    private static class Index {
+        private final int[][] sets;
+        private final int[] required;
+        private final int[] postingStarts;
+        private final int[] postingUsers;
+        private final int[] postingPositions;
+        
+        private Index(List<UserProfile> users, PercentMatchUserMatcher matcher) {
+            Map<String, Map<String, int[]>> counts = new HashMap<String, Map<String, int[]>>();
+            List<int[]> attributes = new ArrayList<int[]>();
+            for (UserProfile user : users) {
+                for (Map.Entry<String, String> attribute : user.getAttributes().entrySet()) {
+                    Map<String, int[]> values = counts.get(attribute.getKey());
+                    if (values == null) {
+                        values = new HashMap<String, int[]>();
+                        counts.put(attribute.getKey(), values);
+                    }
+                    int[] count = values.get(attribute.getValue());
+                    if (count == null) {
+                        // Holds the number of users, then the attribute number.
+                        count = new int[2];
+                        values.put(attribute.getValue(), count);
+                        attributes.add(count);
+                    }
+                    count[0]++;
+                }
+            }
+            int[][] byRarity = attributes.toArray(new int[attributes.size()][]);
+            Arrays.sort(byRarity, new Comparator<int[]>() {
+                public int compare(int[] a, int[] b) {
+                    return Integer.compare(a[0], b[0]);
+                }
+            });
+            postingStarts = new int[byRarity.length + 1];
+            for (int i = 0; i < byRarity.length; i++) {
+                byRarity[i][1] = i;
+                postingStarts[i + 1] = postingStarts[i] + byRarity[i][0];
+            }
+            
+            sets = new int[users.size()][];
+            required = new int[users.size()];
+            Integer[] bySize = new Integer[users.size()];
+            for (int u = 0; u < users.size(); u++) {
+                UserProfile user = users.get(u);
+                int[] set = new int[user.getAttributes().size()];
+                int i = 0;
+                for (Map.Entry<String, String> attribute : user.getAttributes().entrySet()) {
+                    set[i++] = counts.get(attribute.getKey()).get(attribute.getValue())[1];
+                }
+                Arrays.sort(set);
+                sets[u] = set;
+                required[u] = matcher.getMinimumSharedAttributes(user);
+                bySize[u] = u;
+            }
+            Arrays.sort(bySize, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Integer.compare(sets[a].length, sets[b].length);
+                }
+            });
+            
+            postingUsers = new int[postingStarts[byRarity.length]];
+            postingPositions = new int[postingUsers.length];
+            int[] filled = Arrays.copyOf(postingStarts, byRarity.length);
+            for (int u : bySize) {
+                for (int i = 0; i < sets[u].length; i++) {
+                    int slot = filled[sets[u][i]]++;
+                    postingUsers[slot] = u;
+                    postingPositions[slot] = i;
+                }
+            }
+        }
+        
+        /**
+         * Finds the first posting of the attribute whose user has at least size attributes.
+         */
+        private int firstWithSize(int attribute, int size) {
+            int low = postingStarts[attribute];
+            int high = postingStarts[attribute + 1];
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sets[postingUsers[mid]].length < size) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+    
+    /**
+     * One worker's scratch space. shared[v] counts the prefix attributes shared with candidate v,
+     * or is -1 once v has been ruled out.
+     */
+    private static class Prober {
+        private final Index index;
+        private final int[] shared;
+        private int[] candidates = new int[64];
+        
+        private Prober(Index index) {
+            this.index = index;
+            this.shared = new int[index.sets.length];
+        }
+        
+        private int[] probe(int user) {
+            int[] set = index.sets[user];
+            int required = index.required[user];
+            if (required == Integer.MAX_VALUE) {
+                return new int[0];
+            }
+            if (required == 0) {
+                int[] everyone = new int[index.sets.length];
+                for (int v = 0; v < everyone.length; v++) {
+                    everyone[v] = v;
+                }
+                return everyone;
+            }
+            
+            int prefix = set.length - required + 1;
+            int count = 0;
+            int pruned = 0;
+            for (int i = 0; i < prefix; i++) {
+                int attribute = set[i];
+                int end = index.postingStarts[attribute + 1];
+                for (int p = index.firstWithSize(attribute, required); p < end; p++) {
+                    int candidate = index.postingUsers[p];
+                    int seen = shared[candidate];
+                    if (seen < 0) {
+                        continue;
+                    }
+                    if (seen == 0) {
+                        if (count == candidates.length) {
+                            candidates = Arrays.copyOf(candidates, count * 2);
+                        }
+                        candidates[count++] = candidate;
+                        // Attributes are in the same order in both arrays, so this is the first
+                        // shared one and only the attributes after it on both sides can follow.
+                        int rest = Math.min(set.length - i - 1,
+                                index.sets[candidate].length - index.postingPositions[p] - 1);
+                        if (1 + rest < required) {
+                            shared[candidate] = -1;
+                            pruned++;
+                            continue;
+                        }
+                    }
+                    shared[candidate] = seen + 1;
+                }
+            }
+            
+            int[] matches = new int[count - pruned];
+            int found = 0;
+            for (int c = 0; c < count; c++) {
+                int candidate = candidates[c];
+                int seen = shared[candidate];
+                shared[candidate] = 0;
+                if (seen > 0 && verify(set, prefix, seen, index.sets[candidate], required)) {
+                    matches[found++] = candidate;
+                }
+            }
+            CANDIDATES_PRUNED.add(pruned);
+            CANDIDATES_VERIFIED.add(count - pruned);
+            matches = Arrays.copyOf(matches, found);
+            Arrays.sort(matches);
+            return matches;
+        }
+        
+        /**
+         * Adds the attributes shared after the prefix to those shared within it, stopping as soon
+         * as the total is decided.
+         */
+        private static boolean verify(int[] set, int prefix, int shared, int[] other,
+                int required) {
+            int i = prefix;
+            int j = 0;
+            while (shared < required && i < set.length && j < other.length
+                    && shared + set.length - i >= required) {
+                if (set[i] == other[j]) {
+                    shared++;
+                    i++;
+                    j++;
+                } else if (set[i] < other[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return shared >= required;
+        }
+    }
+    
+    /**
+     * Command line entry point that builds a snapshot from a profiles file in the BulkImporter
+     * format. Prints the usage instead if a required option is missing.
+     * 
+     * <pre>
+     * --profiles=FILE   profiles to join (required)
+     * --threshold=T     PercentMatchUserMatcher threshold in [0,1] (required)
+     * --out=FILE        where to write the snapshot (required)
+     * --threads=N       worker threads (default one per processor)
+     * </pre>
+     * 
+     * @param args
+     * @throws IOException if a file cannot be read or written
+     * @throws InterruptedException if interrupted while importing
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String profiles = null;
+        String out = null;
+        Double threshold = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid option \"%s\". Options must look like --name=value.", arg));
+            }
+            if ("--profiles".equals(option[0])) {
+                profiles = option[1];
+            } else if ("--threshold".equals(option[0])) {
+                threshold = Double.parseDouble(option[1]);
+            } else if ("--out".equals(option[0])) {
+                out = option[1];
+            } else if ("--threads".equals(option[0])) {
+                threads = Integer.parseInt(option[1]);
+            } else {
+                throw new IllegalArgumentException(String.format("Unknown option \"%s\".", arg));
+            }
+        }
+        if (profiles == null || threshold == null || out == null) {
+            System.out.println(USAGE);
+            return;
+        }
+        // Check the threshold before spending the time to import the profiles.
+        PercentMatchUserMatcher matcher = new PercentMatchUserMatcher(threshold);
+        
+        LocalTransientUserProfileStore store = new LocalTransientUserProfileStore();
+        BulkImporter importer = new BulkImporter(store, new PostStore()).withThreads(threads)
+                .withProgress(System.out, 5, TimeUnit.SECONDS);
+        try (InputStream in = new FileInputStream(profiles)) {
+            System.out.println(String.format("Imported profiles: %s", importer
+                    .importProfiles(in)));
+        }
+        Collection<UserProfile> users = store.getUsersForPredicate(new Predicate<UserProfile>() {
+            public boolean test(UserProfile profile) {
+                return true;
+            }
+        });
+        long start = System.nanoTime();
+        MatchGraph graph = new MatchGraphBuilder(matcher).withThreads(threads).build(users, Paths
+                .get(out));
+        System.out.println(String.format("Wrote %d users and %d matches to %s in %d ms", graph
+                .getUserCount(), graph.getMatchCount(), out, TimeUnit.NANOSECONDS.toMillis(System
+                .nanoTime() - start)));
+    }
+}
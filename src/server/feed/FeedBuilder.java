@@ -2,24 +2,90 @@ package server.feed;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
+import server.matching.ScoringUserMatcher;
 import server.matching.UserMatcher;
+import data.proxy.MatchSource;
+import data.proxy.PostFilter;
+import data.proxy.PostSearchIndex;
 import data.proxy.PostStore;
+import data.proxy.UserCohorts;
+import data.proxy.UserCohorts.Cohort;
 import data.proxy.UserProfileStore;
+import data.proxy.utils.SingleFlight;
 import data.structure.Post;
+import data.structure.ScoredPost;
 import data.structure.UserProfile;
 
 /**
  * FeedBuilder is responsible for building the feed that is sent to each user.
  */
 public class FeedBuilder {
+    private static final Timer FEED_TIMER = Metrics.timer("FeedBuilder.getFeedForUser");
+    private static final Timer MATCH_TIMER = Metrics.timer("UserMatcher.matches");
+    private static final Counter CANDIDATES_SCANNED = Metrics
+            .counter("FeedBuilder.candidatesScanned");
+    private static final Counter CANDIDATES_MATCHED = Metrics
+            .counter("FeedBuilder.candidatesMatched");
+    private static final Counter POSTS_EXAMINED = Metrics.counter("FeedBuilder.postsExamined");
+    private static final Counter POSTS_KEPT = Metrics.counter("FeedBuilder.postsKept");
+    
+    private static final Timer RANKED_FEED_TIMER = Metrics
+            .timer("FeedBuilder.getRankedFeedForUser");
+    private static final Counter AUTHORS_SKIPPED = Metrics.counter("FeedBuilder.authorsSkipped");
+    private static final Counter COHORT_HITS = Metrics.counter("FeedBuilder.cohortCacheHits");
+    private static final Counter COHORT_MISSES = Metrics.counter("FeedBuilder.cohortCacheMisses");
+    
+    /**
+     * Most signatures whose matching cohorts are kept; the least recently used is dropped first.
+     */
+    static final int MAX_COHORT_SIGNATURES = 10000;
+    
+    /**
+     * The half-life of a post's score under the default post scorer.
+     */
+    public static final long DEFAULT_HALF_LIFE_MILLIS = TimeUnit.HOURS.toMillis(6);
+    
+    /**
+     * Orders ranked posts worst first, so that the bounded heap evicts the weakest. Ties go to
+     * the newer post.
+     */
+    private static final Comparator<ScoredPost> WORST_FIRST = new Comparator<ScoredPost>() {
+        public int compare(ScoredPost a, ScoredPost b) {
+            int compare = Double.compare(a.getScore(), b.getScore());
+            if (compare != 0) {
+                return compare;
+            }
+            return Long.compare(a.getPost().getTimestamp(), b.getPost().getTimestamp());
+        }
+    };
     
     private final PostStore postStore;
     private final UserProfileStore userStore;
     private final UserMatcher userMatcher;
+    private final PostFilter postFilter;
     private final Predicate<Post> postPredicate;
+    private volatile SlowFeedLog slowFeedLog;
+    private volatile PostScorer postScorer;
+    private volatile PostSearchIndex searchIndex;
+    private volatile MatchSource matchGraph;
+    private final SingleFlight<String, List<UserProfile>> matching;
+    private volatile CohortMatches cohortMatches;
     
     /**
      * Constructor requires a PostStore, UserProfileStore, and UserMatcher.
@@ -32,6 +98,22 @@ public class FeedBuilder {
      */
     public FeedBuilder(PostStore postStore, UserProfileStore userStore, UserMatcher userMatcher,
             Predicate<Post> postPredicate) {
+        this(postStore, userStore, userMatcher, filterFor(postPredicate));
+    }
+    
+    /**
+     * Constructor requires a PostStore, UserProfileStore, and UserMatcher. The filter's time
+     * range, authors and keywords are answered by the post store's indexes, so a selective filter
+     * only examines the posts it could include.
+     * 
+     * @param postStore
+     * @param userStore
+     * @param userMatcher used to determine which users' posts should be considered relevant
+     * @param postFilter used to determine which posts should be included in the final feed
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public FeedBuilder(PostStore postStore, UserProfileStore userStore, UserMatcher userMatcher,
+            PostFilter postFilter) {
         if (postStore == null) {
             throw new IllegalArgumentException("Post Store cannot be null!");
         }
@@ -41,13 +123,98 @@ public class FeedBuilder {
         if (userMatcher == null) {
             throw new IllegalArgumentException("User Matcher cannot be null!");
         }
-        if (postPredicate == null) {
-            throw new IllegalArgumentException("Post Predicate cannot be null!");
+        if (postFilter == null) {
+            throw new IllegalArgumentException("Post Filter cannot be null!");
         }
         this.postStore = postStore;
         this.userStore = userStore;
         this.userMatcher = userMatcher;
-        this.postPredicate = postPredicate;
+        this.postFilter = postFilter;
+        this.matching = new SingleFlight<String, List<UserProfile>>("FeedBuilder.matching");
+        this.postPredicate = postFilter.getPredicate() != null ? postFilter.getPredicate()
+                : PostFilter.all();
+        if (userMatcher instanceof ScoringUserMatcher) {
+            this.postScorer = new MatchRecencyPostScorer((ScoringUserMatcher) userMatcher,
+                    DEFAULT_HALF_LIFE_MILLIS);
+        }
+    }
+    
+    /**
+     * Writes an explain record for every slow feed to the given log. Explain records cost a few
+     * clock reads per candidate, so they are only collected while a log is set.
+     * 
+     * @param slowFeedLog the log to write to, or null to stop logging
+     * @return this
+     */
+    public FeedBuilder withSlowFeedLog(SlowFeedLog slowFeedLog) {
+        this.slowFeedLog = slowFeedLog;
+        return this;
+    }
+    
+    /**
+     * Sets the scorer that ranks posts for getRankedFeedForUser(). When the user matcher can score
+     * matches, the default ranks by match score with a six hour half-life; otherwise there is no
+     * default.
+     * 
+     * @param postScorer
+     * @return this
+     * @throws IllegalArgumentException if postScorer is null
+     */
+    public FeedBuilder withPostScorer(PostScorer postScorer) {
+        if (postScorer == null) {
+            throw new IllegalArgumentException("Post Scorer cannot be null!");
+        }
+        this.postScorer = postScorer;
+        return this;
+    }
+    
+    /**
+     * Sets the index that searchFeedForUser() searches. The index should be registered with the
+     * post store so that it sees every post.
+     * 
+     * @param searchIndex
+     * @return this
+     * @throws IllegalArgumentException if searchIndex is null
+     */
+    public FeedBuilder withSearchIndex(PostSearchIndex searchIndex) {
+        if (searchIndex == null) {
+            throw new IllegalArgumentException("Search Index cannot be null!");
+        }
+        this.searchIndex = searchIndex;
+        return this;
+    }
+    
+    /**
+     * Getter for the search index.
+     * 
+     * @return search index, or null if none has been set
+     */
+    public PostSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+    
+    /**
+     * Serves relevant users from a match graph instead of matching online. The graph must hold
+     * the matches of this builder's user matcher, for example a MatchGraph snapshot built by
+     * MatchGraphBuilder or a LiveMatchGraph. Users the graph does not know are still matched
+     * against the user store, and matched users who have since been deleted are left out. A
+     * snapshot does not see profile changes made after it was built until it is rebuilt.
+     * 
+     * @param matchGraph the graph to serve from, or null to always match online
+     * @return this
+     */
+    public FeedBuilder withMatchGraph(MatchSource matchGraph) {
+        this.matchGraph = matchGraph;
+        return this;
+    }
+    
+    /**
+     * Getter for the match graph.
+     * 
+     * @return match graph, or null if none has been set
+     */
+    public MatchSource getMatchGraph() {
+        return matchGraph;
     }
     
     /**
@@ -56,21 +223,441 @@ public class FeedBuilder {
      * @param user
      * @return list of posts relevant to user
      */
-    public List<Post> getFeedForUser(final UserProfile user) {
+    public List<Post> getFeedForUser(UserProfile user) {
         List<Post> posts = new ArrayList<Post>();
+        streamFeedForUser(user, collector(posts));
+        return posts;
+    }
+    
+    /**
+     * Returns the post feed for the specified user, recording how it was built.
+     * 
+     * @param user
+     * @param explain filled in with counts and stage times, or null to skip explaining
+     * @return list of posts relevant to user
+     */
+    public List<Post> getFeedForUser(UserProfile user, FeedExplain explain) {
+        List<Post> posts = new ArrayList<Post>();
+        streamFeedForUser(user, explain, collector(posts));
+        return posts;
+    }
+    
+    /**
+     * Hands each post in the feed for the specified user to the consumer as soon as it has been
+     * retrieved, so that callers can write the feed out without buffering all of it.
+     * 
+     * @param user
+     * @param consumer receives the posts in feed order
+     */
+    public void streamFeedForUser(UserProfile user, Consumer<? super Post> consumer) {
+        SlowFeedLog log = this.slowFeedLog;
+        if (log == null) {
+            streamFeedForUser(user, null, consumer);
+            return;
+        }
+        FeedExplain explain = new FeedExplain(user.getId());
+        streamFeedForUser(user, explain, consumer);
+        log.log(explain);
+    }
+    
+    /**
+     * Hands each post in the feed for the specified user to the consumer, recording how the feed
+     * was built. Time spent in the consumer is counted as part of post retrieval.
+     * 
+     * @param user
+     * @param explain filled in with counts and stage times, or null to skip explaining
+     * @param consumer receives the posts in feed order
+     */
+    public void streamFeedForUser(final UserProfile user, final FeedExplain explain,
+            Consumer<? super Post> consumer) {
+        long start = Metrics.startTimer();
+        long explainStart = explain == null ? 0 : System.nanoTime();
+        
+        Collection<UserProfile> relevantUsers = findRelevantUsers(user, explain);
+        long scanEnd = explain == null ? 0 : System.nanoTime();
+        
+        Predicate<Post> predicate = this.postPredicate;
+        if (explain != null) {
+            predicate = explainingPredicate(explain);
+        } else if (Metrics.isEnabled()) {
+            predicate = countingPredicate();
+        }
+        PostFilter filter = postFilter.withPredicate(predicate);
+        for (UserProfile relevantUser : relevantUsers) {
+            for (Post post : readPosts(relevantUser.getId(), filter)) {
+                consumer.accept(post);
+            }
+        }
         
-        Predicate<UserProfile> userPredicate = new Predicate<UserProfile>() {
+        FEED_TIMER.record(start);
+        if (explain != null) {
+            explain.finish(relevantUsers.size(), explainStart, scanEnd, System.nanoTime());
+        }
+    }
+    
+    /**
+     * Returns the top posts of the feed for the specified user, ranked by the post scorer. See
+     * withPostScorer().
+     * 
+     * @param user
+     * @param limit most posts to return
+     * @return at most limit posts, best first
+     * @throws IllegalStateException if no post scorer is set
+     */
+    public List<ScoredPost> getRankedFeedForUser(UserProfile user, int limit) {
+        PostScorer scorer = this.postScorer;
+        if (scorer == null) {
+            throw new IllegalStateException("No Post Scorer has been set!");
+        }
+        return getRankedFeedForUser(user, limit, scorer, System.currentTimeMillis());
+    }
+    
+    /**
+     * Returns the top posts of the feed for the specified user, ranked by the given scorer.
+     * 
+     * Posts are offered to a heap bounded at limit entries as the store hands them over, so only
+     * limit posts are held at a time no matter how many qualify, and nothing is sorted but the
+     * final limit. Authors are visited in order of their best possible post score, and once the
+     * heap is full every remaining author who cannot beat its weakest post is skipped unread.
+     * 
+     * @param user
+     * @param limit most posts to return
+     * @param scorer
+     * @param now the time to score post ages against, in milliseconds since the epoch
+     * @return at most limit posts, best first
+     * @throws IllegalArgumentException if limit is negative or scorer is null
+     */
+    public List<ScoredPost> getRankedFeedForUser(UserProfile user, final int limit,
+            final PostScorer scorer, final long now) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("The limit cannot be negative!");
+        }
+        if (scorer == null) {
+            throw new IllegalArgumentException("Post Scorer cannot be null!");
+        }
+        long start = Metrics.startTimer();
+        Collection<UserProfile> relevantUsers = findRelevantUsers(user, null);
+        
+        List<Author> authors = new ArrayList<Author>(relevantUsers.size());
+        for (UserProfile relevantUser : relevantUsers) {
+            if (!postFilter.acceptsAuthor(relevantUser.getId())) {
+                continue;
+            }
+            double score = scorer.scoreAuthor(user, relevantUser);
+            authors.add(new Author(relevantUser.getId(), score, scorer.getMaximumScore(score)));
+        }
+        Collections.sort(authors);
+        
+        final PriorityQueue<ScoredPost> top = new PriorityQueue<ScoredPost>(limit + 1,
+                WORST_FIRST);
+        final Predicate<Post> filter = Metrics.isEnabled() ? countingPredicate()
+                : this.postPredicate;
+        for (int i = 0; i < authors.size() && limit > 0; i++) {
+            final Author author = authors.get(i);
+            if (top.size() == limit && author.bound <= top.peek().getScore()) {
+                AUTHORS_SKIPPED.add(authors.size() - i);
+                break;
+            }
+            // The predicate consumes each post and rejects it, so the store never builds a list.
+            readPosts(author.id, postFilter.withPredicate(new Predicate<Post>() {
+                public boolean test(Post post) {
+                    if (!filter.test(post)) {
+                        return false;
+                    }
+                    double score = scorer.scorePost(author.score, post, now);
+                    if (top.size() < limit) {
+                        top.add(new ScoredPost(post, score));
+                    } else if (score > top.peek().getScore()) {
+                        top.poll();
+                        top.add(new ScoredPost(post, score));
+                    }
+                    return false;
+                }
+            }));
+        }
+        
+        List<ScoredPost> ranked = new ArrayList<ScoredPost>(top.size());
+        while (!top.isEmpty()) {
+            ranked.add(top.poll());
+        }
+        Collections.reverse(ranked);
+        RANKED_FEED_TIMER.record(start);
+        return ranked;
+    }
+    
+    /**
+     * Searches the feed for the specified user: the most recent posts that contain every word of
+     * the query and are by users the matcher considers relevant. The post filter is not applied.
+     * 
+     * @param user
+     * @param query
+     * @param limit most posts to return
+     * @return at most limit posts, most recent first
+     * @throws IllegalArgumentException if query is null or limit is negative
+     * @throws IllegalStateException if no search index is set
+     */
+    public List<Post> searchFeedForUser(UserProfile user, String query, int limit) {
+        PostSearchIndex index = this.searchIndex;
+        if (index == null) {
+            throw new IllegalStateException("No Search Index has been set!");
+        }
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null!");
+        }
+        Set<String> authors = new HashSet<String>();
+        for (UserProfile relevantUser : findRelevantUsers(user, null)) {
+            authors.add(relevantUser.getId());
+        }
+        return index.search(query, authors, limit);
+    }
+    
+    /**
+     * Reads an author's posts. Filters with conditions besides their predicate are passed to the
+     * store whole so that its indexes can narrow the posts; otherwise only the predicate is.
+     */
+    private List<Post> readPosts(String author, PostFilter filter) {
+        if (!filter.hasConditions()) {
+            return postStore.getPostsByUser(author, filter.getPredicate());
+        }
+        return postStore.getPostsByUser(author, filter);
+    }
+    
+    private static PostFilter filterFor(Predicate<Post> postPredicate) {
+        if (postPredicate == null) {
+            throw new IllegalArgumentException("Post Predicate cannot be null!");
+        }
+        return PostFilter.all().withPredicate(postPredicate);
+    }
+    
+    /**
+     * Finds the users relevant to the specified user. Concurrent requests that are bound to match
+     * the same users share one computation: with an attribute based matcher, requests for any
+     * users with the same attribute signature; otherwise, requests for the same user with the
+     * same attributes, as from several devices. The shared list is unmodifiable. An explained
+     * request that runs the computation records the matching in its explain record; one that
+     * joins another's is marked as shared instead.
+     */
+    private Collection<UserProfile> findRelevantUsers(final UserProfile user,
+            final FeedExplain explain) {
+        MatchSource graph = this.matchGraph;
+        List<String> matches = graph == null ? null : graph.getMatches(user.getId());
+        if (matches != null) {
+            List<UserProfile> relevantUsers = new ArrayList<UserProfile>(matches.size());
+            for (String id : matches) {
+                UserProfile relevantUser = this.userStore.getProfile(id);
+                if (relevantUser != null) {
+                    relevantUsers.add(relevantUser);
+                }
+            }
+            return relevantUsers;
+        }
+        String signature = user.getAttributeSignature();
+        // Signatures start with a digit, so the '@' keeps per-user keys apart from them.
+        String key = userMatcher.isAttributeBased() ? signature : "@" + user.getId().length()
+                + ":" + user.getId() + signature;
+        final boolean[] ran = new boolean[1];
+        List<UserProfile> relevantUsers = matching.execute(key,
+                new Supplier<List<UserProfile>>() {
+                    public List<UserProfile> get() {
+                        ran[0] = true;
+                        return Collections.unmodifiableList(new ArrayList<UserProfile>(
+                                matchRelevantUsers(user, explain)));
+                    }
+                });
+        if (explain != null && !ran[0]) {
+            explain.recordMatchingShared();
+        }
+        return relevantUsers;
+    }
+    
+    /**
+     * Matches the users relevant to the specified user. When the store keeps cohorts that average
+     * at least two users and the matcher is attribute based, whole cohorts are matched at once.
+     * Otherwise attribute values the matcher requires, or else how many attribute values a match
+     * must share, are passed to the store so that an indexed store only tests users who have them.
+     */
+    private Collection<UserProfile> matchRelevantUsers(UserProfile user, FeedExplain explain) {
+        UserCohorts cohorts = userMatcher.isAttributeBased() ? this.userStore.getCohorts() : null;
+        if (cohorts != null && cohorts.getCohortCount() * 2 <= cohorts.getUserCount()) {
+            return matchCohorts(user, cohorts, explain);
+        }
+        Predicate<UserProfile> userPredicate = matchingPredicate(user, explain);
+        Map<String, String> required = userMatcher.getRequiredAttributes(user);
+        if (!required.isEmpty()) {
+            return this.userStore.getUsersForPredicate(userPredicate, required);
+        }
+        int shared = userMatcher.getMinimumSharedAttributes(user);
+        if (shared == Integer.MAX_VALUE) {
+            return new ArrayList<UserProfile>();
+        }
+        if (shared > 0) {
+            return this.userStore.getUsersForPredicate(userPredicate, user, shared);
+        }
+        return this.userStore.getUsersForPredicate(userPredicate);
+    }
+    
+    /**
+     * Matches the users relevant to the specified user a cohort at a time, testing each cohort's
+     * representative once on behalf of all its members, so the matching work grows with the
+     * number of cohorts rather than users. The representative's id is the cohort's signature,
+     * which an attribute based matcher never looks at. The cohorts that match are kept for the
+     * most recently used signatures until a cohort is created or dropped; their members are read
+     * afresh every time, so users moving between existing cohorts need no rematching.
+     */
+    private Collection<UserProfile> matchCohorts(UserProfile user, UserCohorts cohorts,
+            FeedExplain explain) {
+        String signature = user.getAttributeSignature();
+        // The version is read first, so that a cohort created during the scan invalidates it.
+        long version = cohorts.getVersion();
+        CohortMatches cache = this.cohortMatches;
+        boolean current = cache != null && cache.cohorts == cohorts && cache.version == version;
+        List<Cohort> matched = current ? cache.get(signature) : null;
+        if (matched != null) {
+            COHORT_HITS.increment();
+            if (explain != null) {
+                explain.recordCohortCacheHit();
+            }
+        } else {
+            COHORT_MISSES.increment();
+            matched = new ArrayList<Cohort>();
+            if (userMatcher.getMinimumSharedAttributes(user) != Integer.MAX_VALUE) {
+                Predicate<UserProfile> cohortPredicate = matchingPredicate(user, explain);
+                for (Cohort cohort : cohorts.getCohorts()) {
+                    if (cohortPredicate.test(cohort.getRepresentative())) {
+                        matched.add(cohort);
+                    }
+                }
+            }
+            if (!current) {
+                cache = new CohortMatches(cohorts, version);
+                this.cohortMatches = cache;
+            }
+            cache.put(signature, matched);
+        }
+        List<UserProfile> relevantUsers = new ArrayList<UserProfile>();
+        for (Cohort cohort : matched) {
+            relevantUsers.addAll(cohort.getMembers());
+        }
+        return relevantUsers;
+    }
+    
+    private Predicate<UserProfile> matchingPredicate(final UserProfile user,
+            final FeedExplain explain) {
+        return new Predicate<UserProfile>() {
             public boolean test(UserProfile candidate) {
-                return userMatcher.matches(user, candidate);
+                long matchStart = Metrics.startTimer();
+                long explainMatchStart = explain == null ? 0 : System.nanoTime();
+                boolean matches = userMatcher.matches(user, candidate);
+                MATCH_TIMER.record(matchStart);
+                CANDIDATES_SCANNED.increment();
+                if (matches) {
+                    CANDIDATES_MATCHED.increment();
+                }
+                if (explain != null) {
+                    explain.recordMatch(System.nanoTime() - explainMatchStart, matches);
+                }
+                return matches;
+            }
+        };
+    }
+    
+    private static Consumer<Post> collector(final List<Post> posts) {
+        return new Consumer<Post>() {
+            public void accept(Post post) {
+                posts.add(post);
+            }
+        };
+    }
+    
+    /**
+     * Wraps the post predicate so that examined and kept posts are counted. Only used while
+     * metrics are enabled, so the disabled path pays nothing per post.
+     * 
+     * @return counting predicate
+     */
+    private Predicate<Post> countingPredicate() {
+        return new Predicate<Post>() {
+            public boolean test(Post post) {
+                boolean kept = postPredicate.test(post);
+                POSTS_EXAMINED.increment();
+                if (kept) {
+                    POSTS_KEPT.increment();
+                }
+                return kept;
+            }
+        };
+    }
+    
+    /**
+     * Wraps the post predicate so that it is timed and counted into the explain record, as well
+     * as the metrics counters.
+     * 
+     * @param explain
+     * @return explaining predicate
+     */
+    private Predicate<Post> explainingPredicate(final FeedExplain explain) {
+        final Predicate<Post> counting = countingPredicate();
+        return new Predicate<Post>() {
+            public boolean test(Post post) {
+                long filterStart = System.nanoTime();
+                boolean kept = counting.test(post);
+                explain.recordFilter(System.nanoTime() - filterStart, kept);
+                return kept;
             }
         };
+    }
+    
+    /**
+     * An author of candidate posts, ordered by their best possible post score, highest first.
+     */
+    private static class Author implements Comparable<Author> {
+        final String id;
+        final double score;
+        final double bound;
         
-        Collection<UserProfile> relevantUsers = this.userStore.getUsersForPredicate(userPredicate);
+        Author(String id, double score, double bound) {
+            this.id = id;
+            this.score = score;
+            this.bound = bound;
+        }
         
-        for (UserProfile relevantUser : relevantUsers) {
-            posts.addAll(postStore.getPostsByUser(relevantUser.getId(), this.postPredicate));
+        public int compareTo(Author other) {
+            return Double.compare(other.bound, bound);
+        }
+    }
+    
+    /**
+     * The cohorts that match each signature, as of one version of the cohorts. At most
+     * MAX_COHORT_SIGNATURES signatures are kept, in access order under the map's lock.
+     */
+    private static class CohortMatches {
+        private final UserCohorts cohorts;
+        private final long version;
+        private final Map<String, List<Cohort>> matches = new LinkedHashMap<String, List<Cohort>>(
+                16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Cohort>> eldest) {
+                return size() > MAX_COHORT_SIGNATURES;
+            }
+        };
+        
+        private CohortMatches(UserCohorts cohorts, long version) {
+            this.cohorts = cohorts;
+            this.version = version;
         }
         
-        return posts;
+        private List<Cohort> get(String signature) {
+            synchronized (matches) {
+                return matches.get(signature);
+            }
+        }
+        
+        private void put(String signature, List<Cohort> matched) {
+            synchronized (matches) {
+                matches.put(signature, matched);
+            }
+        }
     }
 }
@@ -0,0 +1,231 @@
+package server.feed;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FeedExplain records where the work and the time went while building a single feed. An instance
+ * is handed to FeedBuilder.getFeedForUser(user, explain), which fills it in as the feed is built.
+ * Per-candidate and per-post figures are accumulated in adders, since a store may evaluate the
+ * predicates concurrently. A request that joins an identical matching computation already running
+ * for another request is marked as shared; it has no matcher figures of its own, and its scan
+ * time is the time it waited.
+ */
+public class FeedExplain {
+    private final String user;
+    private final LongAdder usersScanned = new LongAdder();
+    private final LongAdder usersMatched = new LongAdder();
+    private final LongAdder postsExamined = new LongAdder();
+    private final LongAdder postsKept = new LongAdder();
+    private final LongAdder matchNanos = new LongAdder();
+    private final LongAdder filterNanos = new LongAdder();
+    private long authorsFetched;
+    private long scanNanos;
+    private long fetchNanos;
+    private long totalNanos;
+    private volatile boolean matchingShared;
+    private volatile boolean cohortCacheHit;
+    
+    /**
+     * Constructor requires the id of the user whose feed is being explained.
+     * 
+     * @param user
+     * @throws IllegalArgumentException if user is null
+     */
+    public FeedExplain(String user) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null.");
+        }
+        this.user = user;
+    }
+    
+    /**
+     * Getter for user.
+     * 
+     * @return id of the user whose feed was built
+     */
+    public String getUser() {
+        return user;
+    }
+    
+    /**
+     * Getter for the number of candidate users offered to the matcher.
+     * 
+     * @return users scanned
+     */
+    public long getUsersScanned() {
+        return usersScanned.sum();
+    }
+    
+    /**
+     * Getter for the number of candidate users the matcher accepted.
+     * 
+     * @return users matched
+     */
+    public long getUsersMatched() {
+        return usersMatched.sum();
+    }
+    
+    /**
+     * Getter for the number of users whose posts were fetched.
+     * 
+     * @return authors fetched
+     */
+    public long getAuthorsFetched() {
+        return authorsFetched;
+    }
+    
+    /**
+     * Getter for the number of posts offered to the post predicate.
+     * 
+     * @return posts examined
+     */
+    public long getPostsExamined() {
+        return postsExamined.sum();
+    }
+    
+    /**
+     * Getter for the number of posts the post predicate accepted.
+     * 
+     * @return posts kept
+     */
+    public long getPostsKept() {
+        return postsKept.sum();
+    }
+    
+    /**
+     * Getter for the time spent scanning candidate users, excluding matcher evaluation.
+     * 
+     * @return scan time in nanoseconds
+     */
+    public long getScanNanos() {
+        return scanNanos;
+    }
+    
+    /**
+     * Getter for the time spent evaluating the matcher.
+     * 
+     * @return matcher time in nanoseconds
+     */
+    public long getMatchNanos() {
+        return matchNanos.sum();
+    }
+    
+    /**
+     * Getter for the time spent retrieving posts, excluding the post predicate.
+     * 
+     * @return retrieval time in nanoseconds
+     */
+    public long getFetchNanos() {
+        return fetchNanos;
+    }
+    
+    /**
+     * Getter for the time spent evaluating the post predicate.
+     * 
+     * @return filter time in nanoseconds
+     */
+    public long getFilterNanos() {
+        return filterNanos.sum();
+    }
+    
+    /**
+     * Getter for the wall time of the whole request.
+     * 
+     * @return total time in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+    
+    /**
+     * Determines whether the relevant users came from a matching computation run for another
+     * request.
+     * 
+     * @return true if the matching was shared
+     */
+    public boolean isMatchingShared() {
+        return matchingShared;
+    }
+    
+    /**
+     * Records that the relevant users came from another request's matching computation.
+     */
+    void recordMatchingShared() {
+        matchingShared = true;
+    }
+    
+    /**
+     * Determines whether the matching cohorts were found in the cohort cache, so no matcher was
+     * evaluated.
+     * 
+     * @return true if the cohort cache was hit
+     */
+    public boolean isCohortCacheHit() {
+        return cohortCacheHit;
+    }
+    
+    /**
+     * Records that the matching cohorts came from the cohort cache.
+     */
+    void recordCohortCacheHit() {
+        cohortCacheHit = true;
+    }
+    
+    /**
+     * Records one matcher evaluation.
+     * 
+     * @param nanos time spent in the matcher
+     * @param matched whether the candidate was accepted
+     */
+    void recordMatch(long nanos, boolean matched) {
+        matchNanos.add(nanos);
+        usersScanned.increment();
+        if (matched) {
+            usersMatched.increment();
+        }
+    }
+    
+    /**
+     * Records one post predicate evaluation.
+     * 
+     * @param nanos time spent in the predicate
+     * @param kept whether the post was accepted
+     */
+    void recordFilter(long nanos, boolean kept) {
+        filterNanos.add(nanos);
+        postsExamined.increment();
+        if (kept) {
+            postsKept.increment();
+        }
+    }
+    
+    /**
+     * Records the stage boundaries once the feed is complete.
+     * 
+     * @param authors number of users whose posts were fetched
+     * @param start time the request started
+     * @param scanEnd time candidate scanning finished
+     * @param end time the request finished
+     */
+    void finish(long authors, long start, long scanEnd, long end) {
+        authorsFetched = authors;
+        scanNanos = scanEnd - start - matchNanos.sum();
+        fetchNanos = end - scanEnd - filterNanos.sum();
+        totalNanos = end - start;
+    }
+    
+    /**
+     * Override of Object.toString()
+     * 
+     * @return the record as space-separated key=value pairs, with times in microseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("user=%s usersScanned=%d usersMatched=%d authorsFetched=%d "
+                + "postsExamined=%d postsKept=%d totalUs=%d scanUs=%d matchUs=%d fetchUs=%d "
+                + "filterUs=%d matchingShared=%b cohortCacheHit=%b", user, getUsersScanned(),
+                getUsersMatched(), authorsFetched, getPostsExamined(), getPostsKept(),
+                totalNanos / 1000, scanNanos / 1000, getMatchNanos() / 1000, fetchNanos / 1000,
+                getFilterNanos() / 1000, matchingShared, cohortCacheHit);
+    }
+}
@@ -0,0 +1,57 @@
+package server.feed;
+
+import server.matching.ScoringUserMatcher;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * MatchRecencyPostScorer ranks posts by how well their author matches the reader, decayed by the
+ * post's age. A post loses half its score every half-life, so a close match's older post can
+ * still outrank a weak match's newer one.
+ */
+public class MatchRecencyPostScorer implements PostScorer {
+    
+    private final ScoringUserMatcher matcher;
+    private final double decayPerMilli;
+    
+    /**
+     * Constructor requires the matcher that scores authors and the half-life of a post's score.
+     * 
+     * @param matcher
+     * @param halfLifeMillis
+     * @throws IllegalArgumentException if matcher is null or halfLifeMillis is not positive
+     */
+    public MatchRecencyPostScorer(ScoringUserMatcher matcher, long halfLifeMillis) {
+        if (matcher == null) {
+            throw new IllegalArgumentException("User Matcher cannot be null!");
+        }
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("The half-life must be positive!");
+        }
+        this.matcher = matcher;
+        this.decayPerMilli = Math.log(2) / halfLifeMillis;
+    }
+    
+    /**
+     * {@inheritDoc} This is the matcher's score for the author.
+     */
+    public double scoreAuthor(UserProfile reader, UserProfile author) {
+        return matcher.getScore(reader, author);
+    }
+    
+    /**
+     * {@inheritDoc} Posts from the future are scored as if they had just been written.
+     */
+    public double scorePost(double authorScore, Post post, long now) {
+        long age = Math.max(0, now - post.getTimestamp());
+        return authorScore * Math.exp(-decayPerMilli * age);
+    }
+    
+    /**
+     * {@inheritDoc} No post scores more than its author, since decay never raises a score.
+     */
+    @Override
+    public double getMaximumScore(double authorScore) {
+        return authorScore;
+    }
+}
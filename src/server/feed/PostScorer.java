@@ -0,0 +1,43 @@
+package server.feed;
+
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * PostScorer ranks the posts in a feed. Scoring is split in two so that the work that only
+ * depends on the author, such as how well the author matches the reader, is done once per author
+ * rather than once per post.
+ */
+public interface PostScorer {
+    
+    /**
+     * Scores how relevant an author is to the reader. Called once per matching author per feed.
+     * 
+     * @param reader
+     * @param author
+     * @return author score
+     */
+    public double scoreAuthor(UserProfile reader, UserProfile author);
+    
+    /**
+     * Scores one post. Higher scores rank first.
+     * 
+     * @param authorScore the score scoreAuthor() gave the post's author
+     * @param post
+     * @param now the time the feed is being built for, in milliseconds since the epoch
+     * @return post score
+     */
+    public double scorePost(double authorScore, Post post, long now);
+    
+    /**
+     * Gets an upper bound on scorePost() for any post by an author with the given score. Ranked
+     * feeds skip every author whose bound cannot beat the posts already chosen, so a tight bound
+     * saves reading their posts at all. By default there is no bound.
+     * 
+     * @param authorScore
+     * @return highest possible post score
+     */
+    public default double getMaximumScore(double authorScore) {
+        return Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,155 @@
+package server.feed;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SlowFeedLog writes the explain record of every feed that exceeds a latency threshold to a
+ * java.util.logging Logger. To keep logging off the critical path under load, only one in every
+ * sampleRate slow feeds is considered, and at most maxPerSecond records are written per second;
+ * everything else is counted as suppressed.
+ */
+public class SlowFeedLog {
+    public static final String LOGGER_NAME = "chatter.slowfeed";
+    
+    private final Logger logger;
+    private final long thresholdNanos;
+    private volatile int sampleRate = 1;
+    private volatile int maxPerSecond = Integer.MAX_VALUE;
+    
+    private final AtomicLong slowFeeds = new AtomicLong();
+    private final AtomicLong logged = new AtomicLong();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicLong windowCount = new AtomicLong();
+    
+    /**
+     * Constructor requires the latency threshold, and logs to the "chatter.slowfeed" logger.
+     * 
+     * @param threshold
+     * @param unit
+     * @throws IllegalArgumentException if threshold is negative or unit is null
+     */
+    public SlowFeedLog(long threshold, TimeUnit unit) {
+        this(Logger.getLogger(LOGGER_NAME), threshold, unit);
+    }
+    
+    /**
+     * Constructor requires the logger to write to and the latency threshold.
+     * 
+     * @param logger
+     * @param threshold
+     * @param unit
+     * @throws IllegalArgumentException if logger or unit is null, or threshold is negative
+     */
+    public SlowFeedLog(Logger logger, long threshold, TimeUnit unit) {
+        if (logger == null) {
+            throw new IllegalArgumentException("Logger cannot be null!");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The slow feed threshold cannot be negative!");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("Time unit cannot be null!");
+        }
+        this.logger = logger;
+        this.thresholdNanos = unit.toNanos(threshold);
+    }
+    
+    /**
+     * Only considers one in every sampleRate slow feeds for logging.
+     * 
+     * @param sampleRate
+     * @return this
+     * @throws IllegalArgumentException if sampleRate is not positive
+     */
+    public SlowFeedLog withSampleRate(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("The sample rate must be positive!");
+        }
+        this.sampleRate = sampleRate;
+        return this;
+    }
+    
+    /**
+     * Caps the number of records written in any one second.
+     * 
+     * @param maxPerSecond
+     * @return this
+     * @throws IllegalArgumentException if maxPerSecond is not positive
+     */
+    public SlowFeedLog withMaxPerSecond(int maxPerSecond) {
+        if (maxPerSecond <= 0) {
+            throw new IllegalArgumentException("The maximum records per second must be positive!");
+        }
+        this.maxPerSecond = maxPerSecond;
+        return this;
+    }
+    
+    /**
+     * Getter for the threshold.
+     * 
+     * @return threshold in nanoseconds
+     */
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+    
+    /**
+     * Logs the explain record if the feed was slow and survives sampling.
+     * 
+     * @param explain
+     * @return true if the record was written
+     */
+    public boolean log(FeedExplain explain) {
+        if (explain.getTotalNanos() < thresholdNanos) {
+            return false;
+        }
+        long slow = slowFeeds.incrementAndGet();
+        if (slow % sampleRate != 0 || !tryAcquire(System.nanoTime())) {
+            return false;
+        }
+        logger.log(Level.WARNING, "slow feed {0}", explain);
+        logged.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Getter for the number of feeds over the threshold, logged or not.
+     * 
+     * @return slow feeds seen
+     */
+    public long getSlowFeeds() {
+        return slowFeeds.get();
+    }
+    
+    /**
+     * Getter for the number of records written.
+     * 
+     * @return records logged
+     */
+    public long getLogged() {
+        return logged.get();
+    }
+    
+    /**
+     * Getter for the number of slow feeds dropped by sampling or the rate cap.
+     * 
+     * @return records suppressed
+     */
+    public long getSuppressed() {
+        return slowFeeds.get() - logged.get();
+    }
+    
+    /**
+     * Takes a slot in the current one-second window, starting a new window if it has expired.
+     */
+    private boolean tryAcquire(long now) {
+        long start = windowStart.get();
+        if (now - start >= TimeUnit.SECONDS.toNanos(1) && windowStart.compareAndSet(start, now)) {
+            windowCount.set(0);
+        }
+        return windowCount.incrementAndGet() <= maxPerSecond;
+    }
+}
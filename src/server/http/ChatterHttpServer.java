@@ -0,0 +1,747 @@
+package server.http;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import metrics.Counter;
+import metrics.Metrics;
+import server.admission.AdmissionController;
+import server.admission.ConcurrencyLimiter.Permit;
+import server.admission.OverloadedException;
+import server.feed.FeedBuilder;
+import server.matching.PercentMatchUserMatcher;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostSearchIndex;
+import data.proxy.PostStore;
+import data.proxy.UserProfileStore;
+import data.structure.Post;
+import data.structure.ScoredPost;
+import data.structure.UserProfile;
+
+/**
+ * ChatterHttpServer exposes profiles, posts and feeds as JSON over HTTP using the JDK's built-in
+ * server, so no servlet container is needed. Requests run on a bounded thread pool; when its queue
+ * is full, further requests are handed to a separate shedding thread that answers each with 503
+ * and a Retry-After header without running it, so the accepting thread never stalls behind a slow
+ * request. Connections are kept alive between requests. With an AdmissionController,
+ * feeds, searches and writes past its limits are answered with 503 and a Retry-After header at
+ * once, except that a plain feed is served from the user's last feed, marked "stale", if there
+ * is one.
+ * 
+ * <pre>
+ * GET  /profiles/{id}    the profile, or 404
+ * PUT  /profiles/{id}    {"attributes":{...}} replaces the profile
+ * POST /batch/profiles   {"ids":[...]} returns {"profiles":[...],"missing":[...]}
+ * POST /posts            {"user":...,"content":...} creates a post
+ * POST /batch/posts      {"posts":[{"user":...,"content":...},...]} creates every post
+ * GET  /feed/{id}        {"user":...,"posts":[...]}, streamed as the feed is built
+ * GET  /feed/{id}?top=N  the N best posts, each with a "score", best first
+ * GET  /search/{id}?q=words[&amp;top=N]
+ *                        {"user":...,"posts":[...]}, the N (default 20) newest posts in the
+ *                        feed that contain every word
+ * </pre>
+ */
+public class ChatterHttpServer {
+    /**
+     * Largest number of items accepted by a batch endpoint.
+     */
+    public static final int MAX_BATCH_SIZE = 1000;
+    
+    /**
+     * Name of the java.util.logging Logger that unexpected failures are logged to.
+     */
+    public static final String LOGGER_NAME = "chatter.http";
+    
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final double DEFAULT_PERCENT_MATCH = 0.5;
+    private static final Counter SHED = Metrics.counter("ChatterHttpServer.shed");
+    private static final Logger LOGGER = Logger.getLogger(LOGGER_NAME);
+    private static final int DEFAULT_SEARCH_RESULTS = 20;
+    
+    private final UserProfileStore userStore;
+    private final PostStore postStore;
+    private final FeedBuilder feedBuilder;
+    private final int threads;
+    private final int queueCapacity;
+    
+    private volatile AdmissionController admissionController;
+    
+    private HttpServer server;
+    private ThreadPoolExecutor executor;
+    private ThreadPoolExecutor shedder;
+    
+    /**
+     * Signals an error response with a particular status code.
+     */
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+        
+        private HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+    
+    /**
+     * A thread that answers the requests the pool has no room for with 503 instead of running
+     * them.
+     */
+    private static class SheddingThread extends Thread {
+        private SheddingThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+    
+    /**
+     * Base handler that turns exceptions into JSON error responses and always ends the exchange.
+     */
+    private abstract static class JsonHandler implements HttpHandler {
+        
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (Thread.currentThread() instanceof SheddingThread) {
+                    SHED.increment();
+                    throw new OverloadedException("Too many requests are queued.");
+                }
+                route(exchange);
+            } catch (HttpError e) {
+                sendError(exchange, e.status, e.getMessage());
+            } catch (OverloadedException e) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "The server is overloaded. " + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (ClassCastException e) {
+                sendError(exchange, 400, "The request body has the wrong shape.");
+            } catch (UncheckedIOException e) {
+                // The client went away mid-response; there is nobody left to tell.
+            } catch (RuntimeException e) {
+                // The details stay in the log, since they may say more than a client should see.
+                LOGGER.log(Level.SEVERE, String.format("Failed to handle %s %s",
+                        exchange.getRequestMethod(), exchange.getRequestURI().getPath()), e);
+                sendError(exchange, 500, "The server failed to handle the request.");
+            } finally {
+                exchange.close();
+            }
+        }
+        
+        protected abstract void route(HttpExchange exchange) throws IOException;
+    }
+    
+    /**
+     * Constructor requires the stores and feed builder to serve, and the size of the request
+     * thread pool and its queue.
+     * 
+     * @param userStore
+     * @param postStore
+     * @param feedBuilder
+     * @param threads
+     * @param queueCapacity
+     * @throws IllegalArgumentException if any object is null or any size is not positive
+     */
+    public ChatterHttpServer(UserProfileStore userStore, PostStore postStore,
+            FeedBuilder feedBuilder, int threads, int queueCapacity) {
+        if (userStore == null) {
+            throw new IllegalArgumentException("User Store cannot be null!");
+        }
+        if (postStore == null) {
+            throw new IllegalArgumentException("Post Store cannot be null!");
+        }
+        if (feedBuilder == null) {
+            throw new IllegalArgumentException("Feed Builder cannot be null!");
+        }
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("The thread pool sizes must be positive!");
+        }
+        this.userStore = userStore;
+        this.postStore = postStore;
+        this.feedBuilder = feedBuilder;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+    }
+    
+    /**
+     * Admits feeds, searches and writes through the given controller, so that they are refused
+     * or served stale when too many are running instead of queueing behind each other.
+     * 
+     * @param admissionController the controller to admit through, or null to admit everything
+     * @return this server
+     */
+    public ChatterHttpServer withAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+        return this;
+    }
+    
+    /**
+     * Binds to the given address and starts serving.
+     * 
+     * @param address use port 0 to pick any free port
+     * @return the address actually bound
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalStateException if the server is already running
+     */
+    public synchronized InetSocketAddress start(InetSocketAddress address) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("The server has already been started!");
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "chatter-http-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable request, ThreadPoolExecutor pool) {
+                        if (!shedder.isShutdown()) {
+                            shedder.execute(request);
+                        }
+                    }
+                });
+        // Shed requests only have their headers read and a 503 written, so one thread and an
+        // unbounded queue keep up with far more of them than the pool can run.
+        shedder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new SheddingThread(runnable, "chatter-http-shed-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        
+        server = HttpServer.create(address, queueCapacity);
+        server.setExecutor(executor);
+        server.createContext("/profiles/", new JsonHandler() {
+            protected void route(HttpExchange exchange) throws IOException {
+                String id = pathId(exchange, "/profiles/");
+                if ("GET".equals(exchange.getRequestMethod())) {
+                    getProfile(exchange, id);
+                } else if ("PUT".equals(exchange.getRequestMethod())) {
+                    putProfile(exchange, id);
+                } else {
+                    throw methodNotAllowed();
+                }
+            }
+        });
+        server.createContext("/batch/profiles", new JsonHandler() {
+            protected void route(HttpExchange exchange) throws IOException {
+                requireExactPath(exchange, "/batch/profiles");
+                requireMethod(exchange, "POST");
+                batchGetProfiles(exchange);
+            }
+        });
+        server.createContext("/posts", new JsonHandler() {
+            protected void route(HttpExchange exchange) throws IOException {
+                requireExactPath(exchange, "/posts");
+                requireMethod(exchange, "POST");
+                createPost(exchange);
+            }
+        });
+        server.createContext("/batch/posts", new JsonHandler() {
+            protected void route(HttpExchange exchange) throws IOException {
+                requireExactPath(exchange, "/batch/posts");
+                requireMethod(exchange, "POST");
+                batchCreatePosts(exchange);
+            }
+        });
+        server.createContext("/feed/", new JsonHandler() {
+            protected void route(HttpExchange exchange) throws IOException {
+                requireMethod(exchange, "GET");
+                String top = queryParameter(exchange, "top");
+                if (top == null) {
+                    streamFeed(exchange, pathId(exchange, "/feed/"));
+                } else {
+                    rankedFeed(exchange, pathId(exchange, "/feed/"), top);
+                }
+            }
+        });
+        server.createContext("/search/", new JsonHandler() {
+            protected void route(HttpExchange exchange) throws IOException {
+                requireMethod(exchange, "GET");
+                searchFeed(exchange, pathId(exchange, "/search/"));
+            }
+        });
+        server.start();
+        return server.getAddress();
+    }
+    
+    /**
+     * Stops serving, giving in-flight requests up to a second to finish.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(1);
+        executor.shutdownNow();
+        shedder.shutdownNow();
+        server = null;
+    }
+    
+    private void getProfile(HttpExchange exchange, String id) throws IOException {
+        UserProfile profile = userStore.getProfile(id);
+        if (profile == null) {
+            throw new HttpError(404, String.format("The user \"%s\" does not exist.", id));
+        }
+        send(exchange, 200, toJson(new StringBuilder(), profile));
+    }
+    
+    private void putProfile(HttpExchange exchange, String id) throws IOException {
+        Map<String, Object> body = Json.parseObject(readBody(exchange));
+        Map<String, String> attributes = new HashMap<String, String>();
+        Object value = body.get("attributes");
+        if (value != null) {
+            for (Map.Entry<String, Object> entry : asObject(value, "attributes").entrySet()) {
+                attributes.put(entry.getKey(), asString(entry.getValue(), entry.getKey()));
+            }
+        }
+        UserProfile profile = new UserProfile(id, attributes);
+        Permit permit = acquireWrite();
+        try {
+            userStore.write(profile);
+        } finally {
+            release(permit);
+        }
+        send(exchange, 200, toJson(new StringBuilder(), profile));
+    }
+    
+    private void batchGetProfiles(HttpExchange exchange) throws IOException {
+        List<Object> ids = asBatch(Json.parseObject(readBody(exchange)).get("ids"), "ids");
+        StringBuilder profiles = new StringBuilder("{\"profiles\":[");
+        StringBuilder missing = new StringBuilder("\"missing\":[");
+        boolean firstProfile = true;
+        boolean firstMissing = true;
+        for (Object value : ids) {
+            String id = asString(value, "ids");
+            UserProfile profile = userStore.getProfile(id);
+            if (profile != null) {
+                if (!firstProfile) {
+                    profiles.append(',');
+                }
+                firstProfile = false;
+                toJson(profiles, profile);
+            } else {
+                if (!firstMissing) {
+                    missing.append(',');
+                }
+                firstMissing = false;
+                Json.quote(missing, id);
+            }
+        }
+        send(exchange, 200, profiles.append("],").append(missing).append("]}"));
+    }
+    
+    private void createPost(HttpExchange exchange) throws IOException {
+        Post post = toPost(Json.parseObject(readBody(exchange)));
+        Permit permit = acquireWrite();
+        try {
+            postStore.write(post);
+        } finally {
+            release(permit);
+        }
+        send(exchange, 201, toJson(new StringBuilder(), post));
+    }
+    
+    private void batchCreatePosts(HttpExchange exchange) throws IOException {
+        List<Object> values = asBatch(Json.parseObject(readBody(exchange)).get("posts"),
+                "posts");
+        // Validate the whole batch before writing any of it.
+        List<Post> posts = new ArrayList<Post>(values.size());
+        for (Object value : values) {
+            posts.add(toPost(asObject(value, "posts")));
+        }
+        Permit permit = acquireWrite();
+        try {
+            postStore.writeAll(posts);
+        } finally {
+            release(permit);
+        }
+        send(exchange, 201, new StringBuilder("{\"written\":").append(posts.size()).append('}'));
+    }
+    
+    /**
+     * Writes the feed with chunked encoding, flushing whenever the buffer fills, so the response
+     * never has to be held in memory as a whole. Under admission control a feed served stale
+     * ends with "stale":true.
+     */
+    private void streamFeed(HttpExchange exchange, String id) throws IOException {
+        UserProfile user = userStore.getProfile(id);
+        if (user == null) {
+            throw new HttpError(404, String.format("The user \"%s\" does not exist.", id));
+        }
+        FeedWriter writer = new FeedWriter(exchange, id);
+        AdmissionController admission = this.admissionController;
+        if (admission == null) {
+            feedBuilder.streamFeedForUser(user, writer);
+            writer.finish(false);
+        } else {
+            writer.finish(!admission.streamFeedForUser(user, writer));
+        }
+    }
+    
+    private void rankedFeed(HttpExchange exchange, String id, String top) throws IOException {
+        int limit = parseLimit(top);
+        UserProfile user = userStore.getProfile(id);
+        if (user == null) {
+            throw new HttpError(404, String.format("The user \"%s\" does not exist.", id));
+        }
+        StringBuilder json = Json.quote(new StringBuilder("{\"user\":"), id).append(
+                ",\"posts\":[");
+        List<ScoredPost> feed;
+        Permit permit = acquireRead();
+        try {
+            feed = feedBuilder.getRankedFeedForUser(user, limit);
+        } finally {
+            release(permit);
+        }
+        boolean first = true;
+        for (ScoredPost ranked : feed) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            toJson(json, ranked);
+        }
+        send(exchange, 200, json.append("]}"));
+    }
+    
+    private void searchFeed(HttpExchange exchange, String id) throws IOException {
+        if (feedBuilder.getSearchIndex() == null) {
+            throw new HttpError(501, "Search is not enabled.");
+        }
+        String query = queryParameter(exchange, "q");
+        if (query == null) {
+            throw new IllegalArgumentException("\"q\" is required.");
+        }
+        int limit = DEFAULT_SEARCH_RESULTS;
+        String top = queryParameter(exchange, "top");
+        if (top != null) {
+            limit = parseLimit(top);
+        }
+        UserProfile user = userStore.getProfile(id);
+        if (user == null) {
+            throw new HttpError(404, String.format("The user \"%s\" does not exist.", id));
+        }
+        StringBuilder json = Json.quote(new StringBuilder("{\"user\":"), id).append(
+                ",\"posts\":[");
+        List<Post> results;
+        Permit permit = acquireRead();
+        try {
+            results = feedBuilder.searchFeedForUser(user, URLDecoder.decode(query, "UTF-8"),
+                    limit);
+        } finally {
+            release(permit);
+        }
+        boolean first = true;
+        for (Post post : results) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            toJson(json, post);
+        }
+        send(exchange, 200, json.append("]}"));
+    }
+    
+    private Permit acquireRead() {
+        AdmissionController admission = this.admissionController;
+        return admission == null ? null : admission.acquireRead();
+    }
+    
+    private Permit acquireWrite() {
+        AdmissionController admission = this.admissionController;
+        return admission == null ? null : admission.acquireWrite();
+    }
+    
+    private static void release(Permit permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
+    
+    private static int parseLimit(String top) {
+        int limit;
+        try {
+            limit = Integer.parseInt(top);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("\"top\" must be a number.");
+        }
+        if (limit < 0 || limit > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "\"top\" must be between 0 and %d.", MAX_BATCH_SIZE));
+        }
+        return limit;
+    }
+    
+    private static Post toPost(Map<String, Object> body) {
+        String user = asString(body.get("user"), "user");
+        String content = asString(body.get("content"), "content");
+        return new Post(user, content);
+    }
+    
+    private static StringBuilder toJson(StringBuilder out, UserProfile profile) {
+        Json.quote(out.append("{\"id\":"), profile.getId()).append(",\"attributes\":");
+        return Json.object(out, profile.getAttributes()).append('}');
+    }
+    
+    private static StringBuilder toJson(StringBuilder out, Post post) {
+        Json.quote(out.append("{\"user\":"), post.getUser()).append(",\"content\":");
+        Json.quote(out, post.getContent()).append(",\"timestamp\":");
+        return out.append(post.getTimestamp()).append('}');
+    }
+    
+    private static StringBuilder toJson(StringBuilder out, ScoredPost ranked) {
+        Post post = ranked.getPost();
+        Json.quote(out.append("{\"user\":"), post.getUser()).append(",\"content\":");
+        Json.quote(out, post.getContent()).append(",\"timestamp\":");
+        out.append(post.getTimestamp()).append(",\"score\":");
+        return out.append(ranked.getScore()).append('}');
+    }
+    
+    private static String asString(Object value, String field) {
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(String.format("\"%s\" must be a string.", field));
+        }
+        return (String) value;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object value, String field) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException(String.format("\"%s\" must be an object.", field));
+        }
+        return (Map<String, Object>) value;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<Object> asBatch(Object value, String field) {
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException(String.format("\"%s\" must be an array.", field));
+        }
+        List<Object> batch = (List<Object>) value;
+        if (batch.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "\"%s\" cannot hold more than %d items.", field, MAX_BATCH_SIZE));
+        }
+        return batch;
+    }
+    
+    private static String pathId(HttpExchange exchange, String prefix) {
+        String id = exchange.getRequestURI().getPath().substring(prefix.length());
+        if (id.isEmpty() || id.contains("/")) {
+            throw new HttpError(404, "No such resource.");
+        }
+        return id;
+    }
+    
+    /**
+     * Gets a query parameter's value, or null if it is absent. Values are not URL-decoded.
+     */
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.substring(0, equals).equals(name)) {
+                return parameter.substring(equals + 1);
+            }
+        }
+        return null;
+    }
+    
+    private static void requireExactPath(HttpExchange exchange, String path) {
+        if (!path.equals(exchange.getRequestURI().getPath())) {
+            throw new HttpError(404, "No such resource.");
+        }
+    }
+    
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!method.equals(exchange.getRequestMethod())) {
+            throw methodNotAllowed();
+        }
+    }
+    
+    private static HttpError methodNotAllowed() {
+        return new HttpError(405, "Method not allowed.");
+    }
+    
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+            if (body.size() > MAX_BODY_BYTES) {
+                throw new HttpError(413, "The request body is too large.");
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+    
+    private static void send(HttpExchange exchange, int status, CharSequence json)
+            throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+    }
+    
+    private static void sendError(HttpExchange exchange, int status, String message)
+            throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            // Headers have already gone out, so the only signal left is a truncated body.
+            return;
+        }
+        send(exchange, status, Json.quote(new StringBuilder("{\"error\":"), String
+                .valueOf(message)).append('}'));
+    }
+    
+    /**
+     * Streams a feed as JSON, only sending the headers once the first post arrives or the feed
+     * turns out to be empty, so that a request refused before then can still get an error.
+     */
+    private static class FeedWriter implements Consumer<Post> {
+        private final HttpExchange exchange;
+        private final String id;
+        private final StringBuilder json = new StringBuilder();
+        private Writer out;
+        
+        private FeedWriter(HttpExchange exchange, String id) {
+            this.exchange = exchange;
+            this.id = id;
+        }
+        
+        public void accept(Post post) {
+            try {
+                json.setLength(0);
+                if (out == null) {
+                    start();
+                } else {
+                    json.append(',');
+                }
+                out.write(toJson(json, post).toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        private void finish(boolean stale) throws IOException {
+            if (out == null) {
+                start();
+            }
+            out.write(stale ? "],\"stale\":true}" : "]}");
+            out.flush();
+        }
+        
+        private void start() throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                    StandardCharsets.UTF_8), STREAM_BUFFER_SIZE);
+            out.write(Json.quote(new StringBuilder("{\"user\":"), id).append(",\"posts\":[")
+                    .toString());
+        }
+    }
+    
+    /**
+     * Main driver method. Options are given as --name=value:
+     * 
+     * <pre>
+     * --port=N      port to listen on (default 8080)
+     * --threads=N   request threads (default twice the number of processors)
+     * --queue=N     requests queued before more are answered with 503 (default 1024)
+     * </pre>
+     * 
+     * @param args
+     * @throws IOException if the port cannot be bound
+     * @throws InterruptedException if interrupted while serving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = 8080;
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        int queue = 1024;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid option \"%s\". Options must look like --name=value.", arg));
+            }
+            if ("--port".equals(option[0])) {
+                port = Integer.parseInt(option[1]);
+            } else if ("--threads".equals(option[0])) {
+                threads = Integer.parseInt(option[1]);
+            } else if ("--queue".equals(option[0])) {
+                queue = Integer.parseInt(option[1]);
+            } else {
+                throw new IllegalArgumentException(String.format("Unknown option \"%s\".", arg));
+            }
+        }
+        
+        UserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        PostSearchIndex searchIndex = new PostSearchIndex();
+        postStore.addListener(searchIndex);
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(DEFAULT_PERCENT_MATCH), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                }).withSearchIndex(searchIndex);
+        final ChatterHttpServer server = new ChatterHttpServer(userStore, postStore,
+                feedBuilder, threads, queue).withAdmissionController(new AdmissionController(
+                feedBuilder));
+        InetSocketAddress bound = server.start(new InetSocketAddress(port));
+        System.out.println(String.format("Chatter HTTP server listening on %s with %d threads.",
+                bound, threads));
+        
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        // All request threads are daemons, so keep the JVM alive until it is shut down.
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,284 @@
+package server.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Json is a minimal JSON reader and writer, just large enough for the HTTP API's request and
+ * response bodies. Objects are read as LinkedHashMaps, arrays as Lists, numbers as Doubles, and
+ * true/false/null as Boolean and null.
+ */
+public class Json {
+    private final String text;
+    private int position;
+    
+    private Json(String text) {
+        this.text = text;
+    }
+    
+    /**
+     * Parses a complete JSON document.
+     * 
+     * @param text
+     * @return the parsed value
+     * @throws IllegalArgumentException if the text is not valid JSON
+     */
+    public static Object parse(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("JSON text cannot be null!");
+        }
+        Json parser = new Json(text);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.position != text.length()) {
+            throw parser.error("Unexpected trailing content");
+        }
+        return value;
+    }
+    
+    /**
+     * Parses a JSON document whose top level must be an object.
+     * 
+     * @param text
+     * @return the parsed object
+     * @throws IllegalArgumentException if the text is not a valid JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String text) {
+        Object value = parse(text);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object!");
+        }
+        return (Map<String, Object>) value;
+    }
+    
+    /**
+     * Appends a string to the builder as a quoted JSON string.
+     * 
+     * @param out
+     * @param value
+     * @return out
+     */
+    public static StringBuilder quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+        return out.append('"');
+    }
+    
+    /**
+     * Appends a map of strings to the builder as a JSON object.
+     * 
+     * @param out
+     * @param values
+     * @return out
+     */
+    public static StringBuilder object(StringBuilder out, Map<String, String> values) {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            quote(out, entry.getKey()).append(':');
+            quote(out, entry.getValue());
+        }
+        return out.append('}');
+    }
+    
+    private Object readValue() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = text.charAt(position);
+        switch (c) {
+        case '{':
+            return readObject();
+        case '[':
+            return readArray();
+        case '"':
+            return readString();
+        case 't':
+            return readLiteral("true", Boolean.TRUE);
+        case 'f':
+            return readLiteral("false", Boolean.FALSE);
+        case 'n':
+            return readLiteral("null", null);
+        default:
+            return readNumber();
+        }
+    }
+    
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a string key");
+            }
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            object.put(key, readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+    
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<Object>();
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            array.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+    
+    private String readString() {
+        StringBuilder value = new StringBuilder();
+        position++;
+        while (true) {
+            if (position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length()) {
+                throw error("Unterminated escape");
+            }
+            char escape = text.charAt(position++);
+            switch (escape) {
+            case 'b':
+                value.append('\b');
+                break;
+            case 'f':
+                value.append('\f');
+                break;
+            case 'n':
+                value.append('\n');
+                break;
+            case 'r':
+                value.append('\r');
+                break;
+            case 't':
+                value.append('\t');
+                break;
+            case 'u':
+                if (position + 4 > text.length()) {
+                    throw error("Truncated unicode escape");
+                }
+                try {
+                    value.append((char) Integer.parseInt(text.substring(position, position + 4),
+                            16));
+                } catch (NumberFormatException e) {
+                    throw error("Invalid unicode escape");
+                }
+                position += 4;
+                break;
+            default:
+                value.append(escape);
+            }
+        }
+    }
+    
+    private Object readLiteral(String literal, Object value) {
+        if (!text.startsWith(literal, position)) {
+            throw error("Invalid literal");
+        }
+        position += literal.length();
+        return value;
+    }
+    
+    private Double readNumber() {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Invalid value");
+        }
+    }
+    
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+    
+    private char peek() {
+        if (position >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        return text.charAt(position);
+    }
+    
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error(String.format("Expected '%c'", c));
+        }
+        position++;
+    }
+    
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(String.format("%s at position %d.", message,
+                position));
+    }
+}
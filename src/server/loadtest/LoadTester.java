@@ -0,0 +1,339 @@
+package server.loadtest;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import metrics.MetricsReporter;
+import server.feed.FeedBuilder;
+import server.matching.PercentMatchUserMatcher;
+import server.standalone.SimpleServerCLI.COMMAND;
+import data.proxy.DDBUserProfileStore;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+import data.proxy.ShardedUserProfileStore;
+import data.proxy.UserProfileStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * LoadTester drives a closed-loop mix of the SimpleServerCLI commands against the store and feed
+ * classes from many threads. Each thread acts as one session: it logs in as a Zipfian-chosen user,
+ * then issues the next command as soon as the previous one completes. Throughput and latency
+ * percentiles are reported per command.
+ */
+public class LoadTester {
+    private static final double DEFAULT_PERCENT_MATCH = 0.5;
+    private static final int SEED_POSTS_PER_USER = 2;
+    
+    private final UserProfileStore userStore;
+    private final PostStore postStore;
+    private final FeedBuilder feedBuilder;
+    private final WorkloadGenerator workload;
+    private final Map<COMMAND, LatencyHistogram> latencies;
+    private final Map<COMMAND, AtomicLong> errors;
+    
+    /**
+     * Constructor requires the stores to load and the workload to drive them with.
+     * 
+     * @param userStore
+     * @param postStore
+     * @param workload
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public LoadTester(UserProfileStore userStore, PostStore postStore, WorkloadGenerator workload) {
+        if (userStore == null) {
+            throw new IllegalArgumentException("User Store cannot be null!");
+        }
+        if (postStore == null) {
+            throw new IllegalArgumentException("Post Store cannot be null!");
+        }
+        if (workload == null) {
+            throw new IllegalArgumentException("Workload cannot be null!");
+        }
+        this.userStore = userStore;
+        this.postStore = postStore;
+        this.workload = workload;
+        this.feedBuilder = new FeedBuilder(postStore, userStore, new PercentMatchUserMatcher(
+                DEFAULT_PERCENT_MATCH), new Predicate<Post>() {
+            public boolean test(Post post) {
+                return true;
+            }
+        });
+        this.latencies = new EnumMap<COMMAND, LatencyHistogram>(COMMAND.class);
+        this.errors = new EnumMap<COMMAND, AtomicLong>(COMMAND.class);
+        for (COMMAND command : COMMAND.values()) {
+            latencies.put(command, new LatencyHistogram());
+            errors.put(command, new AtomicLong());
+        }
+    }
+    
+    /**
+     * Writes every synthetic user along with a few posts each, so that feeds are non-empty from
+     * the start.
+     */
+    public void seed() {
+        for (int rank = 0; rank < workload.getUserCount(); rank++) {
+            UserProfile user = workload.createUser(rank);
+            userStore.write(user);
+            for (int p = 0; p < SEED_POSTS_PER_USER; p++) {
+                postStore.write(workload.nextPost(user.getId()));
+            }
+        }
+    }
+    
+    /**
+     * Runs the workload on the given number of threads until the duration has elapsed.
+     * 
+     * @param threads
+     * @param durationMillis
+     * @return elapsed time in milliseconds
+     * @throws InterruptedException if interrupted while waiting for the sessions to finish
+     */
+    public long run(int threads, long durationMillis) throws InterruptedException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads must be positive!");
+        }
+        final long deadline = System.nanoTime() + durationMillis * 1000000L;
+        final CountDownLatch done = new CountDownLatch(threads);
+        
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread session = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        runSession(deadline);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-session-" + t);
+            session.setDaemon(true);
+            session.start();
+        }
+        done.await();
+        return (System.nanoTime() - start) / 1000000L;
+    }
+    
+    /**
+     * Formats the throughput and latency of each command.
+     * 
+     * @param elapsedMillis
+     * @return report table
+     */
+    public String getReport(long elapsedMillis) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-6s %10s %10s %10s %10s %10s %8s%n", "OP", "COUNT", "OPS/S",
+                "P50(us)", "P99(us)", "P999(us)", "ERRORS"));
+        double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+        for (COMMAND command : COMMAND.values()) {
+            LatencyHistogram histogram = latencies.get(command);
+            if (histogram.getCount() == 0 && errors.get(command).get() == 0) {
+                continue;
+            }
+            report.append(String.format("%-6s %10d %10.1f %10.1f %10.1f %10.1f %8d%n", command,
+                    histogram.getCount(), histogram.getCount() / seconds,
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0, errors.get(command).get()));
+        }
+        return report.toString();
+    }
+    
+    /**
+     * Getter for the latency histogram of a command.
+     * 
+     * @param command
+     * @return histogram
+     */
+    public LatencyHistogram getLatencies(COMMAND command) {
+        return latencies.get(command);
+    }
+    
+    /**
+     * Issues commands back to back until the deadline.
+     * 
+     * @param deadline in System.nanoTime() terms
+     */
+    private void runSession(long deadline) {
+        UserProfile currentUser = null;
+        while (System.nanoTime() < deadline) {
+            COMMAND command = currentUser == null ? COMMAND.LOGIN : workload.nextCommand();
+            long start = System.nanoTime();
+            try {
+                currentUser = execute(command, currentUser);
+            } catch (RuntimeException e) {
+                errors.get(command).incrementAndGet();
+            }
+            latencies.get(command).record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Executes a single command the way SimpleServerCLI would.
+     * 
+     * @param command
+     * @param currentUser
+     * @return the session's user after the command
+     */
+    private UserProfile execute(COMMAND command, UserProfile currentUser) {
+        switch (command) {
+        case LOGIN:
+            String userId = workload.nextActiveUserId();
+            UserProfile user = userStore.getProfile(userId);
+            if (user == null) {
+                userStore.write(new UserProfile(userId));
+                user = userStore.getProfile(userId);
+            }
+            return user;
+        case SET:
+            // Update a copy, since other sessions may be reading the stored profile.
+            String[] attribute = workload.nextAttribute();
+            UserProfile updated = new UserProfile(currentUser.getId(), currentUser.getAttributes());
+            updated.setAttribute(attribute[0], attribute[1]);
+            userStore.write(updated);
+            return updated;
+        case POST:
+            postStore.write(workload.nextPost(currentUser.getId()));
+            return currentUser;
+        case FEED:
+            feedBuilder.getFeedForUser(currentUser);
+            return currentUser;
+        default:
+            return currentUser;
+        }
+    }
+    
+    /**
+     * Main driver method. Options are given as --name=value:
+     * 
+     * <pre>
+     * --store=local|ddb       store to load (default local)
+     * --endpoint=URL          DynamoDB endpoint for --store=ddb (default http://localhost:8000)
+     * --table=NAME            DynamoDB table, created if missing (default UserProfiles)
+     * --shards=N              split --store=local across N consistent-hash shards (default 1)
+     * --users=N               synthetic users (default 10000)
+     * --attributes=N          distinct attribute names (default 20)
+     * --values=N              distinct values per attribute name (default 100)
+     * --attributesPerUser=N   attributes per user (default 5)
+     * --skew=S                Zipfian exponent (default 1.0)
+     * --threads=N             concurrent sessions (default 8)
+     * --seconds=N             run duration (default 30)
+     * --mix=login:W,set:W,... command weights (default login:5,set:5,post:30,feed:60)
+     * --metrics=N             enable internal metrics, dumped every N seconds (default off)
+     * </pre>
+     * 
+     * @param args
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        
+        int users = Integer.parseInt(option(options, "users", "10000"));
+        WorkloadGenerator workload = new WorkloadGenerator(users, Integer.parseInt(option(options,
+                "attributes", "20")), Integer.parseInt(option(options, "values", "100")),
+                Integer.parseInt(option(options, "attributesPerUser", "5")),
+                Double.parseDouble(option(options, "skew", "1.0")), parseMix(option(options, "mix",
+                        "login:5,set:5,post:30,feed:60")));
+        
+        UserProfileStore userStore;
+        if ("ddb".equals(option(options, "store", "local"))) {
+            userStore = createDynamoDBStore(option(options, "endpoint", "http://localhost:8000"),
+                    option(options, "table", "UserProfiles"));
+        } else {
+            int shards = Integer.parseInt(option(options, "shards", "1"));
+            userStore = shards > 1 ? ShardedUserProfileStore.createLocal(shards)
+                    : new LocalTransientUserProfileStore();
+        }
+        LoadTester tester = new LoadTester(userStore, new PostStore(), workload);
+        
+        MetricsReporter reporter = null;
+        int metricsPeriod = Integer.parseInt(option(options, "metrics", "0"));
+        if (metricsPeriod > 0) {
+            Metrics.setEnabled(true);
+            Metrics.registerMBean();
+            reporter = new MetricsReporter(System.out);
+            reporter.start(metricsPeriod, TimeUnit.SECONDS);
+        }
+        
+        System.out.println(String.format("Seeding %d users...", users));
+        tester.seed();
+        
+        int threads = Integer.parseInt(option(options, "threads", "8"));
+        int seconds = Integer.parseInt(option(options, "seconds", "30"));
+        System.out.println(String.format("Running %d sessions for %d seconds...", threads,
+                seconds));
+        long elapsed = tester.run(threads, seconds * 1000L);
+        
+        System.out.print(tester.getReport(elapsed));
+        if (reporter != null) {
+            reporter.stop();
+            reporter.report();
+        }
+    }
+    
+    /**
+     * Connects to a DynamoDB Local instance, creating the user table if it does not exist.
+     * 
+     * @param endpoint
+     * @param tableName
+     * @return store backed by the table
+     * @throws InterruptedException if interrupted while waiting for the table
+     */
+    private static UserProfileStore createDynamoDBStore(String endpoint, String tableName)
+            throws InterruptedException {
+        AmazonDynamoDBClient client = new AmazonDynamoDBClient(new BasicAWSCredentials("local",
+                "local"));
+        client.setEndpoint(endpoint);
+        DynamoDB dynamoDB = new DynamoDB(client);
+        DDBUserProfileStore.createTableIfMissing(dynamoDB, tableName, 1000L, 1000L);
+        return new DDBUserProfileStore(dynamoDB, tableName);
+    }
+    
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid option \"%s\". Options must look like --name=value.", arg));
+            }
+            int split = arg.indexOf('=');
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return options;
+    }
+    
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        return options.containsKey(name) ? options.get(name) : defaultValue;
+    }
+    
+    /**
+     * Parses a command mix such as "login:5,post:30,feed:65".
+     * 
+     * @param mix
+     * @return weight for each listed command
+     */
+    static Map<COMMAND, Integer> parseMix(String mix) {
+        Map<COMMAND, Integer> weights = new EnumMap<COMMAND, Integer>(COMMAND.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(String.format("Invalid mix entry \"%s\".",
+                        entry));
+            }
+            weights.put(COMMAND.valueOf(parts[0].trim().toUpperCase()),
+                    Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+}
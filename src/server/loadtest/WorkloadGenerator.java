@@ -0,0 +1,163 @@
+package server.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
+
+import server.standalone.SimpleServerCLI.COMMAND;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * WorkloadGenerator produces synthetic users, attribute updates, posts and a mix of CLI commands.
+ * Attribute values and user activity both follow Zipfian distributions, so a few values are shared
+ * by many users and a few users write most of the posts.
+ */
+public class WorkloadGenerator {
+    private static final int WORDS_PER_POST = 12;
+    private static final int VOCABULARY_SIZE = 5000;
+    
+    private final int userCount;
+    private final int attributeCount;
+    private final int attributesPerUser;
+    private final ZipfianGenerator userActivity;
+    private final ZipfianGenerator attributeValues;
+    private final ZipfianGenerator words;
+    private final COMMAND[] commands;
+    private final int[] cumulativeWeights;
+    
+    /**
+     * Constructor requires the shape of the user population and the command mix.
+     * 
+     * @param userCount number of distinct users
+     * @param attributeCount number of distinct attribute names
+     * @param valuesPerAttribute number of distinct values for each attribute name
+     * @param attributesPerUser number of attributes set on each generated user
+     * @param skew Zipfian exponent used for user activity, attribute values and words
+     * @param mix relative weight of each command
+     * @throws IllegalArgumentException if any count is out of range or the mix is empty
+     */
+    public WorkloadGenerator(int userCount, int attributeCount, int valuesPerAttribute,
+            int attributesPerUser, double skew, Map<COMMAND, Integer> mix) {
+        if (attributesPerUser > attributeCount) {
+            throw new IllegalArgumentException(
+                    "Users cannot have more attributes than there are attribute names!");
+        }
+        if (mix == null || mix.isEmpty()) {
+            throw new IllegalArgumentException("The command mix cannot be empty!");
+        }
+        this.userCount = userCount;
+        this.attributeCount = attributeCount;
+        this.attributesPerUser = attributesPerUser;
+        this.userActivity = new ZipfianGenerator(userCount, skew);
+        this.attributeValues = new ZipfianGenerator(valuesPerAttribute, skew);
+        this.words = new ZipfianGenerator(VOCABULARY_SIZE, skew);
+        
+        Map<COMMAND, Integer> sortedMix = new EnumMap<COMMAND, Integer>(mix);
+        this.commands = new COMMAND[sortedMix.size()];
+        this.cumulativeWeights = new int[sortedMix.size()];
+        int i = 0;
+        int total = 0;
+        for (Entry<COMMAND, Integer> entry : sortedMix.entrySet()) {
+            if (entry.getValue() < 0) {
+                throw new IllegalArgumentException("Command weights cannot be negative!");
+            }
+            total += entry.getValue();
+            commands[i] = entry.getKey();
+            cumulativeWeights[i] = total;
+            i++;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("At least one command must have a positive weight!");
+        }
+    }
+    
+    /**
+     * Creates the profile for the user of the given rank, with distinct attribute names and
+     * Zipfian-distributed values.
+     * 
+     * @param rank in [0, userCount)
+     * @return user profile
+     */
+    public UserProfile createUser(int rank) {
+        UserProfile user = new UserProfile(getUserId(rank));
+        int first = ThreadLocalRandom.current().nextInt(attributeCount);
+        for (int a = 0; a < attributesPerUser; a++) {
+            int attribute = (first + a) % attributeCount;
+            user.setAttribute("attribute" + attribute, "value" + attributeValues.next());
+        }
+        return user;
+    }
+    
+    /**
+     * Gets the id of the user with the given rank.
+     * 
+     * @param rank
+     * @return user id
+     */
+    public String getUserId(int rank) {
+        return "user" + rank;
+    }
+    
+    /**
+     * Picks the next active user, favoring low ranks.
+     * 
+     * @return user id
+     */
+    public String nextActiveUserId() {
+        return getUserId(userActivity.next());
+    }
+    
+    /**
+     * Picks a random attribute name and a Zipfian-distributed value for it.
+     * 
+     * @return two-element array of attribute name and value
+     */
+    public String[] nextAttribute() {
+        return new String[] { "attribute" + ThreadLocalRandom.current().nextInt(attributeCount),
+                "value" + attributeValues.next() };
+    }
+    
+    /**
+     * Creates a post for the given user from Zipfian-distributed words.
+     * 
+     * @param userId
+     * @return post
+     */
+    public Post nextPost(String userId) {
+        StringBuilder content = new StringBuilder();
+        for (int w = 0; w < WORDS_PER_POST; w++) {
+            if (w > 0) {
+                content.append(' ');
+            }
+            content.append("word").append(words.next());
+        }
+        return new Post(userId, content.toString());
+    }
+    
+    /**
+     * Picks the next command according to the configured mix.
+     * 
+     * @return command
+     */
+    public COMMAND nextCommand() {
+        int total = cumulativeWeights[cumulativeWeights.length - 1];
+        int draw = ThreadLocalRandom.current().nextInt(total);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                return commands[i];
+            }
+        }
+        return commands[commands.length - 1];
+    }
+    
+    /**
+     * Getter for userCount.
+     * 
+     * @return number of distinct users
+     */
+    public int getUserCount() {
+        return userCount;
+    }
+}
@@ -0,0 +1,59 @@
+package server.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ZipfianGenerator draws ranks in [0, n) where rank k is chosen with probability proportional to
+ * 1 / (k + 1)^exponent. The cumulative distribution is computed once, so a single instance can be
+ * shared by any number of threads.
+ */
+public class ZipfianGenerator {
+    private final double[] cumulative;
+    
+    /**
+     * Constructor requires the number of ranks and the skew exponent.
+     * 
+     * @param n number of distinct ranks
+     * @param exponent skew, where 0 is uniform and larger values are more skewed
+     * @throws IllegalArgumentException if n is not positive or exponent is negative
+     */
+    public ZipfianGenerator(int n, double exponent) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("The number of ranks must be positive!");
+        }
+        if (exponent < 0) {
+            throw new IllegalArgumentException("The Zipfian exponent cannot be negative!");
+        }
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+    
+    /**
+     * Draws the next rank.
+     * 
+     * @return rank in [0, n)
+     */
+    public int next() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        int index = Arrays.binarySearch(cumulative, u);
+        int rank = index >= 0 ? index : -index - 1;
+        return Math.min(rank, cumulative.length - 1);
+    }
+    
+    /**
+     * Getter for the number of ranks.
+     * 
+     * @return n
+     */
+    public int getRankCount() {
+        return cumulative.length;
+    }
+}
@@ -0,0 +1,90 @@
+package server.matching;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import data.structure.UserProfile;
+
+/**
+ * {@inheritDoc} AllOfUserMatcher matches when every one of its matchers does. The matchers run
+ * cheapest per expected rejection first and evaluation stops at the first one that fails.
+ */
+public class AllOfUserMatcher extends CompositeUserMatcher {
+    
+    /**
+     * Constructor requires the matchers to combine.
+     * 
+     * @param matchers
+     * @throws IllegalArgumentException if there are no matchers or any matcher is null
+     */
+    public AllOfUserMatcher(UserMatcher... matchers) {
+        super(matchers, byCostPerOutcome(false));
+    }
+    
+    /**
+     * {@inheritDoc} This implementation requires every matcher to match.
+     */
+    public boolean matches(UserProfile primary, UserProfile secondary) {
+        for (UserMatcher matcher : matchers) {
+            if (!matcher.matches(primary, secondary)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * {@inheritDoc} Every matcher's bound must be met, so the largest applies.
+     */
+    @Override
+    public int getMinimumSharedAttributes(UserProfile primary) {
+        int shared = 0;
+        for (UserMatcher matcher : matchers) {
+            shared = Math.max(shared, matcher.getMinimumSharedAttributes(primary));
+        }
+        return shared;
+    }
+    
+    /**
+     * {@inheritDoc} Every matcher's requirements apply.
+     */
+    @Override
+    public Map<String, String> getRequiredAttributes(UserProfile primary) {
+        Map<String, String> required = new HashMap<String, String>();
+        for (UserMatcher matcher : matchers) {
+            for (Map.Entry<String, String> attribute : matcher.getRequiredAttributes(primary)
+                    .entrySet()) {
+                if (!required.containsKey(attribute.getKey())) {
+                    required.put(attribute.getKey(), attribute.getValue());
+                }
+            }
+        }
+        return required;
+    }
+    
+    /**
+     * {@inheritDoc} Each matcher only runs for candidates every earlier one accepted.
+     */
+    @Override
+    public double getCost() {
+        double cost = 0;
+        double reached = 1;
+        for (UserMatcher matcher : matchers) {
+            cost += reached * matcher.getCost();
+            reached *= matcher.getSelectivity();
+        }
+        return cost;
+    }
+    
+    /**
+     * {@inheritDoc} Matchers are assumed to be independent.
+     */
+    @Override
+    public double getSelectivity() {
+        double selectivity = 1;
+        for (UserMatcher matcher : matchers) {
+            selectivity *= matcher.getSelectivity();
+        }
+        return selectivity;
+    }
+}
@@ -0,0 +1,86 @@
+package server.matching;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import data.structure.UserProfile;
+
+/**
+ * {@inheritDoc} AnyOfUserMatcher matches when at least one of its matchers does. The matchers run
+ * cheapest per expected match first and evaluation stops at the first one that matches.
+ */
+public class AnyOfUserMatcher extends CompositeUserMatcher {
+    
+    /**
+     * Constructor requires the matchers to combine.
+     * 
+     * @param matchers
+     * @throws IllegalArgumentException if there are no matchers or any matcher is null
+     */
+    public AnyOfUserMatcher(UserMatcher... matchers) {
+        super(matchers, byCostPerOutcome(true));
+    }
+    
+    /**
+     * {@inheritDoc} This implementation requires any matcher to match.
+     */
+    public boolean matches(UserProfile primary, UserProfile secondary) {
+        for (UserMatcher matcher : matchers) {
+            if (matcher.matches(primary, secondary)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * {@inheritDoc} Meeting any matcher's bound may be enough, so the smallest applies.
+     */
+    @Override
+    public int getMinimumSharedAttributes(UserProfile primary) {
+        int shared = Integer.MAX_VALUE;
+        for (UserMatcher matcher : matchers) {
+            shared = Math.min(shared, matcher.getMinimumSharedAttributes(primary));
+        }
+        return shared;
+    }
+    
+    /**
+     * {@inheritDoc} Only values that every matcher requires apply.
+     */
+    @Override
+    public Map<String, String> getRequiredAttributes(UserProfile primary) {
+        Map<String, String> required = new HashMap<String, String>(matchers[0]
+                .getRequiredAttributes(primary));
+        for (int i = 1; i < matchers.length && !required.isEmpty(); i++) {
+            required.entrySet().retainAll(matchers[i].getRequiredAttributes(primary).entrySet());
+        }
+        return required;
+    }
+    
+    /**
+     * {@inheritDoc} Each matcher only runs for candidates every earlier one rejected.
+     */
+    @Override
+    public double getCost() {
+        double cost = 0;
+        double reached = 1;
+        for (UserMatcher matcher : matchers) {
+            cost += reached * matcher.getCost();
+            reached *= 1 - matcher.getSelectivity();
+        }
+        return cost;
+    }
+    
+    /**
+     * {@inheritDoc} Matchers are assumed to be independent.
+     */
+    @Override
+    public double getSelectivity() {
+        double rejected = 1;
+        for (UserMatcher matcher : matchers) {
+            rejected *= 1 - matcher.getSelectivity();
+        }
+        return 1 - rejected;
+    }
+}
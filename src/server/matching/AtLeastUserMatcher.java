@@ -0,0 +1,102 @@
+package server.matching;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import data.structure.UserProfile;
+
+/**
+ * {@inheritDoc} AtLeastUserMatcher matches when at least a given number of its matchers do. The
+ * cheapest matchers run first, and evaluation stops as soon as enough have matched or too few
+ * remain to reach the count.
+ */
+public class AtLeastUserMatcher extends CompositeUserMatcher {
+    
+    private final int required;
+    
+    /**
+     * Constructor requires the number of matchers that must match, and the matchers.
+     * 
+     * @param required
+     * @param matchers
+     * @throws IllegalArgumentException if there are no matchers, any matcher is null, or required
+     *             is not between 1 and the number of matchers
+     */
+    public AtLeastUserMatcher(int required, UserMatcher... matchers) {
+        super(matchers, new Comparator<UserMatcher>() {
+            public int compare(UserMatcher a, UserMatcher b) {
+                return Double.compare(a.getCost(), b.getCost());
+            }
+        });
+        if (required < 1 || required > matchers.length) {
+            throw new IllegalArgumentException(
+                    "The required count must be between 1 and the number of matchers!");
+        }
+        this.required = required;
+    }
+    
+    /**
+     * {@inheritDoc} This implementation counts matching matchers up to the required count.
+     */
+    public boolean matches(UserProfile primary, UserProfile secondary) {
+        int matched = 0;
+        for (int i = 0; i < matchers.length; i++) {
+            if (matchers[i].matches(primary, secondary) && ++matched == required) {
+                return true;
+            }
+            if (matched + matchers.length - 1 - i < required) {
+                return false;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * {@inheritDoc} The weakest combination of matchers that could match is the required count
+     * of matchers with the smallest bounds, which must all be met.
+     */
+    @Override
+    public int getMinimumSharedAttributes(UserProfile primary) {
+        int[] bounds = new int[matchers.length];
+        for (int i = 0; i < matchers.length; i++) {
+            bounds[i] = matchers[i].getMinimumSharedAttributes(primary);
+        }
+        Arrays.sort(bounds);
+        return bounds[required - 1];
+    }
+    
+    /**
+     * {@inheritDoc} Every matcher may run.
+     */
+    @Override
+    public double getCost() {
+        double cost = 0;
+        for (UserMatcher matcher : matchers) {
+            cost += matcher.getCost();
+        }
+        return cost;
+    }
+    
+    /**
+     * {@inheritDoc} This is the chance that at least the required count of independent
+     * matchers match.
+     */
+    @Override
+    public double getSelectivity() {
+        // matching[k] is the chance that exactly k of the matchers seen so far match.
+        double[] matching = new double[matchers.length + 1];
+        matching[0] = 1;
+        for (int i = 0; i < matchers.length; i++) {
+            double p = matchers[i].getSelectivity();
+            for (int k = i + 1; k > 0; k--) {
+                matching[k] = matching[k] * (1 - p) + matching[k - 1] * p;
+            }
+            matching[0] *= 1 - p;
+        }
+        double selectivity = 0;
+        for (int k = required; k < matching.length; k++) {
+            selectivity += matching[k];
+        }
+        return selectivity;
+    }
+}
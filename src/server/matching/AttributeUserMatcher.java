@@ -0,0 +1,160 @@
+package server.matching;
+
+import java.util.Collections;
+import java.util.Map;
+
+import data.proxy.AttributeStatistics;
+import data.structure.UserProfile;
+
+/**
+ * {@inheritDoc} AttributeUserMatcher matches secondary users on a single attribute, either against
+ * a fixed value or against the primary user's own value. It is the cheapest matcher and the one
+ * attribute indexes can answer directly, so composites run it first and push it down to the store.
+ */
+public class AttributeUserMatcher implements UserMatcher {
+    
+    /**
+     * Default estimate of the fraction of users with any one attribute value.
+     */
+    public static final double DEFAULT_SELECTIVITY = 0.1;
+    
+    private final String name;
+    private final String value;
+    private final double selectivity;
+    
+    private AttributeUserMatcher(String name, String value, double selectivity) {
+        if (name == null) {
+            throw new IllegalArgumentException("Attribute name cannot be null!");
+        }
+        if (selectivity < 0 || selectivity > 1) {
+            throw new IllegalArgumentException("The selectivity must be in the range [0,1]!");
+        }
+        this.name = UserProfile.getNormalizedAttributeString(name);
+        this.value = value == null ? null : UserProfile.getNormalizedAttributeString(value);
+        this.selectivity = selectivity;
+    }
+    
+    /**
+     * Creates a matcher for secondary users whose attribute has the given value.
+     * 
+     * @param name
+     * @param value
+     * @return matcher
+     * @throws IllegalArgumentException if either argument is null
+     */
+    public static AttributeUserMatcher equalTo(String name, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Attribute value cannot be null!");
+        }
+        return new AttributeUserMatcher(name, value, DEFAULT_SELECTIVITY);
+    }
+    
+    /**
+     * Creates a matcher for secondary users whose attribute has the same value as the primary
+     * user's. A primary user without the attribute matches nobody.
+     * 
+     * @param name
+     * @return matcher
+     * @throws IllegalArgumentException if name is null
+     */
+    public static AttributeUserMatcher sharedWithPrimary(String name) {
+        return new AttributeUserMatcher(name, null, DEFAULT_SELECTIVITY);
+    }
+    
+    /**
+     * Returns a copy of this matcher with a different selectivity estimate, for attributes known
+     * to be much more or less common than the default assumes.
+     * 
+     * @param selectivity
+     * @return matcher
+     * @throws IllegalArgumentException if selectivity is outside [0,1]
+     */
+    public AttributeUserMatcher withSelectivity(double selectivity) {
+        return new AttributeUserMatcher(name, value, selectivity);
+    }
+    
+    /**
+     * Returns a copy of this matcher with its selectivity estimated from the statistics of the
+     * users it will be asked about: the share of users with the value, or for a matcher on the
+     * primary user's value, the chance that two users share it.
+     * 
+     * @param statistics
+     * @return matcher
+     * @throws IllegalArgumentException if statistics is null
+     */
+    public AttributeUserMatcher withStatistics(AttributeStatistics statistics) {
+        if (statistics == null) {
+            throw new IllegalArgumentException("Attribute Statistics cannot be null!");
+        }
+        if (value != null) {
+            return withSelectivity(statistics.estimateSelectivity(Collections.singletonMap(
+                    name, value)));
+        }
+        return withSelectivity(statistics.estimateSharedSelectivity(name));
+    }
+    
+    /**
+     * {@inheritDoc} This implementation compares a single attribute.
+     */
+    public boolean matches(UserProfile primary, UserProfile secondary) {
+        String required = getValue(primary);
+        return required != null && required.equals(secondary.getAttribute(name));
+    }
+    
+    /**
+     * {@inheritDoc} A matcher on the primary user's value requires that one attribute to be
+     * shared.
+     */
+    @Override
+    public int getMinimumSharedAttributes(UserProfile primary) {
+        if (value != null) {
+            return 0;
+        }
+        return primary.getAttribute(name) == null ? Integer.MAX_VALUE : 1;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> getRequiredAttributes(UserProfile primary) {
+        String required = getValue(primary);
+        if (required == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(name, required);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getCost() {
+        return 1;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getSelectivity() {
+        return selectivity;
+    }
+    
+    /**
+     * {@inheritDoc} This implementation only compares attributes.
+     */
+    @Override
+    public boolean isAttributeBased() {
+        return true;
+    }
+    
+    @Override
+    public String toString() {
+        return name + "=" + (value == null ? "$primary" : value);
+    }
+    
+    private String getValue(UserProfile primary) {
+        return value != null ? value : primary.getAttribute(name);
+    }
+}
@@ -0,0 +1,92 @@
+package server.matching;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * CompositeUserMatcher is the base for matchers that combine other matchers. The children are
+ * put into evaluation order once, when the composite is built, using their cost and selectivity
+ * estimates.
+ */
+public abstract class CompositeUserMatcher implements UserMatcher {
+    
+    protected final UserMatcher[] matchers;
+    
+    /**
+     * Constructor requires the children, and the order to evaluate them in.
+     * 
+     * @param matchers
+     * @param order
+     * @throws IllegalArgumentException if there are no children or any child is null
+     */
+    protected CompositeUserMatcher(UserMatcher[] matchers, Comparator<UserMatcher> order) {
+        if (matchers == null || matchers.length == 0) {
+            throw new IllegalArgumentException("There must be at least one User Matcher!");
+        }
+        for (UserMatcher matcher : matchers) {
+            if (matcher == null) {
+                throw new IllegalArgumentException("User Matcher cannot be null!");
+            }
+        }
+        this.matchers = matchers.clone();
+        Arrays.sort(this.matchers, order);
+    }
+    
+    /**
+     * Gets the children in the order they are evaluated.
+     * 
+     * @return children
+     */
+    public List<UserMatcher> getMatchers() {
+        return Collections.unmodifiableList(Arrays.asList(matchers.clone()));
+    }
+    
+    /**
+     * {@inheritDoc} A composite is attribute based if all of its children are.
+     */
+    @Override
+    public boolean isAttributeBased() {
+        for (UserMatcher matcher : matchers) {
+            if (!matcher.isAttributeBased()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Orders matchers so that the ones that most cheaply settle the outcome run first. A check
+     * settles an AND when it fails and an OR when it passes, so the rank is the cost paid per
+     * settled outcome.
+     * 
+     * @param settledByMatch true to rank by chance of matching, false by chance of not matching
+     * @return comparator, cheapest rank first
+     */
+    protected static Comparator<UserMatcher> byCostPerOutcome(final boolean settledByMatch) {
+        return new Comparator<UserMatcher>() {
+            public int compare(UserMatcher a, UserMatcher b) {
+                return Double.compare(rank(a), rank(b));
+            }
+            
+            private double rank(UserMatcher matcher) {
+                double settles = settledByMatch ? matcher.getSelectivity()
+                        : 1 - matcher.getSelectivity();
+                return settles <= 0 ? Double.POSITIVE_INFINITY : matcher.getCost() / settles;
+            }
+        };
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(getClass().getSimpleName()).append('(');
+        for (int i = 0; i < matchers.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(matchers[i]);
+        }
+        return out.append(')').toString();
+    }
+}
@@ -0,0 +1,472 @@
+package server.matching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
+import data.proxy.AttributeStatistics;
+import data.proxy.MatchSource;
+import data.proxy.UserCohorts;
+import data.proxy.UserProfileStore;
+import data.structure.UserProfile;
+
+/**
+ * LiveMatchGraph keeps every user's matches for a PercentMatchUserMatcher up to date as profiles
+ * change, and tells its listeners about every match gained or lost.
+ * 
+ * The graph keeps its own copy of each profile's attributes and, for every attribute value, the
+ * set of users who have it. When a profile changes, only the users on the posting lists of the
+ * attribute values it lost or gained can share a different number of attributes with it, so only
+ * they are checked in either direction. If the change also alters how many attributes the user
+ * needs to share, their own matches are recomputed from the posting lists of their rarest
+ * attributes, as in MatchGraphBuilder. Either way the cost follows the size of the affected
+ * neighborhood rather than the number of users.
+ * 
+ * Profiles reach the graph through update() and remove(), or through a store returned by wrap(),
+ * which keeps the graph in step with every write. Updates take the write lock and lookups share
+ * the read lock. Listeners are called on the updating thread while the write lock is held, so
+ * they see every change in order and should return quickly.
+ */
+public class LiveMatchGraph implements MatchSource {
+    private static final Timer UPDATE_TIMER = Metrics.timer("LiveMatchGraph.update");
+    private static final Counter CANDIDATES_CHECKED = Metrics
+            .counter("LiveMatchGraph.candidatesChecked");
+    
+    private final PercentMatchUserMatcher matcher;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+    private final Map<String, Map<String, Set<String>>> postings =
+            new HashMap<String, Map<String, Set<String>>>();
+    private final Set<String> matchingEveryone = new HashSet<String>();
+    private final List<MatchListener> listeners = new CopyOnWriteArrayList<MatchListener>();
+    private long matchCount = 0;
+    
+    /**
+     * Constructor requires the matcher whose matches are kept.
+     * 
+     * @param matcher
+     * @throws IllegalArgumentException if matcher is null
+     */
+    public LiveMatchGraph(PercentMatchUserMatcher matcher) {
+        if (matcher == null) {
+            throw new IllegalArgumentException("User Matcher cannot be null!");
+        }
+        this.matcher = matcher;
+    }
+    
+    /**
+     * Registers a listener to be told about every match gained or lost from now on.
+     * 
+     * @param listener
+     * @throws IllegalArgumentException if listener is null
+     */
+    public void addListener(MatchListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null!");
+        }
+        listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener.
+     * 
+     * @param listener
+     * @return true if the listener was registered
+     */
+    public boolean removeListener(MatchListener listener) {
+        return listeners.remove(listener);
+    }
+    
+    /**
+     * Returns a store that writes through to the given one and keeps this graph in step with
+     * every profile written to or deleted from it. Profiles the store already holds are added to
+     * the graph first.
+     * 
+     * @param userStore
+     * @return tracking store
+     * @throws IllegalArgumentException if userStore is null
+     */
+    public UserProfileStore wrap(UserProfileStore userStore) {
+        if (userStore == null) {
+            throw new IllegalArgumentException("User Store cannot be null!");
+        }
+        updateAll(userStore.getUsersForPredicate(new Predicate<UserProfile>() {
+            public boolean test(UserProfile profile) {
+                return true;
+            }
+        }));
+        return new TrackingUserProfileStore(userStore);
+    }
+    
+    /**
+     * Adds a profile, or brings the graph up to date with its current attributes.
+     * 
+     * @param profile
+     * @throws IllegalArgumentException if profile is null
+     */
+    public void update(UserProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("Profile cannot be null!");
+        }
+        long start = Metrics.startTimer();
+        lock.writeLock().lock();
+        try {
+            updateLocked(profile);
+        } finally {
+            lock.writeLock().unlock();
+            UPDATE_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Adds or updates a batch of profiles, taking the lock once.
+     * 
+     * @param profiles
+     * @throws IllegalArgumentException if profiles is null or contains null
+     */
+    public void updateAll(Collection<UserProfile> profiles) {
+        if (profiles == null) {
+            throw new IllegalArgumentException("Profiles cannot be null!");
+        }
+        for (UserProfile profile : profiles) {
+            if (profile == null) {
+                throw new IllegalArgumentException("Profile cannot be null!");
+            }
+        }
+        long start = Metrics.startTimer();
+        lock.writeLock().lock();
+        try {
+            for (UserProfile profile : profiles) {
+                updateLocked(profile);
+            }
+        } finally {
+            lock.writeLock().unlock();
+            UPDATE_TIMER.record(start);
+        }
+    }
+    
+    /**
+     * Removes a user and every match to or from them.
+     * 
+     * @param id
+     * @return true if the user was in the graph
+     */
+    public boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Node node = nodes.get(id);
+            if (node == null) {
+                return false;
+            }
+            for (String other : new ArrayList<String>(node.matches)) {
+                setMatch(id, node, other, nodes.get(other), false);
+            }
+            for (String other : new ArrayList<String>(node.matchedBy)) {
+                setMatch(other, nodes.get(other), id, node, false);
+            }
+            for (Map.Entry<String, String> attribute : node.attributes.entrySet()) {
+                removePosting(id, attribute.getKey(), attribute.getValue());
+            }
+            matchingEveryone.remove(id);
+            nodes.remove(id);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the ids of the users that a user currently matches.
+     * 
+     * @param id
+     * @return matching user ids, or null if the user is not in the graph
+     */
+    public List<String> getMatches(String id) {
+        lock.readLock().lock();
+        try {
+            Node node = nodes.get(id);
+            return node == null ? null : new ArrayList<String>(node.matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the ids of the users who currently match a user.
+     * 
+     * @param id
+     * @return ids of the users matching this one, or null if the user is not in the graph
+     */
+    public List<String> getMatchedBy(String id) {
+        lock.readLock().lock();
+        try {
+            Node node = nodes.get(id);
+            return node == null ? null : new ArrayList<String>(node.matchedBy);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of users in the graph.
+     * 
+     * @return number of users
+     */
+    public int getUserCount() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of matches in the graph, counting each direction separately.
+     * 
+     * @return number of matches
+     */
+    public long getMatchCount() {
+        lock.readLock().lock();
+        try {
+            return matchCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void updateLocked(UserProfile profile) {
+        String id = profile.getId();
+        Map<String, String> attributes = new HashMap<String, String>(profile.getAttributes());
+        int required = matcher.getMinimumSharedAttributes(profile);
+        Node node = nodes.get(id);
+        boolean added = node == null;
+        if (added) {
+            node = new Node();
+            nodes.put(id, node);
+        } else if (node.attributes.equals(attributes)) {
+            return;
+        }
+        
+        // Only users who have a lost or gained attribute value share a different count with it.
+        Set<String> affected = new HashSet<String>();
+        for (Map.Entry<String, String> attribute : node.attributes.entrySet()) {
+            if (!attribute.getValue().equals(attributes.get(attribute.getKey()))) {
+                removePosting(id, attribute.getKey(), attribute.getValue());
+                affected.addAll(getPosting(attribute.getKey(), attribute.getValue()));
+            }
+        }
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            if (!attribute.getValue().equals(node.attributes.get(attribute.getKey()))) {
+                Set<String> users = addPosting(id, attribute.getKey(), attribute.getValue());
+                affected.addAll(users);
+            }
+        }
+        int previouslyRequired = node.required;
+        node.attributes = attributes;
+        node.required = required;
+        if (required == 0) {
+            matchingEveryone.add(id);
+        } else {
+            matchingEveryone.remove(id);
+        }
+        
+        // Users who match everyone match a new user without sharing anything.
+        if (added) {
+            for (String other : matchingEveryone) {
+                setMatch(other, nodes.get(other), id, node, true);
+            }
+        }
+        for (String other : affected) {
+            Node otherNode = nodes.get(other);
+            setMatch(other, otherNode, id, node, matches(otherNode, node));
+        }
+        CANDIDATES_CHECKED.add(affected.size());
+        
+        Collection<String> candidates;
+        if (required == previouslyRequired) {
+            candidates = affected;
+        } else if (required == 0) {
+            candidates = new ArrayList<String>(nodes.keySet());
+        } else {
+            Set<String> recomputed = new HashSet<String>(node.matches);
+            if (required != Integer.MAX_VALUE) {
+                recomputed.addAll(getPrefixCandidates(attributes, required));
+            }
+            candidates = recomputed;
+        }
+        for (String other : candidates) {
+            setMatch(id, node, other, nodes.get(other), matches(node, nodes.get(other)));
+        }
+        if (candidates != affected) {
+            CANDIDATES_CHECKED.add(candidates.size());
+        }
+    }
+    
+    /**
+     * Gets the users who share one of the primary user's (size - required + 1) rarest attribute
+     * values, since those are the only users who can share enough of them.
+     */
+    private Set<String> getPrefixCandidates(Map<String, String> attributes, int required) {
+        List<Set<String>> lists = new ArrayList<Set<String>>(attributes.size());
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            lists.add(getPosting(attribute.getKey(), attribute.getValue()));
+        }
+        Collections.sort(lists, new Comparator<Set<String>>() {
+            public int compare(Set<String> a, Set<String> b) {
+                return Integer.compare(a.size(), b.size());
+            }
+        });
+        Set<String> candidates = new HashSet<String>();
+        for (Set<String> users : lists.subList(0, attributes.size() - required + 1)) {
+            candidates.addAll(users);
+        }
+        return candidates;
+    }
+    
+    private static boolean matches(Node primary, Node secondary) {
+        if (primary.required == 0) {
+            return true;
+        }
+        if (primary.required > secondary.attributes.size()) {
+            return false;
+        }
+        int shared = 0;
+        for (Map.Entry<String, String> attribute : primary.attributes.entrySet()) {
+            if (attribute.getValue().equals(secondary.attributes.get(attribute.getKey()))) {
+                shared++;
+            }
+        }
+        return shared >= primary.required;
+    }
+    
+    private void setMatch(String primary, Node primaryNode, String secondary, Node secondaryNode,
+            boolean matched) {
+        if (matched && primaryNode.matches.add(secondary)) {
+            secondaryNode.matchedBy.add(primary);
+            matchCount++;
+            for (MatchListener listener : listeners) {
+                listener.onMatchAdded(primary, secondary);
+            }
+        } else if (!matched && primaryNode.matches.remove(secondary)) {
+            secondaryNode.matchedBy.remove(primary);
+            matchCount--;
+            for (MatchListener listener : listeners) {
+                listener.onMatchRemoved(primary, secondary);
+            }
+        }
+    }
+    
+    private Set<String> getPosting(String name, String value) {
+        Map<String, Set<String>> values = postings.get(name);
+        Set<String> users = values == null ? null : values.get(value);
+        return users == null ? Collections.<String> emptySet() : users;
+    }
+    
+    private Set<String> addPosting(String id, String name, String value) {
+        Map<String, Set<String>> values = postings.get(name);
+        if (values == null) {
+            values = new HashMap<String, Set<String>>();
+            postings.put(name, values);
+        }
+        Set<String> users = values.get(value);
+        if (users == null) {
+            users = new HashSet<String>();
+            values.put(value, users);
+        }
+        users.add(id);
+        return users;
+    }
+    
+    private void removePosting(String id, String name, String value) {
+        Map<String, Set<String>> values = postings.get(name);
+        Set<String> users = values.get(value);
+        users.remove(id);
+        if (users.isEmpty()) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                postings.remove(name);
+            }
+        }
+    }
+    
+    /**
+     * One user's attributes as last seen, how many of them a match must share, and their matches
+     * in both directions.
+     */
+    private static class Node {
+        private Map<String, String> attributes = Collections.emptyMap();
+        private int required = Integer.MAX_VALUE;
+        private final Set<String> matches = new HashSet<String>();
+        private final Set<String> matchedBy = new HashSet<String>();
+    }
+    
+    /**
+     * Writes through to another store and passes every change on to the graph.
+     */
+    private class TrackingUserProfileStore implements UserProfileStore {
+        private final UserProfileStore userStore;
+        
+        private TrackingUserProfileStore(UserProfileStore userStore) {
+            this.userStore = userStore;
+        }
+        
+        public void write(UserProfile profile) {
+            userStore.write(profile);
+            update(profile);
+        }
+        
+        public void writeAll(Collection<UserProfile> profiles) {
+            userStore.writeAll(profiles);
+            updateAll(profiles);
+        }
+        
+        public void delete(String id) {
+            userStore.delete(id);
+            remove(id);
+        }
+        
+        public UserProfile getProfile(String id) {
+            return userStore.getProfile(id);
+        }
+        
+        public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate) {
+            return userStore.getUsersForPredicate(predicate);
+        }
+        
+        @Override
+        public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate,
+                Map<String, String> requiredAttributes) {
+            return userStore.getUsersForPredicate(predicate, requiredAttributes);
+        }
+        
+        @Override
+        public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate,
+                UserProfile primary, int minimumSharedAttributes) {
+            return userStore.getUsersForPredicate(predicate, primary, minimumSharedAttributes);
+        }
+        
+        @Override
+        public AttributeStatistics getStatistics() {
+            return userStore.getStatistics();
+        }
+        
+        @Override
+        public UserCohorts getCohorts() {
+            return userStore.getCohorts();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package server.matching;
+
+/**
+ * MatchListener is notified of every match that a LiveMatchGraph gains or loses.
+ */
+public interface MatchListener {
+    
+    /**
+     * Called when the primary user starts matching the secondary user.
+     * 
+     * @param primary id of the user whose matches changed
+     * @param secondary id of the user they now match
+     */
+    public void onMatchAdded(String primary, String secondary);
+    
+    /**
+     * Called when the primary user stops matching the secondary user, including when either of
+     * them is removed.
+     * 
+     * @param primary id of the user whose matches changed
+     * @param secondary id of the user they no longer match
+     */
+    public void onMatchRemoved(String primary, String secondary);
+}
@@ -0,0 +1,60 @@
+package server.matching;
+
+import data.structure.UserProfile;
+
+/**
+ * {@inheritDoc} NotUserMatcher matches exactly the secondary users its matcher rejects.
+ */
+public class NotUserMatcher implements UserMatcher {
+    
+    private final UserMatcher matcher;
+    
+    /**
+     * Constructor requires the matcher to negate.
+     * 
+     * @param matcher
+     * @throws IllegalArgumentException if matcher is null
+     */
+    public NotUserMatcher(UserMatcher matcher) {
+        if (matcher == null) {
+            throw new IllegalArgumentException("User Matcher cannot be null!");
+        }
+        this.matcher = matcher;
+    }
+    
+    /**
+     * {@inheritDoc} This implementation negates its matcher.
+     */
+    public boolean matches(UserProfile primary, UserProfile secondary) {
+        return !matcher.matches(primary, secondary);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getCost() {
+        return matcher.getCost();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getSelectivity() {
+        return 1 - matcher.getSelectivity();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAttributeBased() {
+        return matcher.isAttributeBased();
+    }
+    
+    @Override
+    public String toString() {
+        return "NotUserMatcher(" + matcher + ")";
+    }
+}
@@ -1,12 +1,14 @@
 package server.matching;
 
+import java.util.Map;
+
 import data.structure.UserProfile;
 
 /**
  * {@inheritDoc} PercentMatchUserMatcher matches users based on a certain percentage of the user's
  * attributes being a match with the other user.
  */
-public class PercentMatchUserMatcher implements UserMatcher {
+public class PercentMatchUserMatcher implements ScoringUserMatcher {
     
     private final double threshold;
     
@@ -31,4 +33,52 @@ public class PercentMatchUserMatcher implements UserMatcher {
         return (double) primary.getAttributeIntersection(secondary).size()
                 / primary.getAttributes().size() >= this.threshold;
     }
+    
+    /**
+     * {@inheritDoc} This is the share of the primary user's attributes that the secondary user
+     * has, or 0 if the primary user has no attributes.
+     */
+    public double getScore(UserProfile primary, UserProfile secondary) {
+        int attributes = primary.getAttributes().size();
+        if (attributes == 0) {
+            return 0;
+        }
+        int shared = 0;
+        for (Map.Entry<String, String> attribute : primary.getAttributes().entrySet()) {
+            if (attribute.getValue().equals(secondary.getAttribute(attribute.getKey()))) {
+                shared++;
+            }
+        }
+        return (double) shared / attributes;
+    }
+    
+    /**
+     * {@inheritDoc} This is the smallest count whose share of the primary user's attributes meets
+     * the threshold. A primary user with no attributes never matches, since their match percentage
+     * is undefined.
+     */
+    @Override
+    public int getMinimumSharedAttributes(UserProfile primary) {
+        int attributes = primary.getAttributes().size();
+        if (attributes == 0) {
+            return Integer.MAX_VALUE;
+        }
+        // Start from the rounded estimate, then settle on the exact comparison used by matches().
+        int shared = (int) Math.ceil(this.threshold * attributes);
+        while (shared > 0 && (double) (shared - 1) / attributes >= this.threshold) {
+            shared--;
+        }
+        while ((double) shared / attributes < this.threshold) {
+            shared++;
+        }
+        return shared;
+    }
+    
+    /**
+     * {@inheritDoc} This implementation only compares attributes.
+     */
+    @Override
+    public boolean isAttributeBased() {
+        return true;
+    }
 }
@@ -0,0 +1,20 @@
+package server.matching;
+
+import data.structure.UserProfile;
+
+/**
+ * ScoringUserMatcher is a UserMatcher that can also say how well two users match, so that
+ * matching users can be ranked against each other rather than only accepted or rejected.
+ */
+public interface ScoringUserMatcher extends UserMatcher {
+    
+    /**
+     * Scores how relevant the secondary user is to the primary user. Higher scores are better
+     * matches, and a user who shares nothing with the primary user scores 0.
+     * 
+     * @param primary
+     * @param secondary
+     * @return non-negative score
+     */
+    public double getScore(UserProfile primary, UserProfile secondary);
+}
@@ -1,5 +1,8 @@
 package server.matching;
 
+import java.util.Collections;
+import java.util.Map;
+
 import data.structure.UserProfile;
 
 /**
@@ -19,4 +22,63 @@ public interface UserMatcher {
      * @return true if the secondary user is relevant to the primary user, and false otherwise
      */
     public boolean matches(UserProfile primary, UserProfile secondary);
+    
+    /**
+     * Gets the fewest attributes (same name and value) a secondary user must share with the
+     * primary user in order to match. Indexes use this bound to only consider users who share
+     * enough attributes instead of scanning everybody.
+     * 
+     * @param primary
+     * @return minimum shared attributes, 0 if there is no such bound, or Integer.MAX_VALUE if
+     *         nobody can match the primary user
+     */
+    public default int getMinimumSharedAttributes(UserProfile primary) {
+        return 0;
+    }
+    
+    /**
+     * Gets attribute values that every matching secondary user must have. Stores with an
+     * attribute index use them to generate candidates instead of scanning everybody; the matcher
+     * is still asked about each candidate.
+     * 
+     * @param primary
+     * @return required attribute values by name, empty if there are none
+     */
+    public default Map<String, String> getRequiredAttributes(UserProfile primary) {
+        return Collections.emptyMap();
+    }
+    
+    /**
+     * Estimates the relative cost of one call to matches(). Composite matchers use the estimate
+     * to run cheap checks first; a lookup of a single attribute costs about 1.
+     * 
+     * @return estimated cost
+     */
+    public default double getCost() {
+        return 10;
+    }
+    
+    /**
+     * Estimates the fraction of candidates that match. Composite matchers use the estimate to run
+     * the checks most likely to decide the outcome first.
+     * 
+     * @return estimated selectivity in [0,1]
+     */
+    public default double getSelectivity() {
+        return 0.5;
+    }
+    
+    /**
+     * Determines whether matches() consults nothing about either user but their attributes: not
+     * their ids, nor whether they are the same user. Either user may then be replaced by any
+     * profile with the same attributes, including one with a made-up id, without changing the
+     * outcome. Work done to match one primary user is shared with every user of the same
+     * attribute signature, and one secondary profile can stand in for a whole group of users
+     * with the same attributes.
+     * 
+     * @return true if the matches depend only on the attributes of both users
+     */
+    public default boolean isAttributeBased() {
+        return false;
+    }
 }
@@ -0,0 +1,131 @@
+package server.matching;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import data.proxy.AttributeIndex;
+import data.structure.ScoredProfile;
+import data.structure.UserProfile;
+
+/**
+ * {@inheritDoc} WeightedMatchUserMatcher matches users based on a certain percentage of the
+ * primary user's attribute weight being shared with the other user. Attributes are weighted by how
+ * rare they are among the indexed users, so sharing "country=us" counts for little and sharing a
+ * rare hobby counts for a lot.
+ */
+public class WeightedMatchUserMatcher implements ScoringUserMatcher {
+    
+    private final AttributeIndex index;
+    private final double threshold;
+    
+    /**
+     * Constructor requires the index that supplies attribute weights and a double threshold for
+     * the minimum weighted percent match.
+     * 
+     * @param index
+     * @param threshold
+     * @throws IllegalArgumentException if index is null or threshold is outside [0,1]
+     */
+    public WeightedMatchUserMatcher(AttributeIndex index, double threshold) {
+        if (index == null) {
+            throw new IllegalArgumentException("Attribute Index cannot be null!");
+        }
+        if (threshold < 0 || threshold > 1) {
+            throw new IllegalArgumentException(
+                    "The threshold percentage must be in the range [0,1]!");
+        }
+        this.index = index;
+        this.threshold = threshold;
+    }
+    
+    /**
+     * {@inheritDoc} This implementation matches based on a required weighted percentage match
+     * threshold. A primary user with no attributes never matches.
+     */
+    public boolean matches(UserProfile primary, UserProfile secondary) {
+        double total = getTotalWeight(primary);
+        return total > 0 && getScore(primary, secondary) / total >= this.threshold - 1e-9;
+    }
+    
+    /**
+     * {@inheritDoc} This is the weight of the attributes the two users share.
+     */
+    public double getScore(UserProfile primary, UserProfile secondary) {
+        double score = 0;
+        for (Map.Entry<String, String> attribute : primary.getAttributes().entrySet()) {
+            if (attribute.getValue().equals(secondary.getAttribute(attribute.getKey()))) {
+                score += index.getWeight(attribute.getKey(), attribute.getValue());
+            }
+        }
+        return score;
+    }
+    
+    /**
+     * Finds the k matching users who share the most weight with the primary user, best first.
+     * 
+     * @param primary
+     * @param k most users to return
+     * @return best matches, highest score first
+     */
+    public List<ScoredProfile> getTopMatches(UserProfile primary, int k) {
+        double total = getTotalWeight(primary);
+        if (total == 0) {
+            return index.getTopMatches(primary, 0, 0);
+        }
+        return index.getTopMatches(primary, k, this.threshold * total);
+    }
+    
+    /**
+     * {@inheritDoc} This is the number of the primary user's heaviest attributes needed to reach
+     * the threshold, since any fewer shared attributes weigh too little.
+     */
+    @Override
+    public int getMinimumSharedAttributes(UserProfile primary) {
+        double[] weights = getWeights(primary);
+        if (weights.length == 0) {
+            return Integer.MAX_VALUE;
+        }
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double required = this.threshold * total - 1e-9;
+        double shared = 0;
+        int count = 0;
+        for (int i = weights.length - 1; i >= 0 && shared < required; i--) {
+            shared += weights[i];
+            count++;
+        }
+        return count;
+    }
+    
+    private double getTotalWeight(UserProfile primary) {
+        double total = 0;
+        for (Map.Entry<String, String> attribute : primary.getAttributes().entrySet()) {
+            total += index.getWeight(attribute.getKey(), attribute.getValue());
+        }
+        return total;
+    }
+    
+    /**
+     * Gets the weight of each of the primary user's attributes, lightest first.
+     */
+    private double[] getWeights(UserProfile primary) {
+        double[] weights = new double[primary.getAttributes().size()];
+        int next = 0;
+        for (Map.Entry<String, String> attribute : primary.getAttributes().entrySet()) {
+            weights[next++] = index.getWeight(attribute.getKey(), attribute.getValue());
+        }
+        Arrays.sort(weights);
+        return weights;
+    }
+    
+    /**
+     * {@inheritDoc} This implementation only compares attributes.
+     */
+    @Override
+    public boolean isAttributeBased() {
+        return true;
+    }
+}
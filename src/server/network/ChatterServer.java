@@ -0,0 +1,264 @@
+package server.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import server.admission.AdmissionController;
+import server.feed.FeedBuilder;
+import server.matching.PercentMatchUserMatcher;
+import server.standalone.CommandSession;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+import data.proxy.UserProfileStore;
+import data.structure.Post;
+
+/**
+ * ChatterServer serves the SimpleServerCLI line protocol over TCP to many concurrent clients.
+ * Connections are spread across a small pool of selector-driven event loops, each of which owns its
+ * connections' session state and write buffers. Feed requests are handed to a separate worker pool
+ * so that a slow feed never stalls the other connections on its loop.
+ * 
+ * Every command line sent by a client receives exactly one response, in order, terminated by a line
+ * containing only a single period.
+ */
+public class ChatterServer {
+    /**
+     * Line sent after each response.
+     */
+    public static final String END_OF_RESPONSE = ".";
+    
+    private static final int MAX_QUEUED_FEEDS = 1024;
+    private static final double DEFAULT_PERCENT_MATCH = 0.5;
+    
+    private final UserProfileStore userStore;
+    private final PostStore postStore;
+    private final FeedBuilder feedBuilder;
+    private final int eventLoopCount;
+    private final int workerCount;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    
+    private volatile AdmissionController admissionController;
+    
+    private EventLoop[] loops;
+    private ThreadPoolExecutor workers;
+    private ServerSocketChannel serverChannel;
+    
+    /**
+     * Constructor requires the stores and feed builder shared by all sessions, and the sizes of the
+     * two thread pools.
+     * 
+     * @param userStore
+     * @param postStore
+     * @param feedBuilder
+     * @param eventLoops number of selector threads
+     * @param workers number of feed building threads
+     * @throws IllegalArgumentException if any object is null or any count is not positive
+     */
+    public ChatterServer(UserProfileStore userStore, PostStore postStore, FeedBuilder feedBuilder,
+            int eventLoops, int workers) {
+        if (userStore == null) {
+            throw new IllegalArgumentException("User Store cannot be null!");
+        }
+        if (postStore == null) {
+            throw new IllegalArgumentException("Post Store cannot be null!");
+        }
+        if (feedBuilder == null) {
+            throw new IllegalArgumentException("Feed Builder cannot be null!");
+        }
+        if (eventLoops <= 0 || workers <= 0) {
+            throw new IllegalArgumentException("The thread pool sizes must be positive!");
+        }
+        this.userStore = userStore;
+        this.postStore = postStore;
+        this.feedBuilder = feedBuilder;
+        this.eventLoopCount = eventLoops;
+        this.workerCount = workers;
+    }
+    
+    /**
+     * Admits the feeds and writes of every session through the given controller, so that they
+     * are refused or served stale when too many are running instead of queueing behind each
+     * other. Only sessions created afterwards are affected.
+     * 
+     * @param admissionController the controller to admit through, or null to admit everything
+     * @return this server
+     */
+    public ChatterServer withAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+        return this;
+    }
+    
+    /**
+     * Binds to the given address and starts serving.
+     * 
+     * @param address use port 0 to pick any free port
+     * @return the address actually bound
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalStateException if the server is already running
+     */
+    public synchronized InetSocketAddress start(InetSocketAddress address) throws IOException {
+        if (serverChannel != null) {
+            throw new IllegalStateException("The server has already been started!");
+        }
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_FEEDS), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "chatter-feed-worker-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        loops = new EventLoop[eventLoopCount];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(this, "chatter-event-loop-" + i);
+            loops[i].start();
+        }
+        
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, MAX_QUEUED_FEEDS);
+        serverChannel.configureBlocking(false);
+        loops[0].registerAcceptor(serverChannel);
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+    
+    /**
+     * Closes every connection and stops all threads.
+     */
+    public synchronized void stop() {
+        if (serverChannel == null) {
+            return;
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Nothing more can be done with a listener that fails to close.
+        }
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+        workers.shutdownNow();
+        serverChannel = null;
+    }
+    
+    /**
+     * Gets the number of currently open client connections.
+     * 
+     * @return open connections
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+    
+    /**
+     * Picks the event loop for a newly accepted connection.
+     * 
+     * @return event loop
+     */
+    EventLoop nextLoop() {
+        return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+    
+    /**
+     * Creates the session state for a new connection.
+     * 
+     * @return session
+     */
+    CommandSession newSession() {
+        connections.incrementAndGet();
+        return new CommandSession(userStore, postStore, feedBuilder).withAdmissionController(
+                admissionController);
+    }
+    
+    /**
+     * Called by an event loop when one of its connections closes.
+     */
+    void connectionClosed() {
+        connections.decrementAndGet();
+    }
+    
+    /**
+     * Runs a task on the feed worker pool.
+     * 
+     * @param task
+     * @return false if the pool is saturated and the task was not accepted
+     */
+    boolean submit(Runnable task) {
+        try {
+            workers.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Main driver method. Options are given as --name=value:
+     * 
+     * <pre>
+     * --port=N      port to listen on (default 8023)
+     * --loops=N     event loop threads (default number of processors)
+     * --workers=N   feed worker threads (default twice the number of processors)
+     * </pre>
+     * 
+     * @param args
+     * @throws IOException if the port cannot be bound
+     * @throws InterruptedException if interrupted while serving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int port = 8023;
+        int loops = processors;
+        int workers = processors * 2;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid option \"%s\". Options must look like --name=value.", arg));
+            }
+            if ("--port".equals(option[0])) {
+                port = Integer.parseInt(option[1]);
+            } else if ("--loops".equals(option[0])) {
+                loops = Integer.parseInt(option[1]);
+            } else if ("--workers".equals(option[0])) {
+                workers = Integer.parseInt(option[1]);
+            } else {
+                throw new IllegalArgumentException(String.format("Unknown option \"%s\".", arg));
+            }
+        }
+        
+        UserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(DEFAULT_PERCENT_MATCH), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+        final ChatterServer server = new ChatterServer(userStore, postStore, feedBuilder, loops,
+                workers).withAdmissionController(new AdmissionController(feedBuilder));
+        InetSocketAddress bound = server.start(new InetSocketAddress(port));
+        System.out.println(String.format("Chatter server listening on %s with %d event loops "
+                + "and %d feed workers.", bound, loops, workers));
+        
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        // All server threads are daemons, so keep the JVM alive until it is shut down.
+        Thread.currentThread().join();
+    }
+}
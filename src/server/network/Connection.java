@@ -0,0 +1,265 @@
+package server.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import server.standalone.CommandSession;
+import server.standalone.SimpleServerCLI.COMMAND;
+
+/**
+ * Connection is the state of one client: its session, any partially received line, complete lines
+ * waiting to be executed, and responses waiting to be written. It is only touched by the thread of
+ * the event loop that owns it, except for the session, which is lent to a feed worker while a feed
+ * is being built. No further lines are executed until that feed's response has been queued, so
+ * responses always go out in request order.
+ */
+class Connection {
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    // Once this much output is queued, the connection stops reading until the client catches up.
+    private static final int MAX_PENDING_WRITE_BYTES = 1024 * 1024;
+    private static final byte[] END_OF_RESPONSE = (ChatterServer.END_OF_RESPONSE + "\n")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final Logger LOGGER = Logger.getLogger("chatter.network");
+    
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final CommandSession session;
+    
+    // Allocated on demand, so that idle connections stay small.
+    private byte[] partialLine;
+    private int partialLength;
+    private ArrayDeque<String> pendingLines;
+    private ArrayDeque<ByteBuffer> pendingWrites;
+    private long pendingWriteBytes;
+    private boolean busy;
+    private boolean closed;
+    
+    Connection(EventLoop loop, SocketChannel channel, SelectionKey key, CommandSession session) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.session = session;
+    }
+    
+    /**
+     * Reads whatever is available, splits it into lines and executes them.
+     * 
+     * @param buffer scratch buffer shared by the event loop
+     */
+    void onReadable(ByteBuffer buffer) {
+        buffer.clear();
+        int read;
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        
+        byte[] bytes = buffer.array();
+        int start = 0;
+        for (int i = 0; i < read; i++) {
+            if (bytes[i] == '\n') {
+                addLine(bytes, start, i);
+                start = i + 1;
+            }
+        }
+        if (start < read && !appendPartial(bytes, start, read)) {
+            close();
+            return;
+        }
+        processLines();
+    }
+    
+    /**
+     * Writes as much queued output as the socket will take.
+     */
+    void onWritable() {
+        try {
+            while (pendingWrites != null && !pendingWrites.isEmpty()) {
+                ByteBuffer head = pendingWrites.peek();
+                pendingWriteBytes -= channel.write(head);
+                if (head.hasRemaining()) {
+                    break;
+                }
+                pendingWrites.poll();
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        processLines();
+    }
+    
+    /**
+     * Closes the socket and releases the connection.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        key.cancel();
+        EventLoop.closeQuietly(channel);
+        loop.connectionClosed();
+    }
+    
+    /**
+     * Executes queued lines until one is handed to a worker, the queue is empty, or too much
+     * output is waiting to be written.
+     */
+    private void processLines() {
+        while (!busy && !closed && pendingLines != null && !pendingLines.isEmpty()
+                && pendingWriteBytes < MAX_PENDING_WRITE_BYTES) {
+            String[] line = CommandSession.parseCommand(pendingLines.poll());
+            if (CommandSession.getCommand(line) == COMMAND.FEED) {
+                dispatch(line);
+            } else {
+                respond(execute(line));
+            }
+        }
+        updateInterest();
+    }
+    
+    /**
+     * Builds a feed on the worker pool, then resumes this connection on its loop.
+     */
+    private void dispatch(final String[] line) {
+        busy = true;
+        boolean accepted = loop.submit(new Runnable() {
+            public void run() {
+                final String response = execute(line);
+                loop.execute(new Runnable() {
+                    public void run() {
+                        busy = false;
+                        if (!closed) {
+                            respond(response);
+                            processLines();
+                        }
+                    }
+                });
+            }
+        });
+        if (!accepted) {
+            busy = false;
+            respond(String.format("The server is busy. Please try again.%n"));
+        }
+    }
+    
+    private String execute(String[] line) {
+        try {
+            return session.execute(line);
+        } catch (RuntimeException e) {
+            // Keep the cause server-side; the client only needs to know the command failed.
+            LOGGER.log(Level.SEVERE, "Failed to execute a command", e);
+            return String.format("The command failed.%n");
+        }
+    }
+    
+    /**
+     * Queues a response followed by the end of response marker, writing directly if nothing is
+     * already waiting.
+     */
+    private void respond(String response) {
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(body.length + END_OF_RESPONSE.length);
+        buffer.put(body).put(END_OF_RESPONSE).flip();
+        
+        if (pendingWrites == null || pendingWrites.isEmpty()) {
+            try {
+                channel.write(buffer);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+        }
+        if (pendingWrites == null) {
+            pendingWrites = new ArrayDeque<ByteBuffer>(4);
+        }
+        pendingWrites.add(buffer);
+        pendingWriteBytes += buffer.remaining();
+    }
+    
+    /**
+     * Only reads while there is nothing left to execute, and only asks for writability while
+     * output is queued.
+     */
+    private void updateInterest() {
+        if (closed) {
+            return;
+        }
+        int ops = 0;
+        if (!busy && (pendingLines == null || pendingLines.isEmpty())
+                && pendingWriteBytes < MAX_PENDING_WRITE_BYTES) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (pendingWrites != null && !pendingWrites.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+    
+    private void addLine(byte[] bytes, int start, int end) {
+        String line;
+        if (partialLength == 0) {
+            line = decode(bytes, start, end);
+        } else {
+            if (!appendPartial(bytes, start, end)) {
+                close();
+                return;
+            }
+            line = decode(partialLine, 0, partialLength);
+            partialLine = null;
+            partialLength = 0;
+        }
+        if (pendingLines == null) {
+            pendingLines = new ArrayDeque<String>(4);
+        }
+        pendingLines.add(line);
+    }
+    
+    /**
+     * Buffers the start of a line that has not been fully received yet.
+     * 
+     * @return false if the line has grown beyond the limit
+     */
+    private boolean appendPartial(byte[] bytes, int start, int end) {
+        int length = end - start;
+        if (partialLength + length > MAX_LINE_BYTES) {
+            return false;
+        }
+        if (partialLine == null) {
+            partialLine = new byte[Math.max(length, 128)];
+        } else if (partialLength + length > partialLine.length) {
+            partialLine = Arrays.copyOf(partialLine, Math.max(partialLength + length,
+                    partialLine.length * 2));
+        }
+        System.arraycopy(bytes, start, partialLine, partialLength, length);
+        partialLength += length;
+        return true;
+    }
+    
+    private static String decode(byte[] bytes, int start, int end) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+}
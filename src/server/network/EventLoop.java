@@ -0,0 +1,196 @@
+package server.network;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * EventLoop is a single selector thread. It owns every connection registered with it, so all
+ * connection state is only ever touched from this thread; other threads hand work to it through
+ * execute().
+ */
+class EventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    
+    private final ChatterServer server;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    // Shared by all connections on this loop, so idle connections hold no read buffer.
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private volatile boolean running = true;
+    
+    /**
+     * Constructor requires the owning server and a name for the thread.
+     * 
+     * @param server
+     * @param name
+     * @throws IOException if the selector cannot be opened
+     */
+    EventLoop(ChatterServer server, String name) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+    
+    void start() {
+        thread.start();
+    }
+    
+    /**
+     * Stops the loop and closes all of its connections.
+     */
+    void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Runs a task on this loop's thread.
+     * 
+     * @param task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+    
+    /**
+     * Starts accepting connections from the listener on this loop.
+     * 
+     * @param serverChannel
+     */
+    void registerAcceptor(final ServerSocketChannel serverChannel) {
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+                } catch (IOException e) {
+                    throw new IllegalStateException("The listener could not be registered!", e);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Takes ownership of a newly accepted connection.
+     * 
+     * @param channel
+     */
+    void register(final SocketChannel channel) {
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(EventLoop.this, channel, key, server.newSession()));
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            }
+        });
+    }
+    
+    boolean submit(Runnable task) {
+        return server.submit(task);
+    }
+    
+    void connectionClosed() {
+        server.connectionClosed();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.onReadable(readBuffer);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("The event loop selector failed!", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // The loop is exiting anyway.
+            }
+        }
+    }
+    
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+    
+    /**
+     * Accepts every pending connection and spreads them across the loops.
+     */
+    private void accept(ServerSocketChannel serverChannel) {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                server.nextLoop().register(channel);
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+    
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already unusable, so there is nothing left to release.
+        }
+    }
+}
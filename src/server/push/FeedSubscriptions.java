@@ -0,0 +1,278 @@
+package server.push;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import metrics.Counter;
+import metrics.Metrics;
+import server.matching.UserMatcher;
+import data.proxy.PostListener;
+import data.proxy.UserProfileStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * FeedSubscriptions pushes each new post to the live subscriptions of every user it is relevant
+ * to. Register it with PostStore.addListener().
+ * 
+ * Subscribers are indexed by attribute value using prefix filtering: if the matcher needs m shared
+ * attributes out of a subscriber's k, the subscriber is only indexed under k - m + 1 of them (the
+ * rarest at the time of subscribing), since any author sharing m attributes must share at least
+ * one of those. A post is then only checked against subscribers found under its author's
+ * attributes, plus any whose matcher has no lower bound; nobody else is looked at.
+ * 
+ * Subscribers are matched as they were when they subscribed. To pick up attribute changes, close
+ * the subscription and subscribe again.
+ */
+public class FeedSubscriptions implements PostListener {
+    private static final Counter POSTS_ROUTED = Metrics.counter("FeedSubscriptions.postsRouted");
+    private static final Counter CANDIDATES_CHECKED = Metrics
+            .counter("FeedSubscriptions.candidatesChecked");
+    private static final Counter DELIVERIES = Metrics.counter("FeedSubscriptions.deliveries");
+    
+    private final UserProfileStore userStore;
+    private final UserMatcher userMatcher;
+    // Each attribute name and value pair seen on a subscriber is interned to a small id.
+    private final ConcurrentMap<String, Integer> attributeIds;
+    private final AtomicInteger nextAttributeId;
+    private final ConcurrentMap<Integer, Set<Subscription>> subscriptionsByAttribute;
+    private final Set<Subscription> subscriptions;
+    // Subscribers whose matcher gives no lower bound, so they must see every post.
+    private final Set<Subscription> unindexed;
+    
+    /**
+     * Constructor requires the store used to look up post authors, and the matcher that decides
+     * which subscribers each author is relevant to.
+     * 
+     * @param userStore
+     * @param userMatcher
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public FeedSubscriptions(UserProfileStore userStore, UserMatcher userMatcher) {
+        if (userStore == null) {
+            throw new IllegalArgumentException("User Store cannot be null!");
+        }
+        if (userMatcher == null) {
+            throw new IllegalArgumentException("User Matcher cannot be null!");
+        }
+        this.userStore = userStore;
+        this.userMatcher = userMatcher;
+        this.attributeIds = new ConcurrentHashMap<String, Integer>();
+        this.nextAttributeId = new AtomicInteger();
+        this.subscriptionsByAttribute = new ConcurrentHashMap<Integer, Set<Subscription>>();
+        this.subscriptions = ConcurrentHashMap.newKeySet();
+        this.unindexed = ConcurrentHashMap.newKeySet();
+    }
+    
+    /**
+     * Starts a live feed for the given user.
+     * 
+     * @param subscriber
+     * @param capacity maximum number of undelivered posts to hold
+     * @param policy what to do with posts that arrive while the queue is full
+     * @return the new subscription
+     * @throws IllegalArgumentException if subscriber or policy is null, or capacity is not
+     *             positive
+     */
+    public Subscription subscribe(UserProfile subscriber, int capacity, OverflowPolicy policy) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("Subscriber cannot be null!");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The queue capacity must be positive!");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Overflow policy cannot be null!");
+        }
+        // Profiles may be modified in place after this call, so index a private copy.
+        UserProfile snapshot = new UserProfile(subscriber.getId(), subscriber.getAttributes());
+        int[] ids = new int[snapshot.getAttributes().size()];
+        int i = 0;
+        for (Entry<String, String> attribute : snapshot.getAttributes().entrySet()) {
+            ids[i++] = internAttribute(attribute.getKey(), attribute.getValue());
+        }
+        Arrays.sort(ids);
+        int required = userMatcher.getMinimumSharedAttributes(snapshot);
+        // The ids are chosen before the subscription is published, so unsubscribe() always sees
+        // them. A subscriber needing more shared attributes than they have cannot match anybody,
+        // so they are indexed under none and nothing is ever routed to them.
+        int[] indexIds = required > 0 && required <= ids.length ? getRarestIds(ids, ids.length
+                - required + 1) : new int[0];
+        final Subscription subscription = new Subscription(this, snapshot, capacity, policy, ids,
+                required, indexIds);
+        subscriptions.add(subscription);
+        
+        if (required <= 0) {
+            unindexed.add(subscription);
+        } else {
+            for (int id : indexIds) {
+                subscriptionsByAttribute.compute(id,
+                        new BiFunction<Integer, Set<Subscription>, Set<Subscription>>() {
+                            public Set<Subscription> apply(Integer id, Set<Subscription> postings) {
+                                if (postings == null) {
+                                    postings = ConcurrentHashMap.newKeySet();
+                                }
+                                postings.add(subscription);
+                                return postings;
+                            }
+                        });
+            }
+        }
+        return subscription;
+    }
+    
+    /**
+     * Gets the number of open subscriptions.
+     * 
+     * @return subscriptions
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+    
+    /**
+     * {@inheritDoc} Delivers the post to every matching subscription.
+     */
+    public void onPost(Post post) {
+        UserProfile author = userStore.getProfile(post.getUser());
+        if (author == null) {
+            return;
+        }
+        POSTS_ROUTED.increment();
+        
+        // Attributes no subscriber has ever had cannot contribute to a match, so skip them.
+        int[] authorIds = new int[author.getAttributes().size()];
+        int known = 0;
+        for (Entry<String, String> attribute : author.getAttributes().entrySet()) {
+            Integer id = attributeIds.get(getAttributeKey(attribute.getKey(), attribute
+                    .getValue()));
+            if (id != null) {
+                authorIds[known++] = id;
+            }
+        }
+        Arrays.sort(authorIds, 0, known);
+        
+        Set<Subscription> candidates = new HashSet<Subscription>(unindexed);
+        for (int i = 0; i < known; i++) {
+            Set<Subscription> postings = subscriptionsByAttribute.get(authorIds[i]);
+            if (postings != null) {
+                candidates.addAll(postings);
+            }
+        }
+        
+        for (Subscription candidate : candidates) {
+            CANDIDATES_CHECKED.increment();
+            // Counting is far cheaper than most matchers, and rules out most candidates.
+            if (candidate.minimumShared > 0
+                    && countShared(candidate, authorIds, known) < candidate.minimumShared) {
+                continue;
+            }
+            if (userMatcher.matches(candidate.getSubscriber(), author)) {
+                candidate.offer(post);
+                DELIVERIES.increment();
+            }
+        }
+    }
+    
+    /**
+     * Removes a subscription from the index.
+     * 
+     * @param subscription
+     */
+    void unsubscribe(final Subscription subscription) {
+        if (!subscriptions.remove(subscription)) {
+            return;
+        }
+        unindexed.remove(subscription);
+        for (int id : subscription.indexIds) {
+            // Dropping an emptied set happens under the same per-key lock as subscribe() adds.
+            subscriptionsByAttribute.computeIfPresent(id,
+                    new BiFunction<Integer, Set<Subscription>, Set<Subscription>>() {
+                        public Set<Subscription> apply(Integer id, Set<Subscription> postings) {
+                            postings.remove(subscription);
+                            return postings.isEmpty() ? null : postings;
+                        }
+                    });
+        }
+    }
+    
+    /**
+     * Counts the attributes the candidate shares with the author by merging the two sorted id
+     * arrays, stopping as soon as the count is known to reach the bound or to fall short of it.
+     */
+    private static int countShared(Subscription candidate, int[] authorIds, int authorCount) {
+        int[] ids = candidate.attributeIds;
+        int required = candidate.minimumShared;
+        int shared = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ids.length && j < authorCount && shared < required) {
+            if (shared + Math.min(ids.length - i, authorCount - j) < required) {
+                break;
+            }
+            if (ids[i] < authorIds[j]) {
+                i++;
+            } else if (ids[i] > authorIds[j]) {
+                j++;
+            } else {
+                shared++;
+                i++;
+                j++;
+            }
+        }
+        return shared;
+    }
+    
+    /**
+     * Picks the ids that currently have the fewest subscribers, which keeps the posting lists
+     * that posts must read short.
+     */
+    private int[] getRarestIds(int[] ids, int count) {
+        final Map<Integer, Integer> sizes = new HashMap<Integer, Integer>();
+        List<Integer> sorted = new ArrayList<Integer>(ids.length);
+        for (int id : ids) {
+            Set<Subscription> postings = subscriptionsByAttribute.get(id);
+            sizes.put(id, postings == null ? 0 : postings.size());
+            sorted.add(id);
+        }
+        Collections.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(sizes.get(a), sizes.get(b));
+            }
+        });
+        int[] rarest = new int[count];
+        for (int i = 0; i < count; i++) {
+            rarest[i] = sorted.get(i);
+        }
+        return rarest;
+    }
+    
+    private int internAttribute(String name, String value) {
+        String key = getAttributeKey(name, value);
+        Integer id = attributeIds.get(key);
+        if (id == null) {
+            Integer created = nextAttributeId.getAndIncrement();
+            id = attributeIds.putIfAbsent(key, created);
+            if (id == null) {
+                id = created;
+            }
+        }
+        return id;
+    }
+    
+    private static String getAttributeKey(String name, String value) {
+        return name + '\u0000' + value;
+    }
+}
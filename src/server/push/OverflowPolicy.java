@@ -0,0 +1,22 @@
+package server.push;
+
+/**
+ * OverflowPolicy decides what a full subscription queue does with a newly delivered post.
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the oldest queued post to make room, so the consumer always sees the latest posts.
+     */
+    DROP_OLDEST,
+    
+    /**
+     * Discard the new post, so the consumer sees an unbroken prefix of the stream.
+     */
+    DROP_NEWEST,
+    
+    /**
+     * Replace the queued post from the same author, if there is one, and otherwise discard the
+     * oldest queued post. A slow consumer then sees at least the latest post of each author.
+     */
+    COALESCE
+}
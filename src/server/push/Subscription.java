@@ -0,0 +1,193 @@
+package server.push;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * Subscription is one user's live feed: a bounded queue of matching posts, filled by the writer
+ * threads and drained by the consumer. Offering a post never blocks the writer; when the queue is
+ * full the overflow policy decides what is discarded.
+ */
+public class Subscription {
+    private final FeedSubscriptions owner;
+    private final UserProfile subscriber;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<Post> queue;
+    // The subscriber's interned attribute ids in ascending order, the matcher's lower bound on
+    // shared attributes, and the ids this subscription is indexed under; owned by
+    // FeedSubscriptions.
+    final int[] attributeIds;
+    final int minimumShared;
+    final int[] indexIds;
+    private long delivered;
+    private long dropped;
+    private boolean closed;
+    
+    /**
+     * Constructor requires the manager that routes posts here, a snapshot of the subscriber's
+     * profile, the queue bounds, and the subscriber's index data.
+     * 
+     * @param owner
+     * @param subscriber
+     * @param capacity
+     * @param policy
+     * @param attributeIds
+     * @param minimumShared
+     * @param indexIds
+     */
+    Subscription(FeedSubscriptions owner, UserProfile subscriber, int capacity,
+            OverflowPolicy policy, int[] attributeIds, int minimumShared, int[] indexIds) {
+        this.owner = owner;
+        this.subscriber = subscriber;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.queue = new ArrayDeque<Post>(Math.min(capacity, 16));
+        this.attributeIds = attributeIds;
+        this.minimumShared = minimumShared;
+        this.indexIds = indexIds;
+    }
+    
+    /**
+     * Getter for the subscriber's profile, as it was when the subscription was made.
+     * 
+     * @return subscriber
+     */
+    public UserProfile getSubscriber() {
+        return subscriber;
+    }
+    
+    /**
+     * Takes the next post without waiting.
+     * 
+     * @return the next post, or null if none is queued
+     */
+    public synchronized Post poll() {
+        return queue.poll();
+    }
+    
+    /**
+     * Takes the next post, waiting up to the given time for one to arrive.
+     * 
+     * @param timeout
+     * @param unit
+     * @return the next post, or null if none arrived in time or the subscription was closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized Post poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (queue.isEmpty() && !closed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return queue.poll();
+    }
+    
+    /**
+     * Takes every queued post, up to the given maximum.
+     * 
+     * @param max
+     * @return posts in delivery order
+     */
+    public synchronized List<Post> drain(int max) {
+        List<Post> posts = new ArrayList<Post>(Math.min(max, queue.size()));
+        while (posts.size() < max && !queue.isEmpty()) {
+            posts.add(queue.poll());
+        }
+        return posts;
+    }
+    
+    /**
+     * Getter for the number of posts accepted into the queue.
+     * 
+     * @return posts delivered
+     */
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+    
+    /**
+     * Getter for the number of posts discarded by the overflow policy.
+     * 
+     * @return posts dropped
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+    
+    /**
+     * Stops delivery and wakes any waiting consumer. Queued posts can still be drained.
+     */
+    public void close() {
+        owner.unsubscribe(this);
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+    }
+    
+    /**
+     * Determines whether the subscription has been closed.
+     * 
+     * @return true if closed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * Queues a post, applying the overflow policy if the queue is full.
+     * 
+     * @param post
+     */
+    synchronized void offer(Post post) {
+        if (closed) {
+            return;
+        }
+        if (queue.size() >= capacity) {
+            dropped++;
+            switch (policy) {
+            case DROP_NEWEST:
+                return;
+            case COALESCE:
+                if (replaceFromSameAuthor(post)) {
+                    delivered++;
+                    return;
+                }
+                queue.poll();
+                break;
+            case DROP_OLDEST:
+            default:
+                queue.poll();
+            }
+        }
+        queue.add(post);
+        delivered++;
+        notifyAll();
+    }
+    
+    /**
+     * Removes the queued post by the same author and appends the new one in its place at the tail.
+     */
+    private boolean replaceFromSameAuthor(Post post) {
+        Iterator<Post> posts = queue.iterator();
+        while (posts.hasNext()) {
+            if (posts.next().getUser().equals(post.getUser())) {
+                posts.remove();
+                queue.add(post);
+                notifyAll();
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,387 @@
+package server.standalone;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import server.admission.AdmissionController;
+import server.admission.ConcurrencyLimiter.Permit;
+import server.admission.OverloadedException;
+import server.bulk.BulkImporter;
+import server.bulk.ImportResult;
+import server.feed.FeedBuilder;
+import server.standalone.SimpleServerCLI.COMMAND;
+import data.proxy.PostStore;
+import data.proxy.UserProfileStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * CommandSession holds the state of a single client of the login/set/post/feed line protocol and
+ * turns each command line into the text that should be sent back. It is not thread-safe; each
+ * session must only be used by one thread at a time.
+ */
+public class CommandSession {
+    private static final int USER_ID_INDEX = 1;
+    private static final int ATTRIBUTE_NAME_INDEX = 1;
+    private static final int ATTRIBUTE_VALUE_INDEX = 2;
+    private static final int POST_CONTENT_INDEX = 1;
+    private static final int IMPORT_TYPE_INDEX = 1;
+    private static final int IMPORT_FILE_INDEX = 2;
+    
+    private final UserProfileStore userStore;
+    private final PostStore postStore;
+    private final FeedBuilder feedBuilder;
+    private BulkImporter bulkImporter;
+    private AdmissionController admissionController;
+    private UserProfile currentUser;
+    
+    /**
+     * Constructor requires the stores the commands act on and the FeedBuilder for feed requests.
+     * 
+     * @param userStore
+     * @param postStore
+     * @param feedBuilder
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public CommandSession(UserProfileStore userStore, PostStore postStore,
+            FeedBuilder feedBuilder) {
+        if (userStore == null) {
+            throw new IllegalArgumentException("User Store cannot be null!");
+        }
+        if (postStore == null) {
+            throw new IllegalArgumentException("Post Store cannot be null!");
+        }
+        if (feedBuilder == null) {
+            throw new IllegalArgumentException("Feed Builder cannot be null!");
+        }
+        this.userStore = userStore;
+        this.postStore = postStore;
+        this.feedBuilder = feedBuilder;
+    }
+    
+    /**
+     * Enables the import command, which reads files from the server's own file system and so is
+     * left disabled unless the session belongs to a trusted operator.
+     * 
+     * @param bulkImporter
+     * @return this session
+     */
+    public CommandSession withBulkImporter(BulkImporter bulkImporter) {
+        this.bulkImporter = bulkImporter;
+        return this;
+    }
+    
+    /**
+     * Admits feeds and writes through the given controller, so that they are refused or served
+     * stale when too many are running instead of queueing.
+     * 
+     * @param admissionController the controller to admit through, or null to admit everything
+     * @return this session
+     */
+    public CommandSession withAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+        return this;
+    }
+    
+    /**
+     * Getter for the logged in user.
+     * 
+     * @return current user, or null if nobody has logged in
+     */
+    public UserProfile getCurrentUser() {
+        return currentUser;
+    }
+    
+    /**
+     * Parses and executes a single command line.
+     * 
+     * @param line
+     * @return the response text, which is empty for a blank line
+     */
+    public String execute(String line) {
+        return execute(parseCommand(line));
+    }
+    
+    /**
+     * Executes a command line that has already been split by parseCommand().
+     * 
+     * @param line
+     * @return the response text, which is empty for a blank line
+     */
+    public String execute(String[] line) {
+        if (line.length == 0) {
+            return "";
+        }
+        
+        COMMAND cmd = getCommand(line);
+        if (cmd == null) {
+            return String.format("Invalid command \"%s\". Valid options are %s%n", line[0],
+                    Arrays.toString(COMMAND.values()));
+        }
+        
+        try {
+            switch (cmd) {
+            case LOGIN:
+                return login(line);
+            case SET:
+                return setAttribute(line);
+            case POST:
+                return post(line);
+            case FEED:
+                return getFeed();
+            case IMPORT:
+                return importFile(line);
+            default:
+                return "";
+            }
+        } catch (OverloadedException e) {
+            return String.format("The server is overloaded. Please try again.%n");
+        }
+    }
+    
+    /**
+     * Logs in with the specified user profile or creates a new profile if necessary.
+     * 
+     * @param line
+     * @return response text
+     */
+    private String login(String[] line) {
+        if (line.length <= USER_ID_INDEX) {
+            return String.format("Usage: login {username}%n");
+        }
+        String userId = line[USER_ID_INDEX];
+        StringBuilder response = new StringBuilder();
+        
+        currentUser = userStore.getProfile(userId);
+        
+        if (currentUser == null) {
+            response.append(String.format("Creating new user %s.%n", userId));
+            userStore.write(new UserProfile(userId));
+            currentUser = userStore.getProfile(userId);
+        }
+        
+        response.append(String.format("Logged in as %s.%n", userId));
+        return response.toString();
+    }
+    
+    /**
+     * Set an attribute for the current user.
+     * 
+     * @param line
+     * @return response text
+     */
+    private String setAttribute(String[] line) {
+        if (!isLoggedIn()) {
+            return notLoggedIn();
+        }
+        if (line.length <= ATTRIBUTE_VALUE_INDEX) {
+            return String.format("Usage: set {attribute name} {attribute value}%n");
+        }
+        String attributeName = line[ATTRIBUTE_NAME_INDEX];
+        String attributeValue = line[ATTRIBUTE_VALUE_INDEX];
+        
+        Permit permit = acquireWrite();
+        try {
+            // Update a copy, since feeds on other threads may be reading the stored profile.
+            UserProfile updated = new UserProfile(currentUser.getId(), currentUser
+                    .getAttributes());
+            updated.setAttribute(attributeName, attributeValue);
+            userStore.write(updated);
+            currentUser = updated;
+        } finally {
+            release(permit);
+        }
+        
+        return String.format("Set attribute \"%s\" to \"%s\".%n", attributeName, attributeValue);
+    }
+    
+    /**
+     * Create a post for the current user.
+     * 
+     * @param line
+     * @return response text
+     */
+    private String post(String[] line) {
+        if (!isLoggedIn()) {
+            return notLoggedIn();
+        }
+        if (line.length <= POST_CONTENT_INDEX) {
+            return String.format("Usage: post {post content}%n");
+        }
+        String postContent = line[POST_CONTENT_INDEX];
+        Post post = new Post(currentUser.getId(), postContent);
+        
+        Permit permit = acquireWrite();
+        try {
+            postStore.write(post);
+        } finally {
+            release(permit);
+        }
+        
+        return String.format("Created post \"%s\".%n", postContent);
+    }
+    
+    /**
+     * Builds the feed for the current user.
+     * 
+     * @return response text
+     */
+    private String getFeed() {
+        if (!isLoggedIn()) {
+            return notLoggedIn();
+        }
+        List<Post> feed;
+        boolean fresh = true;
+        if (admissionController == null) {
+            feed = feedBuilder.getFeedForUser(currentUser);
+        } else {
+            final List<Post> posts = new ArrayList<Post>();
+            fresh = admissionController.streamFeedForUser(currentUser, new Consumer<Post>() {
+                public void accept(Post post) {
+                    posts.add(post);
+                }
+            });
+            feed = posts;
+        }
+        
+        StringBuilder response = new StringBuilder();
+        response.append(String.format(fresh ? "Feed for user %s:%n"
+                : "Feed for user %s (stale, the server is busy):%n", currentUser.getId()));
+        
+        for (Post post : feed) {
+            response.append(String.format("\r\n\t%s >> %s%n", post.getUser(), post.getContent()));
+        }
+        return response.toString();
+    }
+    
+    /**
+     * Bulk imports a file of profiles or posts. Logging in is not required.
+     * 
+     * @param line
+     * @return response text
+     */
+    private String importFile(String[] line) {
+        if (bulkImporter == null) {
+            return String.format("Import is not enabled for this session.%n");
+        }
+        if (line.length <= IMPORT_FILE_INDEX) {
+            return String.format("Usage: import {profiles|posts} {file}%n");
+        }
+        String type = line[IMPORT_TYPE_INDEX].toLowerCase();
+        if (!"profiles".equals(type) && !"posts".equals(type)) {
+            return String.format("Usage: import {profiles|posts} {file}%n");
+        }
+        String file = line[IMPORT_FILE_INDEX];
+        
+        ImportResult result;
+        try (InputStream in = new FileInputStream(file)) {
+            if ("profiles".equals(type)) {
+                result = bulkImporter.importProfiles(in);
+            } else {
+                result = bulkImporter.importPosts(in);
+            }
+        } catch (IOException e) {
+            return String.format("Could not import \"%s\": %s%n", file, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return String.format("Import of \"%s\" was interrupted.%n", file);
+        }
+        
+        StringBuilder response = new StringBuilder();
+        response.append(String.format("Imported %s from \"%s\": %s.%n", type, file, result));
+        for (String error : result.getErrors()) {
+            response.append(String.format("\t%s%n", error));
+        }
+        return response.toString();
+    }
+    
+    /**
+     * Checks to see if the user is currently logged in.
+     * 
+     * @return true if logged in
+     */
+    private boolean isLoggedIn() {
+        return currentUser != null;
+    }
+    
+    private Permit acquireWrite() {
+        return admissionController == null ? null : admissionController.acquireWrite();
+    }
+    
+    private static void release(Permit permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
+    
+    private static String notLoggedIn() {
+        return String.format("Please log in first.%n");
+    }
+    
+    /**
+     * Gets the command named by the first argument of a parsed line.
+     * 
+     * @param line
+     * @return the command, or null if the line is empty or does not name a valid command
+     */
+    public static COMMAND getCommand(String[] line) {
+        if (line.length == 0) {
+            return null;
+        }
+        try {
+            return COMMAND.valueOf(line[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Parses the entire command into arguments, respecting double-quote groupings by user.
+     * 
+     * @param line
+     * @return arguments, with the command name first
+     */
+    public static String[] parseCommand(String line) {
+        final String ARG_SEPARATOR = "~!~";
+        StringBuilder finalArgs = new StringBuilder();
+        
+        // Split by double quotes
+        String[] quoteSplit = line.trim().split("\"");
+        
+        // The first segment must begin with the command itself, and
+        // any other components in here are also single-word arguments.
+        String[] starterSegment = quoteSplit[0].split("\\s");
+        for (String component : starterSegment) {
+            finalArgs.append(component);
+            finalArgs.append(ARG_SEPARATOR);
+        }
+        
+        // Now, iterate through the rest of the segments, flipping
+        // quote groupings on and off as appropriate
+        boolean insideQuotes = true;
+        for (int i = 1; i < quoteSplit.length; i++) {
+            if (insideQuotes) {
+                // If we are currently inside quotes, store the entire segment as an argument.
+                finalArgs.append(quoteSplit[i]);
+                finalArgs.append(ARG_SEPARATOR);
+            } else {
+                // If we are not inside quotes, we want to split by whitespace.
+                String[] singleWordArgs = quoteSplit[i].split("\\s");
+                for (String component : singleWordArgs) {
+                    finalArgs.append(component);
+                    finalArgs.append(ARG_SEPARATOR);
+                }
+            }
+            
+            // We want to flip our insideQuotes flag for each quote-split seqment.
+            insideQuotes = !insideQuotes;
+        }
+        
+        return finalArgs.toString().split(ARG_SEPARATOR);
+    }
+}
@@ -0,0 +1,350 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static data.structure.UserProfiles.user;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import metrics.Counter;
+import metrics.Metrics;
+import data.structure.AttributeCount;
+import data.structure.ScoredProfile;
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the AttributeIndex class.
+ */
+public class AttributeIndexTest {
+    
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+    
+    /**
+     * Tests that counts and weights follow profiles as they are added, changed in place and
+     * removed.
+     */
+    @Test
+    public void testCountsAndWeights() {
+        AttributeIndex index = new AttributeIndex();
+        UserProfile seth = new UserProfile("Seth");
+        seth.setAttribute("country", "US");
+        seth.setAttribute("hobby", "Falconry");
+        UserProfile nathan = new UserProfile("Nathan");
+        nathan.setAttribute("country", "US");
+        index.update(seth);
+        index.update(nathan);
+        
+        assertEquals("Wrong number of users!", 2, index.getUserCount());
+        assertEquals("Wrong count!", 2, index.getCount("Country", "us"));
+        assertEquals("Wrong count!", 1, index.getCount("hobby", "falconry"));
+        assertTrue("A rare attribute should weigh more than a common one!", index.getWeight(
+                "hobby", "falconry") > index.getWeight("country", "us"));
+        assertEquals("Wrong weight for an attribute everyone has!", Math.log(2), index.getWeight(
+                "country", "us"), 1e-12);
+        
+        seth.setAttribute("country", "CA");
+        index.update(seth);
+        assertEquals("The old value was not removed!", 1, index.getCount("country", "us"));
+        assertEquals("The new value was not added!", 1, index.getCount("country", "ca"));
+        
+        index.remove("Seth");
+        index.remove("Missing");
+        assertEquals("Wrong number of users!", 1, index.getUserCount());
+        assertEquals("The removed user is still counted!", 0, index.getCount("hobby", "falconry"));
+    }
+    
+    /**
+     * Tests that a user sharing a rare attribute outranks one sharing only common attributes, and
+     * that the primary user is not returned.
+     */
+    @Test
+    public void testRareAttributesRankFirst() {
+        AttributeIndex index = new AttributeIndex();
+        UserProfile primary = user("primary", "country", "us", "city", "boston", "hobby",
+                "falconry");
+        index.update(primary);
+        index.update(user("common", "country", "us", "city", "boston"));
+        index.update(user("rare", "hobby", "falconry"));
+        for (int i = 0; i < 20; i++) {
+            index.update(user("filler" + i, "country", "us", "city", i % 2 == 0 ? "boston"
+                    : "denver"));
+        }
+        
+        List<ScoredProfile> matches = index.getTopMatches(primary, 2, 0);
+        assertEquals("Wrong number of matches!", 2, matches.size());
+        assertEquals("The rare attribute should rank first!", "rare", matches.get(0).getProfile()
+                .getId());
+        assertTrue("Matches are not ordered by score!", matches.get(0).getScore() >= matches.get(
+                1).getScore());
+        for (ScoredProfile match : index.getTopMatches(primary, 100, 0)) {
+            assertTrue("The primary user was returned!", !"primary".equals(match.getProfile()
+                    .getId()));
+        }
+        assertEquals("Matches below the minimum score were returned!", 1, index.getTopMatches(
+                primary, 100, index.getWeight("hobby", "falconry")).size());
+    }
+    
+    /**
+     * Tests that WAND returns the same scores as scoring every user, while scoring far fewer of
+     * them.
+     */
+    @Test
+    public void testTopMatchesAgreeWithExhaustiveScoring() {
+        Random random = new Random(7);
+        AttributeIndex index = new AttributeIndex();
+        List<UserProfile> users = new ArrayList<UserProfile>();
+        for (int i = 0; i < 5000; i++) {
+            UserProfile user = new UserProfile("user" + i);
+            user.setAttribute("country", random.nextInt(10) < 8 ? "us" : "ca");
+            user.setAttribute("language", random.nextInt(10) < 7 ? "english" : "french");
+            user.setAttribute("city", "city" + random.nextInt(20));
+            user.setAttribute("hobby", "hobby" + random.nextInt(500));
+            users.add(user);
+        }
+        index.updateAll(users);
+        
+        Metrics.setEnabled(true);
+        Counter scored = Metrics.counter("AttributeIndex.candidatesScored");
+        for (int q = 0; q < 50; q++) {
+            UserProfile primary = users.get(random.nextInt(users.size()));
+            List<ScoredProfile> matches = index.getTopMatches(primary, 10, 0);
+            List<Double> expected = exhaustiveTopScores(index, users, primary, 10);
+            assertEquals("Wrong number of matches!", expected.size(), matches.size());
+            for (int i = 0; i < matches.size(); i++) {
+                assertEquals("WAND disagrees with exhaustive scoring!", expected.get(i), matches
+                        .get(i).getScore(), 1e-9);
+            }
+        }
+        assertTrue("WAND scored too many candidates: " + scored.get(), scored.get() < 50 * 5000
+                / 20);
+    }
+    
+    /**
+     * Tests that users can be looked up by a set of attribute values.
+     */
+    @Test
+    public void testUsersWithAttributes() {
+        AttributeIndex index = new AttributeIndex();
+        UserProfile seth = user("Seth", "city", "denver", "hobby", "falconry");
+        UserProfile nathan = user("Nathan", "city", "denver", "hobby", "reading");
+        UserProfile amy = user("Amy", "city", "boston", "hobby", "falconry");
+        index.updateAll(Arrays.asList(seth, nathan, amy));
+        
+        Map<String, String> required = new HashMap<String, String>();
+        required.put("City", "Denver");
+        required.put("hobby", "falconry");
+        assertEquals("Only Seth has both values!", Arrays.asList(seth), index
+                .getUsersWithAttributes(required));
+        assertEquals("Both Denver users should be found!", 2, index.getUsersWithAttributes(
+                Collections.singletonMap("city", "denver")).size());
+        assertTrue("Nobody has an unknown value!", index.getUsersWithAttributes(Collections
+                .singletonMap("city", "austin")).isEmpty());
+        assertEquals("No requirements should find everyone!", 3, index.getUsersWithAttributes(
+                Collections.<String, String> emptyMap()).size());
+    }
+    
+    /**
+     * Tests that candidates are exactly the users sharing enough values, and that hot values are
+     * skipped whenever enough other values must be shared.
+     */
+    @Test
+    public void testCandidatesAgreeWithExhaustiveCheck() {
+        Random random = new Random(11);
+        AttributeIndex index = new AttributeIndex().withHotValues(0.3, 100);
+        List<UserProfile> users = new ArrayList<UserProfile>();
+        for (int i = 0; i < 3000; i++) {
+            UserProfile user = new UserProfile("user" + i);
+            user.setAttribute("country", random.nextInt(10) < 9 ? "us" : "ca");
+            user.setAttribute("language", random.nextInt(10) < 8 ? "english" : "french");
+            user.setAttribute("city", "city" + random.nextInt(30));
+            user.setAttribute("hobby", "hobby" + random.nextInt(300));
+            users.add(user);
+        }
+        index.updateAll(users);
+        List<AttributeCount> hot = index.getHotValues();
+        assertEquals("Only the country and language values of most users should be hot!", 2, hot
+                .size());
+        assertEquals("The commonest value should come first!", "us", hot.get(0).getValue());
+        
+        Metrics.setEnabled(true);
+        Counter skipped = Metrics.counter("AttributeIndex.hotValuesSkipped");
+        Counter read = Metrics.counter("AttributeIndex.hotValuesRead");
+        for (int q = 0; q < 30; q++) {
+            UserProfile primary = users.get(random.nextInt(users.size()));
+            for (int shared = 1; shared <= 4; shared++) {
+                Set<UserProfile> expected = new HashSet<UserProfile>();
+                for (UserProfile user : users) {
+                    if (countShared(primary, user) >= shared) {
+                        expected.add(user);
+                    }
+                }
+                List<UserProfile> candidates = index.getCandidates(primary, shared);
+                assertEquals("Wrong candidates!", expected, new HashSet<UserProfile>(
+                        candidates));
+                assertEquals("A candidate was returned twice!", expected.size(), candidates
+                        .size());
+            }
+        }
+        assertTrue("Hot values should have been skipped!", skipped.get() > 0);
+        assertTrue("Hot values must be read when one shared value is enough!", read.get() > 0);
+        assertTrue("Nobody shares more values than the primary user has!", index.getCandidates(
+                users.get(0), 5).isEmpty());
+    }
+    
+    /**
+     * Tests that a hot value is read from a bounded sample once sampling is on, and that the
+     * sample only ever holds users who have the value as users come and go.
+     */
+    @Test
+    public void testHotValueSampling() {
+        AttributeIndex index = new AttributeIndex().withHotValues(0.5, 10);
+        List<UserProfile> users = new ArrayList<UserProfile>();
+        for (int i = 0; i < 1000; i++) {
+            UserProfile user = user("user" + i, "language", "english", "hobby", "hobby" + i % 50);
+            users.add(user);
+        }
+        index.updateAll(users);
+        UserProfile primary = user("primary", "language", "english", "hobby", "hobby0");
+        assertEquals("Everyone shares the hot value without sampling!", 1000, index
+                .getCandidates(primary, 1).size());
+        
+        Metrics.setEnabled(true);
+        Counter sampled = Metrics.counter("AttributeIndex.hotValuesSampled");
+        index.withHotValueSampling(100);
+        Random random = new Random(3);
+        for (int round = 0; round < 5; round++) {
+            List<UserProfile> candidates = index.getCandidates(primary, 1);
+            Set<UserProfile> distinct = new HashSet<UserProfile>(candidates);
+            assertEquals("A candidate was returned twice!", distinct.size(), candidates.size());
+            assertTrue("The hot value was not sampled: " + candidates.size(), candidates.size()
+                    <= 100 + 1000 / 50);
+            for (UserProfile user : users) {
+                if (user.getAttribute("hobby").equals("hobby0")) {
+                    assertTrue("A user sharing a value that is not hot was missed!", distinct
+                            .contains(user));
+                }
+            }
+            for (UserProfile candidate : candidates) {
+                assertTrue("A sampled user no longer has the value!", candidate.getAttribute(
+                        "language").equals("english") || candidate.getAttribute("hobby").equals(
+                        "hobby0"));
+            }
+            
+            // Churn the hot value's posting list through adds, removals and changes.
+            for (int i = 0; i < 200; i++) {
+                UserProfile user = users.get(random.nextInt(users.size()));
+                if (random.nextBoolean()) {
+                    user.setAttribute("language", random.nextBoolean() ? "english" : "french");
+                    index.update(user);
+                } else {
+                    index.remove(user.getId());
+                    index.update(user);
+                }
+            }
+        }
+        assertEquals("Every read of the hot value should have been sampled!", 5, sampled.get());
+        
+        index.withHotValueSampling(0);
+        int english = 0;
+        for (UserProfile user : users) {
+            if (user.getAttribute("language").equals("english")) {
+                english++;
+            }
+        }
+        assertEquals("Turning sampling off should read the whole list again!", english, index
+                .getCandidates(user("primary", "language", "english"), 1).size());
+    }
+    
+    /**
+     * Tests the argument requirements of the AttributeIndex.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new AttributeIndex().update(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null profile was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new AttributeIndex().getTopMatches(new UserProfile("Seth"), -1, 0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A negative k was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new AttributeIndex().getCandidates(new UserProfile("Seth"), 0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("No shared values were required, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new AttributeIndex().withHotValueSampling(-1);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A negative sample size was passed in, but no IllegalArgumentException was "
+                + "thrown.", thrown);
+    }
+    
+    private static List<Double> exhaustiveTopScores(AttributeIndex index, List<UserProfile> users,
+            UserProfile primary, int k) {
+        List<Double> scores = new ArrayList<Double>();
+        for (UserProfile user : users) {
+            if (user == primary) {
+                continue;
+            }
+            double score = 0;
+            for (Map.Entry<String, String> attribute : primary.getAttributes().entrySet()) {
+                if (attribute.getValue().equals(user.getAttribute(attribute.getKey()))) {
+                    score += index.getWeight(attribute.getKey(), attribute.getValue());
+                }
+            }
+            if (score > 0) {
+                scores.add(score);
+            }
+        }
+        Collections.sort(scores, Collections.reverseOrder(new Comparator<Double>() {
+            public int compare(Double a, Double b) {
+                return Double.compare(a, b);
+            }
+        }));
+        return scores.subList(0, Math.min(k, scores.size()));
+    }
+    
+    private static int countShared(UserProfile primary, UserProfile user) {
+        int shared = 0;
+        for (Map.Entry<String, String> attribute : primary.getAttributes().entrySet()) {
+            if (attribute.getValue().equals(user.getAttribute(attribute.getKey()))) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+}
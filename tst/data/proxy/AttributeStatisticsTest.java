@@ -0,0 +1,128 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static data.structure.UserProfiles.attributes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the AttributeStatistics class.
+ */
+public class AttributeStatisticsTest {
+    
+    /**
+     * Tests the estimates for a population where 80% speak English and 12 users are falconers.
+     */
+    @Test
+    public void testEstimates() {
+        AttributeStatistics statistics = new AttributeStatistics();
+        statistics.updateAll(population());
+        
+        assertEquals("Wrong user count!", 1000, statistics.getUserCount());
+        assertEquals("Wrong count of users with a language!", 1000, statistics.getUserCount(
+                "language"));
+        assertEquals("Wrong common value count!", 800, statistics.estimateCount("language",
+                "english"), 10);
+        assertEquals("Wrong rare value count!", 12, statistics.estimateCount("Hobby", "Falconry"),
+                10);
+        assertEquals("Wrong pair count!", 12, statistics.estimateCount(attributes("language",
+                "english", "hobby", "falconry")), 10);
+        assertEquals("Users who never share values should not be counted together!", 0,
+                statistics.estimateCount(attributes("language", "french", "hobby",
+                        "falconry")), 10);
+        assertEquals("Wrong chance of sharing a language!", 0.8 * 0.8 + 0.2 * 0.2, statistics
+                .estimateSharedSelectivity("language"), 0.02);
+    }
+    
+    /**
+     * Tests that changed and removed profiles have their old values taken back out.
+     */
+    @Test
+    public void testUpdateAndRemove() {
+        AttributeStatistics statistics = new AttributeStatistics();
+        List<UserProfile> users = population();
+        statistics.updateAll(users);
+        
+        for (UserProfile user : users.subList(0, 400)) {
+            user.setAttribute("language", "french");
+            statistics.update(user);
+        }
+        assertEquals("A changed value was not taken out!", 480, statistics.estimateCount(
+                "language", "english"), 10);
+        assertEquals("A changed value was not counted!", 520, statistics.estimateCount(
+                "language", "french"), 10);
+        
+        for (UserProfile user : users.subList(0, 500)) {
+            statistics.remove(user.getId());
+        }
+        assertEquals("Wrong user count!", 500, statistics.getUserCount());
+        assertEquals("A removed value was not taken out!", 100, statistics.estimateCount(
+                "language", "french"), 10);
+        assertEquals("Removed falconers were not taken out!", 0, statistics.estimateCount(
+                attributes("language", "english", "hobby", "falconry")), 10);
+    }
+    
+    /**
+     * Tests that the store keeps statistics of the profiles it held before and after they were
+     * enabled.
+     */
+    @Test
+    public void testLocalStore() {
+        LocalTransientUserProfileStore store = new LocalTransientUserProfileStore();
+        assertEquals("Statistics should be off by default!", null, store.getStatistics());
+        List<UserProfile> users = population();
+        store.writeAll(users.subList(0, 500));
+        store.withStatistics();
+        store.writeAll(users.subList(500, 999));
+        store.write(users.get(999));
+        store.delete(users.get(0).getId());
+        
+        AttributeStatistics statistics = store.getStatistics();
+        assertEquals("Wrong user count!", 999, statistics.getUserCount());
+        assertEquals("Wrong pair count!", 11, statistics.estimateCount(attributes("language",
+                "english", "hobby", "falconry")), 10);
+        assertEquals("Wrapped stores should share the statistics!", statistics,
+                new IndexedUserProfileStore(store).getStatistics());
+    }
+    
+    /**
+     * Tests the argument requirements of the AttributeStatistics.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new AttributeStatistics().update(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null profile was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * 1000 users: 800 speak English and the rest French, 12 of the English speakers are
+     * falconers, and every user lives in one of 100 cities.
+     */
+    private static List<UserProfile> population() {
+        List<UserProfile> users = new ArrayList<UserProfile>();
+        for (int i = 0; i < 1000; i++) {
+            UserProfile user = new UserProfile("user" + i);
+            user.setAttribute("language", i % 5 == 4 ? "french" : "english");
+            user.setAttribute("city", "city" + (i % 100));
+            if (i % 5 != 4 && i < 15) {
+                user.setAttribute("hobby", "falconry");
+            } else {
+                user.setAttribute("hobby", "hobby" + i);
+            }
+            users.add(user);
+        }
+        return users;
+    }
+}
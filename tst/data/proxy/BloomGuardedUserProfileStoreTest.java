@@ -0,0 +1,109 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the BloomGuardedUserProfileStore class.
+ */
+public class BloomGuardedUserProfileStoreTest {
+    
+    /**
+     * Tests that lookups for users who were never stored do not reach the wrapped store, while
+     * every stored user, including those stored before the guard, is still found.
+     */
+    @Test
+    public void testMissesSkipStore() {
+        LocalTransientUserProfileStore wrapped = new LocalTransientUserProfileStore();
+        UserProfile seth = new UserProfile("Seth");
+        wrapped.write(seth);
+        CountingUserProfileStore counting = new CountingUserProfileStore(wrapped);
+        BloomGuardedUserProfileStore store = new BloomGuardedUserProfileStore(counting);
+        store.rebuild();
+        
+        UserProfile nathan = new UserProfile("Nathan");
+        store.writeAll(Arrays.asList(nathan));
+        assertEquals("A user stored before the guard was not found!", seth, store.getProfile(
+                "Seth"));
+        assertEquals("A user stored through the guard was not found!", nathan, store.getProfile(
+                "Nathan"));
+        
+        counting.lookups.set(0);
+        for (int i = 0; i < 1000; i++) {
+            assertNull("A user who was never stored was found!", store.getProfile("new" + i));
+        }
+        assertTrue(counting.lookups.get() + " of 1000 misses reached the store!", counting.lookups
+                .get() < 30);
+        assertEquals("Every false positive should be counted!", counting.lookups.get(), store
+                .getFilter().getFalsePositiveCount());
+        
+        store.delete("Seth");
+        assertNull("User was not deleted!", store.getProfile("Seth"));
+    }
+    
+    /**
+     * Tests that lookups go through to the wrapped store until the filter has been built.
+     */
+    @Test
+    public void testPassThroughUntilBuilt() {
+        LocalTransientUserProfileStore wrapped = new LocalTransientUserProfileStore();
+        wrapped.write(new UserProfile("Seth"));
+        BloomGuardedUserProfileStore store = new BloomGuardedUserProfileStore(wrapped);
+        // Whether or not the background build has finished, the stored user must be found.
+        assertEquals("A stored user was not found!", "Seth", store.getProfile("Seth").getId());
+    }
+    
+    /**
+     * Tests the argument requirements of the BloomGuardedUserProfileStore.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new BloomGuardedUserProfileStore(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null store was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * Counts the lookups that reach the wrapped store.
+     */
+    private static class CountingUserProfileStore implements UserProfileStore {
+        private final UserProfileStore userStore;
+        private final AtomicInteger lookups = new AtomicInteger();
+        
+        private CountingUserProfileStore(UserProfileStore userStore) {
+            this.userStore = userStore;
+        }
+        
+        public void write(UserProfile profile) {
+            userStore.write(profile);
+        }
+        
+        public void delete(String id) {
+            userStore.delete(id);
+        }
+        
+        public UserProfile getProfile(String id) {
+            lookups.incrementAndGet();
+            return userStore.getProfile(id);
+        }
+        
+        public Collection<UserProfile> getUsersForPredicate(Predicate<UserProfile> predicate) {
+            return userStore.getUsersForPredicate(predicate);
+        }
+    }
+}
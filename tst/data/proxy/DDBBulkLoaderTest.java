@@ -0,0 +1,272 @@
+package data.proxy;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.makeThreadSafe;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the DDBBulkLoader class.
+ */
+public class DDBBulkLoaderTest {
+    
+    private static final String USER_TABLE_NAME = "UserProfiles";
+    private DynamoDB ddbClient;
+    
+    /**
+     * Creates the basic mock DynamoDB object.
+     */
+    @Before
+    public void setup() {
+        ddbClient = createMock(DynamoDB.class);
+    }
+    
+    /**
+     * Tests the argument requirements of the DDBBulkLoader.
+     */
+    @Test
+    public void testIllegalArguments() throws Exception {
+        boolean thrown = false;
+        try {
+            new DDBBulkLoader(ddbClient, null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null table name was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new DDBBulkLoader(ddbClient, USER_TABLE_NAME).withMaxRate(0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A zero rate was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * Tests that load() splits the profiles into full BatchWriteItem requests.
+     */
+    @Test
+    public void testLoad() throws Exception {
+        Capture<TableWriteItems> requests = Capture.newInstance(CaptureType.ALL);
+        expect(ddbClient.batchWriteItem(capture(requests))).andReturn(written()).times(3);
+        replay(ddbClient);
+        
+        DDBBulkLoader loader = new DDBBulkLoader(ddbClient, USER_TABLE_NAME).withThreads(2);
+        assertEquals("Wrong number of profiles written!", 60, loader.load(createProfiles(60)
+                .iterator()));
+        
+        assertEquals("Wrong number of items written!", 60, loader.getItemsWritten());
+        int total = 0;
+        for (TableWriteItems request : requests.getValues()) {
+            assertEquals("Wrong table!", USER_TABLE_NAME, request.getTableName());
+            assertTrue("Too many items in one request!", request.getItemsToPut().size() <= 25);
+            total += request.getItemsToPut().size();
+        }
+        assertEquals("Wrong number of items sent!", 60, total);
+        verify(ddbClient);
+    }
+    
+    /**
+     * Tests that throttled requests and unprocessed items are retried, and slow the loader down.
+     */
+    @Test
+    public void testThrottling() throws Exception {
+        expect(ddbClient.batchWriteItem(anyObject(TableWriteItems.class))).andThrow(
+                new ProvisionedThroughputExceededException("Slow down!")).once();
+        expect(ddbClient.batchWriteItem(anyObject(TableWriteItems.class))).andReturn(
+                unprocessed(5)).once();
+        expect(ddbClient.batchWriteItemUnprocessed(EasyMock
+                .<Map<String, List<WriteRequest>>> anyObject())).andReturn(written()).once();
+        replay(ddbClient);
+        
+        DDBBulkLoader loader = new DDBBulkLoader(ddbClient, USER_TABLE_NAME).withThreads(1)
+                .withMaxRate(1000).withBackoff(0, 0, 5);
+        loader.load(createProfiles(25).iterator());
+        
+        assertEquals("Wrong number of items written!", 25, loader.getItemsWritten());
+        assertEquals("Wrong number of throttled requests!", 2, loader.getThrottleCount());
+        assertTrue("Throttling should lower the rate!", loader.getRate() < 1000);
+        verify(ddbClient);
+    }
+    
+    /**
+     * Tests that a batch that stays throttled fails the load once it runs out of attempts.
+     */
+    @Test
+    public void testGiveUp() throws Exception {
+        expect(ddbClient.batchWriteItem(anyObject(TableWriteItems.class))).andThrow(
+                new ProvisionedThroughputExceededException("Slow down!")).times(3);
+        replay(ddbClient);
+        
+        DDBBulkLoader loader = new DDBBulkLoader(ddbClient, USER_TABLE_NAME).withThreads(1)
+                .withBackoff(0, 0, 3);
+        boolean thrown = false;
+        try {
+            loader.load(createProfiles(10).iterator());
+        } catch (ProvisionedThroughputExceededException e) {
+            thrown = true;
+        }
+        assertTrue("The load should fail once a batch runs out of attempts!", thrown);
+        verify(ddbClient);
+    }
+    
+    /**
+     * Tests that a load resumes after the checkpointed position and records its own progress.
+     */
+    @Test
+    public void testCheckpoint() throws Exception {
+        File checkpoint = File.createTempFile("profiles", ".checkpoint");
+        checkpoint.deleteOnExit();
+        Files.write(checkpoint.toPath(), "30".getBytes(StandardCharsets.UTF_8));
+        Capture<TableWriteItems> requests = Capture.newInstance(CaptureType.ALL);
+        expect(ddbClient.batchWriteItem(capture(requests))).andReturn(written()).times(2);
+        replay(ddbClient);
+        
+        DDBBulkLoader loader = new DDBBulkLoader(ddbClient, USER_TABLE_NAME).withThreads(1)
+                .withCheckpoint(checkpoint.toPath());
+        assertEquals("Wrong number of profiles written!", 30, loader.load(createProfiles(60)
+                .iterator()));
+        
+        assertEquals("The checkpointed profiles were written again!", "user30", requests
+                .getValues().get(0).getItemsToPut().iterator().next().getString("ID"));
+        assertEquals("Wrong checkpoint recorded!", "60", new String(Files.readAllBytes(checkpoint
+                .toPath()), StandardCharsets.UTF_8));
+        verify(ddbClient);
+    }
+    
+    /**
+     * Tests that a checkpoint that cannot be written is attached to the failure that stopped the
+     * load rather than replacing it.
+     */
+    @Test
+    public void testCheckpointFailureIsSuppressed() throws Exception {
+        expect(ddbClient.batchWriteItem(anyObject(TableWriteItems.class))).andThrow(
+                new ProvisionedThroughputExceededException("Slow down!")).once();
+        replay(ddbClient);
+        
+        File directory = File.createTempFile("profiles", ".missing");
+        directory.delete();
+        DDBBulkLoader loader = new DDBBulkLoader(ddbClient, USER_TABLE_NAME).withThreads(1)
+                .withBackoff(0, 0, 1).withCheckpoint(new File(directory, "profiles.checkpoint")
+                        .toPath());
+        ProvisionedThroughputExceededException thrown = null;
+        try {
+            loader.load(createProfiles(10).iterator());
+        } catch (ProvisionedThroughputExceededException e) {
+            thrown = e;
+        }
+        assertTrue("The batch failure should be thrown!", thrown != null);
+        assertEquals("The checkpoint failure should be suppressed!", 1,
+                thrown.getSuppressed().length);
+        assertTrue("Wrong suppressed exception!",
+                thrown.getSuppressed()[0] instanceof IllegalStateException);
+        verify(ddbClient);
+    }
+    
+    /**
+     * Tests that writeAll() never sends the same id twice in one request.
+     */
+    @Test
+    public void testWriteAllDuplicateIds() {
+        Capture<TableWriteItems> requests = Capture.newInstance(CaptureType.ALL);
+        expect(ddbClient.batchWriteItem(capture(requests))).andReturn(written()).times(2);
+        replay(ddbClient);
+        
+        new DDBBulkLoader(ddbClient, USER_TABLE_NAME).writeAll(Arrays.asList(
+                new UserProfile("a"), new UserProfile("b"), new UserProfile("a")));
+        
+        assertEquals("Wrong number of items in the first request!", 2, requests.getValues().get(0)
+                .getItemsToPut().size());
+        verify(ddbClient);
+    }
+    
+    /**
+     * Tests that load() does not write a repeated id until the batch holding its earlier profile
+     * has finished, even when that batch is slow.
+     */
+    @Test
+    public void testLoadDuplicateIds() throws Exception {
+        final List<Integer> finished = Collections.synchronizedList(new ArrayList<Integer>());
+        expect(ddbClient.batchWriteItem(anyObject(TableWriteItems.class))).andAnswer(
+                new IAnswer<BatchWriteItemOutcome>() {
+                    public BatchWriteItemOutcome answer() throws Throwable {
+                        TableWriteItems request = (TableWriteItems) getCurrentArguments()[0];
+                        int size = request.getItemsToPut().size();
+                        if (size == 2) {
+                            // Gives the later batch every chance to overtake this one.
+                            Thread.sleep(200);
+                        }
+                        finished.add(size);
+                        return written();
+                    }
+                }).times(2);
+        // Mocks serialize their calls by default, which would hide any reordering.
+        makeThreadSafe(ddbClient, false);
+        replay(ddbClient);
+        
+        new DDBBulkLoader(ddbClient, USER_TABLE_NAME).withThreads(2).load(Arrays.asList(
+                new UserProfile("a"), new UserProfile("b"), new UserProfile("a")).iterator());
+        
+        assertEquals("The repeated id was written before its earlier profile!", Arrays.asList(2,
+                1), finished);
+        verify(ddbClient);
+    }
+    
+    private static List<UserProfile> createProfiles(int count) {
+        List<UserProfile> profiles = new ArrayList<UserProfile>();
+        for (int i = 0; i < count; i++) {
+            UserProfile profile = new UserProfile("user" + i);
+            profile.setAttribute("city", "Boston");
+            profiles.add(profile);
+        }
+        return profiles;
+    }
+    
+    private static BatchWriteItemOutcome written() {
+        return new BatchWriteItemOutcome(new BatchWriteItemResult());
+    }
+    
+    private static BatchWriteItemOutcome unprocessed(int count) {
+        List<WriteRequest> requests = new ArrayList<WriteRequest>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new WriteRequest().withPutRequest(new PutRequest()));
+        }
+        return new BatchWriteItemOutcome(new BatchWriteItemResult().withUnprocessedItems(
+                Collections.singletonMap(USER_TABLE_NAME, requests)));
+    }
+}
@@ -10,14 +10,20 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DeleteItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.PutItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
 import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
@@ -174,6 +180,28 @@ public class DDBUserProfileStoreTest {
         verify(ddbClient);
     }
     
+    /**
+     * Tests that the writeAll() method of DDBUserProfileStore batches its writes.
+     */
+    @Test
+    public void testWriteAll() {
+        Table tableToTest = expectValidTable();
+        expect(ddbClient.batchWriteItem(isA(TableWriteItems.class))).andReturn(
+                new BatchWriteItemOutcome(new BatchWriteItemResult())).times(2);
+        replay(tableToTest);
+        replay(ddbClient);
+        
+        List<UserProfile> profiles = new ArrayList<UserProfile>();
+        for (int i = 0; i < 30; i++) {
+            profiles.add(new UserProfile("test" + i));
+        }
+        DDBUserProfileStore store = new DDBUserProfileStore(ddbClient, USER_TABLE_NAME);
+        store.writeAll(profiles);
+        
+        verify(tableToTest);
+        verify(ddbClient);
+    }
+    
     /**
      * Tests that the delete() method of DDBUserProfileStore calls table.deleteItem() once.
      */
@@ -0,0 +1,119 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the IndexedUserProfileStore class.
+ */
+public class IndexedUserProfileStoreTest {
+    
+    /**
+     * Tests that writes, in-place changes and deletes reach both the wrapped store and the index.
+     */
+    @Test
+    public void testIndexFollowsStore() {
+        IndexedUserProfileStore store = new IndexedUserProfileStore(
+                new LocalTransientUserProfileStore());
+        UserProfile seth = new UserProfile("Seth");
+        seth.setAttribute("hobby", "falconry");
+        UserProfile nathan = new UserProfile("Nathan");
+        nathan.setAttribute("hobby", "falconry");
+        store.writeAll(Arrays.asList(seth, nathan));
+        
+        assertEquals("Users do not match!", seth, store.getProfile("Seth"));
+        assertEquals("Wrong count!", 2, store.getIndex().getCount("hobby", "falconry"));
+        assertEquals("Wrong top match!", nathan, store.getTopMatches(seth, 5).get(0).getProfile());
+        
+        seth.setAttribute("hobby", "reading");
+        store.write(seth);
+        assertEquals("An in-place change was not indexed!", 1, store.getIndex().getCount(
+                "hobby", "falconry"));
+        
+        store.delete("Nathan");
+        assertNull("User was not deleted!", store.getProfile("Nathan"));
+        assertEquals("The deleted user is still indexed!", 0, store.getIndex().getCount("hobby",
+                "falconry"));
+    }
+    
+    /**
+     * Tests that a scan with required attribute values only tests the users who have them.
+     */
+    @Test
+    public void testRequiredAttributesPushDown() {
+        IndexedUserProfileStore store = new IndexedUserProfileStore(
+                new LocalTransientUserProfileStore());
+        for (int i = 0; i < 20; i++) {
+            UserProfile user = new UserProfile("u" + i);
+            user.setAttribute("city", i % 4 == 0 ? "denver" : "boston");
+            store.write(user);
+        }
+        final AtomicInteger tested = new AtomicInteger();
+        Predicate<UserProfile> everyone = new Predicate<UserProfile>() {
+            public boolean test(UserProfile profile) {
+                tested.incrementAndGet();
+                return true;
+            }
+        };
+        
+        Collection<UserProfile> users = store.getUsersForPredicate(everyone, Collections
+                .singletonMap("city", "denver"));
+        assertEquals("Wrong number of users!", 5, users.size());
+        assertEquals("Only the users in denver should have been tested!", 5, tested.get());
+        
+        tested.set(0);
+        assertEquals("No requirements should scan everyone!", 20, store.getUsersForPredicate(
+                everyone, Collections.<String, String> emptyMap()).size());
+        assertEquals("Every user should have been tested!", 20, tested.get());
+    }
+    
+    /**
+     * Tests that a scan with a shared attribute bound only tests the users who share enough.
+     */
+    @Test
+    public void testSharedAttributesPushDown() {
+        IndexedUserProfileStore store = new IndexedUserProfileStore(
+                new LocalTransientUserProfileStore());
+        for (int i = 0; i < 20; i++) {
+            UserProfile user = new UserProfile("u" + i);
+            user.setAttribute("city", i % 4 == 0 ? "denver" : "boston");
+            user.setAttribute("hobby", i % 2 == 0 ? "falconry" : "reading");
+            store.write(user);
+        }
+        final AtomicInteger tested = new AtomicInteger();
+        Predicate<UserProfile> everyone = new Predicate<UserProfile>() {
+            public boolean test(UserProfile profile) {
+                tested.incrementAndGet();
+                return true;
+            }
+        };
+        UserProfile primary = new UserProfile("primary");
+        primary.setAttribute("city", "denver");
+        primary.setAttribute("hobby", "falconry");
+        
+        assertEquals("Wrong number of users!", 5, store.getUsersForPredicate(everyone, primary,
+                2).size());
+        assertEquals("Only the users sharing both values should have been tested!", 5, tested
+                .get());
+        
+        tested.set(0);
+        assertEquals("Wrong number of users!", 10, store.getUsersForPredicate(everyone, primary,
+                1).size());
+        assertEquals("Only the users sharing a value should have been tested!", 10, tested.get());
+        
+        tested.set(0);
+        assertEquals("No bound should scan everyone!", 20, store.getUsersForPredicate(everyone,
+                primary, 0).size());
+        assertEquals("Every user should have been tested!", 20, tested.get());
+    }
+}
@@ -0,0 +1,116 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the MatchGraph class.
+ */
+public class MatchGraphTest {
+    
+    /**
+     * Tests that a written snapshot loads back with the same matches.
+     */
+    @Test
+    public void testWriteAndLoad() throws IOException {
+        File file = File.createTempFile("matches", ".graph");
+        file.deleteOnExit();
+        MatchGraph.write(file.toPath(), Arrays.asList("Seth", "Nathan", "Zoe"), new int[][] {
+                { 0, 1, 2 }, {}, { 0, 2 } });
+        
+        MatchGraph graph = MatchGraph.load(file.toPath());
+        assertEquals("Wrong user count!", 3, graph.getUserCount());
+        assertEquals("Wrong match count!", 5, graph.getMatchCount());
+        assertEquals("Wrong matches!", Arrays.asList("Seth", "Nathan", "Zoe"), graph
+                .getMatches("Seth"));
+        assertEquals("Wrong matches!", Collections.emptyList(), graph.getMatches("Nathan"));
+        assertEquals("Wrong matches!", Arrays.asList("Seth", "Zoe"), graph.getMatches("Zoe"));
+        assertTrue("Nathan is in the snapshot!", graph.contains("Nathan"));
+        assertFalse("Charles is not in the snapshot!", graph.contains("Charles"));
+        assertNull("Charles is not in the snapshot!", graph.getMatches("Charles"));
+        
+        MatchGraph.write(file.toPath(), Collections.<String> emptyList(), new int[0][]);
+        assertEquals("The snapshot should have been replaced!", 0, MatchGraph.load(file.toPath())
+                .getUserCount());
+    }
+    
+    /**
+     * Tests that a file that is not a complete snapshot is rejected.
+     */
+    @Test
+    public void testLoadCorrupt() throws IOException {
+        File file = File.createTempFile("matches", ".graph");
+        file.deleteOnExit();
+        MatchGraph.write(file.toPath(), Arrays.asList("Seth", "Nathan"), new int[][] { { 1 },
+                { 0 } });
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 4));
+        boolean thrown = false;
+        try {
+            MatchGraph.load(file.toPath());
+        } catch (IOException e) {
+            thrown = true;
+        }
+        assertTrue("A truncated snapshot should have thrown an IOException!", thrown);
+        
+        Files.write(file.toPath(), new byte[64]);
+        thrown = false;
+        try {
+            MatchGraph.load(file.toPath());
+        } catch (IOException e) {
+            thrown = true;
+        }
+        assertTrue("A file without the header should have thrown an IOException!", thrown);
+    }
+    
+    /**
+     * Tests the argument requirements of write().
+     */
+    @Test
+    public void testInvalidWrite() throws IOException {
+        File file = File.createTempFile("matches", ".graph");
+        file.deleteOnExit();
+        boolean thrown = false;
+        try {
+            MatchGraph.write(file.toPath(), Arrays.asList("Seth", "Seth"), new int[2][0]);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A repeated id should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            MatchGraph.write(file.toPath(), Arrays.asList("Seth", "Nathan"), new int[][] {
+                    { 1, 0 }, {} });
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("Unsorted matches should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            MatchGraph.write(file.toPath(), Arrays.asList("Seth"), new int[][] { { 1 } });
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("An unknown user should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            MatchGraph.write(file.toPath(), Arrays.asList("Seth"), new int[0][]);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("Missing matches should have thrown an IllegalArgumentException!", thrown);
+    }
+}
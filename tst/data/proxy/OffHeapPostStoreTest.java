@@ -0,0 +1,241 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import data.proxy.arena.PostContentArena;
+import data.proxy.utils.RebuildableBloomFilter;
+import data.structure.Post;
+
+/**
+ * Tests the functionality of the OffHeapPostStore class.
+ */
+public class OffHeapPostStoreTest {
+    
+    /**
+     * Tests the argument requirements of the write() and getPostsByUser() methods.
+     */
+    @Test
+    public void testIllegalArguments() {
+        PostStore ps = new OffHeapPostStore();
+        
+        boolean thrown = false;
+        
+        try {
+            ps.write(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("A null post was passed in, but no IllegalArgumentException was thrown.", thrown);
+        
+        thrown = false;
+        
+        try {
+            ps.getPostsByUser(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("A null user was passed in, but no IllegalArgumentException was thrown.", thrown);
+    }
+    
+    /**
+     * Tests the basic write/retrieve functionality of the OffHeapPostStore.
+     */
+    @Test
+    public void testStandardPostCycle() {
+        PostStore ps = new OffHeapPostStore();
+        
+        Post p1 = new Post("Seth", "Hey!");
+        Post p2 = new Post("Seth", "Yo!");
+        Post p3 = new Post("Charles", "Sup?");
+        
+        ps.write(p1);
+        ps.write(p2);
+        ps.write(p3);
+        
+        List<Post> posts = ps.getPostsByUser("Seth");
+        assertEquals("Wrong number of posts returned!", 2, posts.size());
+        assertEquals("Posts do not match!", p1, posts.get(0));
+        assertEquals("Posts do not match!", p2, posts.get(1));
+        
+        posts = ps.getPostsByUser("Charles", new Predicate<Post>() {
+            public boolean test(Post post) {
+                return post.getContent().startsWith("S");
+            }
+        });
+        assertEquals("Wrong number of posts returned!", 1, posts.size());
+        assertEquals("Posts do not match!", p3, posts.get(0));
+        
+        assertTrue("A user without posts should have an empty feed.",
+                ps.getPostsByUser("Nathan").isEmpty());
+    }
+    
+    /**
+     * Tests that deleting a user's posts releases them from the arena so compaction can reclaim
+     * the space.
+     */
+    @Test
+    public void testDeleteAndCompact() {
+        PostContentArena arena = new PostContentArena(128, 0.5);
+        OffHeapPostStore ps = new OffHeapPostStore(arena);
+        
+        for (int i = 0; i < 50; i++) {
+            ps.write(new Post(i % 2 == 0 ? "Seth" : "Charles", "post number " + i));
+        }
+        
+        ps.deletePostsByUser("Seth");
+        long liveBefore = arena.getLiveBytes();
+        ps.compact();
+        
+        assertTrue("Deleted posts were still returned.", ps.getPostsByUser("Seth").isEmpty());
+        assertEquals("Compaction changed the amount of live content!", liveBefore,
+                arena.getLiveBytes());
+        assertTrue("No space was reclaimed.", arena.getReclaimedBytes() > 0);
+        
+        List<Post> posts = ps.getPostsByUser("Charles");
+        assertEquals("Wrong number of posts returned!", 25, posts.size());
+        assertEquals("Posts do not match!", new Post("Charles", "post number 49"),
+                posts.get(24));
+    }
+    
+    /**
+     * Tests that posts already read stay readable after a delete or trim releases their content,
+     * as a feed being rendered or kept to be served stale must not fail.
+     */
+    @Test
+    public void testReadsSurviveRelease() {
+        OffHeapPostStore ps = new OffHeapPostStore(new PostContentArena(128, 0.5));
+        for (int i = 0; i < 10; i++) {
+            ps.write(new Post("Seth", "post" + i, i * 1000));
+        }
+        List<Post> all = ps.getPostsByUser("Seth");
+        List<Post> filtered = ps.getPostsByUser("Seth", new Predicate<Post>() {
+            public boolean test(Post post) {
+                return true;
+            }
+        });
+        List<Post> ranged = ps.getPostsByUser("Seth", PostFilter.all().withTimeRange(5000,
+                PostFilter.UNBOUNDED_UNTIL));
+        
+        ps.trim(new RetentionPolicy().withMaxPostsPerUser(1), 10000);
+        ps.deletePostsByUser("Seth");
+        ps.compact();
+        
+        assertEquals("A read post lost its content!", "post0", all.get(0).getContent());
+        assertEquals("A filtered post lost its content!", "post9", filtered.get(9).getContent());
+        assertEquals("A ranged post lost its content!", "post5", ranged.get(0).getContent());
+    }
+    
+    /**
+     * Tests that trim() releases expired and excess posts from the arena.
+     */
+    @Test
+    public void testTrim() {
+        OffHeapPostStore ps = new OffHeapPostStore(new PostContentArena(128, 0.5));
+        
+        for (int i = 0; i < 10; i++) {
+            ps.write(new Post("Seth", "post" + i, i * 1000));
+        }
+        ps.write(new Post("Charles", "old", 0));
+        long bytesBefore = ps.getEstimatedBytes();
+        
+        RetentionResult result = ps.trim(new RetentionPolicy().withMaxAge(5, TimeUnit.SECONDS)
+                .withMaxPostsPerUser(2), 10000);
+        
+        assertEquals("Wrong number of posts removed!", 9, result.getPostsRemoved());
+        assertEquals("Released bytes were not accounted for!", bytesBefore
+                - result.getBytesRemoved(), ps.getEstimatedBytes());
+        assertEquals("The most recent posts were not kept!", Arrays.asList(new Post("Seth",
+                "post8"), new Post("Seth", "post9")), ps.getPostsByUser("Seth"));
+        assertEquals("Timestamps were not preserved!", 9000, ps.getPostsByUser("Seth").get(1)
+                .getTimestamp());
+        assertTrue("Expired posts were not removed!", ps.getPostsByUser("Charles").isEmpty());
+    }
+    
+    /**
+     * Tests that writeAll() merges each user's posts into their handles by timestamp.
+     */
+    @Test
+    public void testWriteAll() {
+        PostStore ps = new OffHeapPostStore();
+        ps.write(new Post("Seth", "one", 1));
+        ps.write(new Post("Seth", "five", 5));
+        
+        ps.writeAll(Arrays.asList(new Post("Seth", "four", 4), new Post("Seth", "two", 2),
+                new Post("Seth", "six", 6)));
+        
+        List<Post> posts = ps.getPostsByUser("Seth");
+        assertEquals("Wrong number of posts returned!", 5, posts.size());
+        String[] contents = { "one", "two", "four", "five", "six" };
+        for (int i = 0; i < contents.length; i++) {
+            assertEquals("Posts are not in timestamp order!", contents[i], posts.get(i)
+                    .getContent());
+        }
+    }
+    
+    /**
+     * Tests that filtered reads only return posts in the time range that meet the rest of the
+     * filter, and that out-of-order writes are kept in timestamp order.
+     */
+    @Test
+    public void testGetPostsByFilter() {
+        PostStore ps = new OffHeapPostStore();
+        ps.write(new Post("Seth", "coffee first", 1));
+        ps.write(new Post("Seth", "then the feed", 3));
+        ps.write(new Post("Seth", "more coffee", 2));
+        ps.write(new Post("Seth", "coffee again", 4));
+        
+        List<Post> posts = ps.getPostsByUser("Seth", PostFilter.all().withTimeRange(2, 5)
+                .withKeyword("coffee"));
+        assertEquals("Wrong number of posts returned!", 2, posts.size());
+        assertEquals("Posts are not in timestamp order!", "more coffee", posts.get(0)
+                .getContent());
+        assertEquals("Wrong post returned!", "coffee again", posts.get(1).getContent());
+        assertEquals("Wrong posts within the length bounds!", 1, ps.getPostsByUser("Seth",
+                PostFilter.all().withLengthBetween(13, 13)).size());
+        assertTrue("Another author's posts should not be read!", ps.getPostsByUser("Seth",
+                PostFilter.all().withAuthors(Arrays.asList("Charles"))).isEmpty());
+    }
+    
+    /**
+     * Tests that the author filter turns away reads for users who have never posted, and still
+     * lets through every user with posts, including those written before it was enabled.
+     */
+    @Test
+    public void testAuthorFilter() {
+        PostStore ps = new OffHeapPostStore();
+        ps.write(new Post("Seth", "Before the filter", 1));
+        ps.withAuthorFilter();
+        ps.write(new Post("Charles", "After the filter", 2));
+        ps.writeAll(Arrays.asList(new Post("Nathan", "In a batch", 3)));
+        
+        assertEquals("Posts from before the filter were lost!", 1, ps.getPostsByUser("Seth")
+                .size());
+        assertEquals("Posts from after the filter were lost!", 1, ps.getPostsByUser("Charles",
+                PostFilter.all()).size());
+        assertEquals("Batched posts were lost!", 1, ps.getPostsByUser("Nathan").size());
+        for (int i = 0; i < 100; i++) {
+            assertTrue("A user who never posted has posts!", ps.getPostsByUser("lurker" + i,
+                    PostFilter.all()).isEmpty());
+        }
+        RebuildableBloomFilter filter = ps.getAuthorFilter();
+        assertEquals("Every read for a user who never posted should be counted!", 100, filter
+                .getNegativeCount() + filter.getFalsePositiveCount());
+        assertTrue("Too many reads were let through!", filter.getFalsePositiveCount() < 10);
+        
+        long falsePositives = filter.getFalsePositiveCount();
+        ps.deletePostsByUser("Seth");
+        assertTrue("Deleted posts were returned!", ps.getPostsByUser("Seth").isEmpty());
+        assertEquals("A read for a deleted user should be a false positive!", falsePositives + 1,
+                filter.getFalsePositiveCount());
+    }
+}
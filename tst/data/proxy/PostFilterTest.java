@@ -0,0 +1,98 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import data.structure.Post;
+
+/**
+ * Tests the functionality of the PostFilter class.
+ */
+public class PostFilterTest {
+    
+    /**
+     * Tests that every condition is checked when a filter is used directly as a predicate.
+     */
+    @Test
+    public void testConditions() {
+        PostFilter filter = PostFilter.all().withTimeRange(10, 20).withAuthors(
+                Arrays.asList("Seth")).withKeyword("Coffee").withLengthBetween(0, 20)
+                .withPredicate(new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return !post.getContent().contains("decaf");
+                    }
+                });
+        
+        assertTrue("The post meets every condition!", filter.test(new Post("Seth",
+                "Coffee time.", 10)));
+        assertFalse("The post is too late!", filter.test(new Post("Seth", "coffee", 20)));
+        assertFalse("The post is by someone else!", filter.test(new Post("Nathan", "coffee",
+                15)));
+        assertFalse("The keyword is only part of a word!", filter.test(new Post("Seth",
+                "coffeehouse", 15)));
+        assertFalse("The post is too long!", filter.test(new Post("Seth",
+                "coffee coffee coffee coffee", 15)));
+        assertFalse("The predicate rejects the post!", filter.test(new Post("Seth",
+                "decaf coffee", 15)));
+        assertTrue("Everything should be accepted!", PostFilter.all().test(new Post("Seth",
+                "", Long.MAX_VALUE)));
+        assertFalse("Only a predicate is not a condition!", PostFilter.all().withPredicate(
+                filter).hasConditions());
+        assertTrue("A keyword is a condition!", filter.hasConditions());
+    }
+    
+    /**
+     * Tests that content is split into distinct lower case words.
+     */
+    @Test
+    public void testGetKeywords() {
+        assertEquals("Wrong keywords!", Arrays.asList("the", "feed", "is", "2x", "faster"),
+                PostFilter.getKeywords("The feed is 2x faster... the FEED!"));
+        assertTrue("There are no words!", PostFilter.getKeywords(" -- ").isEmpty());
+    }
+    
+    /**
+     * Tests the argument requirements of the PostFilter.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            PostFilter.all().withTimeRange(2, 1);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A backwards time range should have thrown an IllegalArgumentException!",
+                thrown);
+        
+        thrown = false;
+        try {
+            PostFilter.all().withKeyword("two words");
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("Two words should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            PostFilter.all().withLengthBetween(-1, 5);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A negative length should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            PostFilter.all().withAuthors(Arrays.asList("Seth", null));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null author should have thrown an IllegalArgumentException!", thrown);
+    }
+}
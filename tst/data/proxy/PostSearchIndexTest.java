@@ -0,0 +1,186 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import data.structure.Post;
+
+/**
+ * Tests the functionality of the PostSearchIndex class.
+ */
+public class PostSearchIndexTest {
+    
+    /**
+     * Tests that a search finds the newest posts containing every word, and only by the given
+     * authors when they are named.
+     */
+    @Test
+    public void testSearch() {
+        PostStore postStore = new PostStore();
+        PostSearchIndex index = new PostSearchIndex();
+        postStore.addListener(index);
+        postStore.write(new Post("Seth", "Good coffee downtown", 1));
+        postStore.write(new Post("Nathan", "the coffee is good", 2));
+        postStore.write(new Post("Seth", "bad coffee", 3));
+        postStore.writeAll(Arrays.asList(new Post("Charles", "good tea", 4)));
+        
+        assertEquals("Wrong posts with both words!", Arrays.asList(new Post("Nathan",
+                "the coffee is good"), new Post("Seth", "Good coffee downtown")), index.search(
+                "GOOD coffee", 10));
+        assertEquals("Wrong limited results!", Arrays.asList(new Post("Seth", "bad coffee")),
+                index.search("coffee", 1));
+        assertEquals("Wrong results for the named author!", Arrays.asList(new Post("Seth",
+                "Good coffee downtown")), index.search("good coffee", new HashSet<String>(Arrays
+                .asList("Seth")), 10));
+        assertTrue("Nobody wrote the word!", index.search("latte coffee", 10).isEmpty());
+        assertTrue("A query without words finds nothing!", index.search(" ! ", 10).isEmpty());
+        assertEquals("Wrong post count!", 4, index.getPostCount());
+        assertEquals("Wrong word count!", 7, index.getWordCount());
+    }
+    
+    /**
+     * Tests that searches across many blocks of postings agree with checking every post, and that
+     * the postings take less than two bytes per entry.
+     */
+    @Test
+    public void testSearchAgreesWithScan() {
+        Random random = new Random(11);
+        PostSearchIndex index = new PostSearchIndex();
+        List<Post> posts = new ArrayList<Post>();
+        long entries = 0;
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int w = 0; w < 8; w++) {
+                // A few common words and a long tail of rare ones.
+                content.append("w").append(random.nextInt(random.nextBoolean() ? 10 : 2000))
+                        .append(' ');
+            }
+            Post post = new Post("user" + random.nextInt(50), content.toString(), i);
+            posts.add(post);
+            entries += PostFilter.getKeywords(post.getContent()).size();
+        }
+        index.indexAll(posts.subList(0, 10000));
+        for (Post post : posts.subList(10000, posts.size())) {
+            index.index(post);
+        }
+        
+        String[] queries = { "w1", "w1 w2", "w3 w1500", "w4 w5 w6", "w1999 w7" };
+        for (String query : queries) {
+            PostFilter filter = PostFilter.all();
+            for (String word : query.split(" ")) {
+                filter = filter.withKeyword(word);
+            }
+            List<Post> expected = new ArrayList<Post>();
+            for (int i = posts.size() - 1; i >= 0 && expected.size() < 50; i--) {
+                if (filter.test(posts.get(i))) {
+                    expected.add(posts.get(i));
+                }
+            }
+            assertEquals("Wrong results for \"" + query + "\"!", expected, index.search(query,
+                    50));
+        }
+        assertTrue("The postings should average under two bytes per entry!", index
+                .getPostingsBytes() < 2 * entries);
+    }
+    
+    /**
+     * Tests that removed posts are no longer found, before and after the postings are rebuilt.
+     */
+    @Test
+    public void testRemoveIf() {
+        PostSearchIndex index = new PostSearchIndex();
+        for (int i = 0; i < 10; i++) {
+            index.index(new Post(i % 2 == 0 ? "Seth" : "Nathan", "post " + i, i));
+        }
+        
+        assertEquals("Wrong number removed!", 3, index.removeIf(new Predicate<Post>() {
+            public boolean test(Post post) {
+                return post.getTimestamp() < 3;
+            }
+        }));
+        assertEquals("Removed posts should not be found!", 7, index.search("post", 100).size());
+        
+        assertEquals("Wrong number removed!", 3, index.removeIf(new Predicate<Post>() {
+            public boolean test(Post post) {
+                return "Seth".equals(post.getUser());
+            }
+        }));
+        assertEquals("Wrong post count after rebuilding!", 4, index.getPostCount());
+        assertEquals("Wrong posts after rebuilding!", Arrays.asList(new Post("Nathan", "post 9"),
+                new Post("Nathan", "post 7"), new Post("Nathan", "post 5"), new Post("Nathan",
+                        "post 3")), index.search("post", 100));
+        index.index(new Post("Seth", "post 10", 10));
+        assertEquals("Posts indexed after rebuilding should be found first!", "post 10", index
+                .search("post", 1).get(0).getContent());
+    }
+    
+    /**
+     * Tests that posts deleted or trimmed from a heap or off-heap store are dropped from the
+     * index, and that a post with the same content but a later timestamp is kept.
+     */
+    @Test
+    public void testStoreRemovals() {
+        for (PostStore postStore : Arrays.asList(new PostStore(), new OffHeapPostStore())) {
+            PostSearchIndex index = new PostSearchIndex();
+            postStore.addListener(index);
+            for (int i = 0; i < 10; i++) {
+                postStore.write(new Post(i % 2 == 0 ? "Seth" : "Nathan", "post " + i, i));
+            }
+            postStore.write(new Post("Seth", "post 0", 100));
+            
+            postStore.trim(new RetentionPolicy().withMaxAge(5, TimeUnit.MILLISECONDS), 10);
+            assertEquals("Posts past the maximum age should be dropped!", 6, index.search("post",
+                    100).size());
+            postStore.trim(new RetentionPolicy().withMaxPostsPerUser(2), 10);
+            assertEquals("Posts past the per-user limit should be dropped!", 4, index.search(
+                    "post", 100).size());
+            postStore.deletePostsByUser("Nathan");
+            List<Post> remaining = index.search("post", 100);
+            assertEquals("Deleted posts should be dropped!", 2, remaining.size());
+            assertEquals("The later copy of a trimmed post should be kept!", 100, remaining.get(0)
+                    .getTimestamp());
+            assertEquals("Wrong remaining post!", 8, remaining.get(1).getTimestamp());
+        }
+    }
+    
+    /**
+     * Tests the argument requirements of the PostSearchIndex.
+     */
+    @Test
+    public void testIllegalArguments() {
+        PostSearchIndex index = new PostSearchIndex();
+        boolean thrown = false;
+        try {
+            index.index(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null post should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            index.search(null, 10);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null query should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            index.search("coffee", -1);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A negative limit should have thrown an IllegalArgumentException!", thrown);
+    }
+}
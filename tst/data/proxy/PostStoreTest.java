@@ -4,10 +4,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import org.junit.Test;
 
+import data.proxy.utils.RebuildableBloomFilter;
 import data.structure.Post;
 
 public class PostStoreTest {
@@ -95,4 +99,235 @@ public class PostStoreTest {
             assertEquals("Posts do not match!", u2Posts.get(i), posts.get(i));
         }
     }
+    
+    /**
+     * Tests that trim() removes posts older than the maximum age.
+     */
+    @Test
+    public void testTrimByAge() {
+        PostStore ps = new PostStore();
+        
+        ps.write(new Post("Seth", "Old", 1000));
+        ps.write(new Post("Seth", "New", 5000));
+        ps.write(new Post("Charles", "Old", 2000));
+        
+        RetentionResult result = ps.trim(new RetentionPolicy().withMaxAge(2, TimeUnit.SECONDS),
+                6000);
+        
+        assertEquals("Wrong number of posts removed!", 2, result.getPostsRemoved());
+        assertEquals("Old posts were not removed!", Arrays.asList(new Post("Seth", "New")),
+                ps.getPostsByUser("Seth"));
+        assertTrue("Old posts were not removed!", ps.getPostsByUser("Charles").isEmpty());
+    }
+    
+    /**
+     * Tests that trim() keeps only the most recent posts of prolific users.
+     */
+    @Test
+    public void testTrimByPostsPerUser() {
+        PostStore ps = new PostStore();
+        
+        for (int i = 0; i < 10; i++) {
+            ps.write(new Post("Seth", "post" + i, i));
+        }
+        ps.write(new Post("Charles", "post", 0));
+        
+        RetentionResult result = ps.trim(new RetentionPolicy().withMaxPostsPerUser(3), 10);
+        
+        assertEquals("Wrong number of posts removed!", 7, result.getPostsRemoved());
+        assertEquals("The most recent posts were not kept!", Arrays.asList(new Post("Seth",
+                "post7"), new Post("Seth", "post8"), new Post("Seth", "post9")),
+                ps.getPostsByUser("Seth"));
+        assertEquals("A user under the limit lost posts!", 1, ps.getPostsByUser("Charles").size());
+    }
+    
+    /**
+     * Tests that trim() evicts the globally oldest posts once the memory budget is exceeded.
+     */
+    @Test
+    public void testTrimByMemoryBudget() {
+        PostStore ps = new PostStore();
+        
+        ps.write(new Post("Seth", "first", 1));
+        ps.write(new Post("Charles", "second", 2));
+        ps.write(new Post("Seth", "third", 3));
+        ps.write(new Post("Charles", "fourth", 4));
+        
+        long bytesBefore = ps.getEstimatedBytes();
+        RetentionResult result = ps.trim(new RetentionPolicy().withMaxTotalBytes(bytesBefore / 2),
+                5);
+        
+        assertEquals("Wrong number of posts removed!", 2, result.getPostsRemoved());
+        assertEquals("Reclaimed bytes were not accounted for!", bytesBefore
+                - result.getBytesRemoved(), ps.getEstimatedBytes());
+        assertTrue("The store is still over budget!", ps.getEstimatedBytes() <= bytesBefore / 2);
+        assertEquals("The oldest post was not evicted first!", Arrays.asList(new Post("Seth",
+                "third")), ps.getPostsByUser("Seth"));
+        assertEquals("The oldest post was not evicted first!", Arrays.asList(new Post("Charles",
+                "fourth")), ps.getPostsByUser("Charles"));
+    }
+    
+    /**
+     * Tests that a run of one user's posts older than everybody else's is evicted together, and
+     * only as far as the budget requires.
+     */
+    @Test
+    public void testTrimByMemoryBudgetRun() {
+        for (PostStore ps : Arrays.asList(new PostStore(), new OffHeapPostStore())) {
+            for (int i = 0; i < 6; i++) {
+                ps.write(new Post("Seth", "post" + i, i));
+            }
+            ps.write(new Post("Carl", "post6", 6));
+            ps.write(new Post("Carl", "post7", 7));
+            
+            long perPost = ps.getEstimatedBytes() / 8;
+            RetentionResult result = ps.trim(new RetentionPolicy().withMaxTotalBytes(4 * perPost),
+                    10);
+            
+            assertEquals("Wrong number of posts removed!", 4, result.getPostsRemoved());
+            assertEquals("The oldest posts were not evicted first!", Arrays.asList(new Post(
+                    "Seth", "post4"), new Post("Seth", "post5")), ps.getPostsByUser("Seth"));
+            assertEquals("A newer user lost posts!", 2, ps.getPostsByUser("Carl").size());
+        }
+    }
+    
+    /**
+     * Tests that writeAll() merges each user's posts in by timestamp, notifies listeners, and
+     * writes nothing from a batch that contains a null post.
+     */
+    @Test
+    public void testWriteAll() {
+        PostStore ps = new PostStore();
+        final List<Post> notified = new ArrayList<Post>();
+        ps.addListener(new PostListener() {
+            public void onPost(Post post) {
+                notified.add(post);
+            }
+        });
+        ps.write(new Post("Seth", "one", 1));
+        ps.write(new Post("Seth", "five", 5));
+        
+        ps.writeAll(Arrays.asList(new Post("Seth", "four", 4), new Post("Seth", "two", 2),
+                new Post("Seth", "six", 6), new Post("Charles", "three", 3)));
+        
+        List<Long> timestamps = new ArrayList<Long>();
+        for (Post post : ps.getPostsByUser("Seth")) {
+            timestamps.add(post.getTimestamp());
+        }
+        assertEquals("Posts are not in timestamp order!", Arrays.asList(1L, 2L, 4L, 5L, 6L),
+                timestamps);
+        assertEquals("Wrong number of posts returned!", 1, ps.getPostsByUser("Charles").size());
+        assertEquals("Every post should be announced!", 6, notified.size());
+        
+        boolean thrown = false;
+        try {
+            ps.writeAll(Arrays.asList(new Post("Nathan", "hi"), null));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null post was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        assertTrue("Part of a rejected batch was written!", ps.getPostsByUser("Nathan").isEmpty());
+    }
+    
+    /**
+     * Tests that filtered reads narrow by time range and keyword before testing the predicate,
+     * and that the keyword postings follow appends, out-of-order writes and trims.
+     */
+    @Test
+    public void testGetPostsByFilter() {
+        PostStore ps = new PostStore();
+        ps.write(new Post("Seth", "Coffee first", 1));
+        ps.write(new Post("Seth", "then the feed", 3));
+        ps.write(new Post("Seth", "coffee, more coffee!", 2));
+        ps.write(new Post("Seth", "coffeehouse review", 4));
+        
+        final List<Post> tested = new ArrayList<Post>();
+        Predicate<Post> counting = new Predicate<Post>() {
+            public boolean test(Post post) {
+                tested.add(post);
+                return true;
+            }
+        };
+        assertEquals("Posts are not in timestamp order!", Arrays.asList(1L, 2L, 3L, 4L),
+                timestamps(ps.getPostsByUser("Seth", PostFilter.all())));
+        assertEquals("Wrong posts in the time range!", Arrays.asList(2L, 3L), timestamps(ps
+                .getPostsByUser("Seth", PostFilter.all().withTimeRange(2, 4).withPredicate(
+                        counting))));
+        assertEquals("Only posts in the time range should be tested!", 2, tested.size());
+        
+        tested.clear();
+        PostFilter coffee = PostFilter.all().withKeyword("COFFEE").withPredicate(counting);
+        assertEquals("Wrong posts with the keyword!", Arrays.asList(1L, 2L), timestamps(ps
+                .getPostsByUser("Seth", coffee)));
+        assertEquals("Only posts with the keyword should be tested!", 2, tested.size());
+        assertEquals("Wrong posts with both keywords!", Arrays.asList(1L), timestamps(ps
+                .getPostsByUser("Seth", coffee.withKeyword("first"))));
+        assertTrue("Nobody wrote the keyword!", ps.getPostsByUser("Seth",
+                PostFilter.all().withKeyword("tea")).isEmpty());
+        
+        ps.write(new Post("Seth", "last coffee", 5));
+        ps.write(new Post("Seth", "early coffee", 0));
+        assertEquals("Later writes were not indexed!", Arrays.asList(0L, 1L, 2L, 5L),
+                timestamps(ps.getPostsByUser("Seth", coffee)));
+        ps.trim(new RetentionPolicy().withMaxPostsPerUser(3), 10);
+        assertEquals("Trimmed posts are still indexed!", Arrays.asList(5L), timestamps(ps
+                .getPostsByUser("Seth", coffee)));
+        
+        assertEquals("Wrong posts within the length bounds!", Arrays.asList(3L, 4L),
+                timestamps(ps.getPostsByUser("Seth", PostFilter.all().withLengthBetween(12,
+                        20))));
+        assertTrue("Another author's posts should not be read!", ps.getPostsByUser("Seth",
+                PostFilter.all().withAuthors(Arrays.asList("Charles"))).isEmpty());
+        
+        boolean thrown = false;
+        try {
+            ps.getPostsByUser("Seth", (PostFilter) null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null filter was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    private static List<Long> timestamps(List<Post> posts) {
+        List<Long> timestamps = new ArrayList<Long>();
+        for (Post post : posts) {
+            timestamps.add(post.getTimestamp());
+        }
+        return timestamps;
+    }
+    
+    /**
+     * Tests that the author filter turns away reads for users who have never posted, and still
+     * lets through every user with posts, including those written before it was enabled.
+     */
+    @Test
+    public void testAuthorFilter() {
+        PostStore ps = new PostStore();
+        ps.write(new Post("Seth", "Before the filter", 1));
+        ps.withAuthorFilter();
+        ps.write(new Post("Charles", "After the filter", 2));
+        ps.writeAll(Arrays.asList(new Post("Nathan", "In a batch", 3)));
+        
+        assertEquals("Posts from before the filter were lost!", 1, ps.getPostsByUser("Seth")
+                .size());
+        assertEquals("Posts from after the filter were lost!", 1, ps.getPostsByUser("Charles",
+                PostFilter.all()).size());
+        assertEquals("Batched posts were lost!", 1, ps.getPostsByUser("Nathan").size());
+        for (int i = 0; i < 100; i++) {
+            assertTrue("A user who never posted has posts!", ps.getPostsByUser("lurker" + i,
+                    PostFilter.all()).isEmpty());
+        }
+        RebuildableBloomFilter filter = ps.getAuthorFilter();
+        assertEquals("Every read for a user who never posted should be counted!", 100, filter
+                .getNegativeCount() + filter.getFalsePositiveCount());
+        assertTrue("Too many reads were let through!", filter.getFalsePositiveCount() < 10);
+        
+        long falsePositives = filter.getFalsePositiveCount();
+        ps.deletePostsByUser("Seth");
+        assertTrue("Deleted posts were returned!", ps.getPostsByUser("Seth").isEmpty());
+        assertEquals("A read for a deleted user should be a false positive!", falsePositives + 1,
+                filter.getFalsePositiveCount());
+    }
 }
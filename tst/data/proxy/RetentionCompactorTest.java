@@ -0,0 +1,140 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import data.structure.Post;
+
+/**
+ * Tests the functionality of the RetentionCompactor class.
+ */
+public class RetentionCompactorTest {
+    
+    /**
+     * Tests the argument requirements of the constructor.
+     */
+    @Test
+    public void testConstructorIllegalArgument() {
+        boolean thrown = false;
+        
+        try {
+            new RetentionCompactor(null, new RetentionPolicy());
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("A null store was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        
+        try {
+            new RetentionCompactor(new PostStore(), null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("A null policy was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * Tests that reclaimed totals accumulate across passes.
+     */
+    @Test
+    public void testRunOnce() {
+        PostStore ps = new PostStore();
+        RetentionCompactor compactor = new RetentionCompactor(ps,
+                new RetentionPolicy().withMaxPostsPerUser(1));
+        
+        ps.write(new Post("Seth", "Hey!"));
+        ps.write(new Post("Seth", "Yo!"));
+        compactor.runOnce();
+        ps.write(new Post("Seth", "Sup?"));
+        compactor.runOnce();
+        
+        assertEquals("Wrong number of passes recorded!", 2, compactor.getRuns());
+        assertEquals("Wrong number of posts reclaimed!", 2, compactor.getPostsReclaimed());
+        assertTrue("No bytes were reported as reclaimed!", compactor.getBytesReclaimed() > 0);
+        assertEquals("Wrong posts were kept!", new Post("Seth", "Sup?"), ps.getPostsByUser("Seth")
+                .get(0));
+    }
+    
+    /**
+     * Tests that the background compactor trims while other threads keep writing and reading.
+     */
+    @Test
+    public void testBackgroundCompaction() throws InterruptedException {
+        final PostStore ps = new OffHeapPostStore();
+        RetentionCompactor compactor = new RetentionCompactor(ps,
+                new RetentionPolicy().withMaxPostsPerUser(5));
+        compactor.start(1, TimeUnit.MILLISECONDS);
+        
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final String user = "user" + t;
+            writers[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        ps.write(new Post(user, "post" + i));
+                        ps.getPostsByUser(user);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        compactor.stop();
+        compactor.runOnce();
+        
+        for (int t = 0; t < writers.length; t++) {
+            assertEquals("The per-user limit was not enforced!", 5,
+                    ps.getPostsByUser("user" + t).size());
+            assertEquals("The newest post was lost!", new Post("user" + t, "post1999"), ps
+                    .getPostsByUser("user" + t).get(4));
+        }
+        assertEquals("Reclaimed posts were not accounted for!", 4 * 1995,
+                compactor.getPostsReclaimed());
+    }
+    
+    /**
+     * Tests that a background pass that fails is counted and logged, and later passes still run.
+     */
+    @Test
+    public void testFailedPassKeepsSchedule() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        PostStore ps = new PostStore() {
+            @Override
+            public RetentionResult trim(RetentionPolicy policy, long now) {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("failed");
+                }
+                return super.trim(policy, now);
+            }
+        };
+        Logger logger = Logger.getLogger(RetentionCompactor.LOGGER_NAME);
+        logger.setUseParentHandlers(false);
+        RetentionCompactor compactor = new RetentionCompactor(ps, new RetentionPolicy());
+        try {
+            compactor.start(1, TimeUnit.MILLISECONDS);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (compactor.getRuns() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        } finally {
+            compactor.stop();
+            logger.setUseParentHandlers(true);
+        }
+        
+        assertEquals("The failed pass should have been counted!", 1, compactor.getFailures());
+        assertTrue("Passes should continue after a failure!", compactor.getRuns() >= 2);
+    }
+}
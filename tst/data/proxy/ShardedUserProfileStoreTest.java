@@ -0,0 +1,187 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the ShardedUserProfileStore class.
+ */
+public class ShardedUserProfileStoreTest {
+    
+    /**
+     * Tests the argument requirements of the ShardedUserProfileStore.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            ShardedUserProfileStore.createLocal(0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("No shards were requested, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new ShardedUserProfileStore().getProfile("Seth");
+        } catch (IllegalStateException e) {
+            thrown = true;
+        }
+        assertTrue("A store without shards was used, but no IllegalStateException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * Tests the basic write/retrieve/delete functionality, and that each profile is stored on
+     * exactly one shard.
+     */
+    @Test
+    public void testStandardUserProfileCycle() {
+        ShardedUserProfileStore store = ShardedUserProfileStore.createLocal(4);
+        List<UserProfile> profiles = createProfiles(100);
+        store.writeAll(profiles.subList(0, 50));
+        for (UserProfile profile : profiles.subList(50, 100)) {
+            store.write(profile);
+        }
+        
+        for (UserProfile profile : profiles) {
+            assertEquals("Users do not match!", profile, store.getProfile(profile.getId()));
+        }
+        int total = 0;
+        for (UserProfileStore shard : store.getShards()) {
+            int held = shard.getUsersForPredicate(everyone()).size();
+            assertTrue("A shard holds no profiles!", held > 0);
+            total += held;
+        }
+        assertEquals("Profiles are stored more than once!", 100, total);
+        
+        store.delete("user7");
+        assertNull("User was not deleted!", store.getProfile("user7"));
+    }
+    
+    /**
+     * Tests that a scan gathers the matching profiles from every shard, including shards of
+     * different types.
+     */
+    @Test
+    public void testGetUsersForPredicate() {
+        ShardedUserProfileStore store = ShardedUserProfileStore.createLocal(3);
+        store.addShard("extra", new UserProfileStore() {
+            private final UserProfileStore delegate = new LocalTransientUserProfileStore();
+            
+            public void write(UserProfile profile) {
+                delegate.write(profile);
+            }
+            
+            public void delete(String id) {
+                delegate.delete(id);
+            }
+            
+            public UserProfile getProfile(String id) {
+                return delegate.getProfile(id);
+            }
+            
+            public Collection<UserProfile> getUsersForPredicate(
+                    Predicate<UserProfile> predicate) {
+                return delegate.getUsersForPredicate(predicate);
+            }
+        });
+        store.writeAll(createProfiles(200));
+        
+        Collection<UserProfile> boston = store.getUsersForPredicate(
+                new Predicate<UserProfile>() {
+                    public boolean test(UserProfile profile) {
+                        return "boston".equals(profile.getAttribute("city"));
+                    }
+                });
+        assertEquals("Wrong number of users found!", 100, boston.size());
+        Set<String> ids = new HashSet<String>();
+        for (UserProfile profile : boston) {
+            assertEquals("A non-matching user was returned!", "boston", profile
+                    .getAttribute("city"));
+            ids.add(profile.getId());
+        }
+        assertEquals("A user was returned twice!", 100, ids.size());
+    }
+    
+    /**
+     * Tests that adding a shard moves only the profiles it now owns, and that removing it moves
+     * them back without losing any.
+     */
+    @Test
+    public void testRebalance() {
+        ShardedUserProfileStore store = ShardedUserProfileStore.createLocal(4);
+        store.writeAll(createProfiles(1000));
+        
+        LocalTransientUserProfileStore added = new LocalTransientUserProfileStore();
+        store.addShard("shard-4", added);
+        int moved = added.getUsersForPredicate(everyone()).size();
+        assertTrue("Too many or too few profiles moved: " + moved, moved > 100 && moved < 300);
+        assertEquals("Profiles were lost!", 1000, store.getUsersForPredicate(everyone()).size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("A profile cannot be found after rebalancing!", "user" + i, store
+                    .getProfile("user" + i).getId());
+        }
+        
+        assertEquals("Wrong shard removed!", added, store.removeShard("shard-4"));
+        assertEquals("The removed shard still holds profiles!", 0, added.getUsersForPredicate(
+                everyone()).size());
+        assertEquals("Profiles were lost!", 1000, store.getUsersForPredicate(everyone()).size());
+        assertNull("A missing shard was removed!", store.removeShard("shard-4"));
+    }
+    
+    /**
+     * Tests that a shard added back with stale profiles does not overwrite newer copies.
+     */
+    @Test
+    public void testAddShardWithStaleProfiles() {
+        ShardedUserProfileStore store = ShardedUserProfileStore.createLocal(2);
+        LocalTransientUserProfileStore stale = new LocalTransientUserProfileStore();
+        List<UserProfile> profiles = createProfiles(50);
+        stale.writeAll(profiles);
+        for (UserProfile profile : profiles) {
+            UserProfile newer = new UserProfile(profile.getId());
+            newer.setAttribute("city", "denver");
+            store.write(newer);
+        }
+        
+        store.addShard("stale", stale);
+        assertEquals("Profiles were lost or duplicated!", 50, store.getUsersForPredicate(
+                everyone()).size());
+        for (UserProfile profile : store.getUsersForPredicate(everyone())) {
+            assertEquals("A stale profile overwrote a newer one!", "denver", profile
+                    .getAttribute("city"));
+        }
+    }
+    
+    private static List<UserProfile> createProfiles(int count) {
+        List<UserProfile> profiles = new ArrayList<UserProfile>();
+        for (int i = 0; i < count; i++) {
+            UserProfile profile = new UserProfile("user" + i);
+            profile.setAttribute("city", i % 2 == 0 ? "boston" : "denver");
+            profiles.add(profile);
+        }
+        return profiles;
+    }
+    
+    private static Predicate<UserProfile> everyone() {
+        return new Predicate<UserProfile>() {
+            public boolean test(UserProfile profile) {
+                return true;
+            }
+        };
+    }
+}
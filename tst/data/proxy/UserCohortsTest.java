@@ -0,0 +1,149 @@
+package data.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import data.proxy.UserCohorts.Cohort;
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the UserCohorts class.
+ */
+public class UserCohortsTest {
+    
+    /**
+     * Tests that users with the same normalized attributes share a cohort.
+     */
+    @Test
+    public void testGrouping() {
+        UserCohorts cohorts = new UserCohorts();
+        cohorts.updateAll(population());
+        
+        assertEquals("Wrong user count!", 100, cohorts.getUserCount());
+        assertEquals("There should be a cohort per city and language!", 10, cohorts
+                .getCohortCount());
+        Cohort cohort = cohorts.getCohort("user0");
+        assertSame("Users with the same attributes should share a cohort!", cohort, cohorts
+                .getCohort("user10"));
+        assertEquals("Wrong cohort size!", 10, cohort.size());
+        assertEquals("The representative should have the cohort's attributes!", cohort
+                .getSignature(), cohort.getRepresentative().getAttributeSignature());
+        
+        UserProfile shouting = new UserProfile("shouting");
+        shouting.setAttribute("CITY", "City0 ");
+        shouting.setAttribute("Language", "ENGLISH");
+        cohorts.update(shouting);
+        assertSame("Attributes should be compared normalized!", cohort, cohorts.getCohort(
+                "shouting"));
+        assertEquals("Wrong cohort count!", 10, cohorts.getCohortCount());
+    }
+    
+    /**
+     * Tests that a user changed by setAttribute() moves to their new cohort when updated, and
+     * that the version only changes when a cohort is created or dropped.
+     */
+    @Test
+    public void testMoveAndRemove() {
+        UserCohorts cohorts = new UserCohorts();
+        List<UserProfile> users = population();
+        cohorts.updateAll(users);
+        long version = cohorts.getVersion();
+        
+        UserProfile user = users.get(0);
+        Cohort before = cohorts.getCohort(user.getId());
+        user.setAttribute("city", "city1");
+        assertSame("A user should only move when updated!", before, cohorts.getCohort(user
+                .getId()));
+        cohorts.update(user);
+        Cohort after = cohorts.getCohort(user.getId());
+        assertSame("The user should have joined the existing cohort!", cohorts.getCohort(users
+                .get(1).getId()), after);
+        assertEquals("The old cohort should have lost the user!", 9, before.size());
+        assertTrue("The new cohort should have gained the user!", after.getMembers().contains(
+                user));
+        assertEquals("Moving between existing cohorts should keep the version!", version,
+                cohorts.getVersion());
+        
+        user.setAttribute("hobby", "falconry");
+        cohorts.update(user);
+        assertEquals("A new cohort should have been created!", 11, cohorts.getCohortCount());
+        assertEquals("Creating a cohort should change the version!", version + 1, cohorts
+                .getVersion());
+        
+        cohorts.remove(user.getId());
+        assertNull("A removed user should be in no cohort!", cohorts.getCohort(user.getId()));
+        assertEquals("The emptied cohort should have been dropped!", 10, cohorts
+                .getCohortCount());
+        assertEquals("Dropping a cohort should change the version!", version + 2, cohorts
+                .getVersion());
+        assertEquals("Wrong user count!", 99, cohorts.getUserCount());
+    }
+    
+    /**
+     * Tests that the store groups the profiles it held before and after cohorts were enabled.
+     */
+    @Test
+    public void testLocalStore() {
+        LocalTransientUserProfileStore store = new LocalTransientUserProfileStore();
+        assertNull("Cohorts should be off by default!", store.getCohorts());
+        List<UserProfile> users = population();
+        store.writeAll(users.subList(0, 50));
+        store.withCohorts();
+        store.writeAll(users.subList(50, 99));
+        store.write(users.get(99));
+        store.delete(users.get(0).getId());
+        
+        UserCohorts cohorts = store.getCohorts();
+        assertEquals("Wrong user count!", 99, cohorts.getUserCount());
+        assertEquals("Wrong cohort count!", 10, cohorts.getCohortCount());
+        assertSame("Wrapped stores should share the cohorts!", cohorts,
+                new BloomGuardedUserProfileStore(new IndexedUserProfileStore(store))
+                        .getCohorts());
+    }
+    
+    /**
+     * Tests the argument requirements of the UserCohorts.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new UserCohorts().update(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null profile was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new UserCohorts().updateAll(Arrays.asList(new UserProfile("user"), null));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null profile was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * 100 users in 5 cities, each city with English and French speakers.
+     */
+    private static List<UserProfile> population() {
+        List<UserProfile> users = new ArrayList<UserProfile>();
+        for (int i = 0; i < 100; i++) {
+            UserProfile user = new UserProfile("user" + i);
+            user.setAttribute("city", "city" + (i % 5));
+            user.setAttribute("language", i % 10 < 5 ? "english" : "french");
+            users.add(user);
+        }
+        return users;
+    }
+}
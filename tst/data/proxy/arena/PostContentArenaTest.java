@@ -0,0 +1,118 @@
+package data.proxy.arena;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the PostContentArena class.
+ */
+public class PostContentArenaTest {
+    
+    /**
+     * Tests the argument requirements of the constructor.
+     */
+    @Test
+    public void testConstructorIllegalArgument() {
+        boolean thrown = false;
+        
+        try {
+            new PostContentArena(4, 0.5);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("A tiny segment size was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        
+        try {
+            new PostContentArena(1024, 1.5);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("An invalid threshold was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * Tests that content survives the round trip through the arena, including multi-byte text.
+     */
+    @Test
+    public void testAllocateAndRead() {
+        PostContentArena arena = new PostContentArena(64, 0.5);
+        
+        long h1 = arena.allocate("Hey!");
+        long h2 = arena.allocate("\u00bfQu\u00e9 tal? \u2603");
+        long h3 = arena.allocate("This post is larger than a single segment of the arena.");
+        
+        assertEquals("Content does not match!", "Hey!", arena.read(h1));
+        assertEquals("Content does not match!", "\u00bfQu\u00e9 tal? \u2603", arena.read(h2));
+        assertEquals("Content does not match!",
+                "This post is larger than a single segment of the arena.", arena.read(h3));
+    }
+    
+    /**
+     * Tests that released handles can no longer be read, even after their slot is reused.
+     */
+    @Test
+    public void testReleasedHandleIsStale() {
+        PostContentArena arena = new PostContentArena(64, 0.5);
+        
+        long handle = arena.allocate("Hey!");
+        arena.release(handle);
+        long reused = arena.allocate("Yo!");
+        
+        assertFalse("A released handle was still reported as live.", arena.isLive(handle));
+        assertTrue("A new handle was not reported as live.", arena.isLive(reused));
+        
+        boolean thrown = false;
+        
+        try {
+            arena.read(handle);
+        } catch (IllegalStateException e) {
+            thrown = true;
+        }
+        
+        assertTrue("A released handle was read, but no IllegalStateException was thrown.", thrown);
+    }
+    
+    /**
+     * Tests that compaction moves live records out of fragmented segments and keeps their handles
+     * valid.
+     */
+    @Test
+    public void testCompaction() {
+        PostContentArena arena = new PostContentArena(256, 0.5);
+        
+        List<Long> handles = new ArrayList<Long>();
+        for (int i = 0; i < 100; i++) {
+            handles.add(arena.allocate("post number " + i));
+        }
+        int segmentsBefore = arena.getSegmentCount();
+        
+        // Release three out of every four posts, leaving every segment fragmented.
+        for (int i = 0; i < handles.size(); i++) {
+            if (i % 4 != 0) {
+                arena.release(handles.get(i));
+            }
+        }
+        
+        long reclaimed = arena.compact();
+        
+        assertTrue("Compaction did not reclaim any bytes.", reclaimed > 0);
+        assertTrue("Compaction did not reduce the number of segments.",
+                arena.getSegmentCount() < segmentsBefore);
+        for (int i = 0; i < handles.size(); i += 4) {
+            assertEquals("Content was corrupted by compaction!", "post number " + i,
+                    arena.read(handles.get(i)));
+        }
+    }
+}
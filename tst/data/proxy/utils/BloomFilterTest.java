@@ -0,0 +1,86 @@
+package data.proxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the BloomFilter class.
+ */
+public class BloomFilterTest {
+    
+    /**
+     * Tests the argument requirements of the BloomFilter.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new BloomFilter(0, 0.01);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("No keys were expected, but no IllegalArgumentException was thrown.", thrown);
+        
+        thrown = false;
+        try {
+            new BloomFilter(100, 1);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A false positive rate of 1 was passed in, but no IllegalArgumentException "
+                + "was thrown.", thrown);
+        
+        thrown = false;
+        try {
+            new BloomFilter(100, 0.01).add(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null key was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * Tests that every added key is reported as present, even after the filter has grown well
+     * past its expected size, and that the false positive rate stays near the target.
+     */
+    @Test
+    public void testGrowthKeepsKeysAndRate() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        long initialBits = filter.getBitCount();
+        for (int i = 0; i < 20000; i++) {
+            filter.add("user" + i);
+        }
+        assertTrue("The filter did not grow!", filter.getBitCount() > initialBits);
+        for (int i = 0; i < 20000; i++) {
+            assertTrue("An added key was reported absent!", filter.mightContain("user" + i));
+        }
+        
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("stranger" + i)) {
+                falsePositives++;
+            }
+        }
+        double rate = falsePositives / 100000.0;
+        assertTrue("The false positive rate " + rate + " is well over the target!", rate < 0.02);
+        assertTrue("The expected false positive rate is over the target!", filter
+                .getExpectedFalsePositiveRate() < 0.01);
+    }
+    
+    /**
+     * Tests that adding a key twice only counts it once.
+     */
+    @Test
+    public void testCount() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        filter.add("Seth");
+        filter.add("Seth");
+        filter.add("Nathan");
+        assertEquals("Wrong count!", 2, filter.getCount());
+        assertFalse("A key never added was reported present!", filter.mightContain("Zoe"));
+    }
+}
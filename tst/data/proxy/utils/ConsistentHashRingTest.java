@@ -0,0 +1,100 @@
+package data.proxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the ConsistentHashRing class.
+ */
+public class ConsistentHashRingTest {
+    private static final int KEYS = 100000;
+    
+    /**
+     * Tests the argument requirements of the ConsistentHashRing.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new ConsistentHashRing<String>(0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("No virtual nodes were requested, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+        ring.add("a", "A");
+        thrown = false;
+        try {
+            ring.add("a", "B");
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A name was reused, but no IllegalArgumentException was thrown.", thrown);
+    }
+    
+    /**
+     * Tests that keys are spread evenly across the nodes.
+     */
+    @Test
+    public void testDistribution() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+        assertNull("An empty ring should own nothing!", ring.get("user1"));
+        for (int i = 0; i < 4; i++) {
+            ring.add("shard-" + i, "shard-" + i);
+        }
+        
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            String owner = ring.get("user" + i);
+            Integer count = counts.get(owner);
+            counts.put(owner, count == null ? 1 : count + 1);
+        }
+        assertEquals("Some node owns no keys!", 4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("Keys are spread unevenly: " + counts, count > KEYS / 4 * 0.8
+                    && count < KEYS / 4 * 1.2);
+        }
+    }
+    
+    /**
+     * Tests that adding a node moves only about 1/N of the keys, all of them to the new node, and
+     * that removing it again moves them back.
+     */
+    @Test
+    public void testMinimalMovement() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+        for (int i = 0; i < 4; i++) {
+            ring.add("shard-" + i, "shard-" + i);
+        }
+        String[] before = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            before[i] = ring.get("user" + i);
+        }
+        
+        ring.add("shard-4", "shard-4");
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String owner = ring.get("user" + i);
+            if (!owner.equals(before[i])) {
+                assertEquals("A key moved between two old nodes!", "shard-4", owner);
+                moved++;
+            }
+        }
+        assertTrue("Too many or too few keys moved: " + moved, moved > KEYS / 5 * 0.8
+                && moved < KEYS / 5 * 1.2);
+        
+        assertEquals("Wrong node removed!", "shard-4", ring.remove("shard-4"));
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals("Removing the node did not restore the old owner!", before[i], ring
+                    .get("user" + i));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package data.proxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the CountMinSketch class.
+ */
+public class CountMinSketchTest {
+    
+    /**
+     * Tests that estimates never undercount and stay within the error bound, including after
+     * counts are removed.
+     */
+    @Test
+    public void testEstimatesWithinBound() {
+        CountMinSketch sketch = new CountMinSketch(0.001, 0.01);
+        long[] counts = new long[5000];
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            // Skewed, so that a few keys are common and most are rare.
+            int key = (int) (counts.length * Math.pow(random.nextDouble(), 3));
+            sketch.add(Hashing.hash("key" + key), 1);
+            counts[key]++;
+        }
+        for (int key = 0; key < counts.length; key += 2) {
+            sketch.add(Hashing.hash("key" + key), -counts[key]);
+            counts[key] = 0;
+        }
+        
+        long bound = (long) (0.001 * sketch.getTotal()) + 1;
+        int outside = 0;
+        for (int key = 0; key < counts.length; key++) {
+            long estimate = sketch.estimate(Hashing.hash("key" + key));
+            assertTrue("An estimate undercounted!", estimate >= counts[key]);
+            if (estimate - counts[key] > bound) {
+                outside++;
+            }
+        }
+        assertTrue(outside + " estimates exceeded the error bound!", outside < counts.length
+                * 0.01);
+        assertEquals("Wrong total!", sum(counts), sketch.getTotal());
+    }
+    
+    /**
+     * Tests the argument requirements of the CountMinSketch.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new CountMinSketch(0, 0.01);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("An error of 0 was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new CountMinSketch(0.01, 1);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A failure rate of 1 was passed in, but no IllegalArgumentException was "
+                + "thrown.", thrown);
+    }
+    
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,72 @@
+package data.proxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the HyperLogLog class.
+ */
+public class HyperLogLogTest {
+    
+    /**
+     * Tests that small and large distinct counts are estimated within a few standard errors, and
+     * that repeated keys are not counted again.
+     */
+    @Test
+    public void testEstimates() {
+        HyperLogLog sketch = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        assertEquals("An empty sketch should estimate 0!", 0, sketch.estimate());
+        for (int i = 0; i < 100; i++) {
+            sketch.add(Hashing.hash("value" + i));
+            sketch.add(Hashing.hash("value" + i));
+        }
+        assertEquals("Wrong small estimate!", 100, sketch.estimate(), 3);
+        
+        for (int i = 100; i < 200000; i++) {
+            sketch.add(Hashing.hash("value" + i));
+        }
+        // The standard error at precision 12 is about 1.6%.
+        assertEquals("Wrong large estimate!", 200000, sketch.estimate(), 200000 * 0.05);
+    }
+    
+    /**
+     * Tests that a merged sketch estimates the union of the keys.
+     */
+    @Test
+    public void testMerge() {
+        HyperLogLog a = new HyperLogLog(10);
+        HyperLogLog b = new HyperLogLog(10);
+        for (int i = 0; i < 30000; i++) {
+            a.add(Hashing.hash("value" + i));
+            b.add(Hashing.hash("value" + (i + 15000)));
+        }
+        a.merge(b);
+        assertEquals("Wrong union estimate!", 45000, a.estimate(), 45000 * 0.1);
+        
+        boolean thrown = false;
+        try {
+            a.merge(new HyperLogLog(12));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("Sketches of different precision were merged, but no "
+                + "IllegalArgumentException was thrown.", thrown);
+    }
+    
+    /**
+     * Tests the argument requirements of the HyperLogLog.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new HyperLogLog(3);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A precision of 3 was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+}
@@ -0,0 +1,126 @@
+package data.proxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the RebuildableBloomFilter class.
+ */
+public class RebuildableBloomFilterTest {
+    
+    /**
+     * Tests that every key might be present until the first build, and that the build reads the
+     * source's keys.
+     */
+    @Test
+    public void testPassThroughUntilBuilt() {
+        Set<String> keys = newKeySet("Seth", "Nathan");
+        RebuildableBloomFilter filter = new RebuildableBloomFilter("RebuildableBloomFilterTest",
+                supplier(keys), 0.01);
+        assertFalse("The filter should not be ready!", filter.isReady());
+        assertTrue("An unbuilt filter should let every key through!", filter.mightContain("Zoe"));
+        
+        filter.rebuild();
+        assertTrue("The filter should be ready!", filter.isReady());
+        assertTrue("A stored key was reported absent!", filter.mightContain("Seth"));
+        assertFalse("A key never stored was reported present!", filter.mightContain("Zoe"));
+        assertEquals("Wrong negative count!", 1, filter.getNegativeCount());
+        
+        filter.add("Zoe");
+        assertTrue("An added key was reported absent!", filter.mightContain("Zoe"));
+    }
+    
+    /**
+     * Tests that removed keys are forgotten once enough removals trigger a rebuild, and that the
+     * observed false positive rate follows the recorded outcomes.
+     */
+    @Test
+    public void testRemovalsTriggerRebuild() {
+        Set<String> keys = newKeySet();
+        for (int i = 0; i < 2000; i++) {
+            keys.add("user" + i);
+        }
+        final int[] rebuilds = new int[1];
+        RebuildableBloomFilter filter = new RebuildableBloomFilter("RebuildableBloomFilterTest",
+                supplier(keys), 0.01).withExecutor(new Executor() {
+            public void execute(Runnable command) {
+                rebuilds[0]++;
+                command.run();
+            }
+        });
+        filter.rebuild();
+        
+        // A quarter of the keys must be removed before the filter is rebuilt.
+        for (int i = 0; i < 400; i++) {
+            keys.remove("user" + i);
+            filter.recordRemoval();
+        }
+        assertEquals("The filter was rebuilt too early!", 0, rebuilds[0]);
+        assertTrue("A removed key was forgotten without a rebuild!", filter.mightContain("user0"));
+        filter.recordFalsePositive();
+        
+        for (int i = 400; i < 600 && rebuilds[0] == 0; i++) {
+            keys.remove("user" + i);
+            filter.recordRemoval();
+        }
+        assertEquals("The filter was not rebuilt!", 1, rebuilds[0]);
+        int remembered = 0;
+        for (int i = 0; i < 400; i++) {
+            if (filter.mightContain("user" + i)) {
+                remembered++;
+            }
+        }
+        assertTrue(remembered + " removed keys survived the rebuild!", remembered < 20);
+        assertTrue("A stored key was reported absent!", filter.mightContain("user1999"));
+        assertEquals("Wrong observed false positive rate!", 1.0 / (1 + filter
+                .getNegativeCount()), filter.getObservedFalsePositiveRate(), 1e-9);
+    }
+    
+    /**
+     * Tests the argument requirements of the RebuildableBloomFilter.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new RebuildableBloomFilter("RebuildableBloomFilterTest", null, 0.01);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("Null keys were passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new RebuildableBloomFilter("RebuildableBloomFilterTest", supplier(newKeySet()), 0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A false positive rate of 0 was passed in, but no IllegalArgumentException "
+                + "was thrown.", thrown);
+    }
+    
+    private static Set<String> newKeySet(String... keys) {
+        Set<String> set = ConcurrentHashMap.newKeySet();
+        for (String key : keys) {
+            set.add(key);
+        }
+        return set;
+    }
+    
+    private static Supplier<Set<String>> supplier(final Set<String> keys) {
+        return new Supplier<Set<String>>() {
+            public Set<String> get() {
+                return keys;
+            }
+        };
+    }
+}
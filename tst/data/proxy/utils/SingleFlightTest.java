@@ -0,0 +1,191 @@
+package data.proxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * Tests the functionality of the SingleFlight class.
+ */
+public class SingleFlightTest {
+    
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+    
+    /**
+     * Tests the argument requirements of the SingleFlight.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new SingleFlight<String, String>(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null name was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new SingleFlight<String, String>("test").execute(null, constant("value"));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null key was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new SingleFlight<String, String>("test").execute("key", null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null computation was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * Tests that a caller arriving while a key is computed is handed the same result without
+     * computing it again, and that a caller arriving afterwards computes afresh.
+     */
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        Metrics.setEnabled(true);
+        final SingleFlight<String, Object> flight = new SingleFlight<String, Object>("test");
+        Counter coalesced = Metrics.counter("test.coalesced");
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger computations = new AtomicInteger();
+        final Supplier<Object> computation = new Supplier<Object>() {
+            public Object get() {
+                computations.incrementAndGet();
+                awaitUninterruptibly(release);
+                return new Object();
+            }
+        };
+        final Object[] results = new Object[2];
+        Thread first = new Thread() {
+            public void run() {
+                results[0] = flight.execute("key", computation);
+            }
+        };
+        first.start();
+        awaitInFlight(flight, 1);
+        Thread second = new Thread() {
+            public void run() {
+                results[1] = flight.execute("key", computation);
+            }
+        };
+        second.start();
+        awaitCoalesced(coalesced, 1);
+        release.countDown();
+        first.join();
+        second.join();
+        
+        assertEquals("The second caller should have joined the first!", 1, coalesced.get());
+        assertEquals("The key should only have been computed once!", 1, computations.get());
+        assertSame("Both callers should have the same result!", results[0], results[1]);
+        assertEquals("Nothing should be in flight once the computation ends!", 0, flight
+                .getInFlight());
+        
+        flight.execute("key", computation);
+        assertEquals("A later caller should compute afresh!", 2, computations.get());
+    }
+    
+    /**
+     * Tests that a failed computation fails every caller that was waiting for it, and is not
+     * remembered afterwards.
+     */
+    @Test
+    public void testFailureIsShared() throws InterruptedException {
+        Metrics.setEnabled(true);
+        final SingleFlight<String, String> flight = new SingleFlight<String, String>("test");
+        Counter coalesced = Metrics.counter("test.coalesced");
+        final CountDownLatch release = new CountDownLatch(1);
+        final IllegalStateException failure = new IllegalStateException("failed");
+        final Supplier<String> computation = new Supplier<String>() {
+            public String get() {
+                awaitUninterruptibly(release);
+                throw failure;
+            }
+        };
+        final Object[] thrown = new Object[2];
+        Thread first = new Thread() {
+            public void run() {
+                try {
+                    flight.execute("key", computation);
+                } catch (IllegalStateException e) {
+                    thrown[0] = e;
+                }
+            }
+        };
+        first.start();
+        awaitInFlight(flight, 1);
+        Thread second = new Thread() {
+            public void run() {
+                try {
+                    flight.execute("key", constant("unused"));
+                } catch (IllegalStateException e) {
+                    thrown[1] = e;
+                }
+            }
+        };
+        second.start();
+        // The computation cannot finish before it is released, so the second caller has joined it.
+        awaitCoalesced(coalesced, 1);
+        release.countDown();
+        first.join();
+        second.join();
+        
+        assertSame("The computing caller should see the failure!", failure, thrown[0]);
+        assertSame("The joined caller should see the same failure!", failure, thrown[1]);
+        assertEquals("A failure should not be remembered!", "value", flight.execute("key",
+                constant("value")));
+    }
+    
+    private static void awaitInFlight(SingleFlight<?, ?> flight, int keys)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (flight.getInFlight() < keys && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+    
+    private static void awaitCoalesced(Counter coalesced, long callers)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (coalesced.get() < callers && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+    
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static Supplier<String> constant(final String value) {
+        return new Supplier<String>() {
+            public String get() {
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package data.proxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the SpaceSaving class.
+ */
+public class SpaceSavingTest {
+    
+    /**
+     * Tests that the frequent keys of a long tailed stream are found and ordered, with counts
+     * that overestimate by no more than their error.
+     */
+    @Test
+    public void testFindsHeavyHitters() {
+        SpaceSaving<String> counter = new SpaceSaving<String>(10);
+        Random random = new Random(5);
+        int[] counts = new int[3];
+        for (int i = 0; i < 20000; i++) {
+            int roll = random.nextInt(100);
+            if (roll < 30) {
+                counter.add("common");
+                counts[0]++;
+            } else if (roll < 50) {
+                counter.add("frequent");
+                counts[1]++;
+            } else if (roll < 60) {
+                counter.add("regular");
+                counts[2]++;
+            } else {
+                counter.add("rare" + random.nextInt(5000));
+            }
+        }
+        assertEquals("Wrong heavy hitters!", Arrays.asList("common", "frequent", "regular"),
+                counter.getTop(3));
+        long count = counter.getCount("common");
+        assertTrue("The count undercounted!", count >= counts[0]);
+        assertTrue("The count overestimated by more than its error!", count
+                - counter.getError("common") <= counts[0]);
+        assertTrue("The minimum count bounds every key that is not counted!", counter
+                .getMinimumCount() <= 20000 / 10);
+    }
+    
+    /**
+     * Tests that removing keys lowers their counts and frees their counters once they reach 0.
+     */
+    @Test
+    public void testRemove() {
+        SpaceSaving<String> counter = new SpaceSaving<String>(2);
+        counter.add("a");
+        counter.add("a");
+        counter.add("b");
+        counter.remove("a");
+        counter.remove("b");
+        assertEquals("Wrong count after a removal!", 1, counter.getCount("a"));
+        assertEquals("A key removed to 0 should not be counted!", 0, counter.getCount("b"));
+        assertEquals("A counter should be free!", 0, counter.getMinimumCount());
+        
+        counter.add("c");
+        counter.add("c");
+        assertEquals("Wrong order!", Arrays.asList("c", "a"), counter.getTop(5));
+        counter.remove("missing");
+        assertEquals("Removing a key that is not counted changed the counts!", 2, counter
+                .getCount("c"));
+    }
+    
+    /**
+     * Tests the argument requirements of the SpaceSaving counter.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new SpaceSaving<String>(0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A capacity of 0 was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+}
@@ -0,0 +1,56 @@
+package data.proxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the TokenBucket class.
+ */
+public class TokenBucketTest {
+    
+    /**
+     * Tests the argument requirements of the TokenBucket.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new TokenBucket(0, 10);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A zero rate was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new TokenBucket(10, 10).setRate(-1);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A negative rate was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * Tests that a full bucket allows a burst, and that further tokens take time to accrue.
+     */
+    @Test
+    public void testRateLimit() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 10);
+        assertTrue("A full bucket should allow a burst!", bucket.tryAcquire(10));
+        assertFalse("An empty bucket should not hand out tokens!", bucket.tryAcquire(10));
+        
+        long start = System.nanoTime();
+        bucket.acquire(100);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("100 tokens at 1000 per second should take about 100ms, not " + elapsedMillis
+                + "ms!", elapsedMillis >= 80);
+        
+        bucket.setRate(500);
+        assertEquals("Wrong rate!", 500, bucket.getRate(), 0);
+    }
+}
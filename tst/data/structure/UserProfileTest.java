@@ -256,4 +256,36 @@ public class UserProfileTest {
             }
         }
     }
+    
+    /**
+     * Tests that the attribute signature is the same for users with the same normalized
+     * attributes, whatever order they were set in, and differs otherwise.
+     */
+    @Test
+    public void testAttributeSignature() {
+        UserProfile user1 = new UserProfile("Seth");
+        user1.setAttribute("city", "Seattle");
+        user1.setAttribute("language", "english");
+        UserProfile user2 = new UserProfile("Charles");
+        user2.setAttribute(" Language", "English ");
+        user2.setAttribute("CITY", "seattle");
+        
+        assertEquals("The same attributes should have the same signature!", user1
+                .getAttributeSignature(), user2.getAttributeSignature());
+        assertEquals("No attributes should have an empty signature!", "", new UserProfile("Nathan")
+                .getAttributeSignature());
+        
+        user2.setAttribute("city", "denver");
+        assertFalse("Different attributes should have different signatures!", user1
+                .getAttributeSignature().equals(user2.getAttributeSignature()));
+        
+        // Names and values are delimited by their lengths, so shifting characters between them
+        // changes the signature.
+        UserProfile split1 = new UserProfile("a");
+        split1.setAttribute("ab", "c");
+        UserProfile split2 = new UserProfile("b");
+        split2.setAttribute("a", "bc");
+        assertFalse("Ambiguous attributes should have different signatures!", split1
+                .getAttributeSignature().equals(split2.getAttributeSignature()));
+    }
 }
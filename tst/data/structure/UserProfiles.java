@@ -0,0 +1,38 @@
+package data.structure;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the small profiles that tests use, from attribute name and value pairs.
+ */
+public final class UserProfiles {
+    
+    private UserProfiles() {
+    }
+    
+    /**
+     * Creates a user with the given attribute name and value pairs.
+     * 
+     * @param id
+     * @param attributes names and values, alternating
+     * @return the user
+     */
+    public static UserProfile user(String id, String... attributes) {
+        return new UserProfile(id, attributes(attributes));
+    }
+    
+    /**
+     * Collects attribute name and value pairs into a map.
+     * 
+     * @param attributes names and values, alternating
+     * @return attribute values by name
+     */
+    public static Map<String, String> attributes(String... attributes) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < attributes.length; i += 2) {
+            map.put(attributes[i], attributes[i + 1]);
+        }
+        return map;
+    }
+}
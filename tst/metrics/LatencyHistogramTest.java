@@ -0,0 +1,98 @@
+package metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the LatencyHistogram class.
+ */
+public class LatencyHistogramTest {
+    
+    /**
+     * Tests that percentiles of a uniform distribution are reported within bucket precision.
+     */
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i * 1000);
+        }
+        
+        assertEquals("Wrong count!", 100000, histogram.getCount());
+        assertEquals("Wrong maximum!", 100000000, histogram.getMax());
+        assertWithinPrecision(50000000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(99000000, histogram.getValueAtPercentile(99));
+        assertWithinPrecision(99900000, histogram.getValueAtPercentile(99.9));
+        assertEquals("The 100th percentile should be the maximum!", histogram.getMax(),
+                histogram.getValueAtPercentile(100));
+    }
+    
+    /**
+     * Tests that small values are recorded exactly and that an empty histogram reports zero.
+     */
+    @Test
+    public void testSmallValuesAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals("An empty histogram should report zero!", 0,
+                histogram.getValueAtPercentile(50));
+        
+        histogram.record(3);
+        histogram.record(5);
+        histogram.record(-1);
+        
+        assertEquals("Wrong median!", 3, histogram.getValueAtPercentile(50));
+        assertEquals("Wrong minimum!", 0, histogram.getValueAtPercentile(0));
+        
+        histogram.reset();
+        
+        assertEquals("Reset did not clear the count!", 0, histogram.getCount());
+        assertEquals("Reset did not clear the maximum!", 0, histogram.getMax());
+    }
+    
+    /**
+     * Tests the argument requirements of getValueAtPercentile().
+     */
+    @Test
+    public void testPercentileIllegalArgument() {
+        boolean thrown = false;
+        
+        try {
+            new LatencyHistogram().getValueAtPercentile(101);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("An invalid percentile was passed in, but no exception was thrown.", thrown);
+    }
+    
+    /**
+     * Tests that concurrent recordings are not lost.
+     */
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        assertEquals("Concurrent recordings were lost!", 40000, histogram.getCount());
+    }
+    
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(String.format("Expected about %d but got %d!", expected, actual),
+                Math.abs(actual - expected) <= expected * 0.04);
+    }
+}
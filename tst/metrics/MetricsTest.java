@@ -0,0 +1,91 @@
+package metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the Metrics class.
+ */
+public class MetricsTest {
+    
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+    
+    /**
+     * Tests that nothing is recorded while metrics are disabled.
+     */
+    @Test
+    public void testDisabled() {
+        Timer timer = Metrics.timer("MetricsTest.disabled");
+        Counter counter = Metrics.counter("MetricsTest.disabled");
+        
+        long start = Metrics.startTimer();
+        timer.record(start);
+        counter.increment();
+        
+        assertEquals("A disabled start token should be NOT_TIMED!", Metrics.NOT_TIMED, start);
+        assertEquals("A disabled timer should not record!", 0, timer.getHistogram().getCount());
+        assertEquals("A disabled counter should not count!", 0, counter.get());
+    }
+    
+    /**
+     * Tests that timers and counters record while enabled and appear in the dump.
+     */
+    @Test
+    public void testEnabledAndDump() {
+        Metrics.setEnabled(true);
+        Timer timer = Metrics.timer("MetricsTest.enabled");
+        Counter counter = Metrics.counter("MetricsTest.enabled");
+        
+        timer.record(Metrics.startTimer());
+        counter.add(3);
+        
+        assertEquals("The timer should have recorded!", 1, timer.getHistogram().getCount());
+        assertEquals("Wrong counter total!", 3, counter.get());
+        assertTrue("The same name should return the same timer!",
+                timer == Metrics.timer("MetricsTest.enabled"));
+        String dump = Metrics.dump();
+        assertTrue("The timer is missing from the dump!",
+                dump.contains("MetricsTest.enabled count=1 "));
+        assertTrue("The counter is missing from the dump!",
+                dump.contains("MetricsTest.enabled count=3"));
+        
+        Metrics.reset();
+        
+        assertEquals("Reset did not clear the timer!", 0, timer.getHistogram().getCount());
+        assertEquals("Reset did not clear the counter!", 0, counter.get());
+    }
+    
+    /**
+     * Tests that the MXBean is registered and exposes the registry.
+     */
+    @Test
+    public void testMBean() throws Exception {
+        Metrics.counter("MetricsTest.mbean");
+        ObjectName name = Metrics.registerMBean();
+        assertEquals("Registering twice should be harmless!", name, Metrics.registerMBean());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        
+        assertFalse("Metrics should start disabled!",
+                (Boolean) server.getAttribute(name, "Enabled"));
+        server.setAttribute(name, new Attribute("Enabled", true));
+        assertTrue("Enabling through JMX did not take effect!", Metrics.isEnabled());
+        
+        Metrics.counter("MetricsTest.mbean").increment();
+        assertTrue("The text dump should include the counter!",
+                ((String) server.getAttribute(name, "TextDump")).contains("MetricsTest.mbean"));
+    }
+}
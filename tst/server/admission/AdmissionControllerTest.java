@@ -0,0 +1,162 @@
+package server.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import metrics.Metrics;
+import server.admission.ConcurrencyLimiter.Permit;
+import server.feed.FeedBuilder;
+import server.matching.PercentMatchUserMatcher;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the AdmissionController class.
+ */
+public class AdmissionControllerTest {
+    private PostStore postStore;
+    private UserProfile seth;
+    private AdmissionController admission;
+    
+    @Before
+    public void setUp() {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        postStore = new PostStore();
+        seth = new UserProfile("Seth");
+        seth.setAttribute("city", "Seattle");
+        UserProfile nathan = new UserProfile("Nathan");
+        nathan.setAttribute("city", "Seattle");
+        userStore.write(seth);
+        userStore.write(nathan);
+        postStore.write(new Post("Nathan", "hello"));
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+        admission = new AdmissionController(feedBuilder).withReadLimiter(new ConcurrencyLimiter(
+                "test.reads", 1, 1, 1)).withWriteLimiter(new ConcurrencyLimiter("test.writes", 1,
+                1, 1));
+    }
+    
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+    
+    /**
+     * Tests that a feed request past the read limit is refused when there is no earlier feed to
+     * serve, and served the last feed when there is.
+     */
+    @Test
+    public void testShedsOrServesStaleFeeds() {
+        Metrics.setEnabled(true);
+        Permit held = admission.acquireRead();
+        boolean thrown = false;
+        try {
+            admission.streamFeedForUser(seth, collector(new ArrayList<Post>()));
+        } catch (OverloadedException e) {
+            thrown = true;
+        }
+        assertTrue("A feed past the limit with nothing to fall back on should be refused!",
+                thrown);
+        held.release();
+        
+        List<Post> fresh = new ArrayList<Post>();
+        assertTrue("The feed should be built once a permit is free!", admission
+                .streamFeedForUser(seth, collector(fresh)));
+        assertEquals("Wrong feed!", 1, fresh.size());
+        
+        postStore.write(new Post("Nathan", "newer"));
+        held = admission.acquireRead();
+        List<Post> stale = new ArrayList<Post>();
+        assertFalse("The last feed should be served while reads are saturated!", admission
+                .streamFeedForUser(seth, collector(stale)));
+        assertEquals("The stale feed should be the one built before!", fresh, stale);
+        held.release();
+        
+        assertEquals("Wrong number of stale feeds!", 1, Metrics.counter(
+                "AdmissionController.staleFeeds").get());
+        assertEquals("Wrong number of refusals!", 1, Metrics.counter("AdmissionController.shed")
+                .get());
+        
+        admission.withStaleFeeds(0, 0);
+        admission.streamFeedForUser(seth, collector(new ArrayList<Post>()));
+        held = admission.acquireRead();
+        thrown = false;
+        try {
+            admission.streamFeedForUser(seth, collector(new ArrayList<Post>()));
+        } catch (OverloadedException e) {
+            thrown = true;
+        }
+        assertTrue("No feeds should be kept once turned off!", thrown);
+    }
+    
+    /**
+     * Tests that reads and writes have separate budgets.
+     */
+    @Test
+    public void testSeparateBudgets() {
+        Permit read = admission.acquireRead();
+        Permit write = admission.acquireWrite();
+        assertNotNull("A write should be admitted while reads are saturated!", write);
+        
+        boolean thrown = false;
+        try {
+            admission.acquireWrite();
+        } catch (OverloadedException e) {
+            thrown = true;
+        }
+        assertTrue("A write past the limit should be refused!", thrown);
+        write.release();
+        read.release();
+        assertNotNull("A released budget should admit again!", admission.acquireWrite());
+    }
+    
+    /**
+     * Tests the argument requirements of the AdmissionController.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new AdmissionController(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null feed builder was passed in, but no IllegalArgumentException was "
+                + "thrown.", thrown);
+        
+        thrown = false;
+        try {
+            admission.withStaleFeeds(-1, 0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A negative number of stale feeds was passed in, but no "
+                + "IllegalArgumentException was thrown.", thrown);
+    }
+    
+    private static Consumer<Post> collector(final List<Post> posts) {
+        return new Consumer<Post>() {
+            public void accept(Post post) {
+                posts.add(post);
+            }
+        };
+    }
+}
@@ -0,0 +1,128 @@
+package server.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import metrics.Metrics;
+import server.admission.ConcurrencyLimiter.Permit;
+
+/**
+ * Tests the functionality of the ConcurrencyLimiter class.
+ */
+public class ConcurrencyLimiterTest {
+    private static final long MILLISECOND = 1000000;
+    
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+    
+    /**
+     * Tests that permits past the limit are refused at once, and that a released permit can be
+     * taken again.
+     */
+    @Test
+    public void testRefusesPastLimit() {
+        Metrics.setEnabled(true);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2, 1, 10);
+        Permit first = limiter.tryAcquire();
+        assertNotNull("The first permit should be granted!", limiter.tryAcquire());
+        assertNotNull("The first permit should be granted!", first);
+        assertNull("A permit past the limit should be refused!", limiter.tryAcquire());
+        assertEquals("Wrong number of permits in use!", 2, limiter.getInFlight());
+        
+        first.release();
+        first.release();
+        assertEquals("Releasing twice should only count once!", 1, limiter.getInFlight());
+        assertNotNull("A released permit should be available again!", limiter.tryAcquire());
+        assertEquals("Wrong admitted count!", 3, Metrics.counter("test.admitted").get());
+        assertEquals("Wrong rejected count!", 1, Metrics.counter("test.rejected").get());
+    }
+    
+    /**
+     * Tests that the limit grows while latency holds steady under load, and shrinks once
+     * operations queue and latency climbs.
+     */
+    @Test
+    public void testAdaptsToLatency() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 10, 2, 100);
+        run(limiter, 1000, MILLISECOND);
+        int grown = limiter.getLimit();
+        assertTrue("The limit should grow while latency is steady: " + grown, grown > 20);
+        
+        // Latency triples as the extra operations queue.
+        run(limiter, 1000, 3 * MILLISECOND);
+        int shrunk = limiter.getLimit();
+        assertTrue("The limit should shrink as latency climbs: " + shrunk, shrunk < grown * 3
+                / 4);
+        
+        run(limiter, 1000, MILLISECOND);
+        assertTrue("The limit should grow again once latency recovers!",
+                limiter.getLimit() > shrunk);
+    }
+    
+    /**
+     * Tests that the limit is left alone while most of it goes unused, however fast operations
+     * complete.
+     */
+    @Test
+    public void testIgnoresUnusedLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 10, 2, 100);
+        for (int i = 0; i < 200; i++) {
+            limiter.tryAcquire();
+            limiter.onComplete(MILLISECOND);
+        }
+        assertEquals("An unused limit should not grow!", 10, limiter.getLimit());
+    }
+    
+    /**
+     * Tests the argument requirements of the ConcurrencyLimiter.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new ConcurrencyLimiter(null, 1, 1, 1);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null name was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new ConcurrencyLimiter("test", 1, 0, 1);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A zero minimum was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new ConcurrencyLimiter("test", 20, 1, 10);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("An initial limit above the maximum was passed in, but no "
+                + "IllegalArgumentException was thrown.", thrown);
+    }
+    
+    /**
+     * Completes operations that each take the given time, keeping the whole limit in use.
+     */
+    private static void run(ConcurrencyLimiter limiter, int operations, long latencyNanos) {
+        for (int i = 0; i < operations; i++) {
+            while (limiter.tryAcquire() != null) {
+                continue;
+            }
+            limiter.onComplete(latencyNanos);
+        }
+    }
+}
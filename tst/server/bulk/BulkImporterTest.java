@@ -0,0 +1,212 @@
+package server.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the BulkImporter class.
+ */
+public class BulkImporterTest {
+    
+    /**
+     * Tests the argument requirements of the BulkImporter.
+     */
+    @Test
+    public void testIllegalArguments() throws Exception {
+        boolean thrown = false;
+        try {
+            new BulkImporter(null, new PostStore());
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null user store was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        BulkImporter importer = new BulkImporter(new LocalTransientUserProfileStore(),
+                new PostStore());
+        thrown = false;
+        try {
+            importer.withThreads(0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("No threads were requested, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            importer.importProfiles(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null input was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+    }
+    
+    /**
+     * Tests that profiles are imported across many small blocks and threads, and that malformed
+     * lines are skipped and reported.
+     */
+    @Test
+    public void testImportProfiles() throws Exception {
+        StringBuilder file = new StringBuilder("# id, then attributes\r\n\n");
+        for (int i = 0; i < 1000; i++) {
+            file.append(String.format("user%d\tcity=Boston\tAge=%d\r\n", i, i % 50));
+        }
+        file.append("broken\tcity\n");
+        file.append("\tcity=Boston\n");
+        file.append("last\tcity=Denver");
+        
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        BulkImporter importer = new BulkImporter(userStore, new PostStore()).withThreads(4)
+                .withBatchSize(7).withBlockSize(256).withProgress(new PrintStream(progress), 1,
+                        TimeUnit.MILLISECONDS);
+        ImportResult result = importer.importProfiles(toStream(file));
+        
+        assertEquals("Wrong number of profiles imported!", 1001, result.getRecords());
+        assertEquals("Wrong number of lines rejected!", 2, result.getRejected());
+        assertEquals("Every rejected line should be described!", 2, result.getErrors().size());
+        assertEquals("Wrong number of bytes counted!", file.length(), result.getBytes());
+        
+        UserProfile profile = userStore.getProfile("user42");
+        assertEquals("Wrong attribute value!", "boston", profile.getAttribute("city"));
+        assertEquals("Wrong attribute value!", "42", profile.getAttribute("age"));
+        assertEquals("The final line without a newline was lost!", "denver", userStore.getProfile(
+                "last").getAttribute("city"));
+        assertEquals("A malformed line was imported!", null, userStore.getProfile("broken"));
+    }
+    
+    /**
+     * Tests that posts imported out of order and in parallel end up oldest first, and that a line
+     * longer than a block is still imported.
+     */
+    @Test
+    public void testImportPosts() throws Exception {
+        StringBuilder file = new StringBuilder();
+        for (int i = 500; i > 0; i--) {
+            file.append(String.format("Seth\t%d\tpost\twith a tab %d\n", i, i));
+        }
+        StringBuilder longContent = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longContent.append('x');
+        }
+        file.append("Charles\t0\t").append(longContent).append('\n');
+        file.append("Charles\tyesterday\tnope\n");
+        
+        PostStore postStore = new PostStore();
+        BulkImporter importer = new BulkImporter(new LocalTransientUserProfileStore(), postStore)
+                .withThreads(3).withBatchSize(10).withBlockSize(128);
+        ImportResult result = importer.importPosts(toStream(file));
+        
+        assertEquals("Wrong number of posts imported!", 501, result.getRecords());
+        assertEquals("Wrong number of lines rejected!", 1, result.getRejected());
+        
+        List<Post> posts = postStore.getPostsByUser("Seth");
+        assertEquals("Wrong number of posts returned!", 500, posts.size());
+        for (int i = 0; i < posts.size(); i++) {
+            assertEquals("Posts are not in timestamp order!", i + 1, posts.get(i).getTimestamp());
+        }
+        assertEquals("Content after the second tab was lost!", "post\twith a tab 1", posts.get(0)
+                .getContent());
+        assertEquals("A long line was truncated!", longContent.toString(), postStore
+                .getPostsByUser("Charles").get(0).getContent());
+    }
+    
+    /**
+     * Tests that when an id appears in several blocks, the line furthest into the file wins even
+     * when an earlier block is written last. The first write is held up until the last version of
+     * the first user has been written, or for a second if none is written while blocks are still
+     * being imported.
+     */
+    @Test
+    public void testDuplicateProfiles() throws Exception {
+        StringBuilder file = new StringBuilder();
+        for (int version = 1; version <= 3; version++) {
+            for (int i = 0; i < 100; i++) {
+                file.append(String.format("user%d\tversion=%d\n", i, version));
+            }
+        }
+        file.append("user7\tversion=4\n");
+        
+        final CountDownLatch laterWritten = new CountDownLatch(1);
+        final AtomicBoolean first = new AtomicBoolean(true);
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore() {
+            @Override
+            public void writeAll(Collection<UserProfile> profiles) {
+                for (UserProfile profile : profiles) {
+                    if (profile.getId().equals("user0")
+                            && "3".equals(profile.getAttribute("version"))) {
+                        laterWritten.countDown();
+                    }
+                }
+                if (first.getAndSet(false)) {
+                    try {
+                        laterWritten.await(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.writeAll(profiles);
+            }
+        };
+        BulkImporter importer = new BulkImporter(userStore, new PostStore()).withThreads(4)
+                .withBatchSize(5).withBlockSize(64);
+        ImportResult result = importer.importProfiles(toStream(file));
+        
+        assertEquals("Every line should be counted!", 301, result.getRecords());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("An earlier line won!", i == 7 ? "4" : "3", userStore.getProfile("user"
+                    + i).getAttribute("version"));
+        }
+    }
+    
+    /**
+     * Tests that a failing store stops the import and surfaces its exception.
+     */
+    @Test
+    public void testStoreFailure() throws Exception {
+        PostStore failing = new PostStore() {
+            @Override
+            public void writeAll(Collection<? extends Post> posts) {
+                throw new IllegalStateException("The store is full!");
+            }
+        };
+        BulkImporter importer = new BulkImporter(new LocalTransientUserProfileStore(), failing)
+                .withThreads(2).withBlockSize(64);
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            file.append("Seth\t1\thello\n");
+        }
+        
+        boolean thrown = false;
+        try {
+            importer.importPosts(toStream(file));
+        } catch (IllegalStateException e) {
+            thrown = true;
+        }
+        assertTrue("The store's exception was swallowed!", thrown);
+    }
+    
+    private static InputStream toStream(CharSequence file) {
+        return new ByteArrayInputStream(file.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,143 @@
+package server.bulk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static data.structure.UserProfiles.user;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import server.matching.PercentMatchUserMatcher;
+import data.proxy.MatchGraph;
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the MatchGraphBuilder class.
+ */
+public class MatchGraphBuilderTest {
+    
+    /**
+     * Tests that the join finds exactly the pairs that comparing every user to every other finds,
+     * across thresholds and thread counts.
+     */
+    @Test
+    public void testJoinMatchesPairwise() {
+        Random random = new Random(42);
+        List<UserProfile> users = new ArrayList<UserProfile>();
+        for (int u = 0; u < 300; u++) {
+            UserProfile user = new UserProfile("user" + u);
+            int attributes = random.nextInt(8);
+            for (int a = 0; a < attributes; a++) {
+                user.setAttribute("a" + random.nextInt(10), "v" + random.nextInt(3));
+            }
+            users.add(user);
+        }
+        
+        for (double threshold : new double[] { 0, 0.3, 0.5, 2.0 / 3, 0.75, 1 }) {
+            PercentMatchUserMatcher matcher = new PercentMatchUserMatcher(threshold);
+            for (int threads : new int[] { 1, 3 }) {
+                int[][] matches = new MatchGraphBuilder(matcher).withThreads(threads).join(users);
+                for (int u = 0; u < users.size(); u++) {
+                    List<Integer> expected = new ArrayList<Integer>();
+                    for (int v = 0; v < users.size(); v++) {
+                        if (matcher.matches(users.get(u), users.get(v))) {
+                            expected.add(v);
+                        }
+                    }
+                    int[] expectedArray = new int[expected.size()];
+                    for (int i = 0; i < expectedArray.length; i++) {
+                        expectedArray[i] = expected.get(i);
+                    }
+                    assertArrayEquals(String.format("Wrong matches for user%d at %.2f!", u,
+                            threshold), expectedArray, matches[u]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests that build() writes a snapshot that serves the matches by id.
+     */
+    @Test
+    public void testBuild() throws IOException {
+        File file = File.createTempFile("matches", ".graph");
+        file.deleteOnExit();
+        List<UserProfile> users = Arrays.asList(user("Seth", "city", "seattle", "hobby", "chess"),
+                user("Nathan", "city", "seattle"), user("Charles", "city", "denver"),
+                new UserProfile("Empty"));
+        
+        MatchGraph graph = new MatchGraphBuilder(new PercentMatchUserMatcher(0.5)).build(users,
+                file.toPath());
+        assertEquals("Wrong user count!", 4, graph.getUserCount());
+        assertEquals("Wrong matches!", Arrays.asList("Seth", "Nathan"), graph.getMatches("Seth"));
+        assertEquals("Wrong matches!", Arrays.asList("Seth", "Nathan"), graph
+                .getMatches("Nathan"));
+        assertEquals("Wrong matches!", Collections.singletonList("Charles"), graph
+                .getMatches("Charles"));
+        assertEquals("A user without attributes matches nobody!", Collections.emptyList(), graph
+                .getMatches("Empty"));
+    }
+    
+    /**
+     * Tests the argument requirements of MatchGraphBuilder.
+     */
+    @Test
+    public void testInvalidArguments() {
+        boolean thrown = false;
+        try {
+            new MatchGraphBuilder(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null matcher should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            new MatchGraphBuilder(new PercentMatchUserMatcher(0.5)).withThreads(0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("No threads should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            new MatchGraphBuilder(new PercentMatchUserMatcher(0.5)).join(Arrays.asList(
+                    new UserProfile("Seth"), null));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null user should have thrown an IllegalArgumentException!", thrown);
+    }
+    
+    /**
+     * Tests that the command line prints its usage, and builds nothing, when the threshold is
+     * missing.
+     */
+    @Test
+    public void testMainRequiresThreshold() throws Exception {
+        File out = File.createTempFile("matches", ".graph");
+        out.delete();
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(printed, true));
+        try {
+            MatchGraphBuilder.main(new String[] { "--profiles=missing.tsv", "--out=" + out });
+        } finally {
+            System.setOut(stdout);
+        }
+        
+        assertTrue("The usage should be printed!", printed.toString().startsWith("Usage:"));
+        assertFalse("No snapshot should be written!", out.exists());
+    }
+}
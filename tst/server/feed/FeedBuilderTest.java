@@ -1,24 +1,41 @@
 package server.feed;
 
-import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static data.structure.UserProfiles.user;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
+import org.easymock.EasyMock;
 import org.junit.Test;
 
+import metrics.Counter;
+import metrics.Metrics;
 import server.matching.PercentMatchUserMatcher;
 import server.matching.UserMatcher;
 import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.MatchGraph;
+import data.proxy.PostFilter;
+import data.proxy.PostSearchIndex;
 import data.proxy.PostStore;
 import data.structure.Post;
+import data.structure.ScoredPost;
 import data.structure.UserProfile;
 
 /**
@@ -46,8 +63,11 @@ public class FeedBuilderTest {
         user3.setAttribute("uniqueAttribute", "I'm special!");
         
         LocalTransientUserProfileStore userStore = createMock(LocalTransientUserProfileStore.class);
-        expect(userStore.getUsersForPredicate(anyObject(Predicate.class))).andReturn(
-                Arrays.asList(user1, user2)).atLeastOnce();
+        // The store keeps no cohorts, so every match must share user1's one attribute, which the
+        // feed passes on to the store.
+        expect(userStore.getCohorts()).andReturn(null).anyTimes();
+        expect(userStore.getUsersForPredicate(EasyMock.<Predicate<UserProfile>> anyObject(), eq(
+                user1), eq(1))).andReturn(Arrays.asList(user1, user2)).atLeastOnce();
         replay(userStore);
         
         Post user1Post1 = new Post(user1.getId(), "post1");
@@ -58,10 +78,10 @@ public class FeedBuilderTest {
         List<Post> expectedPosts = Arrays.asList(user1Post1, user1Post2, user2Post1, user2Post2);
         
         PostStore postStore = createMock(PostStore.class);
-        expect(postStore.getPostsByUser(eq(user1.getId()), anyObject(Predicate.class))).andReturn(
-                Arrays.asList(user1Post1, user1Post2)).atLeastOnce();
-        expect(postStore.getPostsByUser(eq(user2.getId()), anyObject(Predicate.class))).andReturn(
-                Arrays.asList(user2Post1, user2Post2)).atLeastOnce();
+        expect(postStore.getPostsByUser(eq(user1.getId()), EasyMock.<Predicate<Post>> anyObject()))
+                .andReturn(Arrays.asList(user1Post1, user1Post2)).atLeastOnce();
+        expect(postStore.getPostsByUser(eq(user2.getId()), EasyMock.<Predicate<Post>> anyObject()))
+                .andReturn(Arrays.asList(user2Post1, user2Post2)).atLeastOnce();
         replay(postStore);
         
         final UserMatcher matcher = new PercentMatchUserMatcher(1);
@@ -89,4 +109,427 @@ public class FeedBuilderTest {
         verify(postStore);
         verify(userStore);
     }
+    
+    /**
+     * Tests that getFeedForUser() fills in the explain record.
+     */
+    @Test
+    public void testGetFeedForUserExplain() {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        UserProfile user1 = new UserProfile("Seth");
+        UserProfile user2 = new UserProfile("Charles");
+        UserProfile user3 = new UserProfile("Nathan");
+        user1.setAttribute("profession", "Software Developer");
+        user2.setAttribute("profession", "Software Developer");
+        user3.setAttribute("profession", "Teacher");
+        userStore.write(user1);
+        userStore.write(user2);
+        userStore.write(user3);
+        postStore.write(new Post(user2.getId(), "keep"));
+        postStore.write(new Post(user2.getId(), "drop"));
+        postStore.write(new Post(user3.getId(), "unseen"));
+        
+        Predicate<Post> postPredicate = new Predicate<Post>() {
+            public boolean test(Post candidate) {
+                return candidate.getContent().startsWith("keep");
+            }
+        };
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), postPredicate);
+        FeedExplain explain = new FeedExplain(user1.getId());
+        
+        List<Post> feed = feedBuilder.getFeedForUser(user1, explain);
+        
+        assertEquals("Wrong feed!", Arrays.asList(new Post(user2.getId(), "keep")), feed);
+        assertEquals("Wrong number of users scanned!", 3, explain.getUsersScanned());
+        assertEquals("Wrong number of users matched!", 2, explain.getUsersMatched());
+        assertEquals("Wrong number of authors fetched!", 2, explain.getAuthorsFetched());
+        assertEquals("Wrong number of posts examined!", 2, explain.getPostsExamined());
+        assertEquals("Wrong number of posts kept!", 1, explain.getPostsKept());
+        assertTrue("The stage times cannot exceed the total!", explain.getScanNanos()
+                + explain.getMatchNanos() + explain.getFetchNanos() + explain.getFilterNanos()
+                <= explain.getTotalNanos());
+    }
+    
+    /**
+     * Tests that feeds over the threshold are written to the slow feed log.
+     */
+    @Test
+    public void testGetFeedForUserSlowFeedLog() {
+        final List<LogRecord> records = new ArrayList<LogRecord>();
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+            
+            public void flush() {
+            }
+            
+            public void close() {
+            }
+        });
+        SlowFeedLog log = new SlowFeedLog(logger, 0, TimeUnit.MILLISECONDS);
+        UserProfile user = new UserProfile("Seth");
+        user.setAttribute("profession", "Software Developer");
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        userStore.write(user);
+        Predicate<Post> postPredicate = new Predicate<Post>() {
+            public boolean test(Post candidate) {
+                return true;
+            }
+        };
+        FeedBuilder feedBuilder = new FeedBuilder(new PostStore(), userStore,
+                new PercentMatchUserMatcher(1), postPredicate).withSlowFeedLog(log);
+        
+        feedBuilder.getFeedForUser(user);
+        
+        assertEquals("The slow feed was not logged!", 1, records.size());
+        assertTrue("The log record should carry the explain record!", records.get(0)
+                .getParameters()[0].toString().contains("user=Seth usersScanned=1 usersMatched=1"));
+    }
+    
+    /**
+     * Tests that the ranked feed keeps only the best posts, best first, by match and recency.
+     */
+    @Test
+    public void testGetRankedFeedForUser() {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        UserProfile reader = user("reader", "city", "boston", "hobby", "chess");
+        UserProfile close = user("close", "city", "boston", "hobby", "chess");
+        UserProfile far = user("far", "city", "boston", "hobby", "golf");
+        userStore.writeAll(Arrays.asList(reader, close, far));
+        long now = TimeUnit.DAYS.toMillis(100);
+        for (int i = 0; i < 100; i++) {
+            postStore.write(new Post("close", "close " + i, now - TimeUnit.HOURS.toMillis(i)));
+            postStore.write(new Post("far", "far " + i, now - TimeUnit.MINUTES.toMillis(i)));
+        }
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(0.5), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return !post.getContent().endsWith(" 0");
+                    }
+                });
+        
+        PostScorer scorer = new MatchRecencyPostScorer(new PercentMatchUserMatcher(0.5),
+                TimeUnit.HOURS.toMillis(1));
+        List<ScoredPost> ranked = feedBuilder.getRankedFeedForUser(reader, 5, scorer, now);
+        List<String> contents = new ArrayList<String>();
+        for (ScoredPost post : ranked) {
+            contents.add(post.getPost().getContent());
+        }
+        assertEquals("Wrong ranked feed!", Arrays.asList("close 1", "far 1", "far 2", "far 3",
+                "far 4"), contents);
+        for (int i = 1; i < ranked.size(); i++) {
+            assertTrue("Posts are not ordered by score!", ranked.get(i - 1).getScore() >= ranked
+                    .get(i).getScore());
+        }
+        assertEquals("The default scorer should rank by match!", 5, feedBuilder
+                .getRankedFeedForUser(reader, 5).size());
+        assertEquals("A limit of zero should return nothing!", 0, feedBuilder
+                .getRankedFeedForUser(reader, 0, scorer, now).size());
+    }
+    
+    /**
+     * Tests that authors who cannot beat the chosen posts are never read.
+     */
+    @Test
+    public void testGetRankedFeedForUserSkipsWeakAuthors() {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        UserProfile reader = user("reader", "city", "boston", "hobby", "chess");
+        userStore.writeAll(Arrays.asList(reader, user("close", "city", "boston", "hobby",
+                "chess"), user("far", "city", "boston")));
+        final List<String> read = new ArrayList<String>();
+        PostStore postStore = new PostStore() {
+            @Override
+            public List<Post> getPostsByUser(String user, Predicate<Post> predicate) {
+                read.add(user);
+                return super.getPostsByUser(user, predicate);
+            }
+        };
+        postStore.write(new Post("close", "hello", 1000));
+        postStore.write(new Post("far", "hello", 1000));
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(0.5), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+        
+        List<ScoredPost> ranked = feedBuilder.getRankedFeedForUser(reader, 1,
+                new MatchRecencyPostScorer(new PercentMatchUserMatcher(0.5), 1000), 1000);
+        assertEquals("Wrong top post!", "close", ranked.get(0).getPost().getUser());
+        assertTrue("The weaker author should be skipped: " + read, !read.contains("far"));
+        
+        boolean thrown = false;
+        try {
+            new FeedBuilder(postStore, userStore, new UserMatcher() {
+                public boolean matches(UserProfile primary, UserProfile secondary) {
+                    return true;
+                }
+            }, new Predicate<Post>() {
+                public boolean test(Post post) {
+                    return true;
+                }
+            }).getRankedFeedForUser(reader, 1);
+        } catch (IllegalStateException e) {
+            thrown = true;
+        }
+        assertTrue("A matcher that cannot score has no default scorer!", thrown);
+    }
+    
+    /**
+     * Tests that a post filter is pushed down to the post store, so only posts in its time range
+     * with its keyword are examined.
+     */
+    @Test
+    public void testGetFeedForUserWithPostFilter() {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        UserProfile reader = user("Seth", "hobby", "coffee");
+        userStore.write(reader);
+        userStore.write(user("Charles", "hobby", "coffee"));
+        userStore.write(user("Nathan", "hobby", "coffee"));
+        for (int i = 0; i < 10; i++) {
+            postStore.write(new Post("Charles", (i % 2 == 0 ? "coffee " : "tea ") + i, i));
+            postStore.write(new Post("Nathan", "coffee " + i, i));
+        }
+        
+        PostFilter filter = PostFilter.all().withTimeRange(4, 10).withKeyword("coffee")
+                .withAuthors(Arrays.asList("Charles")).withPredicate(new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), filter);
+        FeedExplain explain = new FeedExplain(reader.getId());
+        
+        List<Post> feed = feedBuilder.getFeedForUser(reader, explain);
+        
+        assertEquals("Wrong feed!", Arrays.asList(new Post("Charles", "coffee 4"), new Post(
+                "Charles", "coffee 6"), new Post("Charles", "coffee 8")), feed);
+        assertEquals("Only the narrowed posts should be examined!", 3, explain
+                .getPostsExamined());
+        assertEquals("Wrong ranked feed!", "coffee 8", feedBuilder.getRankedFeedForUser(reader, 1,
+                new MatchRecencyPostScorer(new PercentMatchUserMatcher(1), 1000), 10).get(0)
+                .getPost().getContent());
+    }
+    
+    /**
+     * Tests that a feed search only finds posts by users who match the reader.
+     */
+    @Test
+    public void testSearchFeedForUser() {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        PostSearchIndex searchIndex = new PostSearchIndex();
+        postStore.addListener(searchIndex);
+        UserProfile reader = user("Seth", "city", "seattle");
+        userStore.write(reader);
+        userStore.write(user("Nathan", "city", "seattle"));
+        userStore.write(user("Charles", "city", "denver"));
+        postStore.write(new Post("Nathan", "coffee downtown", 1));
+        postStore.write(new Post("Charles", "coffee in denver", 2));
+        postStore.write(new Post("Nathan", "tea downtown", 3));
+        
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+        boolean thrown = false;
+        try {
+            feedBuilder.searchFeedForUser(reader, "coffee", 10);
+        } catch (IllegalStateException e) {
+            thrown = true;
+        }
+        assertTrue("Searching without an index should have thrown!", thrown);
+        
+        feedBuilder.withSearchIndex(searchIndex);
+        assertEquals("Only the matching author's post should be found!", Arrays.asList(new Post(
+                "Nathan", "coffee downtown")), feedBuilder.searchFeedForUser(reader, "Coffee",
+                10));
+        assertEquals("Wrong number of posts for a common word!", 2, feedBuilder
+                .searchFeedForUser(reader, "downtown", 10).size());
+    }
+    
+    /**
+     * Tests that a match graph decides whose posts are in the feed, and that users missing from
+     * it are still matched online.
+     */
+    @Test
+    public void testMatchGraph() throws IOException {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        UserProfile reader = user("Seth", "city", "seattle");
+        UserProfile newcomer = user("Zoe", "city", "seattle");
+        userStore.write(reader);
+        userStore.write(newcomer);
+        userStore.write(user("Nathan", "city", "seattle"));
+        userStore.write(user("Charles", "city", "denver"));
+        postStore.write(new Post("Nathan", "from nathan", 1));
+        postStore.write(new Post("Charles", "from charles", 2));
+        
+        File file = File.createTempFile("matches", ".graph");
+        file.deleteOnExit();
+        // The snapshot is stale: it still has Seth matching Charles and a deleted user.
+        MatchGraph.write(file.toPath(), Arrays.asList("Seth", "Charles", "Gone"), new int[][] {
+                { 1, 2 }, { 1 }, {} });
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), PostFilter.all()).withMatchGraph(MatchGraph
+                .load(file.toPath()));
+        
+        assertEquals("The feed should come from the snapshot!", Arrays.asList(new Post("Charles",
+                "from charles")), feedBuilder.getFeedForUser(reader));
+        assertEquals("A user missing from the snapshot should be matched online!", Arrays.asList(
+                new Post("Nathan", "from nathan")), feedBuilder.getFeedForUser(newcomer));
+        
+        feedBuilder.withMatchGraph(null);
+        assertEquals("Without the snapshot the feed should be matched online!", Arrays.asList(
+                new Post("Nathan", "from nathan")), feedBuilder.getFeedForUser(reader));
+    }
+    
+    /**
+     * Tests that concurrent feeds for users with the same attributes share one matching pass
+     * when the matcher is attribute based, even when the joining feed is explained.
+     */
+    @Test
+    public void testMatchCoalescing() throws InterruptedException {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        final UserProfile seth = user("Seth", "city", "seattle");
+        final UserProfile zoe = user("Zoe", "City", " Seattle");
+        userStore.write(seth);
+        userStore.write(zoe);
+        userStore.write(user("Charles", "city", "denver"));
+        postStore.write(new Post("Seth", "from seth", 1));
+        postStore.write(new Post("Charles", "from charles", 2));
+        
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger matches = new AtomicInteger();
+        UserMatcher matcher = new UserMatcher() {
+            public boolean matches(UserProfile primary, UserProfile secondary) {
+                matches.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return !primary.getAttributeIntersection(secondary).isEmpty();
+            }
+            
+            @Override
+            public boolean isAttributeBased() {
+                return true;
+            }
+        };
+        final FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore, matcher, PostFilter
+                .all());
+        Metrics.setEnabled(true);
+        Counter coalesced = Metrics.counter("FeedBuilder.matching.coalesced");
+        final List<List<Post>> feeds = new ArrayList<List<Post>>(Arrays.asList(null, null));
+        final FeedExplain explain = new FeedExplain("Zoe");
+        Thread first = new Thread() {
+            public void run() {
+                feeds.set(0, feedBuilder.getFeedForUser(seth));
+            }
+        };
+        Thread second = new Thread() {
+            public void run() {
+                feeds.set(1, feedBuilder.getFeedForUser(zoe, explain));
+            }
+        };
+        try {
+            first.start();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (matches.get() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            second.start();
+            while (coalesced.get() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            first.join();
+            second.join();
+            
+            assertEquals("The second feed should have joined the first!", 1, coalesced.get());
+            assertEquals("The users should only have been matched once!", 3, matches.get());
+            assertTrue("The explained feed should be marked as shared!", explain
+                    .isMatchingShared());
+            assertEquals("A shared feed should have no matcher figures!", 0, explain
+                    .getUsersScanned());
+        } finally {
+            Metrics.setEnabled(false);
+            Metrics.reset();
+        }
+        List<Post> expected = Arrays.asList(new Post("Seth", "from seth"));
+        assertEquals("Wrong feed for the first user!", expected, feeds.get(0));
+        assertEquals("Wrong feed for the second user!", expected, feeds.get(1));
+    }
+    
+    /**
+     * Tests that a store with cohorts is matched once per cohort, that the matching cohorts are
+     * reused for users with the same attributes, explained or not, up to a number of signatures,
+     * and that users moving between cohorts are seen.
+     */
+    @Test
+    public void testCohortMatching() {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore()
+                .withCohorts();
+        PostStore postStore = new PostStore();
+        for (int i = 0; i < 20; i++) {
+            userStore.write(user("user" + i, "city", i % 2 == 0 ? "seattle" : "denver"));
+            postStore.write(new Post("user" + i, "from user" + i, i));
+        }
+        final AtomicInteger matches = new AtomicInteger();
+        final UserMatcher percent = new PercentMatchUserMatcher(1);
+        UserMatcher matcher = new UserMatcher() {
+            public boolean matches(UserProfile primary, UserProfile secondary) {
+                matches.incrementAndGet();
+                return percent.matches(primary, secondary);
+            }
+            
+            @Override
+            public boolean isAttributeBased() {
+                return true;
+            }
+        };
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore, matcher, PostFilter.all());
+        
+        assertEquals("Every Seattle user's posts should be in the feed!", 10, feedBuilder
+                .getFeedForUser(userStore.getProfile("user0")).size());
+        assertEquals("Each cohort should have been matched once!", 2, matches.get());
+        FeedExplain explain = new FeedExplain("user2");
+        assertEquals("Wrong feed for a user of the same cohort!", 10, feedBuilder.getFeedForUser(
+                userStore.getProfile("user2"), explain).size());
+        assertEquals("The matching cohorts should have been reused!", 2, matches.get());
+        assertTrue("The explain record should show the cache hit!", explain.isCohortCacheHit());
+        
+        UserProfile mover = userStore.getProfile("user1");
+        mover.setAttribute("city", "seattle");
+        userStore.write(mover);
+        assertEquals("A user who moved cohort should be in the feed!", 11, feedBuilder
+                .getFeedForUser(userStore.getProfile("user0")).size());
+        assertEquals("Moving between cohorts should not need rematching!", 2, matches.get());
+        
+        for (int i = 0; i < FeedBuilder.MAX_COHORT_SIGNATURES; i++) {
+            feedBuilder.getFeedForUser(user("reader" + i, "hobby", "hobby" + i));
+        }
+        int before = matches.get();
+        feedBuilder.getFeedForUser(userStore.getProfile("user0"));
+        assertEquals("The least recently used signature should have been dropped!", before + 2,
+                matches.get());
+        
+        mover.setAttribute("city", "portland");
+        userStore.write(mover);
+        assertEquals("A user who left the cohort should not be in the feed!", 10, feedBuilder
+                .getFeedForUser(userStore.getProfile("user0")).size());
+        assertEquals("A new cohort should have been matched afresh!", before + 5, matches.get());
+    }
 }
@@ -0,0 +1,75 @@
+package server.feed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the SlowFeedLog class.
+ */
+public class SlowFeedLogTest {
+    
+    /**
+     * Tests that only feeds at or over the threshold are logged.
+     */
+    @Test
+    public void testThreshold() {
+        SlowFeedLog log = new SlowFeedLog(silentLogger(), 1, TimeUnit.MILLISECONDS);
+        
+        assertFalse("A fast feed should not be logged!", log.log(explain(999999)));
+        assertTrue("A slow feed should be logged!", log.log(explain(1000000)));
+        assertEquals("Wrong number of slow feeds!", 1, log.getSlowFeeds());
+    }
+    
+    /**
+     * Tests that sampling and the rate cap suppress records.
+     */
+    @Test
+    public void testSamplingAndRateCap() {
+        SlowFeedLog log = new SlowFeedLog(silentLogger(), 0, TimeUnit.MILLISECONDS)
+                .withSampleRate(2).withMaxPerSecond(3);
+        
+        for (int i = 0; i < 100; i++) {
+            log.log(explain(1));
+        }
+        
+        assertEquals("Wrong number of slow feeds!", 100, log.getSlowFeeds());
+        assertTrue("The rate cap was not applied!", log.getLogged() <= 6);
+        assertTrue("Nothing was logged!", log.getLogged() >= 3);
+        assertEquals("Wrong number of suppressed records!", 100 - log.getLogged(),
+                log.getSuppressed());
+    }
+    
+    /**
+     * Tests the argument requirements of withSampleRate().
+     */
+    @Test
+    public void testWithSampleRateIllegalArgument() {
+        boolean thrown = false;
+        
+        try {
+            new SlowFeedLog(1, TimeUnit.SECONDS).withSampleRate(0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("An invalid sample rate was passed in, but no exception was thrown.", thrown);
+    }
+    
+    private static Logger silentLogger() {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        return logger;
+    }
+    
+    private static FeedExplain explain(long totalNanos) {
+        FeedExplain explain = new FeedExplain("Seth");
+        explain.finish(0, 0, 0, totalNanos);
+        return explain;
+    }
+}
@@ -0,0 +1,374 @@
+package server.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.admission.AdmissionController;
+import server.admission.ConcurrencyLimiter;
+import server.admission.ConcurrencyLimiter.Permit;
+import server.feed.FeedBuilder;
+import server.matching.PercentMatchUserMatcher;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostListener;
+import data.proxy.PostSearchIndex;
+import data.proxy.PostStore;
+import data.structure.Post;
+
+/**
+ * Tests the functionality of the ChatterHttpServer class over localhost.
+ */
+public class ChatterHttpServerTest {
+    private ChatterHttpServer server;
+    private String baseUrl;
+    private PostStore postStore;
+    private FeedBuilder feedBuilder;
+    
+    @Before
+    public void setUp() throws IOException {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        postStore = new PostStore();
+        PostSearchIndex searchIndex = new PostSearchIndex();
+        postStore.addListener(searchIndex);
+        feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                }).withSearchIndex(searchIndex);
+        server = new ChatterHttpServer(userStore, postStore, feedBuilder, 2, 16);
+        InetSocketAddress address = server.start(new InetSocketAddress("localhost", 0));
+        baseUrl = String.format("http://localhost:%d", address.getPort());
+    }
+    
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+    
+    /**
+     * Tests writing and reading profiles, singly and in a batch.
+     */
+    @Test
+    public void testProfiles() throws IOException {
+        Response put = request("PUT", "/profiles/Seth",
+                "{\"attributes\":{\"profession\":\"Software Developer\"}}");
+        assertEquals("Wrong status for PUT!", 200, put.status);
+        
+        Map<String, Object> profile = Json.parseObject(request("GET", "/profiles/Seth", null).body);
+        assertEquals("Wrong attributes!", "software developer",
+                ((Map<?, ?>) profile.get("attributes")).get("profession"));
+        assertEquals("A missing profile should be 404!", 404,
+                request("GET", "/profiles/Nobody", null).status);
+        
+        Map<String, Object> batch = Json.parseObject(request("POST", "/batch/profiles",
+                "{\"ids\":[\"Seth\",\"Nobody\"]}").body);
+        assertEquals("Wrong number of profiles!", 1, ((List<?>) batch.get("profiles")).size());
+        assertEquals("Wrong missing ids!", "Nobody", ((List<?>) batch.get("missing")).get(0));
+    }
+    
+    /**
+     * Tests creating posts and streaming them back in a feed.
+     */
+    @Test
+    public void testPostsAndFeed() throws IOException {
+        request("PUT", "/profiles/Seth", "{\"attributes\":{\"city\":\"Seattle\"}}");
+        request("PUT", "/profiles/Nathan", "{\"attributes\":{\"city\":\"Seattle\"}}");
+        
+        assertEquals("Wrong status for a single post!", 201, request("POST", "/posts",
+                "{\"user\":\"Seth\",\"content\":\"hello\"}").status);
+        Response batch = request("POST", "/batch/posts", "{\"posts\":["
+                + "{\"user\":\"Nathan\",\"content\":\"one\"},"
+                + "{\"user\":\"Nathan\",\"content\":\"two \\\"quoted\\\"\"}]}");
+        assertEquals("Wrong batch response!", "{\"written\":2}", batch.body);
+        
+        Response feed = request("GET", "/feed/Seth", null);
+        assertEquals("Wrong status for the feed!", 200, feed.status);
+        assertEquals("The feed should be streamed!", "chunked", feed.transferEncoding);
+        List<?> posts = (List<?>) Json.parseObject(feed.body).get("posts");
+        assertEquals("Wrong number of posts in the feed!", 3, posts.size());
+        assertTrue("The quoted post was not escaped correctly!", feed.body
+                .contains("two \\\"quoted\\\""));
+        Response ranked = request("GET", "/feed/Seth?top=2", null);
+        assertEquals("Wrong status for the ranked feed!", 200, ranked.status);
+        List<?> top = (List<?>) Json.parseObject(ranked.body).get("posts");
+        assertEquals("Wrong number of ranked posts!", 2, top.size());
+        assertTrue("Ranked posts should be scored!", ((Map<?, ?>) top.get(0)).containsKey(
+                "score"));
+        assertEquals("A bad limit should be rejected!", 400, request("GET", "/feed/Seth?top=x",
+                null).status);
+    }
+    
+    /**
+     * Tests searching the posts in a feed.
+     */
+    @Test
+    public void testSearch() throws IOException {
+        request("PUT", "/profiles/Seth", "{\"attributes\":{\"city\":\"Seattle\"}}");
+        request("PUT", "/profiles/Nathan", "{\"attributes\":{\"city\":\"Seattle\"}}");
+        request("PUT", "/profiles/Charles", "{\"attributes\":{\"city\":\"Denver\"}}");
+        request("POST", "/batch/posts", "{\"posts\":["
+                + "{\"user\":\"Nathan\",\"content\":\"Good coffee downtown\"},"
+                + "{\"user\":\"Nathan\",\"content\":\"coffee is good\"},"
+                + "{\"user\":\"Nathan\",\"content\":\"bad coffee\"},"
+                + "{\"user\":\"Charles\",\"content\":\"good coffee too\"}]}");
+        
+        Response search = request("GET", "/search/Seth?q=good%20coffee", null);
+        assertEquals("Wrong status for the search!", 200, search.status);
+        List<?> posts = (List<?>) Json.parseObject(search.body).get("posts");
+        assertEquals("Only matched authors' posts with both words should be found!", 2, posts
+                .size());
+        assertEquals("The newest post should be first!", "coffee is good", ((Map<?, ?>) posts
+                .get(0)).get("content"));
+        assertEquals("Wrong number of limited results!", 1, ((List<?>) Json.parseObject(request(
+                "GET", "/search/Seth?q=coffee&top=1", null).body).get("posts")).size());
+        assertEquals("A missing query should be rejected!", 400, request("GET", "/search/Seth",
+                null).status);
+        assertEquals("A missing user should be 404!", 404, request("GET", "/search/Nobody?q=x",
+                null).status);
+    }
+    
+    /**
+     * Tests that feeds and writes past the admission limits get 503, except that a feed is served
+     * stale when there is an earlier one.
+     */
+    @Test
+    public void testAdmissionControl() throws IOException {
+        AdmissionController admission = new AdmissionController(feedBuilder).withReadLimiter(
+                new ConcurrencyLimiter("test.reads", 1, 1, 1)).withWriteLimiter(
+                new ConcurrencyLimiter("test.writes", 1, 1, 1));
+        server.withAdmissionController(admission);
+        request("PUT", "/profiles/Seth", "{\"attributes\":{\"city\":\"Seattle\"}}");
+        
+        Permit read = admission.acquireRead();
+        Response refused = request("GET", "/feed/Seth", null);
+        assertEquals("A feed past the limit should be 503!", 503, refused.status);
+        assertEquals("A refusal should say when to retry!", "1", refused.retryAfter);
+        assertEquals("Writes should have their own budget!", 201, request("POST", "/posts",
+                "{\"user\":\"Seth\",\"content\":\"hello\"}").status);
+        read.release();
+        
+        Response fresh = request("GET", "/feed/Seth", null);
+        assertEquals("Wrong status for an admitted feed!", 200, fresh.status);
+        assertTrue("An admitted feed should not be stale!", !fresh.body.contains("stale"));
+        read = admission.acquireRead();
+        Response stale = request("GET", "/feed/Seth", null);
+        assertEquals("The last feed should be served!", 200, stale.status);
+        assertEquals("Wrong stale feed!", 1, ((List<?>) Json.parseObject(stale.body).get(
+                "posts")).size());
+        assertEquals("The feed should be marked stale!", Boolean.TRUE, Json.parseObject(
+                stale.body).get("stale"));
+        assertEquals("A ranked feed past the limit should be 503!", 503, request("GET",
+                "/feed/Seth?top=2", null).status);
+        read.release();
+        
+        Permit write = admission.acquireWrite();
+        assertEquals("A write past the limit should be 503!", 503, request("POST", "/posts",
+                "{\"user\":\"Seth\",\"content\":\"again\"}").status);
+        write.release();
+    }
+    
+    /**
+     * Tests that requests the pool has no room for are answered with 503 at once, while the
+     * running and queued requests still complete.
+     */
+    @Test
+    public void testShedding() throws IOException, InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        PostStore blockingStore = new PostStore();
+        blockingStore.addListener(new PostListener() {
+            public void onPost(Post post) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        ChatterHttpServer small = new ChatterHttpServer(new LocalTransientUserProfileStore(),
+                blockingStore, feedBuilder, 1, 1);
+        final String smallUrl = String.format("http://localhost:%d", small.start(
+                new InetSocketAddress("localhost", 0)).getPort());
+        try {
+            final Response[] responses = new Response[5];
+            Thread[] senders = new Thread[responses.length];
+            for (int i = 0; i < senders.length; i++) {
+                final int index = i;
+                senders[i] = new Thread() {
+                    public void run() {
+                        try {
+                            responses[index] = request(smallUrl, "POST", "/posts",
+                                    "{\"user\":\"Seth\",\"content\":\"hello\"}");
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                senders[i].start();
+                if (i == 0) {
+                    assertTrue("The first request should have started!", entered.await(10,
+                            TimeUnit.SECONDS));
+                }
+            }
+            // One request runs and one waits in the queue; the other three are shed.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (count(responses, 503) < 3 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals("Requests past the queue should be shed!", 3, count(responses, 503));
+            for (Response response : responses) {
+                if (response != null) {
+                    assertEquals("A shed request should say when to retry!", "1",
+                            response.retryAfter);
+                }
+            }
+            release.countDown();
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            assertEquals("The running and queued requests should complete!", 2, count(responses,
+                    201));
+        } finally {
+            release.countDown();
+            small.stop();
+        }
+    }
+    
+    /**
+     * Tests that an unexpected failure is answered with a generic 500 and logged in full.
+     */
+    @Test
+    public void testInternalError() throws IOException {
+        postStore.addListener(new PostListener() {
+            public void onPost(Post post) {
+                throw new IllegalStateException("secret detail");
+            }
+        });
+        final List<LogRecord> records = new ArrayList<LogRecord>();
+        Logger logger = Logger.getLogger(ChatterHttpServer.LOGGER_NAME);
+        Handler handler = new Handler() {
+            public void publish(LogRecord record) {
+                synchronized (records) {
+                    records.add(record);
+                }
+            }
+            
+            public void flush() {
+            }
+            
+            public void close() {
+            }
+        };
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        try {
+            Response response = request("POST", "/posts",
+                    "{\"user\":\"Seth\",\"content\":\"hello\"}");
+            assertEquals("An unexpected failure should be 500!", 500, response.status);
+            assertTrue("The failure's details should not be sent!", !response.body.contains(
+                    "secret"));
+            synchronized (records) {
+                assertEquals("The failure should have been logged!", 1, records.size());
+                assertEquals("The exception should have been logged!", "secret detail", records
+                        .get(0).getThrown().getMessage());
+            }
+        } finally {
+            logger.removeHandler(handler);
+            logger.setUseParentHandlers(true);
+        }
+    }
+    
+    /**
+     * Tests that bad requests are reported without writing anything.
+     */
+    @Test
+    public void testBadRequests() throws IOException {
+        assertEquals("Malformed JSON should be 400!", 400,
+                request("POST", "/posts", "{\"user\":").status);
+        assertEquals("A partially invalid batch should be 400!", 400, request("POST",
+                "/batch/posts", "{\"posts\":[{\"user\":\"Seth\",\"content\":\"ok\"},{}]}").status);
+        assertTrue("Nothing from a rejected batch should be written!",
+                postStore.getPostsByUser("Seth").isEmpty());
+        assertEquals("The wrong method should be 405!", 405,
+                request("DELETE", "/profiles/Seth", null).status);
+        assertEquals("An unknown path should be 404!", 404,
+                request("POST", "/postsx", "{}").status);
+    }
+    
+    private static int count(Response[] responses, int status) {
+        int count = 0;
+        for (Response response : responses) {
+            if (response != null && response.status == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    private Response request(String method, String path, String body) throws IOException {
+        return request(baseUrl, method, path, body);
+    }
+    
+    private static Response request(String base, String method, String path, String body)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(base + path)
+                .openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+            out.close();
+        }
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        response.transferEncoding = connection.getHeaderField("Transfer-Encoding");
+        response.retryAfter = connection.getHeaderField("Retry-After");
+        InputStream in = response.status < 400 ? connection.getInputStream() : connection
+                .getErrorStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while (in != null && (read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        if (in != null) {
+            in.close();
+        }
+        response.body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        return response;
+    }
+    
+    /**
+     * Status, transfer encoding and body of a response.
+     */
+    private static class Response {
+        private int status;
+        private String transferEncoding;
+        private String retryAfter;
+        private String body;
+    }
+}
@@ -0,0 +1,63 @@
+package server.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the Json class.
+ */
+public class JsonTest {
+    
+    /**
+     * Tests parsing a document with every kind of value.
+     */
+    @Test
+    public void testParse() {
+        Map<String, Object> object = Json.parseObject(
+                " {\"a\": \"x\\\"y\\u0041\", \"b\": [1, 2.5, true, null], \"c\": {}} ");
+        
+        assertEquals("Wrong string!", "x\"yA", object.get("a"));
+        assertEquals("Wrong array!", Arrays.asList(1.0, 2.5, Boolean.TRUE, null),
+                (List<?>) object.get("b"));
+        assertTrue("Wrong nested object!", ((Map<?, ?>) object.get("c")).isEmpty());
+    }
+    
+    /**
+     * Tests that written strings and objects parse back to the same values.
+     */
+    @Test
+    public void testRoundTrip() {
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        values.put("quote\"", "tab\tnewline\ncontrol\u0001");
+        
+        String json = Json.object(new StringBuilder(), values).toString();
+        
+        assertEquals("The round trip changed the values!", values, Json.parse(json));
+    }
+    
+    /**
+     * Tests that malformed documents are rejected.
+     */
+    @Test
+    public void testParseIllegalArgument() {
+        for (String text : new String[] { "{", "{\"a\" 1}", "[1,]", "\"open", "{} x", "nul" }) {
+            boolean thrown = false;
+            
+            try {
+                Json.parse(text);
+            } catch (IllegalArgumentException e) {
+                thrown = true;
+            }
+            
+            assertTrue(String.format("\"%s\" was accepted, but it is not valid JSON.", text),
+                    thrown);
+        }
+    }
+}
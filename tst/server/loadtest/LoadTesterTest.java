@@ -0,0 +1,53 @@
+package server.loadtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import server.standalone.SimpleServerCLI.COMMAND;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+
+/**
+ * Tests the functionality of the LoadTester class.
+ */
+public class LoadTesterTest {
+    
+    /**
+     * Tests parsing of the command mix option.
+     */
+    @Test
+    public void testParseMix() {
+        Map<COMMAND, Integer> mix = LoadTester.parseMix("login:1, post:3,FEED:6");
+        
+        assertEquals("Wrong number of commands parsed!", 3, mix.size());
+        assertEquals("Wrong weight parsed!", Integer.valueOf(3), mix.get(COMMAND.POST));
+        assertEquals("Wrong weight parsed!", Integer.valueOf(6), mix.get(COMMAND.FEED));
+    }
+    
+    /**
+     * Tests that a short in-process run exercises every command in the mix without errors.
+     */
+    @Test
+    public void testShortRun() throws InterruptedException {
+        WorkloadGenerator workload = new WorkloadGenerator(200, 10, 20, 3, 1.0,
+                LoadTester.parseMix("login:1,set:1,post:1,feed:1"));
+        LoadTester tester = new LoadTester(new LocalTransientUserProfileStore(), new PostStore(),
+                workload);
+        tester.seed();
+        
+        long elapsed = tester.run(4, 300);
+        
+        assertTrue("The run ended early!", elapsed >= 300);
+        for (COMMAND command : new COMMAND[] { COMMAND.LOGIN, COMMAND.SET, COMMAND.POST,
+                COMMAND.FEED }) {
+            assertTrue(String.format("No %s commands were issued!", command),
+                    tester.getLatencies(command).getCount() > 0);
+        }
+        assertTrue("The report does not include errors!", tester.getReport(elapsed).contains(
+                "ERRORS"));
+    }
+}
@@ -0,0 +1,46 @@
+package server.loadtest;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the functionality of the ZipfianGenerator class.
+ */
+public class ZipfianGeneratorTest {
+    
+    /**
+     * Tests the argument requirements of the constructor.
+     */
+    @Test
+    public void testConstructorIllegalArgument() {
+        boolean thrown = false;
+        
+        try {
+            new ZipfianGenerator(0, 1.0);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("Zero ranks were requested, but no IllegalArgumentException was thrown.", thrown);
+    }
+    
+    /**
+     * Tests that draws stay in range and favor the lowest ranks.
+     */
+    @Test
+    public void testSkew() {
+        ZipfianGenerator generator = new ZipfianGenerator(100, 1.0);
+        int[] counts = new int[100];
+        for (int i = 0; i < 100000; i++) {
+            int rank = generator.next();
+            assertTrue("A rank was drawn out of range!", rank >= 0 && rank < 100);
+            counts[rank]++;
+        }
+        
+        // Rank 0 should be drawn about twice as often as rank 1 and 100 times as often as rank 99.
+        assertTrue("Rank 0 was not the most popular!", counts[0] > counts[1]);
+        assertTrue("The distribution is not skewed enough!", counts[0] > 1.5 * counts[1]);
+        assertTrue("The distribution is not skewed enough!", counts[0] > 20 * counts[99]);
+    }
+}
@@ -0,0 +1,263 @@
+package server.matching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static data.structure.UserProfiles.user;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import data.proxy.AttributeStatistics;
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the composite UserMatcher classes.
+ */
+public class CompositeUserMatcherTest {
+    
+    /**
+     * Tests that AND, OR, NOT and at-least combinations match the right users.
+     */
+    @Test
+    public void testSemantics() {
+        UserProfile primary = user("Seth", "city", "denver", "hobby", "falconry");
+        UserProfile both = user("both", "city", "denver", "hobby", "falconry");
+        UserProfile city = user("city", "city", "denver");
+        UserProfile neither = user("neither", "city", "boston");
+        UserMatcher sameCity = AttributeUserMatcher.sharedWithPrimary("city");
+        UserMatcher sameHobby = AttributeUserMatcher.sharedWithPrimary("hobby");
+        
+        UserMatcher all = new AllOfUserMatcher(sameCity, sameHobby);
+        assertTrue("Both attributes are shared!", all.matches(primary, both));
+        assertFalse("Only one attribute is shared!", all.matches(primary, city));
+        
+        UserMatcher any = new AnyOfUserMatcher(sameCity, sameHobby);
+        assertTrue("One attribute is shared!", any.matches(primary, city));
+        assertFalse("No attribute is shared!", any.matches(primary, neither));
+        
+        UserMatcher not = new NotUserMatcher(sameHobby);
+        assertTrue("The hobby is not shared!", not.matches(primary, city));
+        assertFalse("The hobby is shared!", not.matches(primary, both));
+        
+        UserMatcher atLeast = new AtLeastUserMatcher(2, sameCity, sameHobby,
+                AttributeUserMatcher.equalTo("city", "boston"));
+        assertTrue("Two of the three match!", atLeast.matches(primary, both));
+        assertFalse("Only one of the three matches!", atLeast.matches(primary, city));
+        assertFalse("Only one of the three matches!", atLeast.matches(primary, neither));
+    }
+    
+    /**
+     * Tests that an AND runs the cheap, selective matcher first and never reaches the expensive
+     * one for users it rejects.
+     */
+    @Test
+    public void testShortCircuitOrdering() {
+        CountingUserMatcher expensive = new CountingUserMatcher(true, 100, 0.5);
+        UserMatcher city = AttributeUserMatcher.equalTo("city", "denver");
+        AllOfUserMatcher all = new AllOfUserMatcher(expensive, city);
+        
+        assertSame("The attribute check should run first!", city, all.getMatchers().get(0));
+        UserProfile primary = new UserProfile("Seth");
+        for (int i = 0; i < 10; i++) {
+            all.matches(primary, user("u" + i, "city", i < 3 ? "denver" : "boston"));
+        }
+        assertEquals("The expensive matcher should only see the users in denver!", 3,
+                expensive.calls);
+        
+        CountingUserMatcher fallback = new CountingUserMatcher(false, 100, 0.5);
+        AnyOfUserMatcher any = new AnyOfUserMatcher(fallback, city);
+        assertSame("The attribute check should run first!", city, any.getMatchers().get(0));
+        any.matches(primary, user("denver", "city", "denver"));
+        assertEquals("A match should settle the OR!", 0, fallback.calls);
+        
+        CountingUserMatcher last = new CountingUserMatcher(true, 100, 0.5);
+        AtLeastUserMatcher atLeast = new AtLeastUserMatcher(2, last, city,
+                AttributeUserMatcher.equalTo("hobby", "falconry"));
+        atLeast.matches(primary, user("boston", "city", "boston"));
+        assertEquals("Two failures leave too few matchers to reach the count!", 0, last.calls);
+    }
+    
+    /**
+     * Tests the cost and selectivity estimates of the composites.
+     */
+    @Test
+    public void testEstimates() {
+        UserMatcher a = AttributeUserMatcher.equalTo("city", "denver").withSelectivity(0.5);
+        UserMatcher b = new CountingUserMatcher(true, 10, 0.2);
+        
+        AllOfUserMatcher all = new AllOfUserMatcher(a, b);
+        assertEquals("Wrong AND selectivity!", 0.1, all.getSelectivity(), 1e-9);
+        assertEquals("The second matcher only runs for half the users!", 6, all.getCost(), 1e-9);
+        
+        AnyOfUserMatcher any = new AnyOfUserMatcher(a, b);
+        assertEquals("Wrong OR selectivity!", 0.6, any.getSelectivity(), 1e-9);
+        
+        assertEquals("Wrong NOT selectivity!", 0.8, new NotUserMatcher(b).getSelectivity(),
+                1e-9);
+        
+        AtLeastUserMatcher atLeast = new AtLeastUserMatcher(1, a, b);
+        assertEquals("At least one should equal OR!", any.getSelectivity(), atLeast
+                .getSelectivity(), 1e-9);
+        assertEquals("Wrong at-least cost!", 11, atLeast.getCost(), 1e-9);
+    }
+    
+    /**
+     * Tests that a composite is attribute based only if all of its children are.
+     */
+    @Test
+    public void testAttributeBased() {
+        UserMatcher city = AttributeUserMatcher.sharedWithPrimary("city");
+        UserMatcher counting = new CountingUserMatcher(true, 10, 0.2);
+        
+        assertTrue("Attribute matchers only compare attributes!", city.isAttributeBased());
+        assertTrue("Percent matchers only compare attributes!", new PercentMatchUserMatcher(0.5)
+                .isAttributeBased());
+        assertFalse("Matchers are not attribute based unless they say so!", counting
+                .isAttributeBased());
+        assertTrue("Combinations of attribute matchers are attribute based!", new AllOfUserMatcher(
+                city, new NotUserMatcher(city)).isAttributeBased());
+        assertFalse("One matcher that is not attribute based spoils the combination!",
+                new AnyOfUserMatcher(city, counting).isAttributeBased());
+        assertFalse("Negation keeps its matcher's answer!", new NotUserMatcher(counting)
+                .isAttributeBased());
+    }
+    
+    /**
+     * Tests that attribute matchers estimated from statistics put the rarer check first.
+     */
+    @Test
+    public void testSelectivityFromStatistics() {
+        AttributeStatistics statistics = new AttributeStatistics();
+        for (int i = 0; i < 100; i++) {
+            statistics.update(user("user" + i, "language", i < 90 ? "english" : "french", "city",
+                    "city" + (i % 20)));
+        }
+        AttributeUserMatcher english = AttributeUserMatcher.equalTo("language", "english")
+                .withStatistics(statistics);
+        AttributeUserMatcher sameCity = AttributeUserMatcher.sharedWithPrimary("city")
+                .withStatistics(statistics);
+        assertEquals("Wrong value selectivity!", 0.9, english.getSelectivity(), 0.02);
+        assertEquals("Wrong shared selectivity!", 0.05, sameCity.getSelectivity(), 0.02);
+        assertSame("The rarer check should run first!", sameCity, new AllOfUserMatcher(english,
+                sameCity).getMatchers().get(0));
+    }
+    
+    /**
+     * Tests that AND unions and OR intersects the attribute values their matchers require, and
+     * that the minimum shared attributes bounds combine the same way.
+     */
+    @Test
+    public void testRequiredAttributesAndMinimumShared() {
+        UserProfile primary = user("Seth", "city", "denver", "hobby", "falconry");
+        UserMatcher sameCity = AttributeUserMatcher.sharedWithPrimary("city");
+        UserMatcher sameHobby = AttributeUserMatcher.sharedWithPrimary("hobby");
+        UserMatcher percent = new PercentMatchUserMatcher(1.0);
+        
+        Map<String, String> required = new AllOfUserMatcher(sameCity, sameHobby, percent)
+                .getRequiredAttributes(primary);
+        assertEquals("Wrong number of required attributes!", 2, required.size());
+        assertEquals("Wrong required city!", "denver", required.get("city"));
+        assertEquals("Wrong required hobby!", "falconry", required.get("hobby"));
+        
+        assertEquals("Different requirements leave nothing in common!", Collections.emptyMap(),
+                new AnyOfUserMatcher(sameCity, sameHobby).getRequiredAttributes(primary));
+        assertEquals("Shared requirements should survive!", Collections.singletonMap("city",
+                "denver"), new AnyOfUserMatcher(sameCity, new AllOfUserMatcher(sameCity,
+                sameHobby)).getRequiredAttributes(primary));
+        assertTrue("Negation requires nothing!", new NotUserMatcher(sameCity)
+                .getRequiredAttributes(primary).isEmpty());
+        
+        assertEquals("AND takes the largest bound!", 2, new AllOfUserMatcher(sameCity, percent)
+                .getMinimumSharedAttributes(primary));
+        assertEquals("OR takes the smallest bound!", 1, new AnyOfUserMatcher(sameCity, percent)
+                .getMinimumSharedAttributes(primary));
+        assertEquals("At least one takes the smallest bound!", 1, new AtLeastUserMatcher(1,
+                sameCity, percent).getMinimumSharedAttributes(primary));
+        assertEquals("All takes the largest bound!", 2, new AtLeastUserMatcher(2, sameCity,
+                percent).getMinimumSharedAttributes(primary));
+        assertEquals("Negation bounds nothing!", 0, new NotUserMatcher(sameCity)
+                .getMinimumSharedAttributes(primary));
+    }
+    
+    /**
+     * Tests the argument requirements of the composite matchers.
+     */
+    @Test
+    public void testInvalidArguments() {
+        boolean thrown = false;
+        try {
+            new AllOfUserMatcher();
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("No matchers should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            new AnyOfUserMatcher(AttributeUserMatcher.sharedWithPrimary("city"), null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null matcher should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            new AtLeastUserMatcher(2, AttributeUserMatcher.sharedWithPrimary("city"));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("An unreachable count should have thrown an IllegalArgumentException!",
+                thrown);
+        
+        thrown = false;
+        try {
+            AttributeUserMatcher.equalTo("city", null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null value should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            new NotUserMatcher(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null matcher should have thrown an IllegalArgumentException!", thrown);
+    }
+    
+    /**
+     * Matcher with a fixed answer and estimates that counts how often it runs.
+     */
+    private static class CountingUserMatcher implements UserMatcher {
+        private final boolean answer;
+        private final double cost;
+        private final double selectivity;
+        private int calls;
+        
+        CountingUserMatcher(boolean answer, double cost, double selectivity) {
+            this.answer = answer;
+            this.cost = cost;
+            this.selectivity = selectivity;
+        }
+        
+        public boolean matches(UserProfile primary, UserProfile secondary) {
+            calls++;
+            return answer;
+        }
+        
+        @Override
+        public double getCost() {
+            return cost;
+        }
+        
+        @Override
+        public double getSelectivity() {
+            return selectivity;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package server.matching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static data.structure.UserProfiles.user;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.UserProfileStore;
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the LiveMatchGraph class.
+ */
+public class LiveMatchGraphTest {
+    
+    /**
+     * Tests that changing one attribute emits exactly the matches gained and lost.
+     */
+    @Test
+    public void testSetAttributeEvents() {
+        LiveMatchGraph graph = new LiveMatchGraph(new PercentMatchUserMatcher(1));
+        RecordingListener listener = new RecordingListener();
+        graph.addListener(listener);
+        UserProfile seth = user("Seth", "city", "seattle");
+        graph.update(seth);
+        graph.update(user("Nathan", "city", "seattle"));
+        graph.update(user("Charles", "city", "denver"));
+        listener.added.clear();
+        
+        seth.setAttribute("city", "denver");
+        graph.update(seth);
+        assertEquals("Wrong matches gained!", new HashSet<String>(Arrays.asList("Seth>Charles",
+                "Charles>Seth")), listener.added);
+        assertEquals("Wrong matches lost!", new HashSet<String>(Arrays.asList("Seth>Nathan",
+                "Nathan>Seth")), listener.removed);
+        assertEquals("Wrong matches!", new HashSet<String>(Arrays.asList("Seth", "Charles")),
+                new HashSet<String>(graph.getMatches("Seth")));
+        
+        listener.added.clear();
+        listener.removed.clear();
+        graph.update(user("Seth", "city", "denver"));
+        assertTrue("An unchanged profile should not emit events!", listener.added.isEmpty()
+                && listener.removed.isEmpty());
+        
+        assertTrue("Seth is in the graph!", graph.remove("Seth"));
+        assertEquals("Removing Seth should drop every match with him!", new HashSet<String>(Arrays
+                .asList("Seth>Seth", "Seth>Charles", "Charles>Seth")), listener.removed);
+        assertNull("Seth is no longer in the graph!", graph.getMatches("Seth"));
+        assertFalse("Seth was already removed!", graph.remove("Seth"));
+    }
+    
+    /**
+     * Tests that a graph kept up to date through random changes always agrees with running the
+     * matcher on every pair, and that its events replay to the same matches.
+     */
+    @Test
+    public void testRandomUpdatesMatchPairwise() {
+        for (double threshold : new double[] { 0, 0.5, 2.0 / 3, 1 }) {
+            PercentMatchUserMatcher matcher = new PercentMatchUserMatcher(threshold);
+            LiveMatchGraph graph = new LiveMatchGraph(matcher);
+            RecordingListener listener = new RecordingListener();
+            graph.addListener(listener);
+            Random random = new Random(7);
+            Map<String, UserProfile> users = new HashMap<String, UserProfile>();
+            for (int step = 0; step < 600; step++) {
+                String id = "user" + random.nextInt(40);
+                if (random.nextInt(10) == 0) {
+                    users.remove(id);
+                    graph.remove(id);
+                    continue;
+                }
+                UserProfile user = users.get(id);
+                if (user == null || random.nextInt(8) == 0) {
+                    // A new or replaced profile, which may have fewer attributes than before.
+                    user = new UserProfile(id);
+                    users.put(id, user);
+                }
+                user.setAttribute("a" + random.nextInt(5), "v" + random.nextInt(3));
+                graph.update(user);
+            }
+            
+            assertEquals("Wrong user count!", users.size(), graph.getUserCount());
+            long matchCount = 0;
+            for (UserProfile primary : users.values()) {
+                Set<String> expected = new HashSet<String>();
+                for (UserProfile secondary : users.values()) {
+                    if (matcher.matches(primary, secondary)) {
+                        expected.add(secondary.getId());
+                        assertTrue("The reverse match should be recorded!", graph.getMatchedBy(
+                                secondary.getId()).contains(primary.getId()));
+                    }
+                }
+                assertEquals(String.format("Wrong matches for %s at %.2f!", primary.getId(),
+                        threshold), expected, new HashSet<String>(graph.getMatches(primary
+                        .getId())));
+                matchCount += expected.size();
+            }
+            assertEquals("Wrong match count!", matchCount, graph.getMatchCount());
+            assertEquals("The events should replay to the same matches!", matchCount,
+                    listener.live.size());
+        }
+    }
+    
+    /**
+     * Tests that a wrapped store keeps the graph in step with writes, batches and deletes.
+     */
+    @Test
+    public void testWrap() {
+        LocalTransientUserProfileStore backing = new LocalTransientUserProfileStore();
+        backing.write(user("Seth", "city", "seattle"));
+        LiveMatchGraph graph = new LiveMatchGraph(new PercentMatchUserMatcher(1));
+        UserProfileStore store = graph.wrap(backing);
+        assertEquals("Existing profiles should be added!", 1, graph.getUserCount());
+        
+        store.writeAll(Arrays.asList(user("Nathan", "city", "seattle"), user("Charles", "city",
+                "denver")));
+        assertEquals("Wrong matches!", new HashSet<String>(Arrays.asList("Seth", "Nathan")),
+                new HashSet<String>(graph.getMatches("Nathan")));
+        
+        store.write(user("Nathan", "city", "denver"));
+        assertEquals("Wrong matches after the write!", new HashSet<String>(Arrays.asList(
+                "Charles", "Nathan")), new HashSet<String>(graph.getMatches("Nathan")));
+        
+        store.delete("Charles");
+        assertNull("The profile should be deleted!", backing.getProfile("Charles"));
+        assertEquals("Wrong matches after the delete!", Collections.singletonList("Nathan"),
+                graph.getMatches("Nathan"));
+    }
+    
+    /**
+     * Tests the argument requirements of LiveMatchGraph.
+     */
+    @Test
+    public void testInvalidArguments() {
+        boolean thrown = false;
+        try {
+            new LiveMatchGraph(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null matcher should have thrown an IllegalArgumentException!", thrown);
+        
+        LiveMatchGraph graph = new LiveMatchGraph(new PercentMatchUserMatcher(0.5));
+        thrown = false;
+        try {
+            graph.update(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null profile should have thrown an IllegalArgumentException!", thrown);
+        
+        thrown = false;
+        try {
+            graph.addListener(null);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null listener should have thrown an IllegalArgumentException!", thrown);
+    }
+    
+    /**
+     * Listener that records events as "primary>secondary" and replays them into a set of live
+     * matches.
+     */
+    private static class RecordingListener implements MatchListener {
+        private final Set<String> added = new HashSet<String>();
+        private final Set<String> removed = new HashSet<String>();
+        private final List<String> live = new ArrayList<String>();
+        
+        public void onMatchAdded(String primary, String secondary) {
+            added.add(primary + ">" + secondary);
+            assertFalse("A match should not be added twice!", live.contains(primary + ">"
+                    + secondary));
+            live.add(primary + ">" + secondary);
+        }
+        
+        public void onMatchRemoved(String primary, String secondary) {
+            removed.add(primary + ">" + secondary);
+            assertTrue("Only a live match can be removed!", live.remove(primary + ">"
+                    + secondary));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package server.matching;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -106,4 +107,52 @@ public class PercentMatchUserMatcherTest {
                 "Fewer than the required percentage of attributes were a match, but the matcher returned true!",
                 matcher.matches(user1, user2));
     }
+    
+    /**
+     * Tests that getMinimumSharedAttributes() agrees with matches() at every overlap.
+     */
+    @Test
+    public void testGetMinimumSharedAttributes() {
+        double[] thresholds = { 0, 0.1, 0.3, 0.5, 2.0 / 3, 0.7, 1 };
+        for (double threshold : thresholds) {
+            UserMatcher matcher = new PercentMatchUserMatcher(threshold);
+            for (int attributes = 1; attributes <= 10; attributes++) {
+                UserProfile primary = new UserProfile("Seth");
+                for (int i = 0; i < attributes; i++) {
+                    primary.setAttribute("attribute" + i, "value");
+                }
+                int required = matcher.getMinimumSharedAttributes(primary);
+                for (int shared = 0; shared <= attributes; shared++) {
+                    UserProfile secondary = new UserProfile("Charles");
+                    for (int i = 0; i < shared; i++) {
+                        secondary.setAttribute("attribute" + i, "value");
+                    }
+                    assertEquals(String.format("Wrong bound for threshold %f with %d of %d shared",
+                            threshold, shared, attributes), shared >= required,
+                            matcher.matches(primary, secondary));
+                }
+            }
+        }
+        UserMatcher matcher = new PercentMatchUserMatcher(0.5);
+        assertEquals("A user without attributes can never be matched!", Integer.MAX_VALUE,
+                matcher.getMinimumSharedAttributes(new UserProfile("Seth")));
+    }
+    
+    /**
+     * Tests that getScore() is the share of the primary user's attributes that match.
+     */
+    @Test
+    public void testGetScore() {
+        UserProfile user1 = new UserProfile("Seth");
+        user1.setAttribute("city", "Boston");
+        user1.setAttribute("hobby", "Chess");
+        UserProfile user2 = new UserProfile("Charles");
+        user2.setAttribute("city", "Boston");
+        
+        PercentMatchUserMatcher matcher = new PercentMatchUserMatcher(0.5);
+        assertEquals("Wrong score!", 0.5, matcher.getScore(user1, user2), 1e-12);
+        assertEquals("Wrong score!", 1.0, matcher.getScore(user2, user1), 1e-12);
+        assertEquals("A user without attributes should score 0!", 0.0, matcher.getScore(
+                new UserProfile("Nathan"), user1), 1e-12);
+    }
 }
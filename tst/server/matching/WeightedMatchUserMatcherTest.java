@@ -0,0 +1,91 @@
+package server.matching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static data.structure.UserProfiles.user;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import data.proxy.AttributeIndex;
+import data.structure.ScoredProfile;
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the WeightedMatchUserMatcher class.
+ */
+public class WeightedMatchUserMatcherTest {
+    
+    /**
+     * Tests that sharing a rare attribute can match where sharing a common one does not.
+     */
+    @Test
+    public void testRareAttributesWeighMore() {
+        AttributeIndex index = createIndex();
+        UserProfile primary = user("Seth", "country", "us", "hobby", "falconry");
+        UserMatcher matcher = new WeightedMatchUserMatcher(index, 0.5);
+        
+        assertTrue("Sharing the rare hobby should match!", matcher.matches(primary, user("rare",
+                "hobby", "falconry")));
+        assertFalse("Sharing only the common country should not match!", matcher.matches(primary,
+                user("common", "country", "us")));
+        assertFalse("A user without attributes should never match!", matcher.matches(
+                new UserProfile("empty"), primary));
+    }
+    
+    /**
+     * Tests that top matches respect the threshold and that the minimum shared attributes bound
+     * counts the heaviest attributes first.
+     */
+    @Test
+    public void testTopMatchesAndMinimumShared() {
+        AttributeIndex index = createIndex();
+        UserProfile primary = user("Seth", "country", "us", "hobby", "falconry");
+        WeightedMatchUserMatcher matcher = new WeightedMatchUserMatcher(index, 0.5);
+        
+        List<ScoredProfile> matches = matcher.getTopMatches(primary, 10);
+        assertEquals("Only the other falconer clears the threshold!", 1, matches.size());
+        assertEquals("Wrong match!", "falconer", matches.get(0).getProfile().getId());
+        assertEquals("The rare hobby alone should reach the threshold!", 1, matcher
+                .getMinimumSharedAttributes(primary));
+        assertEquals("Both attributes are needed for a full match!", 2,
+                new WeightedMatchUserMatcher(index, 1.0).getMinimumSharedAttributes(primary));
+        assertEquals("Nobody can match a user without attributes!", Integer.MAX_VALUE, matcher
+                .getMinimumSharedAttributes(new UserProfile("empty")));
+    }
+    
+    /**
+     * Tests the argument requirements of the WeightedMatchUserMatcher.
+     */
+    @Test
+    public void testIllegalArguments() {
+        boolean thrown = false;
+        try {
+            new WeightedMatchUserMatcher(null, 0.5);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("A null index was passed in, but no IllegalArgumentException was thrown.",
+                thrown);
+        
+        thrown = false;
+        try {
+            new WeightedMatchUserMatcher(new AttributeIndex(), 1.5);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("An invalid threshold was passed in, but no IllegalArgumentException was "
+                + "thrown.", thrown);
+    }
+    
+    private static AttributeIndex createIndex() {
+        AttributeIndex index = new AttributeIndex();
+        index.update(user("falconer", "country", "us", "hobby", "falconry"));
+        for (int i = 0; i < 50; i++) {
+            index.update(user("user" + i, "country", "us", "hobby", "reading"));
+        }
+        return index;
+    }
+}
@@ -0,0 +1,177 @@
+package server.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.feed.FeedBuilder;
+import server.matching.PercentMatchUserMatcher;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+import data.structure.Post;
+
+/**
+ * Tests the functionality of the ChatterServer class over localhost.
+ */
+public class ChatterServerTest {
+    private ChatterServer server;
+    private InetSocketAddress address;
+    
+    @Before
+    public void setUp() throws IOException {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+        server = new ChatterServer(userStore, postStore, feedBuilder, 2, 2);
+        address = server.start(new InetSocketAddress("localhost", 0));
+    }
+    
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+    
+    /**
+     * Tests that each connection keeps its own session.
+     */
+    @Test
+    public void testSessionsAreIndependent() throws IOException {
+        Client seth = new Client(address);
+        Client charles = new Client(address);
+        Client anonymous = new Client(address);
+        
+        assertEquals("Wrong login response!", "Creating new user Seth.\nLogged in as Seth.\n",
+                seth.send("login Seth"));
+        seth.send("set profession \"Software Developer\"");
+        seth.send("post \"Hello from Seth\"");
+        charles.send("login Charles");
+        charles.send("set profession \"Software Developer\"");
+        
+        assertTrue("Charles should see the post from Seth!",
+                charles.send("feed").contains("Seth >> Hello from Seth"));
+        assertTrue("Seth should still be logged in as Seth!",
+                seth.send("feed").startsWith("Feed for user Seth:"));
+        assertEquals("A new connection should not be logged in!", "Please log in first.\n",
+                anonymous.send("feed"));
+        
+        seth.close();
+        charles.close();
+        anonymous.close();
+    }
+    
+    /**
+     * Tests that pipelined commands, including feeds run on the worker pool, are answered in
+     * order.
+     */
+    @Test
+    public void testPipelinedCommands() throws IOException {
+        Client client = new Client(address);
+        
+        client.write("login Nathan\r\nset city Seattle\nfeed\npost first\nfeed\nbogus\n");
+        
+        assertEquals("Wrong first response!", "Creating new user Nathan.\nLogged in as Nathan.\n",
+                client.read());
+        assertEquals("Wrong second response!", "Set attribute \"city\" to \"Seattle\".\n",
+                client.read());
+        assertEquals("The first feed should be empty!", "Feed for user Nathan:\n", client.read());
+        assertEquals("Wrong fourth response!", "Created post \"first\".\n", client.read());
+        assertTrue("The second feed should contain the post!",
+                client.read().contains("Nathan >> first"));
+        assertTrue("An invalid command should be reported!",
+                client.read().startsWith("Invalid command \"bogus\""));
+        
+        client.close();
+    }
+    
+    /**
+     * Tests that many idle connections can be held open at once. Each connection is answered once,
+     * which proves the server has taken it on, and then left idle.
+     */
+    @Test
+    public void testManyIdleConnections() throws Exception {
+        List<Client> idle = new ArrayList<Client>();
+        for (int i = 0; i < 2000; i++) {
+            idle.add(new Client(address));
+        }
+        for (Client connection : idle) {
+            assertEquals("Every connection should be answered!", "Please log in first.\n",
+                    connection.send("feed"));
+        }
+        assertEquals("Not every connection was accepted!", idle.size(),
+                server.getConnectionCount());
+        
+        Client client = new Client(address);
+        assertEquals("The server should still respond!", "Please log in first.\n",
+                client.send("post hello"));
+        
+        client.close();
+        for (Client connection : idle) {
+            connection.close();
+        }
+    }
+    
+    /**
+     * Minimal blocking client for the line protocol. Reads give up after READ_TIMEOUT_MILLIS, so a
+     * response that never comes fails the test instead of hanging it.
+     */
+    private static class Client {
+        private static final int READ_TIMEOUT_MILLIS = 10000;
+        
+        private final Socket socket;
+        private final OutputStream out;
+        private final BufferedReader in;
+        
+        private Client(InetSocketAddress address) throws IOException {
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            out = socket.getOutputStream();
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+        }
+        
+        private String send(String line) throws IOException {
+            write(line + "\n");
+            return read();
+        }
+        
+        private void write(String text) throws IOException {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        
+        private String read() throws IOException {
+            StringBuilder response = new StringBuilder();
+            String line;
+            while (!ChatterServer.END_OF_RESPONSE.equals(line = in.readLine())) {
+                if (line == null) {
+                    throw new IOException("The connection was closed mid-response!");
+                }
+                response.append(line).append('\n');
+            }
+            return response.toString();
+        }
+        
+        private void close() throws IOException {
+            socket.close();
+        }
+    }
+}
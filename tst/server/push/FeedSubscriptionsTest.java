@@ -0,0 +1,151 @@
+package server.push;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import server.matching.PercentMatchUserMatcher;
+import server.matching.UserMatcher;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+import data.structure.UserProfiles;
+
+/**
+ * Tests the functionality of the FeedSubscriptions class.
+ */
+public class FeedSubscriptionsTest {
+    private LocalTransientUserProfileStore userStore;
+    private PostStore postStore;
+    private AtomicInteger matcherCalls;
+    private FeedSubscriptions subscriptions;
+    
+    @Before
+    public void setUp() {
+        userStore = new LocalTransientUserProfileStore();
+        postStore = new PostStore();
+        matcherCalls = new AtomicInteger();
+        final UserMatcher matcher = new PercentMatchUserMatcher(0.5);
+        subscriptions = new FeedSubscriptions(userStore, new UserMatcher() {
+            public boolean matches(UserProfile primary, UserProfile secondary) {
+                matcherCalls.incrementAndGet();
+                return matcher.matches(primary, secondary);
+            }
+            
+            public int getMinimumSharedAttributes(UserProfile primary) {
+                return matcher.getMinimumSharedAttributes(primary);
+            }
+        });
+        postStore.addListener(subscriptions);
+    }
+    
+    /**
+     * Tests that posts only reach subscribers who match the author, and that subscribers who
+     * cannot share enough attributes with the author are never checked.
+     */
+    @Test
+    public void testRouting() throws InterruptedException {
+        UserProfile author = user("Seth", "city", "Seattle");
+        Subscription neighbor = subscriptions.subscribe(user("Charles", "city", "Seattle"), 10,
+                OverflowPolicy.DROP_OLDEST);
+        Subscription partial = subscriptions.subscribe(user("Nathan", "city", "Seattle", "job",
+                "chef", "pet", "cat"), 10, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 1000; i++) {
+            subscriptions.subscribe(user("stranger" + i, "city", "Boston"), 10,
+                    OverflowPolicy.DROP_OLDEST);
+        }
+        
+        postStore.write(new Post(author.getId(), "hello"));
+        
+        assertEquals("The matching subscriber did not get the post!", "hello",
+                neighbor.poll(1, TimeUnit.SECONDS).getContent());
+        assertNull("A subscriber under the threshold got the post!", partial.poll());
+        assertEquals("Only subscribers who could match should be checked!", 1, matcherCalls.get());
+        
+        neighbor.close();
+        postStore.write(new Post(author.getId(), "again"));
+        assertNull("A closed subscription got a post!", neighbor.poll());
+        assertEquals("Wrong number of subscriptions!", 1001, subscriptions.getSubscriptionCount());
+    }
+    
+    /**
+     * Tests each overflow policy on a full queue.
+     */
+    @Test
+    public void testOverflowPolicies() {
+        user("Seth", "city", "Seattle");
+        user("Charles", "city", "Seattle");
+        Subscription oldest = subscriptions.subscribe(user("a", "city", "Seattle"), 2,
+                OverflowPolicy.DROP_OLDEST);
+        Subscription newest = subscriptions.subscribe(user("b", "city", "Seattle"), 2,
+                OverflowPolicy.DROP_NEWEST);
+        Subscription coalesce = subscriptions.subscribe(user("c", "city", "Seattle"), 2,
+                OverflowPolicy.COALESCE);
+        
+        postStore.write(new Post("Seth", "1"));
+        postStore.write(new Post("Charles", "2"));
+        postStore.write(new Post("Seth", "3"));
+        
+        assertEquals("DROP_OLDEST kept the wrong posts!", "2", oldest.poll().getContent());
+        assertEquals("DROP_OLDEST kept the wrong posts!", "3", oldest.poll().getContent());
+        assertEquals("DROP_NEWEST kept the wrong posts!", "1", newest.poll().getContent());
+        assertEquals("DROP_NEWEST kept the wrong posts!", "2", newest.poll().getContent());
+        assertEquals("COALESCE kept the wrong posts!", "2", coalesce.poll().getContent());
+        assertEquals("COALESCE kept the wrong posts!", "3", coalesce.poll().getContent());
+        assertEquals("Wrong number of dropped posts!", 1, oldest.getDropped());
+        assertEquals("Wrong number of delivered posts!", 2, newest.getDelivered());
+    }
+    
+    /**
+     * Tests that a waiting consumer is woken by close().
+     */
+    @Test
+    public void testCloseWakesConsumer() throws InterruptedException {
+        final Subscription subscription = subscriptions.subscribe(user("Seth", "city", "Seattle"),
+                1, OverflowPolicy.DROP_OLDEST);
+        Thread closer = new Thread(new Runnable() {
+            public void run() {
+                subscription.close();
+            }
+        });
+        closer.start();
+        
+        long start = System.nanoTime();
+        assertNull("No post should be returned!", subscription.poll(10, TimeUnit.SECONDS));
+        assertTrue("The consumer was not woken!", System.nanoTime() - start < TimeUnit.SECONDS
+                .toNanos(5));
+        closer.join();
+    }
+    
+    /**
+     * Tests the argument requirements of subscribe().
+     */
+    @Test
+    public void testSubscribeIllegalArgument() {
+        boolean thrown = false;
+        
+        try {
+            subscriptions.subscribe(new UserProfile("Seth"), 0, OverflowPolicy.COALESCE);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        
+        assertTrue("An invalid capacity was passed in, but no exception was thrown.", thrown);
+    }
+    
+    /**
+     * Creates and stores a user with the given attribute name and value pairs.
+     */
+    private UserProfile user(String id, String... attributes) {
+        UserProfile user = UserProfiles.user(id, attributes);
+        userStore.write(user);
+        return user;
+    }
+}
@@ -0,0 +1,152 @@
+package server.standalone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import server.admission.AdmissionController;
+import server.admission.ConcurrencyLimiter;
+import server.admission.ConcurrencyLimiter.Permit;
+import server.bulk.BulkImporter;
+import server.feed.FeedBuilder;
+import server.matching.PercentMatchUserMatcher;
+import data.proxy.LocalTransientUserProfileStore;
+import data.proxy.PostStore;
+import data.structure.Post;
+import data.structure.UserProfile;
+
+/**
+ * Tests the functionality of the CommandSession class.
+ */
+public class CommandSessionTest {
+    
+    /**
+     * Tests that parseCommand() respects double-quote groupings.
+     */
+    @Test
+    public void testParseCommand() {
+        assertArrayEquals("Wrong arguments!", new String[] { "set", "profession",
+                "Software Developer" },
+                CommandSession.parseCommand("  set profession \"Software Developer\""));
+        assertEquals("A blank line should have no arguments!", 0,
+                CommandSession.parseCommand("").length);
+    }
+    
+    /**
+     * Tests that commands act on the session's own user.
+     */
+    @Test
+    public void testExecute() {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+        CommandSession session = new CommandSession(userStore, postStore, feedBuilder);
+        
+        assertTrue("Posting before logging in should be refused!",
+                session.execute("post hello").startsWith("Please log in first."));
+        session.execute("login Seth");
+        session.execute("post \"hello world\"");
+        
+        assertEquals("Wrong current user!", "Seth", session.getCurrentUser().getId());
+        assertEquals("The post was not written!", "hello world",
+                postStore.getPostsByUser("Seth").get(0).getContent());
+        assertTrue("A missing argument should be reported!",
+                session.execute("login").startsWith("Usage: login"));
+        
+        UserProfile before = userStore.getProfile("Seth");
+        session.execute("set city Seattle");
+        assertEquals("A profile other threads may be reading should not change in place!", null,
+                before.getAttribute("city"));
+        assertEquals("The change was not written!", "seattle", userStore.getProfile("Seth")
+                .getAttribute("city"));
+        assertEquals("The session should hold the written profile!", "seattle", session
+                .getCurrentUser().getAttribute("city"));
+    }
+    
+    /**
+     * Tests that feeds and writes past the admission limits are refused or served stale.
+     */
+    @Test
+    public void testAdmissionControl() {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+        AdmissionController admission = new AdmissionController(feedBuilder).withReadLimiter(
+                new ConcurrencyLimiter("test.reads", 1, 1, 1)).withWriteLimiter(
+                new ConcurrencyLimiter("test.writes", 1, 1, 1));
+        CommandSession session = new CommandSession(userStore, postStore, feedBuilder)
+                .withAdmissionController(admission);
+        session.execute("login Seth");
+        session.execute("set city Seattle");
+        
+        Permit read = admission.acquireRead();
+        assertTrue("A feed past the limit should be refused!", session.execute("feed")
+                .startsWith("The server is overloaded."));
+        read.release();
+        session.execute("post hello");
+        assertTrue("The feed should be built once admitted!", session.execute("feed").contains(
+                "hello"));
+        
+        read = admission.acquireRead();
+        String stale = session.execute("feed");
+        assertTrue("The last feed should be served stale!", stale.contains("(stale") && stale
+                .contains("hello"));
+        read.release();
+        
+        Permit write = admission.acquireWrite();
+        assertTrue("A post past the limit should be refused!", session.execute("post again")
+                .startsWith("The server is overloaded."));
+        write.release();
+        assertEquals("Only the admitted post should be written!", 1, postStore.getPostsByUser(
+                "Seth").size());
+    }
+    
+    /**
+     * Tests that import is refused unless enabled, and loads a file once it is.
+     */
+    @Test
+    public void testImport() throws Exception {
+        LocalTransientUserProfileStore userStore = new LocalTransientUserProfileStore();
+        PostStore postStore = new PostStore();
+        FeedBuilder feedBuilder = new FeedBuilder(postStore, userStore,
+                new PercentMatchUserMatcher(1), new Predicate<Post>() {
+                    public boolean test(Post post) {
+                        return true;
+                    }
+                });
+        File file = File.createTempFile("profiles", ".tsv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "Seth\tcity=Boston\nCharles\tcity=Denver\n"
+                .getBytes(StandardCharsets.UTF_8));
+        String command = String.format("import profiles \"%s\"", file.getPath());
+        
+        CommandSession session = new CommandSession(userStore, postStore, feedBuilder);
+        assertTrue("Import should be disabled by default!", session.execute(command).startsWith(
+                "Import is not enabled"));
+        
+        session.withBulkImporter(new BulkImporter(userStore, postStore));
+        assertTrue("Missing arguments should print usage!", session.execute("import profiles")
+                .startsWith("Usage:"));
+        assertTrue("The import was not reported!", session.execute(command).contains(
+                "2 records"));
+        assertEquals("Wrong attribute value!", "denver", userStore.getProfile("Charles")
+                .getAttribute("city"));
+    }
+}